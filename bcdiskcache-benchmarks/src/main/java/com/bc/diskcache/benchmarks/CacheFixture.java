@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.benchmarks;
+
+import com.bc.diskcache.DiskLruCacheContext;
+import com.bc.diskcache.DiskLruCacheContextImpl;
+import com.bc.diskcache.DiskLruCacheIx;
+import com.bc.diskcache.DiskLruCacheOptions;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache in a directory of its own, opened through a 
+ * {@link DiskLruCacheContextImpl} the way applications open it, so that it 
+ * can be closed and reopened within the JVM. Deletes the directory on close.
+ */
+final class CacheFixture implements Closeable {
+
+    /** Large enough that no benchmark evicts, unless it means to */
+    static final int MAX_SIZE_BYTES = 1 << 30;
+
+    private static final AtomicInteger NAMES = new AtomicInteger();
+
+    private final File root;
+
+    private final String name;
+
+    private final DiskLruCacheContext context;
+
+    CacheFixture(Engine engine, DiskLruCacheOptions options) throws IOException {
+        this.root = Files.createTempDirectory("bcdiskcache-bench").toFile();
+        this.name = engine.name().toLowerCase() + '-' + NAMES.incrementAndGet();
+        this.context = new DiskLruCacheContextImpl(new DiskLruCacheContext.FileProvider() {
+            @Override
+            public File createFile(String key) {
+                return new File(root, key);
+            }
+        }, engine.getProvider(), MAX_SIZE_BYTES, options);
+    }
+
+    DiskLruCacheIx open() throws IOException {
+        return context.getInstance(name, true);
+    }
+
+    /**
+     * Closes the cache, keeping its files, so that it may be opened again.
+     */
+    void closeCache() {
+        context.closeAndRemove(name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closeCache();
+        Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    static String [] keys(String prefix, int count) {
+        final String [] keys = new String[count];
+        for(int i = 0; i < count; i++) {
+            keys[i] = prefix + i;
+        }
+        return keys;
+    }
+
+    /**
+     * @return Random bytes, the same for each run
+     */
+    static byte [] bytes(int size) {
+        final byte [] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return Random ASCII letters, the same for each run
+     */
+    static String string(int size) {
+        final Random random = new Random(size);
+        final char [] chars = new char[size];
+        for(int i = 0; i < size; i++) {
+            chars[i] = (char)('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * A serializable value, written and read as an object.
+     */
+    static final class Value implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long id;
+
+        private final byte [] data;
+
+        Value(long id, byte [] data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.benchmarks;
+
+import com.bc.diskcache.DiskLruCacheIx;
+import com.bc.diskcache.DiskLruCacheOptions;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Clears of a cache holding a given number of entries. The cache is filled
+ * again, untimed, before each clear.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class ClearBenchmark {
+
+    @Param({"SIMPLE", "LOG_STRUCTURED"})
+    public Engine engine;
+
+    @Param({"1000", "10000"})
+    public int entries;
+
+    @Param({"1024"})
+    public int valueSize;
+
+    private CacheFixture fixture;
+
+    private DiskLruCacheIx cache;
+
+    private String [] keys;
+
+    private String value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new CacheFixture(engine, new DiskLruCacheOptions().setMetricsEnabled(false));
+        cache = fixture.open();
+        keys = CacheFixture.keys("k", entries);
+        value = CacheFixture.string(valueSize);
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() throws IOException {
+        for(String key : keys) {
+            cache.put(key, value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public long clear() throws IOException {
+        cache.clear();
+        return cache.getSize();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.benchmarks;
+
+import com.bc.diskcache.DiskLruCacheIx;
+import com.bc.diskcache.DiskLruCacheOptions;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Readers and writers sharing a cache of {@value #KEYS} entries, in a read 
+ * heavy and a write heavy mix of eight threads, with and without sharding.
+ * Each group reports the throughput of its readers and of its writers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ContentionBenchmark {
+
+    static final int KEYS = 4096;
+
+    @Param({"SIMPLE", "LOG_STRUCTURED"})
+    public Engine engine;
+
+    @Param({"1", "4"})
+    public int shards;
+
+    @Param({"1024"})
+    public int valueSize;
+
+    private CacheFixture fixture;
+
+    private DiskLruCacheIx cache;
+
+    private String [] keys;
+
+    private String value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new CacheFixture(engine, new DiskLruCacheOptions()
+                .setMetricsEnabled(false).setShardCount(shards));
+        cache = fixture.open();
+        keys = CacheFixture.keys("k", KEYS);
+        value = CacheFixture.string(valueSize);
+        for(String key : keys) {
+            cache.put(key, value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    private String nextKey() {
+        return keys[ThreadLocalRandom.current().nextInt(KEYS)];
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(6)
+    public String readHeavyGet() throws IOException {
+        return cache.getString(this.nextKey(), null);
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(2)
+    public void readHeavyPut() throws IOException {
+        cache.put(this.nextKey(), value);
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(2)
+    public String writeHeavyGet() throws IOException {
+        return cache.getString(this.nextKey(), null);
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(6)
+    public void writeHeavyPut() throws IOException {
+        cache.put(this.nextKey(), value);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.benchmarks;
+
+import com.bc.diskcache.DiskLruCacheContext;
+
+/**
+ * The storage engines benchmarked.
+ */
+public enum Engine {
+
+    SIMPLE(DiskLruCacheContext.CacheProvider.SIMPLE),
+
+    LOG_STRUCTURED(DiskLruCacheContext.CacheProvider.LOG_STRUCTURED);
+
+    private final DiskLruCacheContext.CacheProvider provider;
+
+    private Engine(DiskLruCacheContext.CacheProvider provider) {
+        this.provider = provider;
+    }
+
+    public DiskLruCacheContext.CacheProvider getProvider() {
+        return provider;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.benchmarks;
+
+import com.bc.diskcache.DiskLruCacheIx;
+import com.bc.diskcache.DiskLruCacheOptions;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opens of a cache written, read and partly rewritten beforehand, so that 
+ * the open replays a large journal, or log, of the given number of entries.
+ * The cache is closed, untimed, after each open.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class OpenBenchmark {
+
+    @Param({"SIMPLE", "LOG_STRUCTURED"})
+    public Engine engine;
+
+    @Param({"10000", "100000"})
+    public int entries;
+
+    @Param({"64"})
+    public int valueSize;
+
+    private CacheFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new CacheFixture(engine, new DiskLruCacheOptions().setMetricsEnabled(false));
+        final DiskLruCacheIx cache = fixture.open();
+        final String [] keys = CacheFixture.keys("k", entries);
+        final String value = CacheFixture.string(valueSize);
+        for(String key : keys) {
+            cache.put(key, value);
+        }
+        for(int i = 0; i < keys.length; i += 2) {
+            cache.getString(keys[i], null);
+            cache.put(keys[i], value);
+        }
+        fixture.closeCache();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeCache() {
+        fixture.closeCache();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public long open() throws IOException {
+        return fixture.open().getSize();
+    }
+}
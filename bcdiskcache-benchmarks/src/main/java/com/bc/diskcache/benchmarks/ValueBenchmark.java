@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.benchmarks;
+
+import com.bc.diskcache.DiskLruCacheIx;
+import com.bc.diskcache.DiskLruCacheOptions;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single threaded puts, gets and lookups of strings, objects and streams, 
+ * across value sizes, on a cache holding {@value #KEYS} entries of each kind.
+ * Puts replace existing entries, so the size of the cache stays the same.
+ * <p>
+ * Run with <code>-p metrics=true</code> to measure the cost of the 
+ * {@link com.bc.diskcache.InstrumentedDiskLruCache} in front of the cache.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValueBenchmark {
+
+    static final int KEYS = 256;
+
+    @Param({"SIMPLE", "LOG_STRUCTURED"})
+    public Engine engine;
+
+    @Param({"128", "4096", "262144"})
+    public int valueSize;
+
+    @Param({"false"})
+    public boolean metrics;
+
+    private CacheFixture fixture;
+
+    private DiskLruCacheIx cache;
+
+    private String [] stringKeys;
+    private String [] objectKeys;
+    private String [] streamKeys;
+    private String [] missingKeys;
+
+    private String string;
+    private CacheFixture.Value object;
+    private byte [] bytes;
+
+    /** For draining streams */
+    private final byte [] buffer = new byte[8192];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new CacheFixture(engine, new DiskLruCacheOptions().setMetricsEnabled(metrics));
+        cache = fixture.open();
+        stringKeys = CacheFixture.keys("s", KEYS);
+        objectKeys = CacheFixture.keys("o", KEYS);
+        streamKeys = CacheFixture.keys("b", KEYS);
+        missingKeys = CacheFixture.keys("m", KEYS);
+        string = CacheFixture.string(valueSize);
+        bytes = CacheFixture.bytes(valueSize);
+        object = new CacheFixture.Value(valueSize, bytes);
+        for(int i = 0; i < KEYS; i++) {
+            cache.put(stringKeys[i], string);
+            cache.put(objectKeys[i], object);
+            cache.put(streamKeys[i], new ByteArrayInputStream(bytes));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    private static int next() {
+        return ThreadLocalRandom.current().nextInt(KEYS);
+    }
+
+    @Benchmark
+    public void putString() throws IOException {
+        cache.put(stringKeys[next()], string);
+    }
+
+    @Benchmark
+    public void putObject() throws IOException {
+        cache.put(objectKeys[next()], object);
+    }
+
+    @Benchmark
+    public void putStream() throws IOException {
+        cache.put(streamKeys[next()], new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public String getString() throws IOException {
+        return cache.getString(stringKeys[next()], null);
+    }
+
+    @Benchmark
+    public Object getObject() throws IOException, ClassNotFoundException {
+        return cache.getObject(objectKeys[next()], null);
+    }
+
+    @Benchmark
+    public long getStream() throws IOException {
+        long read = 0;
+        try(DiskLruCacheIx.SnapshotEntry<InputStream> entry = cache.getStreamEntry(streamKeys[next()], null)) {
+            final InputStream in = entry.getData();
+            for(int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                read += n;
+            }
+        }
+        return read;
+    }
+
+    @Benchmark
+    public boolean containsHit() throws IOException {
+        return cache.contains(stringKeys[next()]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() throws IOException {
+        return cache.contains(missingKeys[next()]);
+    }
+}
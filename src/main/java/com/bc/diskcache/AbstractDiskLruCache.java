@@ -0,0 +1,1765 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implements the value level operations of {@link DiskLruCacheIx} on top of 
+ * a storage engine, which need only provide {@link Snapshot snapshots} for 
+ * reading and {@link Editor editors} for writing entries.
+ */
+public abstract class AbstractDiskLruCache implements DiskLruCacheIx {
+
+    private transient static final Logger LOG = Logger.getLogger(AbstractDiskLruCache.class.getName());
+
+    /**
+     * A read-only view of a committed entry, which occupies <code>length</code> 
+     * bytes of the channel, starting at <code>offset</code>. The entry is 
+     * made up of the header written by this class, followed by the value.
+     */
+    protected interface Snapshot extends Closeable {
+        FileChannel getChannel();
+        long getOffset();
+        long getLength();
+        @Override
+        void close();
+    }
+
+    /**
+     * An ongoing edit. The entry becomes visible to readers only on 
+     * {@link #commit()}.
+     */
+    protected interface Editor {
+        OutputStream newOutputStream() throws IOException;
+        void commit() throws IOException;
+        void abort() throws IOException;
+    }
+    
+    /** Serialises the edits of each key; edits of different keys mostly proceed in parallel */
+    private final StripedLock editorLocks = new StripedLock();
+
+    /** Null unless the mapped read mode is enabled */
+    private final MappedRegionCache regions;
+
+    private final int mapThresholdBytes;
+
+    /** Null unless values are compressed */
+    private final CompressionCodec compressionCodec;
+
+    private final int compressionThresholdBytes;
+
+    private final ExpiryReaper reaper;
+
+    private final SingleFlight loads = new SingleFlight();
+
+    private final StripedCounter evictions = new StripedCounter();
+
+    /** 
+     * The number of bytes read from the start of an entry to get its header.
+     * Smaller values arrive with the header, in the same read.
+     */
+    private static final int HEAD_BYTES = 8 * 1024;
+
+    /** The number of keys written or removed together by the bulk operations */
+    private static final int BATCH_SIZE = 256;
+
+    /** Values up to this size are decoded from a single read into an exact sized array */
+    private static final int SMALL_VALUE_BYTES = 64 * 1024;
+
+    protected AbstractDiskLruCache(DiskLruCacheOptions options) {
+        this.regions = options.getMappedRegionCacheBytes() > 0 ? 
+                new MappedRegionCache(options.getMappedRegionCacheBytes()) : null;
+        this.mapThresholdBytes = options.getMapThresholdBytes();
+        this.compressionCodec = options.getCompressionCodec();
+        this.compressionThresholdBytes = options.getCompressionThresholdBytes();
+        if(compressionCodec != null) {
+            CompressionCodecs.register(compressionCodec);
+        }
+        this.reaper = new ExpiryReaper(options.getReapIntervalMillis(), new ExpiryReaper.Target() {
+            @Override
+            public boolean reap(long now, int maxEntries) throws IOException {
+                return AbstractDiskLruCache.this.removeExpired(now, maxEntries);
+            }
+        });
+    }
+
+    /**
+     * @param key The key of the entry to read
+     * @return A snapshot of the entry or <code>null</code> if there is none
+     * @throws IOException 
+     */
+    protected abstract Snapshot snapshot(String key) throws IOException;
+
+    /**
+     * As {@link #snapshot(java.lang.String)}, but without counting as an 
+     * access to the entry; used by iterations, so that a scan does not 
+     * change which entries are evicted.
+     * @param key The key of the entry to read
+     * @return A snapshot of the entry or <code>null</code> if there is none
+     * @throws IOException 
+     */
+    protected abstract Snapshot peek(String key) throws IOException;
+
+    /**
+     * @param key The key of the entry to edit
+     * @return An editor for the entry or <code>null</code> if another edit is in progress
+     * @throws IOException 
+     */
+    protected abstract Editor edit(String key) throws IOException;
+
+    protected abstract boolean removeEntry(String key) throws IOException;
+
+    protected abstract void clearEntries() throws IOException;
+
+    /**
+     * @param prefix The prefix of the keys to list, empty for all keys
+     * @return The keys of the entries which have not expired, listed as iterated
+     * @throws IOException 
+     * @see #keys(java.lang.String) 
+     */
+    protected abstract CloseableIterator<String> listKeys(String prefix) throws IOException;
+
+    /**
+     * @return <code>true</code> if the key is written in the header of each 
+     * entry. Engines which do not keep the keys otherwise return 
+     * <code>true</code>, so that they can list them; by default, <code>false</code>.
+     */
+    protected boolean isKeyInHeader() {
+        return false;
+    }
+
+    /**
+     * Reads the key from the header of the entry.
+     * @param channel The channel holding the entry
+     * @param offset The position of the entry in the channel
+     * @param length The length of the entry
+     * @param now The current time, in milliseconds since the epoch
+     * @return The key, or <code>null</code> if the header holds none or the entry has expired
+     * @throws IOException 
+     */
+    protected static String readKey(FileChannel channel, long offset, long length, long now) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int)Math.min(length, 
+                Math.max(EntryHeader.KEY_LENGTH_PREFIX_LENGTH, 64)));
+        readFully(channel, head, offset);
+        head.flip();
+        final long expiryTime = EntryHeader.readExpiryTime(head);
+        if(expiryTime != 0 && expiryTime <= now) {
+            return null;
+        }
+        final int prefixLength = EntryHeader.keyPrefixLength(head);
+        if(prefixLength > head.limit()) {
+            head = ByteBuffer.allocate(prefixLength);
+            readFully(channel, head, offset);
+            head.flip();
+        }
+        return EntryHeader.readKey(head);
+    }
+
+    /**
+     * Commits the edits of a batch. Engines which can write the edits
+     * together override this; by default they are committed one by one.
+     * Edits not committed, if this method fails, must be aborted.
+     * @param editors The edits to commit, each of a different key
+     * @throws IOException 
+     */
+    protected void commitAll(List<Editor> editors) throws IOException {
+        int i = 0;
+        try{
+            for(; i < editors.size(); i++) {
+                editors.get(i).commit();
+            }
+        }finally{
+            for(int j = i + 1; j < editors.size(); j++) {
+                this.abortQuietly(editors.get(j));
+            }
+        }
+    }
+
+    /**
+     * Removes the expired entries among the next entries of the cache, 
+     * continuing from where the previous call stopped. Engines which can 
+     * list their entries override this; by default expired entries are 
+     * only skipped when read, and left to be evicted.
+     * @param now The current time, in milliseconds since the epoch
+     * @param maxEntries The number of entries to examine
+     * @return <code>true</code> once every entry has been examined since 
+     * the pass started
+     * @throws IOException 
+     * @see #startReaper() 
+     */
+    protected boolean removeExpired(long now, int maxEntries) throws IOException {
+        return true;
+    }
+
+    /**
+     * Starts calling {@link #removeExpired(long, int)} periodically, unless 
+     * already started. Called on writes of entries which expire; engines 
+     * call it on open if they may hold such entries.
+     */
+    protected final void startReaper() {
+        reaper.start(this.getDirectory().getName());
+    }
+
+    /**
+     * Called after each write of an entry which expires. Starts the reaper.
+     */
+    protected void onExpiringWrite() {
+        this.startReaper();
+    }
+
+    /**
+     * Called by engines on close.
+     */
+    protected final void stopReaper() {
+        reaper.close();
+    }
+
+    /**
+     * Called by engines for each entry they remove themselves, to stay 
+     * within the max size or because it expired.
+     */
+    protected final void recordEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * @return The evictions recorded, or -1 if the engine cannot see every 
+     * entry it evicts
+     */
+    protected long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return The evictions recorded, and the size of the cache. Reads and 
+     * writes are counted by an {@link InstrumentedDiskLruCache} in front.
+     */
+    @Override
+    public CacheStats getStats() {
+        return new CacheStats(0, 0, 0, 0, 0, 0, this.getEvictionCount(), this.getSize(), this.getMaxSize(), 
+                LatencyHistogram.Snapshot.EMPTY, LatencyHistogram.Snapshot.EMPTY);
+    }
+
+    /**
+     * Removes the entries of a batch. By default they are removed one by one.
+     * @param keys The keys to remove, each once
+     * @return The number of keys which had an entry
+     * @throws IOException 
+     */
+    protected int removeEntries(List<String> keys) throws IOException {
+        int removed = 0;
+        for(String key : keys) {
+            if(this.removeEntry(key)) {
+                ++removed;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public CloseableIterator<String> keys() throws IOException {
+        return this.listKeys("");
+    }
+
+    @Override
+    public CloseableIterator<String> keys(String prefix) throws IOException {
+        return this.listKeys(java.util.Objects.requireNonNull(prefix));
+    }
+
+    /**
+     * Reads each entry through {@link #peek(java.lang.String)}, bypassing 
+     * the mapped regions, so that the scan is not recorded as reads.
+     */
+    @Override
+    public CloseableIterator<Map.Entry<String, SnapshotEntry<InputStream>>> entries(String prefix) 
+            throws IOException {
+        final CloseableIterator<String> keys = this.keys(prefix);
+        return new CacheIterators.LookAhead<Map.Entry<String, SnapshotEntry<InputStream>>>() {
+            @Override
+            protected Map.Entry<String, SnapshotEntry<InputStream>> computeNext() throws IOException {
+                while(keys.hasNext()) {
+                    final String key = keys.next();
+                    final Entry entry = open(peek(key));
+                    if(entry != null) {
+                        return new AbstractMap.SimpleImmutableEntry<String, SnapshotEntry<InputStream>>(
+                                key, new InputStreamEntry(entry));
+                    }
+                }
+                return null;
+            }
+            @Override
+            public void close() {
+                keys.close();
+            }
+        };
+    }
+
+    @Override
+    public boolean remove(String key) throws IOException {
+        final Lock lock = editorLocks.get(key);
+        lock.lock();
+        try{
+            return this.removeEntry(key);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for ongoing edits through this cache to complete, and blocks new
+     * ones until the cache is cleared.
+     */
+    @Override
+    public void clear() throws IOException {
+        editorLocks.lockAll();
+        try{
+            this.clearEntries();
+        }finally{
+            if(regions != null) {
+                regions.invalidateAll();
+            }
+            editorLocks.unlockAll();
+        }
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getStreamEntry(
+            String key, SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        final long stamp = this.stamp();
+        MappedRegionCache.Region region = this.getRegion(key);
+        if(region == null) {
+            final Entry entry = this.open(key);
+            if (entry == null) {
+                return outputIfNone;
+            }
+            if(!this.isMapped(entry)) {
+                return new InputStreamEntry(entry);
+            }
+            region = this.map(key, stamp, entry);
+        }
+        return new SnapshotEntryImpl(new ByteBufferInputStream(region.getBuffer()), region.getHeader());
+    }
+
+    @Override
+    public SnapshotEntry<String> getStringEntry(String key, SnapshotEntry<String> outputIfNone) throws IOException {
+        final long stamp = this.stamp();
+        MappedRegionCache.Region region = this.getRegion(key);
+        if(region == null) {
+            final Entry entry = this.open(key);
+            if (entry == null) {
+                return outputIfNone;
+            }
+            if(!this.isMapped(entry)) {
+                try {
+                    return new SnapshotEntryImpl(decode(entry.valueBuffer()), entry.header);
+                } finally {
+                    entry.close();
+                }
+            }
+            region = this.map(key, stamp, entry);
+        }
+        return new SnapshotEntryImpl(decode(region.getBuffer()), region.getHeader());
+    }
+
+    /**
+     * Values of at least the {@link DiskLruCacheOptions#getMapThresholdBytes() map threshold}
+     * are returned as a read-only <code>MappedByteBuffer</code>, smaller 
+     * values as a read-only heap buffer. When the mapped read mode is enabled,
+     * mapped values are kept for reuse by subsequent reads.
+     */
+    @Override
+    public SnapshotEntry<ByteBuffer> getBufferEntry(String key, SnapshotEntry<ByteBuffer> outputIfNone) 
+            throws IOException {
+        final long stamp = this.stamp();
+        MappedRegionCache.Region region = this.getRegion(key);
+        if(region == null) {
+            final Entry entry = this.open(key);
+            if (entry == null) {
+                return outputIfNone;
+            }
+            if(entry.valueLength < mapThresholdBytes || entry.compression != null) {
+                try {
+                    return new SnapshotEntryImpl(entry.valueBuffer().asReadOnlyBuffer(), entry.header);
+                } finally {
+                    entry.close();
+                }
+            }
+            region = this.map(key, stamp, entry);
+        }
+        return new SnapshotEntryImpl(region.getBuffer(), region.getHeader());
+    }
+
+    /**
+     * Uncompressed values are read from the offset directly, compressed 
+     * values are decompressed up to it.
+     */
+    @Override
+    public SnapshotEntry<InputStream> getRangeEntry(String key, long offset, long length, 
+            SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        if(offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Negative range, offset: " + offset + ", length: " + length);
+        }
+        final MappedRegionCache.Region region = this.getRegion(key);
+        if(region != null) {
+            return new SnapshotEntryImpl(new ByteBufferInputStream(
+                    slice(region.getBuffer(), offset, length)), region.getHeader());
+        }
+        final Entry entry = this.open(key);
+        if (entry == null) {
+            return outputIfNone;
+        }
+        return new InputStreamEntry(entry, offset, length);
+    }
+
+    /**
+     * Uncompressed values are read from the file straight into the buffer.
+     */
+    @Override
+    public long get(String key, ByteBuffer dst) throws IOException {
+        final MappedRegionCache.Region region = this.getRegion(key);
+        if(region != null) {
+            final ByteBuffer value = region.getBuffer();
+            final int length = value.remaining();
+            if(length <= dst.remaining()) {
+                dst.put(value);
+            }
+            return length;
+        }
+        final Entry entry = this.open(key);
+        if (entry == null) {
+            return -1;
+        }
+        try{
+            if(entry.compression != null) {
+                try(InputStream in = entry.valueStream()) {
+                    return read(in, dst);
+                }
+            }
+            if(entry.valueLength > dst.remaining()) {
+                return entry.valueLength;
+            }
+            if(entry.isValueInHead()) {
+                dst.put(entry.head.slice());
+            }else{
+                final int limit = dst.limit();
+                dst.limit(dst.position() + (int)entry.valueLength);
+                try{
+                    readFully(entry.snapshot.getChannel(), dst, entry.valueOffset);
+                }finally{
+                    dst.limit(limit);
+                }
+            }
+            return entry.valueLength;
+        }finally{
+            entry.close();
+        }
+    }
+
+    /**
+     * Reads the stream into the buffer if it fits, else leaves the position 
+     * of the buffer unchanged.
+     * @return The number of bytes in the stream
+     */
+    private static long read(InputStream in, ByteBuffer dst) throws IOException {
+        final int start = dst.position();
+        final int capacity = dst.remaining();
+        final byte [] buffer = BufferPool.acquire();
+        try{
+            long count = 0;
+            int n;
+            while((n = in.read(buffer)) != -1) {
+                if(count + n <= capacity) {
+                    dst.put(buffer, 0, n);
+                }
+                count += n;
+            }
+            if(count > capacity) {
+                dst.position(start);
+            }
+            return count;
+        }finally{
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads only the header of the entry, unless the value is compressed, 
+     * in which case it is decompressed to be counted.
+     */
+    @Override
+    public long getLength(String key) throws IOException {
+        final MappedRegionCache.Region region = this.getRegion(key);
+        if(region != null) {
+            return region.getBuffer().remaining();
+        }
+        final Entry entry = this.open(key);
+        if (entry == null) {
+            return -1;
+        }
+        try{
+            if(entry.compression == null) {
+                return entry.valueLength;
+            }
+            try(InputStream in = entry.valueStream()) {
+                return skip(in, Long.MAX_VALUE);
+            }
+        }finally{
+            entry.close();
+        }
+    }
+
+    /**
+     * Uncompressed values are transferred with <code>FileChannel.transferTo</code>
+     * to file and socket channels, and copied through a buffer to other 
+     * channels. Mapped and compressed values are always copied.
+     */
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        java.util.Objects.requireNonNull(target);
+        final MappedRegionCache.Region region = this.getRegion(key);
+        if(region != null) {
+            return writeFully(region.getBuffer(), target);
+        }
+        final Entry entry = this.open(key);
+        if (entry == null) {
+            return -1;
+        }
+        try{
+            if(entry.compression != null) {
+                try(InputStream in = entry.valueStream()) {
+                    return this.copy(in, target);
+                }
+            }
+            if(entry.isValueInHead()) {
+                return writeFully(entry.head.slice(), target);
+            }
+            final FileChannel channel = entry.snapshot.getChannel();
+            if(target instanceof FileChannel || target instanceof SelectableChannel) {
+                requireBlocking(target);
+                long position = 0;
+                while(position < entry.valueLength) {
+                    final long n = channel.transferTo(entry.valueOffset + position, 
+                            entry.valueLength - position, target);
+                    if(n <= 0) {
+                        throw new EOFException("Unexpected end of entry: " + key);
+                    }
+                    position += n;
+                }
+                return position;
+            }
+            return this.copy(new ChannelInputStream(channel, entry.valueOffset, entry.valueLength), target);
+        }finally{
+            entry.close();
+        }
+    }
+
+    @Override
+    public SnapshotEntry<ObjectInputStream> getObjectStreamEntry(
+            String key, SnapshotEntry<ObjectInputStream> outputIfNone) throws IOException {
+        final Entry entry = this.open(key);
+        if (entry == null) {
+            return outputIfNone;
+        }
+        return new ObjectInputStreamEntry(entry);
+    }
+
+    @Override
+    public Object getObject(String key, Object outputIfNone) throws IOException, ClassNotFoundException {
+        SnapshotEntry<ObjectInputStream> snapshotEntry = this.getObjectStreamEntry(key, null);
+        if(snapshotEntry == null) {
+            return outputIfNone;
+        }
+        try{
+            final ObjectInputStream ois = snapshotEntry.getData();
+            return ois.readObject();
+        }finally{
+            snapshotEntry.close();
+        }
+    }
+
+    @Override
+    public String getString(String key, String outputIfNone) throws IOException {
+        final SnapshotEntry<String> entry = this.getStringEntry(key, null);
+        return entry == null ? outputIfNone : entry.getData();
+    }
+
+    @Override
+    public <T> SnapshotEntry<T> getEntry(String key, ValueCodec<T> codec, SnapshotEntry<T> outputIfNone) 
+            throws IOException {
+        final long stamp = this.stamp();
+        MappedRegionCache.Region region = this.getRegion(key);
+        if(region == null) {
+            final Entry entry = this.open(key);
+            if (entry == null) {
+                return outputIfNone;
+            }
+            if(!this.isMapped(entry)) {
+                try {
+                    return new SnapshotEntryImpl(this.decode(codec, entry), entry.header);
+                } finally {
+                    entry.close();
+                }
+            }
+            region = this.map(key, stamp, entry);
+        }
+        return new SnapshotEntryImpl(this.decode(codec, region.getBuffer()), region.getHeader());
+    }
+
+    @Override
+    public <T> T get(String key, ValueCodec<T> codec, T outputIfNone) throws IOException {
+        final SnapshotEntry<T> entry = this.getEntry(key, codec, null);
+        return entry == null ? outputIfNone : entry.getData();
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, Loader<T> loader) throws IOException, ClassNotFoundException {
+        return loads.getOrLoad(this, key, loader);
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, ValueCodec<T> codec, Loader<? extends T> loader) throws IOException {
+        return loads.getOrLoad(this, key, codec, loader);
+    }
+
+    @Override
+    public Map<String, Object> getAll(Collection<String> keys) throws IOException, ClassNotFoundException {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        for(String key : keys) {
+            final Object value = this.getObject(key, null);
+            if(value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public <T> Map<String, T> getAll(Collection<String> keys, ValueCodec<T> codec) throws IOException {
+        final Map<String, T> result = new LinkedHashMap<>();
+        for(String key : keys) {
+            final SnapshotEntry<T> entry = this.getEntry(key, codec, null);
+            if(entry != null) {
+                result.put(key, entry.getData());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(String key) throws IOException {
+        final Snapshot snapshot = this.snapshot(key);
+        if(snapshot==null) {
+            return false;
+        }
+        try{
+            return !this.isExpired(snapshot, System.currentTimeMillis());
+        }finally{
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Reads only the start of the entry, which holds its expiry time if any.
+     */
+    protected boolean isExpired(Snapshot snapshot, long now) throws IOException {
+        final ByteBuffer head = ByteBuffer.allocate((int)Math.min(snapshot.getLength(), EntryHeader.EXPIRY_PREFIX_LENGTH));
+        readFully(snapshot.getChannel(), head, snapshot.getOffset());
+        head.flip();
+        final long expiryTime = EntryHeader.readExpiryTime(head);
+        return expiryTime != 0 && expiryTime <= now;
+    }
+
+    /**
+     * @return The entry for the key, with its header read, or <code>null</code> 
+     * if there is none or it has expired
+     */
+    private Entry open(String key) throws IOException {
+        return this.open(this.snapshot(key));
+    }
+
+    private Entry open(Snapshot snapshot) throws IOException {
+        if(snapshot == null) {
+            return null;
+        }
+        try{
+            final FileChannel channel = snapshot.getChannel();
+            ByteBuffer head = ByteBuffer.allocate((int)Math.min(snapshot.getLength(), HEAD_BYTES));
+            readFully(channel, head, snapshot.getOffset());
+            head.flip();
+            int headerLength = EntryHeader.length(head);
+            while(headerLength > head.limit() && head.limit() < snapshot.getLength()) {
+                head = ByteBuffer.allocate((int)Math.min(snapshot.getLength(), headerLength));
+                readFully(channel, head, snapshot.getOffset());
+                head.flip();
+                headerLength = EntryHeader.length(head);
+            }
+            final EntryHeader header = EntryHeader.read(head);
+            if(header.isExpired(System.currentTimeMillis())) {
+                snapshot.close();
+                return null;
+            }
+            return new Entry(snapshot, header, head);
+        }catch(IOException | RuntimeException e) {
+            snapshot.close();
+            throw e;
+        }
+    }
+
+    private long stamp() {
+        return regions == null ? 0 : regions.stamp();
+    }
+
+    private MappedRegionCache.Region getRegion(String key) {
+        if(regions == null) {
+            return null;
+        }
+        final MappedRegionCache.Region region = regions.get(key);
+        if(region != null && region.getHeader().isExpired(System.currentTimeMillis())) {
+            regions.invalidate(key);
+            return null;
+        }
+        return region;
+    }
+
+    private boolean isMapped(Entry entry) {
+        return regions != null && entry.valueLength >= mapThresholdBytes && entry.compression == null;
+    }
+
+    /**
+     * Maps the value of the entry and closes the entry; the mapping 
+     * remains valid after the file is closed.
+     */
+    private MappedRegionCache.Region map(String key, long stamp, Entry entry) throws IOException {
+        try {
+            final ByteBuffer buffer = entry.snapshot.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, entry.valueOffset, entry.valueLength);
+            final MappedRegionCache.Region region = new MappedRegionCache.Region(buffer, entry.header);
+            if(regions != null) {
+                regions.put(key, stamp, region);
+            }
+            return region;
+        } finally {
+            entry.close();
+        }
+    }
+
+    /**
+     * Drops what is held in memory for the key. Engines call it when 
+     * removing entries other than through this class.
+     */
+    protected void invalidate(String key) {
+        if(regions != null) {
+            regions.invalidate(key);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position);
+            if(n < 0) {
+                throw new EOFException();
+            }
+            position += n;
+        }
+    }
+
+    private long copy(InputStream in, WritableByteChannel target) throws IOException {
+        requireBlocking(target);
+        final byte [] bytes = BufferPool.acquire();
+        try{
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long count = 0;
+            int n;
+            while((n = in.read(bytes)) != -1) {
+                buffer.clear().limit(n);
+                count += writeFully(buffer, target);
+            }
+            return count;
+        }finally{
+            BufferPool.release(bytes);
+        }
+    }
+
+    /**
+     * @return The number of bytes written, i.e. those remaining in the buffer
+     */
+    static int writeFully(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        requireBlocking(target);
+        final int length = buffer.remaining();
+        while(buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return length;
+    }
+
+    /**
+     * Writes to a channel in non-blocking mode may write nothing, 
+     * and would then be retried in a busy loop.
+     */
+    private static void requireBlocking(WritableByteChannel target) {
+        if(target instanceof SelectableChannel && !((SelectableChannel)target).isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+    }
+
+    /**
+     * @return The bytes of the buffer from the offset, at most length of them
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, long offset, long length) {
+        final int start = (int)Math.min(buffer.remaining(), offset);
+        buffer.position(buffer.position() + start);
+        buffer.limit(buffer.position() + (int)Math.min(buffer.remaining(), length));
+        return buffer.slice();
+    }
+
+    /**
+     * @return The number of bytes skipped, less than <code>n</code> only if 
+     * the end of the stream was reached
+     */
+    private static long skip(InputStream in, long n) throws IOException {
+        long skipped = 0;
+        while(skipped < n) {
+            final long k = in.skip(n - skipped);
+            if(k > 0) {
+                skipped += k;
+            }else if(in.read() != -1) {
+                ++skipped;
+            }else{
+                break;
+            }
+        }
+        return skipped;
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        if(buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), 
+                    buffer.remaining(), StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private <T> T decode(ValueCodec<T> codec, ByteBuffer buffer) throws IOException {
+        if(buffer.hasArray()) {
+            return codec.read(new DataInputStream(new ByteArrayInputStream(
+                    buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())));
+        }
+        return codec.read(new DataInputStream(new ByteBufferInputStream(buffer)));
+    }
+
+    private <T> T decode(ValueCodec<T> codec, Entry entry) throws IOException {
+        if(entry.valueLength <= SMALL_VALUE_BYTES && entry.compression == null) {
+            return this.decode(codec, entry.valueBuffer());
+        }
+        return codec.read(new DataInputStream(new BufferedInputStream(entry.valueStream())));
+    }
+
+    @Override
+    public void put(String key, InputStream is) throws IOException {
+        put(key, is, Collections.EMPTY_MAP);
+    }
+
+    /**
+     * Replaces any existing value in a single edit; readers see the previous
+     * value until the new one is committed.
+     */
+    @Override
+    public void put(String key, InputStream is, Map<String, Serializable> annotations)
+            throws IOException {
+        this.write(key, is, EntryHeader.of(annotations));
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        put(key, value, Collections.EMPTY_MAP);
+    }
+
+    @Override
+    public void put(String key, Object value) throws IOException {
+        put(key, value, Collections.EMPTY_MAP);
+    }
+
+    @Override
+    public void put(String key, String value, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        this.write(key, value, EntryHeader.of(annotations));
+    }
+
+    @Override
+    public void put(String key, Object value, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        this.write(key, value, EntryHeader.of(annotations));
+    }
+
+    /**
+     * Heap buffers are written from their array, direct buffers through a 
+     * pooled array.
+     */
+    @Override
+    public void put(String key, ByteBuffer value) throws IOException {
+        final Lock lock = editorLocks.get(key);
+        lock.lock();
+        try{
+            final CacheOutputStream cos = openCacheStream(key, EntryHeader.EMPTY);
+            try {
+                if(value.hasArray()) {
+                    cos.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+                    value.position(value.limit());
+                }else{
+                    final byte [] buffer = BufferPool.acquire();
+                    try{
+                        while(value.hasRemaining()) {
+                            final int n = Math.min(buffer.length, value.remaining());
+                            value.get(buffer, 0, n);
+                            cos.write(buffer, 0, n);
+                        }
+                    }finally{
+                        BufferPool.release(buffer);
+                    }
+                }
+            }catch(IOException | RuntimeException e) {
+                cos.setFailed(true);
+                throw e;
+            }finally {
+                cos.close();
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec) throws IOException {
+        put(key, value, codec, Collections.EMPTY_MAP);
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        this.write(key, value, codec, EntryHeader.of(annotations));
+    }
+
+    @Override
+    public void put(String key, InputStream is, long ttl, TimeUnit unit) throws IOException {
+        this.write(key, is, EntryHeader.EMPTY.withExpiryTime(expiryTime(ttl, unit)));
+        this.onExpiringWrite();
+    }
+
+    @Override
+    public void put(String key, String value, long ttl, TimeUnit unit) throws IOException {
+        this.write(key, value, EntryHeader.EMPTY.withExpiryTime(expiryTime(ttl, unit)));
+        this.onExpiringWrite();
+    }
+
+    @Override
+    public void put(String key, Object value, long ttl, TimeUnit unit) throws IOException {
+        this.write(key, value, EntryHeader.EMPTY.withExpiryTime(expiryTime(ttl, unit)));
+        this.onExpiringWrite();
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, long ttl, TimeUnit unit) throws IOException {
+        this.write(key, value, codec, EntryHeader.EMPTY.withExpiryTime(expiryTime(ttl, unit)));
+        this.onExpiringWrite();
+    }
+
+    /**
+     * @return The time in millis a value written now with the time to live
+     * expires at
+     */
+    static long expiryTime(long ttl, TimeUnit unit) {
+        if(ttl <= 0) {
+            throw new IllegalArgumentException("ttl <= 0");
+        }
+        final long now = System.currentTimeMillis();
+        final long millis = Math.max(1, unit.toMillis(ttl));
+        return millis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + millis;
+    }
+
+    private <T> void write(String key, T value, ValueCodec<T> codec, EntryHeader header) throws IOException {
+        java.util.Objects.requireNonNull(codec);
+        final Lock lock = editorLocks.get(key);
+        lock.lock();
+        try{
+            final CacheOutputStream cos = openCacheStream(key, header);
+            try {
+                final DataOutputStream out = new DataOutputStream(cos);
+                codec.write(value, out);
+                out.flush();
+            }catch(IOException | RuntimeException e) {
+                cos.setFailed(true);
+                throw e;
+            }finally {
+                cos.close();
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, ?> values) throws IOException {
+        this.writeAll(values, null);
+    }
+
+    @Override
+    public <T> void putAll(Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException {
+        this.writeAll(values, java.util.Objects.requireNonNull(codec));
+    }
+
+    /**
+     * Removes the keys in batches, each under the locks of its keys.
+     */
+    @Override
+    public int removeAll(Collection<String> keys) throws IOException {
+        final List<String> distinct = new ArrayList<>(new LinkedHashSet<>(keys));
+        int removed = 0;
+        for(int from = 0; from < distinct.size(); from += BATCH_SIZE) {
+            final List<String> batch = distinct.subList(from, Math.min(from + BATCH_SIZE, distinct.size()));
+            final List<Lock> locks = editorLocks.getAll(batch);
+            StripedLock.lock(locks);
+            try{
+                removed += this.removeEntries(batch);
+            }finally{
+                for(String key : batch) {
+                    this.invalidate(key);
+                }
+                StripedLock.unlock(locks);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Writes the values in batches. The locks of the keys of each batch are 
+     * taken together, in stripe order, and its edits committed together.
+     */
+    private <T> void writeAll(Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException {
+        final List<String> keys = new ArrayList<>(values.keySet());
+        for(int from = 0; from < keys.size(); from += BATCH_SIZE) {
+            final List<String> batch = keys.subList(from, Math.min(from + BATCH_SIZE, keys.size()));
+            final List<Lock> locks = editorLocks.getAll(batch);
+            StripedLock.lock(locks);
+            try{
+                this.writeBatch(batch, values, codec);
+            }finally{
+                StripedLock.unlock(locks);
+            }
+        }
+    }
+
+    private <T> void writeBatch(List<String> keys, Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException {
+        final List<Editor> editors = new ArrayList<>(keys.size());
+        boolean committing = false;
+        try{
+            for(String key : keys) {
+                final Editor editor = this.requireEditor(key);
+                editors.add(editor);
+                final OutputStream out = this.newEntryStream(key, editor, EntryHeader.EMPTY);
+                if(codec == null) {
+                    try(ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                        oos.writeObject(values.get(key));
+                    }
+                }else{
+                    try(DataOutputStream dos = new DataOutputStream(out)) {
+                        codec.write(values.get(key), dos);
+                    }
+                }
+            }
+            committing = true;
+            this.commitAll(editors);
+        }finally{
+            if(!committing) {
+                for(Editor editor : editors) {
+                    this.abortQuietly(editor);
+                }
+            }
+            for(String key : keys) {
+                this.invalidate(key);
+            }
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is) throws IOException {
+        putIfNone(key, is, Collections.EMPTY_MAP);
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is, Map<String, Serializable> annotations)
+            throws IOException {
+        this.writeIfAbsent(key, is, EntryHeader.of(annotations));
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, InputStream is) throws IOException {
+        return this.writeIfAbsent(key, is, EntryHeader.EMPTY);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) throws IOException {
+        return this.writeIfAbsent(key, value, EntryHeader.EMPTY);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, Object value) throws IOException {
+        return this.writeIfAbsent(key, value, EntryHeader.EMPTY);
+    }
+
+    @Override
+    public <T> boolean putIfAbsent(String key, T value, ValueCodec<T> codec) throws IOException {
+        final Lock lock = this.lockIfAbsent(key);
+        if(lock == null) {
+            return false;
+        }
+        try{
+            this.write(key, value, codec, EntryHeader.EMPTY);
+            return true;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private boolean writeIfAbsent(String key, InputStream is, EntryHeader header) throws IOException {
+        final Lock lock = this.lockIfAbsent(key);
+        if(lock == null) {
+            return false;
+        }
+        try{
+            this.write(key, is, header);
+            return true;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private boolean writeIfAbsent(String key, String value, EntryHeader header) throws IOException {
+        final Lock lock = this.lockIfAbsent(key);
+        if(lock == null) {
+            return false;
+        }
+        try{
+            this.write(key, value, header);
+            return true;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private boolean writeIfAbsent(String key, Object value, EntryHeader header) throws IOException {
+        final Lock lock = this.lockIfAbsent(key);
+        if(lock == null) {
+            return false;
+        }
+        try{
+            this.write(key, value, header);
+            return true;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The edit lock of the key, held, if the key has no value, else 
+     * <code>null</code>. Writes of the key wait for the lock, so the key 
+     * has no value until it is released.
+     */
+    private Lock lockIfAbsent(String key) throws IOException {
+        final Lock lock = editorLocks.get(key);
+        lock.lock();
+        try{
+            if(!this.contains(key)) {
+                return lock;
+            }
+        }catch(IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        lock.unlock();
+        return null;
+    }
+
+    private void write(String key, InputStream is, EntryHeader header) throws IOException {
+        final Lock lock = editorLocks.get(key);
+        lock.lock();
+        try{
+            final CacheOutputStream os = openCacheStream(key, header);
+            try {
+                this.copy(is, os);
+            }catch(IOException | RuntimeException e) {
+                // Failures reading the source leave the previous value in place
+                os.setFailed(true);
+                throw e;
+            }finally {
+                os.close();
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, String value) throws IOException {
+        putIfNone(key, value, Collections.EMPTY_MAP);
+    }
+
+    @Override
+    public void putIfNone(String key, Object value) throws IOException {
+        putIfNone(key, value, Collections.EMPTY_MAP);
+    }
+
+    @Override
+    public void putIfNone(String key, String value, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        this.writeIfAbsent(key, value, EntryHeader.of(annotations));
+    }
+
+    private void write(String key, String value, EntryHeader header) throws IOException {
+        final Lock lock = editorLocks.get(key);
+        lock.lock();
+        try{
+            final CacheOutputStream cos = openCacheStream(key, header);
+            try {
+                BufferPool.writeUtf8(value, cos);
+            }catch(IOException | RuntimeException e) {
+                cos.setFailed(true);
+                throw e;
+            }finally {
+                cos.close();
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        this.writeIfAbsent(key, value, EntryHeader.of(annotations));
+    }
+
+    private void write(String key, Object value, EntryHeader header) throws IOException {
+        final Lock lock = editorLocks.get(key);
+        lock.lock();
+        try{
+            final CacheObjectOutputStream cos = openObjectStream(key, header);
+            try {
+                cos.writeObject(value);
+            }catch(IOException | RuntimeException e) {
+                cos.setFailed(true);
+                throw e;
+            }finally{
+                cos.close();
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+    
+    public OutputStream openStream(String key) throws IOException {
+        return openStream(key, Collections.EMPTY_MAP);
+    }
+
+    public OutputStream openStream(String key, Map<String, ? extends Serializable> metadata)
+            throws IOException, ConcurrentModificationException {
+        return openCacheStream(key, EntryHeader.of(metadata));
+    }
+
+    private CacheOutputStream openCacheStream(String key, EntryHeader header)
+            throws IOException, ConcurrentModificationException {
+        final Editor editor = this.requireEditor(key);
+        try {
+            return new CacheOutputStream(key, this.newEntryStream(key, editor, header), editor);
+        } catch (IOException e) {
+            editor.abort();
+            throw e;
+        }
+    }
+
+    private CacheObjectOutputStream openObjectStream(String key, EntryHeader header)
+            throws IOException, ConcurrentModificationException {
+        final Editor editor = this.requireEditor(key);
+        try {
+            ObjectOutputStream bos = new ObjectOutputStream(this.newEntryStream(key, editor, header));
+            return new CacheObjectOutputStream(key, bos, editor);
+        } catch (IOException e) {
+            editor.abort();
+            throw e;
+        }
+    }
+
+    private OutputStream newEntryStream(String key, Editor editor, EntryHeader header) throws IOException {
+        if(this.isKeyInHeader()) {
+            header = header.withKey(key);
+        }
+        final OutputStream out = new BufferedOutputStream(editor.newOutputStream());
+        return compressionCodec == null ? new EntryOutputStream(out, header) :
+                new EntryOutputStream(out, header, compressionCodec, compressionThresholdBytes);
+    }
+
+    private Editor requireEditor(String key) 
+            throws IOException, ConcurrentModificationException {
+        final Editor editor = this.edit(key);
+        if(editor == null) {
+            throw new ConcurrentModificationException("Could not acquire an editor, probably due to an ongoing edit");
+        }
+        return editor;
+    }
+
+    /**
+     * Copies bytes from an <code>InputStream</code> to an
+     * <code>OutputStream</code>.
+     * <p>
+     * This method buffers the input internally, so there is no need to use a
+     * <code>BufferedInputStream</code>.
+     * </p>
+     * <p>
+     * Large streams (over 2GB) will return a bytes copied value of
+     * <code>-1</code> after the copy has completed since the correct
+     * number of bytes cannot be returned as an int. For large streams
+     * use the <code>copyLarge(InputStream, OutputStream)</code> method.
+     * </p>
+     * @param input the <code>InputStream</code> to read from
+     * @param output the <code>OutputStream</code> to write to
+     * @return the number of bytes copied, or -1 if &gt; Integer.MAX_VALUE
+     * @throws NullPointerException if the input or output is null
+     * @throws IOException          if an I/O error occurs
+     * @since 1.1
+     */
+    protected int copy(final InputStream input, final OutputStream output) throws IOException {
+        final byte [] buffer = BufferPool.acquire();
+        final long count;
+        try{
+            count = copyLarge(input, output, buffer);
+        }finally{
+            BufferPool.release(buffer);
+        }
+        if (count > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return (int) count;
+    }
+
+    /**
+     * Copies bytes from a large (over 2GB) <code>InputStream</code> to an
+     * <code>OutputStream</code>.
+     * <p>
+     * This method uses the provided buffer, so there is no need to use a
+     * <code>BufferedInputStream</code>.
+     * <p>
+     *
+     * @param input the <code>InputStream</code> to read from
+     * @param output the <code>OutputStream</code> to write to
+     * @param buffer the buffer to use for the copy
+     * @return the number of bytes copied
+     * @throws NullPointerException if the input or output is null
+     * @throws IOException          if an I/O error occurs
+     * @since 2.2
+     */
+    protected long copyLarge(final InputStream input, final OutputStream output, final byte[] buffer)
+            throws IOException {
+        long count = 0;
+        int n;
+        while (-1 != (n = input.read(buffer))) {
+            output.write(buffer, 0, n);
+            count += n;
+        }
+        return count;
+    }
+
+    protected void abortQuietly(Editor editor) {
+        try{
+            editor.abort();
+        }catch(IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to abort edit", e);
+        }
+    }
+
+    protected void closeQuietly(Closeable c) {
+        if(c != null) {
+            try{
+                c.close();
+            }catch(IOException e) {
+                LOG.log(Level.WARNING, "Unexpected exception closing instance of " +
+                        c.getClass().getName(), e);
+            }
+        }
+    }
+
+    private class CacheObjectOutputStream extends CacheOutputStream {
+
+        private final ObjectOutputStream os;
+
+        public CacheObjectOutputStream(String key, ObjectOutputStream os, Editor editor) {
+            super(key, os, editor);
+            this.os = os;
+        }
+
+        public final void writeObject(Object obj) throws IOException {
+            try {
+                this.os.writeObject(obj);
+            } catch (IOException e) {
+                this.setFailed(true);
+                throw e;
+            }
+        }
+    }
+
+    private class CacheOutputStream extends FilterOutputStream {
+
+        private final String key;
+        private final Editor editor;
+        private boolean failed = false;
+
+        private CacheOutputStream(String key, OutputStream os, Editor editor) {
+            super(os);
+            this.key = key;
+            this.editor = editor;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException closeException = null;
+            try {
+                super.close();
+            } catch (IOException e) {
+                closeException = e;
+            }
+
+            if (failed || closeException != null) {
+                editor.abort();
+            } else {
+                try {
+                    editor.commit();
+                } finally {
+                    invalidate(key);
+                }
+            }
+
+            if (closeException != null) throw closeException;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                super.flush();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            try {
+                super.write(oneByte);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer) throws IOException {
+            try {
+                super.write(buffer);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                out.write(buffer, offset, length);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        protected void setFailed(boolean b) {
+            this.failed = b;
+        }
+    }
+
+    /**
+     * An open entry whose header has been read. The head holds the bytes read 
+     * from the start of the entry, and is positioned at the start of the value.
+     */
+    private static final class Entry implements Closeable {
+        private final Snapshot snapshot;
+        private final EntryHeader header;
+        private final ByteBuffer head;
+        /** The codec the value was compressed with, null if not compressed */
+        private final CompressionCodec compression;
+        /** The position of the value as stored, i.e compressed if compressed */
+        private final long valueOffset;
+        private final long valueLength;
+        private Entry(Snapshot snapshot, EntryHeader header, ByteBuffer head) throws IOException {
+            this.snapshot = snapshot;
+            this.header = header;
+            this.head = head;
+            this.compression = header.getCompressionCodec();
+            this.valueOffset = snapshot.getOffset() + head.position();
+            this.valueLength = snapshot.getLength() - head.position();
+        }
+        private boolean isValueInHead() {
+            return head.remaining() == valueLength;
+        }
+        private ByteBuffer valueBuffer() throws IOException {
+            if(compression != null) {
+                final ExposedByteArrayOutputStream out = new ExposedByteArrayOutputStream(
+                        (int)Math.min(valueLength * 4, SMALL_VALUE_BYTES));
+                try(InputStream in = this.valueStream()) {
+                    final byte [] buffer = BufferPool.acquire();
+                    try{
+                        int n;
+                        while((n = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, n);
+                        }
+                    }finally{
+                        BufferPool.release(buffer);
+                    }
+                }
+                return ByteBuffer.wrap(out.buffer(), 0, out.size());
+            }
+            if(this.isValueInHead()) {
+                return head.slice();
+            }
+            if(valueLength > Integer.MAX_VALUE) {
+                throw new IOException("Value too large for a buffer, length: " + valueLength);
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate((int)valueLength);
+            readFully(snapshot.getChannel(), buffer, valueOffset);
+            buffer.flip();
+            return buffer;
+        }
+        private InputStream valueStream() throws IOException {
+            final InputStream stored = this.isValueInHead() ? new ByteBufferInputStream(head.slice()) :
+                    new ChannelInputStream(snapshot.getChannel(), valueOffset, valueLength);
+            return compression == null ? stored : compression.decompress(stored);
+        }
+        /**
+         * @return The bytes of the value from the offset, at most length of them
+         */
+        private InputStream valueStream(long offset, long length) throws IOException {
+            if(compression == null) {
+                if(this.isValueInHead()) {
+                    return new ByteBufferInputStream(slice(head.slice(), offset, length));
+                }
+                final long start = Math.min(offset, valueLength);
+                return new ChannelInputStream(snapshot.getChannel(), valueOffset + start, 
+                        Math.min(length, valueLength - start));
+            }
+            final InputStream in = this.valueStream();
+            skip(in, offset);
+            return new LimitedInputStream(in, length);
+        }
+        @Override
+        public void close() {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Ends after the given number of bytes of the stream it filters.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+        @Override
+        public int read() throws IOException {
+            if(remaining <= 0) {
+                return -1;
+            }
+            final int b = in.read();
+            if(b != -1) {
+                --remaining;
+            }
+            return b;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) {
+                return 0;
+            }
+            if(remaining <= 0) {
+                return -1;
+            }
+            final int n = in.read(b, off, (int)Math.min(len, remaining));
+            if(n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(in.available(), remaining);
+        }
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        private ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+        private byte [] buffer() {
+            return buf;
+        }
+    }
+
+    private class InputStreamEntry implements SnapshotEntry<InputStream> {
+        private final Entry entry;
+        private final long offset;
+        private final long length;
+
+        public InputStreamEntry(Entry entry) {
+            this(entry, 0, -1);
+        }
+        /**
+         * @param length The number of bytes from the offset, or -1 for all of them
+         */
+        public InputStreamEntry(Entry entry, long offset, long length) {
+            this.entry = entry;
+            this.offset = offset;
+            this.length = length;
+        }
+        @Override
+        public InputStream getData() {
+            try {
+                return length < 0 ? entry.valueStream() : entry.valueStream(offset, length);
+            }catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        @Override
+        public Map<String, Serializable> getMetadata() {
+            return entry.header.getMetadata();
+        }
+        @Override
+        public long getExpiryTime() {
+            return entry.header.getExpiryTime();
+        }
+        @Override
+        public void close() {
+            entry.close();
+        }
+    }
+
+    private class SnapshotEntryImpl<T> implements SnapshotEntry<T> {
+        private final T data;
+        private final EntryHeader header;
+
+        public SnapshotEntryImpl(T data, EntryHeader header) {
+            this.data = data;
+            this.header = header;
+        }
+        @Override
+        public T getData() {
+            return data;
+        }
+        @Override
+        public Map<String, Serializable> getMetadata() {
+            return header.getMetadata();
+        }
+        @Override
+        public long getExpiryTime() {
+            return header.getExpiryTime();
+        }
+        @Override
+        public void close() { }
+    }
+
+    private class ObjectInputStreamEntry implements SnapshotEntry<ObjectInputStream> {
+        private final Entry entry;
+
+        public ObjectInputStreamEntry(Entry entry) {
+            this.entry = entry;
+        }
+        @Override
+        public ObjectInputStream getData() {
+            try {
+                return new ObjectInputStream(new BufferedInputStream(entry.valueStream()));
+            }catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        @Override
+        public Map<String, Serializable> getMetadata() {
+            return entry.header.getMetadata();
+        }
+        @Override
+        public long getExpiryTime() {
+            return entry.header.getExpiryTime();
+        }
+        @Override
+        public void close() {
+            entry.close();
+        }
+    }
+}
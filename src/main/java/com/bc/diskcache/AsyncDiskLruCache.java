@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking view of a cache. Each operation runs the blocking operation
+ * of the cache on the executor, so that callers such as event loops need not
+ * block on disk I/O. Where the JDK supports them, an executor of virtual 
+ * threads suits this well; otherwise a pool sized for the expected number 
+ * of concurrent disk operations.
+ * <p>
+ * Each operation returns a {@link Future} of its result, and optionally 
+ * notifies a {@link Callback} once complete, on the thread which ran it.
+ * Operations the executor rejects throw its 
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ */
+public class AsyncDiskLruCache {
+
+    private transient static final Logger LOG = Logger.getLogger(AsyncDiskLruCache.class.getName());
+
+    public interface Callback<V> {
+
+        void onSuccess(V result);
+
+        /**
+         * @param error The failure of the operation, or a 
+         * {@link CancellationException} if it was cancelled
+         */
+        void onFailure(Throwable error);
+    }
+
+    private final DiskLruCacheIx cache;
+
+    private final Executor executor;
+
+    public AsyncDiskLruCache(DiskLruCacheIx cache, Executor executor) {
+        this.cache = java.util.Objects.requireNonNull(cache);
+        this.executor = java.util.Objects.requireNonNull(executor);
+    }
+
+    public <T> Future<T> getAsync(String key, ValueCodec<T> codec) {
+        return this.getAsync(key, codec, null);
+    }
+
+    /**
+     * @param <T> The type of the value
+     * @param key The key of the value
+     * @param codec The codec the value was put with
+     * @param callback Notified of the value, or <code>null</code> if none
+     * @return The value, or <code>null</code> if none
+     */
+    public <T> Future<T> getAsync(final String key, final ValueCodec<T> codec, Callback<? super T> callback) {
+        return this.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return cache.get(key, codec, null);
+            }
+        }, callback);
+    }
+
+    public Future<Object> getObjectAsync(String key) {
+        return this.getObjectAsync(key, null);
+    }
+
+    public Future<Object> getObjectAsync(final String key, Callback<Object> callback) {
+        return this.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return cache.getObject(key, null);
+            }
+        }, callback);
+    }
+
+    public <T> Future<Void> putAsync(String key, T value, ValueCodec<T> codec) {
+        return this.putAsync(key, value, codec, null);
+    }
+
+    public <T> Future<Void> putAsync(final String key, final T value, final ValueCodec<T> codec, 
+            Callback<? super Void> callback) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                cache.put(key, value, codec);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Void> putObjectAsync(String key, Object value) {
+        return this.putObjectAsync(key, value, null);
+    }
+
+    public Future<Void> putObjectAsync(final String key, final Object value, Callback<? super Void> callback) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                cache.put(key, value);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Boolean> removeAsync(String key) {
+        return this.removeAsync(key, null);
+    }
+
+    public Future<Boolean> removeAsync(final String key, Callback<? super Boolean> callback) {
+        return this.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return cache.remove(key);
+            }
+        }, callback);
+    }
+
+    public Future<Boolean> containsAsync(String key) {
+        return this.containsAsync(key, null);
+    }
+
+    public Future<Boolean> containsAsync(final String key, Callback<? super Boolean> callback) {
+        return this.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return cache.contains(key);
+            }
+        }, callback);
+    }
+
+    private <V> Future<V> submit(Callable<V> operation, Callback<? super V> callback) {
+        final FutureTask<V> task = callback == null ? 
+                new FutureTask<>(operation) : new CallbackTask<>(operation, callback);
+        executor.execute(task);
+        return task;
+    }
+
+    public DiskLruCacheIx getCache() {
+        return cache;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    private static final class CallbackTask<V> extends FutureTask<V> {
+        private final Callback<? super V> callback;
+        private CallbackTask(Callable<V> operation, Callback<? super V> callback) {
+            super(operation);
+            this.callback = callback;
+        }
+        @Override
+        protected void done() {
+            final V result;
+            try{
+                result = this.get();
+            }catch(CancellationException e) {
+                this.notifyFailure(e);
+                return;
+            }catch(ExecutionException e) {
+                this.notifyFailure(e.getCause());
+                return;
+            }catch(InterruptedException e) {
+                // Not possible; the task is done
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try{
+                callback.onSuccess(result);
+            }catch(RuntimeException e) {
+                LOG.log(Level.WARNING, "Callback failed", e);
+            }
+        }
+        private void notifyFailure(Throwable error) {
+            try{
+                callback.onFailure(error);
+            }catch(RuntimeException e) {
+                LOG.log(Level.WARNING, "Callback failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of the byte arrays values are copied through, so that 
+ * steady-state reads and writes do not allocate one per call.
+ * <p>
+ * Arrays are taken for the duration of a copy and given back after. When 
+ * the pool is empty a new array is allocated; when it is full, arrays given 
+ * back are dropped.
+ * </p>
+ */
+final class BufferPool {
+
+    static final int BUFFER_SIZE = 8192;
+
+    private static final BlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(
+            Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+
+    private BufferPool() { }
+
+    /**
+     * @return An array of {@link #BUFFER_SIZE} bytes, to be given back with
+     * {@link #release(byte[])}
+     */
+    static byte [] acquire() {
+        final byte [] buffer = POOL.poll();
+        return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+    }
+
+    static void release(byte [] buffer) {
+        POOL.offer(buffer);
+    }
+
+    /**
+     * Writes the string encoded as UTF-8, through a pooled array rather than 
+     * a copy of the whole encoded string. Writes the same bytes as 
+     * <code>String.getBytes(StandardCharsets.UTF_8)</code>, i.e. unpaired 
+     * surrogates as <code>'?'</code>.
+     */
+    static void writeUtf8(String value, OutputStream out) throws IOException {
+        final byte [] buffer = acquire();
+        try{
+            int n = 0;
+            final int length = value.length();
+            for(int i=0; i<length; i++) {
+                if(n > BUFFER_SIZE - 4) {
+                    out.write(buffer, 0, n);
+                    n = 0;
+                }
+                final char c = value.charAt(i);
+                if(c < 0x80) {
+                    buffer[n++] = (byte)c;
+                }else if(c < 0x800) {
+                    buffer[n++] = (byte)(0xc0 | (c >> 6));
+                    buffer[n++] = (byte)(0x80 | (c & 0x3f));
+                }else if(Character.isSurrogate(c)) {
+                    final char low = i + 1 < length ? value.charAt(i + 1) : 0;
+                    if(Character.isHighSurrogate(c) && Character.isLowSurrogate(low)) {
+                        final int cp = Character.toCodePoint(c, low);
+                        buffer[n++] = (byte)(0xf0 | (cp >> 18));
+                        buffer[n++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                        buffer[n++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                        buffer[n++] = (byte)(0x80 | (cp & 0x3f));
+                        ++i;
+                    }else{
+                        buffer[n++] = (byte)'?';
+                    }
+                }else{
+                    buffer[n++] = (byte)(0xe0 | (c >> 12));
+                    buffer[n++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                    buffer[n++] = (byte)(0x80 | (c & 0x3f));
+                }
+            }
+            out.write(buffer, 0, n);
+        }finally{
+            release(buffer);
+        }
+    }
+}
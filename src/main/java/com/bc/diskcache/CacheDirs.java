@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Registry of the directories currently owned by a cache within this JVM,
+ * shared by all the {@link DiskLruCacheIx} storage engines.
+ */
+final class CacheDirs {
+
+    private static final Set<File> USED_DIRS = new LinkedHashSet<>();
+
+    private CacheDirs() { }
+
+    static synchronized void acquire(File dir) {
+        if (USED_DIRS.contains(dir)) {
+            throw new IllegalStateException("Cache dir " + dir.getAbsolutePath() + " was used before.");
+        }
+        USED_DIRS.add(dir);
+    }
+
+    static synchronized boolean contains(File dir) {
+        return USED_DIRS.contains(dir);
+    }
+
+    static synchronized boolean release(File dir) {
+        return USED_DIRS.remove(dir);
+    }
+
+    static synchronized Set<File> getAll() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(USED_DIRS));
+    }
+}
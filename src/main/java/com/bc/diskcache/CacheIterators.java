@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import com.bc.diskcache.DiskLruCacheIx.CloseableIterator;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Building blocks of the iterations over caches.
+ */
+final class CacheIterators {
+
+    private static final CloseableIterator<Object> EMPTY = new LookAhead<Object>() {
+        @Override
+        protected Object computeNext() {
+            return null;
+        }
+    };
+
+    private CacheIterators() { }
+
+    // Holds no elements, so serves as an iterator of any type
+    @SuppressWarnings("unchecked")
+    static <T> CloseableIterator<T> empty() {
+        return (CloseableIterator<T>)EMPTY;
+    }
+
+    /**
+     * An iterator computing each element when asked whether there is one.
+     * @param <T> The type of the elements, never <code>null</code>
+     */
+    static abstract class LookAhead<T> implements CloseableIterator<T> {
+
+        private T next;
+
+        private boolean done;
+
+        /**
+         * @return The next element, or <code>null</code> if there are no more
+         * @throws IOException 
+         */
+        protected abstract T computeNext() throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            if(next == null && !done) {
+                try{
+                    next = this.computeNext();
+                }catch(IOException e) {
+                    throw new RuntimeException(e);
+                }
+                if(next == null) {
+                    done = true;
+                    this.close();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if(!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final T result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Releases what the iteration holds. Called once there are no more elements.
+         */
+        @Override
+        public void close() { }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+/**
+ * The statistics of a cache at a point in time. Reads and writes are 
+ * counted, and timed, by an {@link InstrumentedDiskLruCache} in front of the 
+ * cache; the storage engines count only evictions.
+ * @see DiskLruCacheIx#getStats() 
+ */
+public final class CacheStats {
+
+    public static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 
+            LatencyHistogram.Snapshot.EMPTY, LatencyHistogram.Snapshot.EMPTY);
+
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final long removeCount;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long evictionCount;
+    private final long size;
+    private final long maxSize;
+    private final LatencyHistogram.Snapshot getLatency;
+    private final LatencyHistogram.Snapshot putLatency;
+
+    public CacheStats(long hitCount, long missCount, long putCount, long removeCount, 
+            long bytesRead, long bytesWritten, long evictionCount, long size, long maxSize,
+            LatencyHistogram.Snapshot getLatency, LatencyHistogram.Snapshot putLatency) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.removeCount = removeCount;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.evictionCount = evictionCount;
+        this.size = size;
+        this.maxSize = maxSize;
+        this.getLatency = java.util.Objects.requireNonNull(getLatency);
+        this.putLatency = java.util.Objects.requireNonNull(putLatency);
+    }
+
+    /**
+     * @param other The statistics to add, e.g. of another shard
+     * @return Statistics holding the counts, sizes and latencies of both
+     */
+    public CacheStats plus(CacheStats other) {
+        return new CacheStats(hitCount + other.hitCount, missCount + other.missCount, 
+                putCount + other.putCount, removeCount + other.removeCount, 
+                bytesRead + other.bytesRead, bytesWritten + other.bytesWritten,
+                evictionCount < 0 || other.evictionCount < 0 ? -1 : evictionCount + other.evictionCount, 
+                size + other.size, maxSize + other.maxSize,
+                getLatency.plus(other.getLatency), putLatency.plus(other.putLatency));
+    }
+
+    /**
+     * @return The number of reads which found an entry
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The number of reads which found no entry
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return The fraction of reads which found an entry, or zero if there 
+     * were no reads
+     */
+    public double getHitRate() {
+        final long reads = hitCount + missCount;
+        return reads == 0 ? 0 : (double)hitCount / reads;
+    }
+
+    /**
+     * @return The number of values written, including those of bulk writes
+     */
+    public long getPutCount() {
+        return putCount;
+    }
+
+    /**
+     * @return The number of keys removed by callers
+     */
+    public long getRemoveCount() {
+        return removeCount;
+    }
+
+    /**
+     * @return The number of bytes of the values read, as returned to callers.
+     * Values read as objects, or through a codec, are not counted, as only 
+     * the storage sees their encoded form.
+     * @see InstrumentedDiskLruCache
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return The number of bytes of the values written, as passed by callers.
+     * Values written as objects, or through a codec, are not counted, as only 
+     * the storage sees their encoded form.
+     * @see InstrumentedDiskLruCache
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return The number of entries the cache removed itself, to stay within 
+     * its max size or because they expired, or -1 if unavailable. It is 
+     * unavailable for {@link SimpleDiskLruCache}, and for any sum including 
+     * it, as the entries its DiskLruCache evicts go unseen.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The latencies of single key reads, in nanoseconds
+     */
+    public LatencyHistogram.Snapshot getGetLatency() {
+        return getLatency;
+    }
+
+    /**
+     * @return The latencies of single key writes, in nanoseconds
+     */
+    public LatencyHistogram.Snapshot getPutLatency() {
+        return putLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hitCount=" + hitCount + 
+                ", missCount=" + missCount + 
+                ", putCount=" + putCount + 
+                ", removeCount=" + removeCount + 
+                ", bytesRead=" + bytesRead + 
+                ", bytesWritten=" + bytesWritten + 
+                ", evictionCount=" + evictionCount + 
+                ", size=" + size + 
+                ", maxSize=" + maxSize + 
+                ", getLatency=" + getLatency + 
+                ", putLatency=" + putLatency + '}';
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An <code>InputStream</code> over a region of a <code>FileChannel</code>.
+ * <p>
+ * Reads are positional, so the channel may be shared by any number of 
+ * concurrent streams and its own position is never changed.
+ * </p>
+ */
+class ChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+    private long mark;
+
+    ChannelInputStream(FileChannel channel, long offset, long length) {
+        this.channel = java.util.Objects.requireNonNull(channel);
+        this.position = offset;
+        this.mark = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte [] b = new byte[1];
+        final int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        final long remaining = end - position;
+        if(remaining <= 0) {
+            return -1;
+        }
+        final int toRead = (int)Math.min(len, remaining);
+        final int n = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+        if(n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        final long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int)Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        this.mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.position = mark;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses the values of a cache. The id of the codec is recorded in each 
+ * entry it compresses, and used to find the codec when the entry is read.
+ * Codecs other than the built-in ones in {@link CompressionCodecs} are 
+ * registered when a cache is opened with them, and must be registered 
+ * with {@link CompressionCodecs#register(com.bc.diskcache.CompressionCodec)}
+ * before reading entries written by them with a differently configured cache.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return An id in the range 1 to 255, unique among the codecs in use
+     */
+    int getId();
+
+    /**
+     * @param out The stream to write the compressed bytes to
+     * @return A stream which compresses the bytes written to it. Closing it
+     * completes the compressed data and closes <code>out</code>.
+     * @throws IOException 
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * @param in The stream to read the compressed bytes from
+     * @return A stream of the uncompressed bytes. Closing it closes <code>in</code>.
+     * @throws IOException 
+     */
+    InputStream decompress(InputStream in) throws IOException;
+}
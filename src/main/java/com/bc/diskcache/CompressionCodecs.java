@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The built-in compression codecs, and the registry through which codecs 
+ * are found by the id recorded in each compressed entry.
+ */
+public final class CompressionCodecs {
+
+    private CompressionCodecs() { }
+
+    public static final int MIN_ID = 1;
+    public static final int MAX_ID = 255;
+
+    /**
+     * Deflate at {@link Deflater#BEST_SPEED}, which gets most of the 
+     * reduction at a fraction of the cost of the higher levels.
+     */
+    public static final CompressionCodec DEFLATE = deflate(1, Deflater.BEST_SPEED);
+
+    private static final ConcurrentMap<Integer, CompressionCodec> CODECS = new ConcurrentHashMap<>();
+
+    static{
+        register(DEFLATE);
+    }
+
+    /**
+     * @param id The id of the codec
+     * @param level The compression level, from 0 to 9
+     * @return A Deflate codec, compressing at the level
+     */
+    public static CompressionCodec deflate(final int id, final int level) {
+        if(level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid deflate level: " + level);
+        }
+        return new CompressionCodec() {
+            @Override
+            public int getId() {
+                return id;
+            }
+            @Override
+            public OutputStream compress(OutputStream out) {
+                final Deflater deflater = new Deflater(level);
+                return new DeflaterOutputStream(out, deflater, 8192) {
+                    @Override
+                    public void close() throws IOException {
+                        try{
+                            super.close();
+                        }finally{
+                            deflater.end();
+                        }
+                    }
+                };
+            }
+            @Override
+            public InputStream decompress(InputStream in) {
+                final Inflater inflater = new Inflater();
+                return new InflaterInputStream(in, inflater, 8192) {
+                    @Override
+                    public void close() throws IOException {
+                        try{
+                            super.close();
+                        }finally{
+                            inflater.end();
+                        }
+                    }
+                };
+            }
+            @Override
+            public String toString() {
+                return "Deflate{id=" + id + ", level=" + level + '}';
+            }
+        };
+    }
+
+    /**
+     * Makes the codec available for reading the entries it compressed.
+     * @param codec The codec to register
+     * @throws IllegalArgumentException If the id of the codec is out of range,
+     * or taken by another codec
+     */
+    public static void register(CompressionCodec codec) {
+        final int id = codec.getId();
+        if(id < MIN_ID || id > MAX_ID) {
+            throw new IllegalArgumentException("Compression codec id not in range [" + 
+                    MIN_ID + ", " + MAX_ID + "]: " + id);
+        }
+        final CompressionCodec existing = CODECS.putIfAbsent(id, codec);
+        if(existing != null && existing != codec) {
+            throw new IllegalArgumentException("Compression codec id " + id + " is taken by: " + existing);
+        }
+    }
+
+    /**
+     * @param id The id of the codec
+     * @return The codec registered with the id, or <code>null</code> if none
+     */
+    public static CompressionCodec forId(int id) {
+        return CODECS.get(id);
+    }
+}
@@ -27,6 +27,30 @@ public interface DiskLruCacheContext {
         File createFile(String key);
     }
 
+    /**
+     * Opens the storage engine backing each cache of the context.
+     */
+    interface CacheProvider{
+
+        CacheProvider SIMPLE = new CacheProvider() {
+            @Override
+            public DiskLruCacheIx open(File dir, long maxSizeBytes, DiskLruCacheOptions options) 
+                    throws IOException {
+                return SimpleDiskLruCache.open(dir, 1, maxSizeBytes, options);
+            }
+        };
+
+        CacheProvider LOG_STRUCTURED = new CacheProvider() {
+            @Override
+            public DiskLruCacheIx open(File dir, long maxSizeBytes, DiskLruCacheOptions options) 
+                    throws IOException {
+                return LogStructuredDiskLruCache.open(dir, 1, maxSizeBytes, options);
+            }
+        };
+
+        DiskLruCacheIx open(File dir, long maxSizeBytes, DiskLruCacheOptions options) throws IOException;
+    }
+
     DiskLruCacheContext NO_OP = new DiskLruCacheContext() {
         @Override
         public boolean containsCacheNamed(String key) { return false; }
@@ -57,6 +81,12 @@ public interface DiskLruCacheContext {
         @Override
         public int computeMaxSize(String key, int outputIfNone) { return 0;  }
         @Override
+        public DiskLruCacheOptions computeOptions(String key, DiskLruCacheOptions outputIfNone) { 
+            return outputIfNone;  
+        }
+        @Override
+        public CacheProvider getCacheProvider() { return CacheProvider.SIMPLE; }
+        @Override
         public FileProvider getFileProvider() { 
             return new FileProvider() {
                 @Override
@@ -87,5 +117,9 @@ public interface DiskLruCacheContext {
 
     int computeMaxSize(String key, int outputIfNone);
 
+    DiskLruCacheOptions computeOptions(String key, DiskLruCacheOptions outputIfNone);
+
+    CacheProvider getCacheProvider();
+
     FileProvider getFileProvider();
 }
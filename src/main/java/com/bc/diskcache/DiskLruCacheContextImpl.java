@@ -26,6 +26,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
 
 public class DiskLruCacheContextImpl implements DiskLruCacheContext {
 
@@ -44,13 +45,38 @@ public class DiskLruCacheContextImpl implements DiskLruCacheContext {
     
     private final FileProvider fileProvider;
 
+    private final CacheProvider cacheProvider;
+
+    private final DiskLruCacheOptions defaultOptions;
+
     public DiskLruCacheContextImpl(int defaultMaxCacheSizeBytes) {
         this(new FileProviderImpl(), defaultMaxCacheSizeBytes);
     }
     
     public DiskLruCacheContextImpl(FileProvider fileProvider, int defaultMaxCacheSizeBytes) {
+        this(fileProvider, CacheProvider.SIMPLE, defaultMaxCacheSizeBytes);
+    }
+    
+    public DiskLruCacheContextImpl(FileProvider fileProvider, CacheProvider cacheProvider, int defaultMaxCacheSizeBytes) {
+        this(fileProvider, cacheProvider, defaultMaxCacheSizeBytes, new DiskLruCacheOptions());
+    }
+
+    /**
+     * @param fileProvider Provides the directory of each cache
+     * @param cacheProvider Opens the storage engine of each cache
+     * @param defaultMaxCacheSizeBytes The max size of each cache, unless 
+     * {@link #computeMaxSize(java.lang.String, int)} is overridden
+     * @param defaultOptions The options each cache is opened with, e.g. its 
+     * {@link DiskLruCacheOptions#setDurability(com.bc.diskcache.Durability) durability},
+     * unless {@link #computeOptions(java.lang.String, com.bc.diskcache.DiskLruCacheOptions)}
+     * is overridden. Copied, so later changes to it have no effect.
+     */
+    public DiskLruCacheContextImpl(FileProvider fileProvider, CacheProvider cacheProvider, 
+            int defaultMaxCacheSizeBytes, DiskLruCacheOptions defaultOptions) {
         this.fileProvider = Objects.requireNonNull(fileProvider);
+        this.cacheProvider = Objects.requireNonNull(cacheProvider);
         this.defaultMaxCacheSizeBytes = defaultMaxCacheSizeBytes;
+        this.defaultOptions = new DiskLruCacheOptions(defaultOptions);
     }
 
     @Override
@@ -79,8 +105,33 @@ public class DiskLruCacheContextImpl implements DiskLruCacheContext {
                 LOG.log(Level.FINE, "DiskCacheLru. Creating Disk Cache named: {0}, maxCacheSizeBytes: {1}",
                         new Object[]{key, maxSize});
             }
-            final File file = this.getFileProvider().createFile(key);
-            instance = SimpleDiskLruCache.open(file, 1, maxSize);
+            final FileProvider provider = this.getFileProvider();
+            final File file = provider.createFile(key);
+            final DiskLruCacheOptions options = this.computeOptions(key, new DiskLruCacheOptions(defaultOptions));
+            if(provider instanceof MultiRootFileProvider) {
+                final MultiRootFileProvider roots = (MultiRootFileProvider)provider;
+                instance = ShardedDiskLruCache.open(roots.createFiles(key), roots.getWeights(), 
+                        options.getShardCount(), maxSize, options, this.getCacheProvider());
+            }else if(options.getShardCount() > 1) {
+                instance = ShardedDiskLruCache.open(file, options.getShardCount(), maxSize, options, this.getCacheProvider());
+            }else{
+                instance = this.getCacheProvider().open(file, maxSize, options);
+            }
+            if(options.getWriteBehindQueueBytes() > 0) {
+                instance = new WriteBehindDiskLruCache(instance, 
+                        options.getWriteBehindQueueBytes(), options.getWriteBehindBackpressure());
+            }
+            if(options.getHeapTierBytes() > 0) {
+                instance = new HeapTierDiskLruCache(instance, options.getHeapTierBytes());
+            }
+            if(options.isMetricsEnabled()) {
+                instance = new InstrumentedDiskLruCache(instance);
+                try{
+                    DiskLruCacheMXBeans.register(key, instance);
+                }catch(JMException e) {
+                    LOG.log(Level.WARNING, "Failed to register MBean of cache named: " + key, e);
+                }
+            }
             instances.put(key, instance);
         }
         return instance;
@@ -150,8 +201,15 @@ public class DiskLruCacheContextImpl implements DiskLruCacheContext {
             }
             if(remove) {
                 instances.remove(key);
+                if(cache instanceof InstrumentedDiskLruCache) {
+                    try{
+                        DiskLruCacheMXBeans.unregister(key, cache);
+                    }catch(JMException e) {
+                        LOG.log(Level.WARNING, "Failed to unregister MBean of cache named: " + key, e);
+                    }
+                }
                 final File file = this.getFileProvider().createFile(key);
-                SimpleDiskLruCache.removeCacheDir(file);
+                CacheDirs.release(file);
             }
             result = true;
         }
@@ -163,6 +221,16 @@ public class DiskLruCacheContextImpl implements DiskLruCacheContext {
         return this.defaultMaxCacheSizeBytes;
     }
 
+    @Override
+    public DiskLruCacheOptions computeOptions(String key, DiskLruCacheOptions outputIfNone) {
+        return outputIfNone;
+    }
+
+    @Override
+    public CacheProvider getCacheProvider() {
+        return this.cacheProvider;
+    }
+
     @Override
     public FileProvider getFileProvider() {
         return this.fileProvider;
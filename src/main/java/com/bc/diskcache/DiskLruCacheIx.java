@@ -22,7 +22,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public interface DiskLruCacheIx extends Closeable {
 
@@ -42,6 +48,16 @@ public interface DiskLruCacheIx extends Closeable {
         @Override
         public long getMaxSize() { return 0; }
         @Override
+        public CacheStats getStats() { return CacheStats.EMPTY; }
+        @Override
+        public CloseableIterator<String> keys() { return CacheIterators.empty(); }
+        @Override
+        public CloseableIterator<String> keys(String prefix) { return CacheIterators.empty(); }
+        @Override
+        public CloseableIterator<Map.Entry<String, SnapshotEntry<InputStream>>> entries(String prefix) {
+            return CacheIterators.empty();
+        }
+        @Override
         public boolean remove(String key) { return false; }
         @Override
         public void delete() { }
@@ -58,6 +74,21 @@ public interface DiskLruCacheIx extends Closeable {
             return outputIfNone;
         }
         @Override
+        public SnapshotEntry<ByteBuffer> getBufferEntry(String key, SnapshotEntry<ByteBuffer> outputIfNone) {
+            return outputIfNone;
+        }
+        @Override
+        public SnapshotEntry<InputStream> getRangeEntry(String key, long offset, long length, 
+                SnapshotEntry<InputStream> outputIfNone) {
+            return outputIfNone;
+        }
+        @Override
+        public long get(String key, ByteBuffer dst) { return -1; }
+        @Override
+        public long getLength(String key) { return -1; }
+        @Override
+        public long transferTo(String key, WritableByteChannel target) { return -1; }
+        @Override
         public Object getObject(String key, Object outputIfNone) {
             return outputIfNone;
         }
@@ -66,6 +97,30 @@ public interface DiskLruCacheIx extends Closeable {
             return outputIfNone;
         }
         @Override
+        public <T> SnapshotEntry<T> getEntry(String key, ValueCodec<T> codec, SnapshotEntry<T> outputIfNone) {
+            return outputIfNone;
+        }
+        @Override
+        public <T> T get(String key, ValueCodec<T> codec, T outputIfNone) {
+            return outputIfNone;
+        }
+        @Override
+        public <T> T getOrLoad(String key, Loader<T> loader) throws IOException {
+            return loader.load(key);
+        }
+        @Override
+        public <T> T getOrLoad(String key, ValueCodec<T> codec, Loader<? extends T> loader) throws IOException {
+            return loader.load(key);
+        }
+        @Override
+        public Map<String, Object> getAll(Collection<String> keys) {
+            return Collections.EMPTY_MAP;
+        }
+        @Override
+        public <T> Map<String, T> getAll(Collection<String> keys, ValueCodec<T> codec) {
+            return Collections.EMPTY_MAP;
+        }
+        @Override
         public boolean contains(String key) { return false; }
         @Override
         public void put(String key, InputStream is) { }
@@ -80,6 +135,26 @@ public interface DiskLruCacheIx extends Closeable {
         @Override
         public void put(String key, Object value, Map<String, ? extends Serializable> annotations) { }
         @Override
+        public <T> void put(String key, T value, ValueCodec<T> codec) { }
+        @Override
+        public <T> void put(String key, T value, ValueCodec<T> codec, Map<String, ? extends Serializable> annotations) { }
+        @Override
+        public void put(String key, InputStream is, long ttl, TimeUnit unit) { }
+        @Override
+        public void put(String key, String value, long ttl, TimeUnit unit) { }
+        @Override
+        public void put(String key, Object value, long ttl, TimeUnit unit) { }
+        @Override
+        public <T> void put(String key, T value, ValueCodec<T> codec, long ttl, TimeUnit unit) { }
+        @Override
+        public void put(String key, ByteBuffer value) { }
+        @Override
+        public void putAll(Map<String, ?> values) { }
+        @Override
+        public <T> void putAll(Map<String, ? extends T> values, ValueCodec<T> codec) { }
+        @Override
+        public int removeAll(Collection<String> keys) { return 0; }
+        @Override
         public void putIfNone(String key, InputStream is) { }
         @Override
         public void putIfNone(String key, InputStream is, Map<String, Serializable> annotations) { }
@@ -91,6 +166,14 @@ public interface DiskLruCacheIx extends Closeable {
         public void putIfNone(String key, String value, Map<String, ? extends Serializable> annotations) { }
         @Override
         public void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations) { }
+        @Override
+        public boolean putIfAbsent(String key, InputStream is) { return false; }
+        @Override
+        public boolean putIfAbsent(String key, String value) { return false; }
+        @Override
+        public boolean putIfAbsent(String key, Object value) { return false; }
+        @Override
+        public <T> boolean putIfAbsent(String key, T value, ValueCodec<T> codec) { return false; }
     };
 
     void flush() throws IOException;
@@ -112,6 +195,13 @@ public interface DiskLruCacheIx extends Closeable {
             
     long getMaxSize();
 
+    /**
+     * @return A snapshot of the statistics of the cache. Hits, misses, puts,
+     * removes and latencies are zero unless the cache is, or is behind, an 
+     * {@link InstrumentedDiskLruCache}.
+     */
+    CacheStats getStats();
+
     boolean remove(String key) throws IOException;
 
     void delete() throws IOException;
@@ -124,12 +214,157 @@ public interface DiskLruCacheIx extends Closeable {
     SnapshotEntry<ObjectInputStream> getObjectStreamEntry(
             String key, SnapshotEntry<ObjectInputStream> outputIfNone) throws IOException;
 
+    /**
+     * @param key The key of the entry
+     * @param outputIfNone Returned if there is no entry for the key
+     * @return An entry whose data is a read-only view of the value, which 
+     * remains valid after the entry is closed. Large values may be memory 
+     * mapped rather than copied to the heap.
+     * @throws IOException 
+     */
+    SnapshotEntry<ByteBuffer> getBufferEntry(String key, SnapshotEntry<ByteBuffer> outputIfNone) 
+            throws IOException;
+
+    /**
+     * Reads part of the value, e.g. to serve a range request, without 
+     * reading the bytes before it.
+     * @param key The key of the entry
+     * @param offset The position in the value of the first byte to read
+     * @param length The maximum number of bytes to read
+     * @param outputIfNone Returned if there is no entry for the key
+     * @return An entry whose data is a stream of the bytes of the value 
+     * from the offset, ending after <code>length</code> bytes or at the 
+     * end of the value, whichever comes first
+     * @throws IOException 
+     * @see #getLength(java.lang.String) 
+     */
+    SnapshotEntry<InputStream> getRangeEntry(String key, long offset, long length, 
+            SnapshotEntry<InputStream> outputIfNone) throws IOException;
+
+    /**
+     * Reads the value into the buffer, e.g. a direct buffer to be written 
+     * to a socket, without copying it to the heap where the storage allows.
+     * @param key The key of the entry
+     * @param dst The buffer to read into, from its position
+     * @return The length in bytes of the value, or -1 if there is no entry 
+     * for the key. If greater than the bytes remaining in the buffer, the 
+     * position of the buffer is left unchanged and nothing is read.
+     * @throws IOException 
+     * @see #getLength(java.lang.String) 
+     */
+    long get(String key, ByteBuffer dst) throws IOException;
+
+    /**
+     * @param key The key of the entry
+     * @return The length in bytes of the value, as read by 
+     * {@link #getStreamEntry(java.lang.String, com.bc.diskcache.DiskLruCacheIx.SnapshotEntry)},
+     * or -1 if there is no entry for the key
+     * @throws IOException 
+     */
+    long getLength(String key) throws IOException;
+
+    /**
+     * Writes the value to the channel. Where the storage allows, bytes are 
+     * transferred by the operating system, e.g. with sendfile to a socket, 
+     * without being copied to the heap.
+     * @param key The key of the entry
+     * @param target The channel to write to, in blocking mode
+     * @return The number of bytes written, or -1 if there is no entry for the key
+     * @throws IOException 
+     * @throws java.nio.channels.IllegalBlockingModeException If the target 
+     * is a selectable channel in non-blocking mode
+     */
+    long transferTo(String key, WritableByteChannel target) throws IOException;
+
     Object getObject(String key, Object outputIfNone) throws IOException, ClassNotFoundException;
 
     String getString(String key, String outputIfNone) throws IOException;
+
+    <T> SnapshotEntry<T> getEntry(String key, ValueCodec<T> codec, SnapshotEntry<T> outputIfNone) 
+            throws IOException;
+
+    /**
+     * @param <T> The type of the value
+     * @param key The key of the entry
+     * @param codec The codec the value was written with
+     * @param outputIfNone Returned if there is no entry for the key
+     * @return The value decoded by the codec
+     * @throws IOException 
+     * @see #put(java.lang.String, java.lang.Object, com.bc.diskcache.ValueCodec) 
+     */
+    <T> T get(String key, ValueCodec<T> codec, T outputIfNone) throws IOException;
+
+    /**
+     * Reads the value as {@link #getObject(java.lang.String, java.lang.Object)} 
+     * would or, if there is none, loads and writes it. The value of a key is 
+     * loaded by one caller at a time; callers missing the key meanwhile wait 
+     * for, and return, the value it loads.
+     * @param <T> The type of the value
+     * @param key The key of the entry
+     * @param loader Loads the value if missing. A <code>null</code> value
+     * is returned without being written.
+     * @return The value read or loaded
+     * @throws IOException If reading, loading or writing the value failed
+     * @throws ClassNotFoundException 
+     */
+    <T> T getOrLoad(String key, Loader<T> loader) throws IOException, ClassNotFoundException;
+
+    <T> T getOrLoad(String key, ValueCodec<T> codec, Loader<? extends T> loader) throws IOException;
+
+    /**
+     * @param keys The keys to read
+     * @return The values of the keys which have one, as read by 
+     * {@link #getObject(java.lang.String, java.lang.Object)}, in the order of the keys
+     * @throws IOException
+     * @throws ClassNotFoundException 
+     */
+    Map<String, Object> getAll(Collection<String> keys) throws IOException, ClassNotFoundException;
+
+    /**
+     * @param <T> The type of the values
+     * @param keys The keys to read
+     * @param codec The codec the values were written with
+     * @return The values of the keys which have one, in the order of the keys
+     * @throws IOException 
+     */
+    <T> Map<String, T> getAll(Collection<String> keys, ValueCodec<T> codec) throws IOException;
     
     boolean contains(String key) throws IOException;
 
+    /**
+     * @return The keys of the entries of the cache
+     * @throws IOException 
+     * @see #keys(java.lang.String) 
+     */
+    CloseableIterator<String> keys() throws IOException;
+
+    /**
+     * Lists keys as iterated, a few at a time, without holding the whole set 
+     * in memory or blocking writers. The iteration is weakly consistent: 
+     * entries written or removed while iterating may or may not be seen.
+     * Entries written by earlier versions of {@link SimpleDiskLruCache}, 
+     * which did not record the key, are not listed.
+     * @param prefix The prefix of the keys to list, empty for all keys
+     * @return The keys of the entries of the cache which start with the prefix,
+     * to be closed once done with. An <code>IOException</code> while iterating
+     * is thrown wrapped in a <code>RuntimeException</code>.
+     * @throws IOException 
+     */
+    CloseableIterator<String> keys(String prefix) throws IOException;
+
+    /**
+     * @param prefix The prefix of the keys of the entries, empty for all entries
+     * @return The entries whose keys start with the prefix, each read, as by 
+     * {@link #getStreamEntry(java.lang.String, com.bc.diskcache.DiskLruCacheIx.SnapshotEntry)},
+     * when reached. Each entry must be closed, as must the iterator. Entries
+     * removed between the listing of their key and their read are skipped.
+     * Reading an entry this way does not count as an access to it, so that
+     * a scan leaves the order in which entries are evicted as it was.
+     * @throws IOException 
+     * @see #keys(java.lang.String) 
+     */
+    CloseableIterator<Map.Entry<String, SnapshotEntry<InputStream>>> entries(String prefix) throws IOException;
+
     void put(String key, InputStream is) throws IOException;
 
     void put(String key, InputStream is, Map<String, Serializable> annotations)
@@ -145,6 +380,73 @@ public interface DiskLruCacheIx extends Closeable {
     void put(String key, Object value, Map<String, ? extends Serializable> annotations)
                                             throws IOException;
 
+    /**
+     * Stores the value as encoded by the codec, which is typically much 
+     * smaller and faster to read than the java serialized form.
+     * @param <T> The type of the value
+     * @param key The key of the entry
+     * @param value The value to store
+     * @param codec The codec to encode the value with, e.g. one of {@link ValueCodecs}
+     * @throws IOException 
+     */
+    <T> void put(String key, T value, ValueCodec<T> codec) throws IOException;
+
+    /**
+     * Writes the bytes remaining in the buffer as the value, as 
+     * {@link #put(java.lang.String, java.io.InputStream)} would. 
+     * The position of the buffer is advanced to its limit.
+     * @param key The key of the entry
+     * @param value The bytes to store
+     * @throws IOException 
+     */
+    void put(String key, ByteBuffer value) throws IOException;
+
+    <T> void put(String key, T value, ValueCodec<T> codec, Map<String, ? extends Serializable> annotations)
+                                            throws IOException;
+
+    /**
+     * Writes the value as {@link #put(java.lang.String, java.io.InputStream)} 
+     * would, to expire once the time to live has passed. Expired entries are 
+     * not read, and are removed in the background.
+     * @param key The key of the entry
+     * @param is The value to store
+     * @param ttl The time to live of the entry, greater than zero
+     * @param unit The unit of the time to live
+     * @throws IOException 
+     */
+    void put(String key, InputStream is, long ttl, TimeUnit unit) throws IOException;
+
+    void put(String key, String value, long ttl, TimeUnit unit) throws IOException;
+
+    void put(String key, Object value, long ttl, TimeUnit unit) throws IOException;
+
+    <T> void put(String key, T value, ValueCodec<T> codec, long ttl, TimeUnit unit) throws IOException;
+
+    /**
+     * Writes the values as {@link #put(java.lang.String, java.lang.Object)} 
+     * would, in batches, each committed together. Cheaper than as many 
+     * single puts, where the storage engine can group the writes.
+     * @param values The values to write, by key
+     * @throws IOException 
+     */
+    void putAll(Map<String, ?> values) throws IOException;
+
+    <T> void putAll(Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException;
+
+    /**
+     * @param keys The keys to remove
+     * @return The number of keys which had a value
+     * @throws IOException 
+     */
+    int removeAll(Collection<String> keys) throws IOException;
+
+    /**
+     * Writes the value unless the key has one, as 
+     * {@link #putIfAbsent(java.lang.String, java.io.InputStream)} does.
+     * @param key The key of the entry
+     * @param is The value to store
+     * @throws IOException 
+     */
     void putIfNone(String key, InputStream is) throws IOException;
 
     void putIfNone(String key, InputStream is, Map<String, Serializable> annotations)
@@ -160,8 +462,54 @@ public interface DiskLruCacheIx extends Closeable {
     void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations)
                                             throws IOException;
 
+    /**
+     * Writes the value as {@link #put(java.lang.String, java.io.InputStream)} 
+     * would, unless the key has a value. Checking and writing is atomic with 
+     * respect to the other writes of the key through this cache.
+     * @param key The key of the entry
+     * @param is The value to store
+     * @return <code>true</code> if the value was written, <code>false</code> 
+     * if the key had a value
+     * @throws IOException 
+     */
+    boolean putIfAbsent(String key, InputStream is) throws IOException;
+
+    boolean putIfAbsent(String key, String value) throws IOException;
+
+    boolean putIfAbsent(String key, Object value) throws IOException;
+
+    <T> boolean putIfAbsent(String key, T value, ValueCodec<T> codec) throws IOException;
+
+    /**
+     * Supplies the values missing from the cache.
+     * @param <T> The type of the values
+     * @see #getOrLoad(java.lang.String, com.bc.diskcache.DiskLruCacheIx.Loader) 
+     */
+    public static interface Loader<T> {
+        /**
+         * @param key The key missing from the cache
+         * @return The value of the key, or <code>null</code> if it has none
+         * @throws IOException 
+         */
+        T load(String key) throws IOException;
+    }
+
+    /**
+     * An iteration over a cache, which may hold files open until closed.
+     * @param <T> The type of the elements
+     */
+    public static interface CloseableIterator<T> extends Iterator<T>, Closeable {
+        @Override
+        void close();
+    }
+
     public static interface SnapshotEntry<T> extends Closeable {
         T getData();
         Map<String, Serializable> getMetadata();
+        /**
+         * @return The time the entry expires, in milliseconds since the 
+         * epoch, or zero if it does not expire
+         */
+        long getExpiryTime();
     }
 }
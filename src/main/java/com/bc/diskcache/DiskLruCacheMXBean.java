@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+/**
+ * The statistics of a cache, as published over JMX by 
+ * {@link DiskLruCacheContextImpl} under the name 
+ * <code>com.bc.diskcache:type=DiskLruCache,name=&lt;cache name&gt;</code>.
+ * Each attribute is read from a new {@link CacheStats snapshot}. Latencies 
+ * are in nanoseconds.
+ */
+public interface DiskLruCacheMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getPutCount();
+
+    long getRemoveCount();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    /**
+     * @return The evictions, or -1 if the cache cannot count them
+     * @see CacheStats#getEvictionCount() 
+     */
+    long getEvictionCount();
+
+    long getSize();
+
+    long getMaxSize();
+
+    double getGetLatencyMean();
+
+    long getGetLatency50thPercentile();
+
+    long getGetLatency99thPercentile();
+
+    long getGetLatency999thPercentile();
+
+    long getGetLatencyMax();
+
+    double getPutLatencyMean();
+
+    long getPutLatency50thPercentile();
+
+    long getPutLatency99thPercentile();
+
+    long getPutLatency999thPercentile();
+
+    long getPutLatencyMax();
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers caches with the platform MBean server, as {@link DiskLruCacheMXBean}s.
+ * Beans are named by the name and the directory of the cache, so that the
+ * caches of contexts which use the same names do not replace each other.
+ */
+final class DiskLruCacheMXBeans {
+
+    static final String DOMAIN = "com.bc.diskcache";
+
+    private DiskLruCacheMXBeans() { }
+
+    static ObjectName nameOf(String cacheName, File dir) throws JMException {
+        return new ObjectName(DOMAIN + ":type=DiskLruCache,name=" + ObjectName.quote(cacheName) + 
+                ",directory=" + ObjectName.quote(dir == null ? "" : dir.getAbsolutePath()));
+    }
+
+    /**
+     * Registers the cache, replacing any cache registered under its name 
+     * and directory.
+     */
+    static void register(String cacheName, DiskLruCacheIx cache) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = nameOf(cacheName, cache.getDirectory());
+        final Impl bean = new Impl(cache);
+        try{
+            server.registerMBean(bean, name);
+        }catch(InstanceAlreadyExistsException e) {
+            unregister(cacheName, cache);
+            server.registerMBean(bean, name);
+        }
+    }
+
+    static void unregister(String cacheName, DiskLruCacheIx cache) throws JMException {
+        try{
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(nameOf(cacheName, cache.getDirectory()));
+        }catch(InstanceNotFoundException ignored) { }
+    }
+
+    private static final class Impl implements DiskLruCacheMXBean {
+
+        private final DiskLruCacheIx cache;
+
+        private Impl(DiskLruCacheIx cache) {
+            this.cache = java.util.Objects.requireNonNull(cache);
+        }
+
+        @Override
+        public long getHitCount() {
+            return cache.getStats().getHitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return cache.getStats().getMissCount();
+        }
+
+        @Override
+        public double getHitRate() {
+            return cache.getStats().getHitRate();
+        }
+
+        @Override
+        public long getPutCount() {
+            return cache.getStats().getPutCount();
+        }
+
+        @Override
+        public long getRemoveCount() {
+            return cache.getStats().getRemoveCount();
+        }
+
+        @Override
+        public long getBytesRead() {
+            return cache.getStats().getBytesRead();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return cache.getStats().getBytesWritten();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return cache.getStats().getEvictionCount();
+        }
+
+        @Override
+        public long getSize() {
+            return cache.getSize();
+        }
+
+        @Override
+        public long getMaxSize() {
+            return cache.getMaxSize();
+        }
+
+        @Override
+        public double getGetLatencyMean() {
+            return cache.getStats().getGetLatency().getMean();
+        }
+
+        @Override
+        public long getGetLatency50thPercentile() {
+            return cache.getStats().getGetLatency().getValueAtPercentile(50);
+        }
+
+        @Override
+        public long getGetLatency99thPercentile() {
+            return cache.getStats().getGetLatency().getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getGetLatency999thPercentile() {
+            return cache.getStats().getGetLatency().getValueAtPercentile(99.9);
+        }
+
+        @Override
+        public long getGetLatencyMax() {
+            return cache.getStats().getGetLatency().getMax();
+        }
+
+        @Override
+        public double getPutLatencyMean() {
+            return cache.getStats().getPutLatency().getMean();
+        }
+
+        @Override
+        public long getPutLatency50thPercentile() {
+            return cache.getStats().getPutLatency().getValueAtPercentile(50);
+        }
+
+        @Override
+        public long getPutLatency99thPercentile() {
+            return cache.getStats().getPutLatency().getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getPutLatency999thPercentile() {
+            return cache.getStats().getPutLatency().getValueAtPercentile(99.9);
+        }
+
+        @Override
+        public long getPutLatencyMax() {
+            return cache.getStats().getPutLatency().getMax();
+        }
+    }
+}
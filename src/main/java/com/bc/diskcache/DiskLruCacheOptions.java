@@ -0,0 +1,359 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+/**
+ * Tuning options applied when a cache is opened. Each cache reads the options
+ * once, when it is opened, so an instance may be shared between caches.
+ */
+public class DiskLruCacheOptions {
+
+    public static final long DEFAULT_SEGMENT_SIZE_BYTES = 64L * 1024 * 1024;
+
+    public static final float DEFAULT_COMPACTION_THRESHOLD = 0.5f;
+
+    public static final int DEFAULT_MAP_THRESHOLD_BYTES = 64 * 1024;
+
+    public static final int DEFAULT_COMPRESSION_THRESHOLD_BYTES = 1024;
+
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+    public static final long DEFAULT_REAP_INTERVAL_MILLIS = 60_000;
+
+    private long segmentSizeBytes = DEFAULT_SEGMENT_SIZE_BYTES;
+
+    private float compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    private long mappedRegionCacheBytes;
+
+    private int mapThresholdBytes = DEFAULT_MAP_THRESHOLD_BYTES;
+
+    private long heapTierBytes;
+
+    private CompressionCodec compressionCodec;
+
+    private long writeBehindQueueBytes;
+
+    private WriteBehindDiskLruCache.Backpressure writeBehindBackpressure = WriteBehindDiskLruCache.Backpressure.BLOCK;
+
+    private int compressionThresholdBytes = DEFAULT_COMPRESSION_THRESHOLD_BYTES;
+
+    private Durability durability = Durability.NONE;
+
+    private long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+
+    private int shardCount = 1;
+
+    private EvictionPolicy.Factory evictionPolicy = EvictionPolicies.LRU;
+
+    private long reapIntervalMillis = DEFAULT_REAP_INTERVAL_MILLIS;
+
+    private boolean metricsEnabled = true;
+
+    public DiskLruCacheOptions() { }
+
+    public DiskLruCacheOptions(DiskLruCacheOptions other) {
+        this.segmentSizeBytes = other.segmentSizeBytes;
+        this.compactionThreshold = other.compactionThreshold;
+        this.mappedRegionCacheBytes = other.mappedRegionCacheBytes;
+        this.mapThresholdBytes = other.mapThresholdBytes;
+        this.heapTierBytes = other.heapTierBytes;
+        this.compressionCodec = other.compressionCodec;
+        this.compressionThresholdBytes = other.compressionThresholdBytes;
+        this.writeBehindQueueBytes = other.writeBehindQueueBytes;
+        this.writeBehindBackpressure = other.writeBehindBackpressure;
+        this.durability = other.durability;
+        this.syncIntervalMillis = other.syncIntervalMillis;
+        this.shardCount = other.shardCount;
+        this.evictionPolicy = other.evictionPolicy;
+        this.reapIntervalMillis = other.reapIntervalMillis;
+        this.metricsEnabled = other.metricsEnabled;
+    }
+
+    public long getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    /**
+     * @param segmentSizeBytes The size at which the segment file being 
+     * appended to is sealed and a new one started. Used by 
+     * {@link LogStructuredDiskLruCache}.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setSegmentSizeBytes(long segmentSizeBytes) {
+        if(segmentSizeBytes < 1) {
+            throw new IllegalArgumentException("Segment size < 1");
+        }
+        this.segmentSizeBytes = segmentSizeBytes;
+        return this;
+    }
+
+    public float getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold The fraction of a sealed segment which must
+     * be occupied by removed, replaced or evicted entries before the segment 
+     * is compacted. Used by {@link LogStructuredDiskLruCache}.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setCompactionThreshold(float compactionThreshold) {
+        if(compactionThreshold <= 0 || compactionThreshold > 1) {
+            throw new IllegalArgumentException("Compaction threshold not in range (0, 1]");
+        }
+        this.compactionThreshold = compactionThreshold;
+        return this;
+    }
+
+    public long getMappedRegionCacheBytes() {
+        return mappedRegionCacheBytes;
+    }
+
+    /**
+     * @param mappedRegionCacheBytes The total size of the memory mapped values
+     * kept for reuse by subsequent reads. Zero, the default, disables the 
+     * mapped read mode of <code>getStreamEntry</code> and <code>getString</code>.
+     * Not supported by {@link SimpleDiskLruCache}, which ignores it.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setMappedRegionCacheBytes(long mappedRegionCacheBytes) {
+        if(mappedRegionCacheBytes < 0) {
+            throw new IllegalArgumentException("Mapped region cache size < 0");
+        }
+        this.mappedRegionCacheBytes = mappedRegionCacheBytes;
+        return this;
+    }
+
+    public int getMapThresholdBytes() {
+        return mapThresholdBytes;
+    }
+
+    /**
+     * @param mapThresholdBytes The size from which values are memory mapped
+     * rather than read; mapping smaller values costs more than copying them.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setMapThresholdBytes(int mapThresholdBytes) {
+        if(mapThresholdBytes < 0) {
+            throw new IllegalArgumentException("Map threshold < 0");
+        }
+        this.mapThresholdBytes = mapThresholdBytes;
+        return this;
+    }
+
+    public long getHeapTierBytes() {
+        return heapTierBytes;
+    }
+
+    /**
+     * @param heapTierBytes The estimated heap weight of the decoded values 
+     * kept in memory by a {@link HeapTierDiskLruCache} in front of the cache.
+     * Zero, the default, disables the tier.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setHeapTierBytes(long heapTierBytes) {
+        if(heapTierBytes < 0) {
+            throw new IllegalArgumentException("Heap tier size < 0");
+        }
+        this.heapTierBytes = heapTierBytes;
+        return this;
+    }
+
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * @param compressionCodec The codec to compress values with, e.g. 
+     * {@link CompressionCodecs#DEFLATE}. <code>null</code>, the default, 
+     * stores values uncompressed. Entries record their codec, so caches 
+     * written with and without compression read the same.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setCompressionCodec(CompressionCodec compressionCodec) {
+        this.compressionCodec = compressionCodec;
+        return this;
+    }
+
+    public int getCompressionThresholdBytes() {
+        return compressionThresholdBytes;
+    }
+
+    /**
+     * @param compressionThresholdBytes The size from which values are 
+     * compressed; smaller values gain too little to be worth it.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setCompressionThresholdBytes(int compressionThresholdBytes) {
+        if(compressionThresholdBytes < 1) {
+            throw new IllegalArgumentException("Compression threshold < 1");
+        }
+        this.compressionThresholdBytes = compressionThresholdBytes;
+        return this;
+    }
+
+    public long getWriteBehindQueueBytes() {
+        return writeBehindQueueBytes;
+    }
+
+    /**
+     * @param writeBehindQueueBytes The size of the values which may wait 
+     * in the queue of a {@link WriteBehindDiskLruCache} in front of the cache.
+     * Zero, the default, disables write-behind.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setWriteBehindQueueBytes(long writeBehindQueueBytes) {
+        if(writeBehindQueueBytes < 0) {
+            throw new IllegalArgumentException("Write-behind queue size < 0");
+        }
+        this.writeBehindQueueBytes = writeBehindQueueBytes;
+        return this;
+    }
+
+    public WriteBehindDiskLruCache.Backpressure getWriteBehindBackpressure() {
+        return writeBehindBackpressure;
+    }
+
+    /**
+     * @param writeBehindBackpressure What to do with writes arriving while 
+     * the write-behind queue is full. Defaults to 
+     * {@link WriteBehindDiskLruCache.Backpressure#BLOCK}.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setWriteBehindBackpressure(WriteBehindDiskLruCache.Backpressure writeBehindBackpressure) {
+        this.writeBehindBackpressure = java.util.Objects.requireNonNull(writeBehindBackpressure);
+        return this;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @param durability When writes are forced to the device. Defaults to 
+     * {@link Durability#NONE}, leaving them to the operating system.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setDurability(Durability durability) {
+        this.durability = java.util.Objects.requireNonNull(durability);
+        return this;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * @param syncIntervalMillis The interval between forces of 
+     * {@link Durability#PERIODIC} durability.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setSyncIntervalMillis(long syncIntervalMillis) {
+        if(syncIntervalMillis < 1) {
+            throw new IllegalArgumentException("Sync interval < 1");
+        }
+        this.syncIntervalMillis = syncIntervalMillis;
+        return this;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @param shardCount The number of independent caches the keys of a 
+     * {@link ShardedDiskLruCache} are spread across. One, the default, 
+     * disables sharding. Changing it discards the entries of existing caches.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setShardCount(int shardCount) {
+        if(shardCount < 1) {
+            throw new IllegalArgumentException("Shard count < 1");
+        }
+        this.shardCount = shardCount;
+        return this;
+    }
+
+    public EvictionPolicy.Factory getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * @param evictionPolicy Chooses the entries evicted once the cache 
+     * exceeds its max size, e.g. one of {@link EvictionPolicies}. Defaults
+     * to {@link EvictionPolicies#LRU}. Used by {@link LogStructuredDiskLruCache}.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setEvictionPolicy(EvictionPolicy.Factory evictionPolicy) {
+        this.evictionPolicy = java.util.Objects.requireNonNull(evictionPolicy);
+        return this;
+    }
+
+    public long getReapIntervalMillis() {
+        return reapIntervalMillis;
+    }
+
+    /**
+     * @param reapIntervalMillis The interval between the passes which remove 
+     * expired entries, once the cache holds entries which expire. Expired 
+     * entries are never read, whether removed yet or not.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setReapIntervalMillis(long reapIntervalMillis) {
+        if(reapIntervalMillis < 1) {
+            throw new IllegalArgumentException("Reap interval < 1");
+        }
+        this.reapIntervalMillis = reapIntervalMillis;
+        return this;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * @param metricsEnabled Whether {@link DiskLruCacheContextImpl} puts an 
+     * {@link InstrumentedDiskLruCache} in front of each cache, and publishes
+     * its statistics over JMX. Enabled by default.
+     * @return This instance
+     */
+    public DiskLruCacheOptions setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "DiskLruCacheOptions{segmentSizeBytes=" + segmentSizeBytes + 
+                ", compactionThreshold=" + compactionThreshold + 
+                ", mappedRegionCacheBytes=" + mappedRegionCacheBytes + 
+                ", mapThresholdBytes=" + mapThresholdBytes + 
+                ", heapTierBytes=" + heapTierBytes + 
+                ", compressionCodec=" + compressionCodec + 
+                ", compressionThresholdBytes=" + compressionThresholdBytes + 
+                ", writeBehindQueueBytes=" + writeBehindQueueBytes + 
+                ", writeBehindBackpressure=" + writeBehindBackpressure + 
+                ", durability=" + durability + 
+                ", syncIntervalMillis=" + syncIntervalMillis + 
+                ", shardCount=" + shardCount + 
+                ", evictionPolicy=" + evictionPolicy + 
+                ", reapIntervalMillis=" + reapIntervalMillis + 
+                ", metricsEnabled=" + metricsEnabled + '}';
+    }
+}
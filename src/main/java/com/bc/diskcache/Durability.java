@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+/**
+ * When the writes to a cache are forced from the page cache of the operating
+ * system to the storage device, trading throughput for the writes which
+ * survive a crash of the machine. Writes survive a crash of the process
+ * whichever the mode.
+ */
+public enum Durability {
+
+    /**
+     * Writes are left in the page cache of the operating system, which 
+     * writes them out when it sees fit.
+     */
+    NONE,
+
+    /**
+     * Writes are forced to the device every 
+     * {@link DiskLruCacheOptions#getSyncIntervalMillis() sync interval}, 
+     * so that at most the writes of one interval are lost in a crash.
+     */
+    PERIODIC,
+
+    /**
+     * Writes return only once forced to the device. Writes committing at
+     * the same time share a single force, so that concurrent writers pay
+     * for one force rather than one each.
+     */
+    GROUP_COMMIT
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * The header written in front of each value. 
+ * <p>
+ * Layout: a byte holding the format version in its top 3 bits and flags in 
+ * the rest, followed by the fields the flags call for, in order: the id of 
+ * the compression codec (1 byte), the expiry time (8 bytes, milliseconds 
+ * since the epoch), the key (varint length, UTF-8 bytes) and the metadata 
+ * (varint length, bytes). An uncompressed entry without expiry, key or 
+ * metadata has a one byte header.
+ * </p>
+ * <p>
+ * The expiry time is at a fixed position, so that it can be checked from 
+ * the first {@link #EXPIRY_PREFIX_LENGTH} bytes of an entry, without 
+ * reading the metadata.
+ * </p>
+ * <p>
+ * The key is written by engines which do not otherwise keep it, so that 
+ * their entries can be listed. It too can be read from the start of an 
+ * entry, without reading the metadata.
+ * </p>
+ * <p>
+ * Metadata is kept encoded, and decoded only when first asked for.
+ * </p>
+ */
+final class EntryHeader {
+
+    private static final int VERSION = 1;
+    private static final int VERSION_SHIFT = 5;
+    private static final int FLAG_METADATA = 1;
+    private static final int FLAG_COMPRESSED = 2;
+    private static final int FLAG_EXPIRES = 4;
+    private static final int FLAG_KEY = 8;
+    private static final int KNOWN_FLAGS = FLAG_METADATA | FLAG_COMPRESSED | FLAG_EXPIRES | FLAG_KEY;
+
+    /** The number of bytes at the start of an entry which hold its expiry time, if any */
+    static final int EXPIRY_PREFIX_LENGTH = 10;
+
+    /** The number of bytes at the start of an entry which hold the length of its key, if any */
+    static final int KEY_LENGTH_PREFIX_LENGTH = EXPIRY_PREFIX_LENGTH + 5;
+
+    private static final byte [] NONE = new byte[0];
+
+    static final EntryHeader EMPTY = new EntryHeader(0, 0, NONE, NONE);
+
+    /** The id of the compression codec, zero if the value is not compressed */
+    private final int compression;
+
+    /** Milliseconds since the epoch, zero if the entry does not expire */
+    private final long expiryTime;
+
+    /** UTF-8, empty if the header holds no key */
+    private final byte [] key;
+
+    private final byte [] metadata;
+
+    private volatile Map<String, Serializable> decodedMetadata;
+
+    private EntryHeader(int compression, long expiryTime, byte [] key, byte [] metadata) {
+        this.compression = compression;
+        this.expiryTime = expiryTime;
+        this.key = key;
+        this.metadata = metadata;
+    }
+
+    static EntryHeader of(Map<String, ? extends Serializable> metadata) throws IOException {
+        final byte [] encoded = MetadataCodec.encode(metadata);
+        return encoded.length == 0 ? EMPTY : new EntryHeader(0, 0, NONE, encoded);
+    }
+
+    /**
+     * @return A copy of this header, marking the value as compressed by the codec
+     */
+    EntryHeader withCompression(CompressionCodec codec) {
+        return new EntryHeader(codec.getId(), expiryTime, key, metadata);
+    }
+
+    /**
+     * @param expiryTime Milliseconds since the epoch, zero if the entry does not expire
+     * @return A copy of this header, with the expiry time
+     */
+    EntryHeader withExpiryTime(long expiryTime) {
+        return new EntryHeader(compression, expiryTime, key, metadata);
+    }
+
+    /**
+     * @param key The key of the entry
+     * @return A copy of this header, holding the key
+     */
+    EntryHeader withKey(String key) {
+        return new EntryHeader(compression, expiryTime, key.getBytes(StandardCharsets.UTF_8), metadata);
+    }
+
+    /**
+     * @return The key of the entry, or <code>null</code> if the header holds none
+     */
+    String getKey() {
+        return key.length == 0 ? null : new String(key, StandardCharsets.UTF_8);
+    }
+
+    long getExpiryTime() {
+        return expiryTime;
+    }
+
+    boolean isExpired(long now) {
+        return expiryTime != 0 && expiryTime <= now;
+    }
+
+    boolean isCompressed() {
+        return compression != 0;
+    }
+
+    /**
+     * @return The codec which compressed the value, or <code>null</code> if not compressed
+     * @throws IOException If the codec is not registered
+     */
+    CompressionCodec getCompressionCodec() throws IOException {
+        if(compression == 0) {
+            return null;
+        }
+        final CompressionCodec codec = CompressionCodecs.forId(compression);
+        if(codec == null) {
+            throw new IOException("No compression codec registered with id: " + compression);
+        }
+        return codec;
+    }
+
+    private int flags() {
+        return (metadata.length > 0 ? FLAG_METADATA : 0) | (compression != 0 ? FLAG_COMPRESSED : 0) |
+                (expiryTime != 0 ? FLAG_EXPIRES : 0) | (key.length > 0 ? FLAG_KEY : 0);
+    }
+
+    int length() {
+        int length = compression != 0 ? 2 : 1;
+        if(expiryTime != 0) {
+            length += 8;
+        }
+        if(key.length > 0) {
+            length += varIntLength(key.length) + key.length;
+        }
+        if(metadata.length > 0) {
+            length += varIntLength(metadata.length) + metadata.length;
+        }
+        return length;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length());
+        buffer.put((byte)(VERSION << VERSION_SHIFT | flags()));
+        if(compression != 0) {
+            buffer.put((byte)compression);
+        }
+        if(expiryTime != 0) {
+            buffer.putLong(expiryTime);
+        }
+        if(key.length > 0) {
+            putVarInt(buffer, key.length);
+            buffer.put(key);
+        }
+        if(metadata.length > 0) {
+            putVarInt(buffer, metadata.length);
+            buffer.put(metadata);
+        }
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * @param head The first bytes of the entry, enough of them to hold the 
+     * fixed size fields and length prefixes. The position is not changed.
+     * @return The length of the header which starts at the buffer's position.
+     * If the buffer ends within the key, or within the length of the metadata
+     * which follows it, a length greater than the bytes remaining in the 
+     * buffer, enough to read up to and including the length of the metadata.
+     * @throws IOException If the header is not in the expected format
+     */
+    static int length(ByteBuffer head) throws IOException {
+        final ByteBuffer buffer = head.duplicate();
+        final int flags = readFlags(buffer);
+        int length = 1;
+        if((flags & FLAG_COMPRESSED) != 0) {
+            getCompressionId(buffer);
+            ++length;
+        }
+        if((flags & FLAG_EXPIRES) != 0) {
+            getExpiryTime(buffer);
+            length += 8;
+        }
+        if((flags & FLAG_KEY) != 0) {
+            final int start = buffer.position();
+            final int n = getVarInt(buffer);
+            length += buffer.position() - start + n;
+            if(buffer.remaining() < n) {
+                return (flags & FLAG_METADATA) != 0 ? length + 5 : length;
+            }
+            buffer.position(buffer.position() + n);
+            if((flags & FLAG_METADATA) != 0 && !hasVarInt(buffer)) {
+                return length + 5;
+            }
+        }
+        if((flags & FLAG_METADATA) != 0) {
+            final int start = buffer.position();
+            final int n = getVarInt(buffer);
+            length += buffer.position() - start + n;
+        }
+        return length;
+    }
+
+    /**
+     * Reads a header starting at the buffer's position, and advances the 
+     * position past it.
+     */
+    static EntryHeader read(ByteBuffer buffer) throws IOException {
+        final int flags = readFlags(buffer);
+        if(flags == 0) {
+            return EMPTY;
+        }
+        final int compression = (flags & FLAG_COMPRESSED) != 0 ? getCompressionId(buffer) : 0;
+        final long expiryTime = (flags & FLAG_EXPIRES) != 0 ? getExpiryTime(buffer) : 0;
+        final byte [] key = (flags & FLAG_KEY) != 0 ? getBytes(buffer) : NONE;
+        final byte [] metadata;
+        if((flags & FLAG_METADATA) != 0) {
+            metadata = getBytes(buffer);
+        }else{
+            metadata = NONE;
+        }
+        return new EntryHeader(compression, expiryTime, key, metadata);
+    }
+
+    /**
+     * @param head The first bytes of the entry, at least 
+     * {@link #KEY_LENGTH_PREFIX_LENGTH} of them unless the entry is shorter. 
+     * The position is not changed.
+     * @return The number of bytes at the start of the entry which hold its 
+     * key, or zero if the header holds no key
+     * @throws IOException If the header is not in the expected format
+     */
+    static int keyPrefixLength(ByteBuffer head) throws IOException {
+        final ByteBuffer buffer = head.duplicate();
+        if((skipToKey(buffer) & FLAG_KEY) == 0) {
+            return 0;
+        }
+        final int n = getVarInt(buffer);
+        return buffer.position() - head.position() + n;
+    }
+
+    /**
+     * @param head The first {@link #keyPrefixLength(java.nio.ByteBuffer)} 
+     * bytes of the entry, or more. The position is not changed.
+     * @return The key of the entry, or <code>null</code> if the header holds none
+     * @throws IOException If the header is not in the expected format
+     */
+    static String readKey(ByteBuffer head) throws IOException {
+        final ByteBuffer buffer = head.duplicate();
+        if((skipToKey(buffer) & FLAG_KEY) == 0) {
+            return null;
+        }
+        return new String(getBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the flags, and the fields preceding the key.
+     * @return The flags
+     */
+    private static int skipToKey(ByteBuffer buffer) throws IOException {
+        final int flags = readFlags(buffer);
+        if((flags & FLAG_COMPRESSED) != 0) {
+            getCompressionId(buffer);
+        }
+        if((flags & FLAG_EXPIRES) != 0) {
+            getExpiryTime(buffer);
+        }
+        return flags;
+    }
+
+    private static byte [] getBytes(ByteBuffer buffer) throws IOException {
+        final int n = getVarInt(buffer);
+        if(buffer.remaining() < n) {
+            throw new StreamCorruptedException("Truncated entry header");
+        }
+        final byte [] bytes = new byte[n];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param head The first bytes of the entry, at least 
+     * {@link #EXPIRY_PREFIX_LENGTH} of them unless the entry is shorter. 
+     * The position is not changed.
+     * @return The expiry time of the entry, zero if it does not expire
+     * @throws IOException If the header is not in the expected format
+     */
+    static long readExpiryTime(ByteBuffer head) throws IOException {
+        final ByteBuffer buffer = head.duplicate();
+        final int flags = readFlags(buffer);
+        if((flags & FLAG_EXPIRES) == 0) {
+            return 0;
+        }
+        if((flags & FLAG_COMPRESSED) != 0) {
+            getCompressionId(buffer);
+        }
+        return getExpiryTime(buffer);
+    }
+
+    private static long getExpiryTime(ByteBuffer buffer) throws IOException {
+        if(buffer.remaining() < 8) {
+            throw new StreamCorruptedException("Truncated entry header");
+        }
+        final long expiryTime = buffer.getLong();
+        if(expiryTime <= 0) {
+            throw new StreamCorruptedException("Invalid expiry time in entry header");
+        }
+        return expiryTime;
+    }
+
+    private static int getCompressionId(ByteBuffer buffer) throws IOException {
+        if(!buffer.hasRemaining()) {
+            throw new StreamCorruptedException("Truncated entry header");
+        }
+        final int id = buffer.get() & 0xff;
+        if(id == 0) {
+            throw new StreamCorruptedException("Invalid compression codec id in entry header");
+        }
+        return id;
+    }
+
+    private static int readFlags(ByteBuffer buffer) throws IOException {
+        if(!buffer.hasRemaining()) {
+            throw new StreamCorruptedException("Missing entry header");
+        }
+        final int b = buffer.get() & 0xff;
+        if(b >>> VERSION_SHIFT != VERSION) {
+            throw new StreamCorruptedException("Unexpected entry header version: " + (b >>> VERSION_SHIFT));
+        }
+        final int flags = b & ((1 << VERSION_SHIFT) - 1);
+        if((flags & ~KNOWN_FLAGS) != 0) {
+            throw new StreamCorruptedException("Unexpected entry header flags: " + flags);
+        }
+        return flags;
+    }
+
+    /**
+     * @return The metadata, decoded on the first call
+     * @throws RuntimeException If the metadata could not be decoded
+     */
+    Map<String, Serializable> getMetadata() {
+        Map<String, Serializable> result = decodedMetadata;
+        if(result == null) {
+            try{
+                decodedMetadata = result = MetadataCodec.decode(metadata);
+            }catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return result;
+    }
+
+    static int varIntLength(int value) {
+        int length = 1;
+        while((value & ~0x7F) != 0) {
+            value >>>= 7;
+            ++length;
+        }
+        return length;
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while((value & ~0x7F) != 0) {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    /**
+     * @return <code>true</code> if the buffer holds the whole of a variable 
+     * length integer at its position. The position is not changed.
+     */
+    private static boolean hasVarInt(ByteBuffer buffer) {
+        for(int i = buffer.position(); i < buffer.limit() && i - buffer.position() < 5; i++) {
+            if((buffer.get(i) & 0x80) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int getVarInt(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            if(!buffer.hasRemaining()) {
+                throw new StreamCorruptedException("Truncated entry header");
+            }
+            final int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                if(value < 0) {
+                    throw new StreamCorruptedException("Negative length in entry header");
+                }
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable length integer");
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the header of an entry followed by its value. 
+ * <p>
+ * When a compression codec is given, the first bytes of the value are held 
+ * back until the threshold is reached. Values reaching it are compressed, 
+ * smaller values are written as they are, and the header written ahead of
+ * them records which.
+ * </p>
+ */
+final class EntryOutputStream extends FilterOutputStream {
+
+    private final EntryHeader header;
+
+    private final CompressionCodec codec;
+
+    private final int threshold;
+
+    /** The bytes held back until compression is decided, null once decided */
+    private ByteArrayOutputStream pending;
+
+    EntryOutputStream(OutputStream out, EntryHeader header) throws IOException {
+        this(out, header, null, 0);
+    }
+
+    EntryOutputStream(OutputStream out, EntryHeader header, CompressionCodec codec, int threshold) 
+            throws IOException {
+        super(out);
+        this.header = java.util.Objects.requireNonNull(header);
+        this.codec = codec;
+        this.threshold = threshold;
+        if(codec == null) {
+            header.writeTo(out);
+        }else{
+            this.pending = new ByteArrayOutputStream(Math.min(threshold, 8192));
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if(pending == null) {
+            out.write(b);
+        }else{
+            pending.write(b);
+            if(pending.size() >= threshold) {
+                this.startCompression();
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(pending == null) {
+            out.write(b, off, len);
+        }else{
+            pending.write(b, off, len);
+            if(pending.size() >= threshold) {
+                this.startCompression();
+            }
+        }
+    }
+
+    /**
+     * Held back bytes stay held back; they are written once compression is decided.
+     */
+    @Override
+    public void flush() throws IOException {
+        if(pending == null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(pending != null) {
+            header.writeTo(out);
+            pending.writeTo(out);
+            pending = null;
+        }
+        super.close();
+    }
+
+    private void startCompression() throws IOException {
+        header.withCompression(codec).writeTo(out);
+        final ByteArrayOutputStream held = pending;
+        pending = null;
+        out = codec.compress(out);
+        held.writeTo(out);
+    }
+}
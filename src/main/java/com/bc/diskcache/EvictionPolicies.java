@@ -0,0 +1,396 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The built-in eviction policies. Only {@link #LRU} is polluted by scans 
+ * reading every entry once; the others favour entries read repeatedly.
+ */
+public final class EvictionPolicies {
+
+    private EvictionPolicies() { }
+
+    /**
+     * Evicts the least recently used entry. The default.
+     */
+    public static final EvictionPolicy.Factory LRU = new EvictionPolicy.Factory() {
+        @Override
+        public EvictionPolicy create(long maxSizeBytes) {
+            return new Lru();
+        }
+        @Override
+        public String toString() {
+            return "LRU";
+        }
+    };
+
+    /**
+     * Evicts the least frequently used entry, the least recently used of 
+     * those when several are used equally.
+     */
+    public static final EvictionPolicy.Factory LFU = new EvictionPolicy.Factory() {
+        @Override
+        public EvictionPolicy create(long maxSizeBytes) {
+            return new Lfu();
+        }
+        @Override
+        public String toString() {
+            return "LFU";
+        }
+    };
+
+    /**
+     * Greedy-Dual-Size-Frequency: evicts the entry with the fewest reads per 
+     * byte, aged so that entries no longer read are eventually evicted 
+     * however often they were read before. Keeps more, smaller entries 
+     * resident, maximizing the hit ratio rather than the byte hit ratio.
+     */
+    public static final EvictionPolicy.Factory GDSF = new EvictionPolicy.Factory() {
+        @Override
+        public EvictionPolicy create(long maxSizeBytes) {
+            return new Gdsf();
+        }
+        @Override
+        public String toString() {
+            return "GDSF";
+        }
+    };
+
+    /**
+     * {@link #segmentedLru(float) Segmented LRU} with 80% of the max size 
+     * protected.
+     */
+    public static final EvictionPolicy.Factory SEGMENTED_LRU = segmentedLru(0.8f);
+
+    /**
+     * Segmented LRU, as 2Q, keeps new entries in a probationary segment, 
+     * and moves them to a protected segment when read again. Entries are 
+     * evicted from the probationary segment first, so a scan reading each 
+     * entry once does not displace the entries read repeatedly.
+     * @param protectedFraction The fraction of the max size which the 
+     * protected segment may take up; the least recently used entries beyond
+     * it are moved back to the probationary segment
+     * @return A segmented LRU policy
+     */
+    public static EvictionPolicy.Factory segmentedLru(final float protectedFraction) {
+        if(protectedFraction <= 0 || protectedFraction >= 1) {
+            throw new IllegalArgumentException("Protected fraction not in range (0, 1)");
+        }
+        return new EvictionPolicy.Factory() {
+            @Override
+            public EvictionPolicy create(long maxSizeBytes) {
+                return new SegmentedLru((long)(maxSizeBytes * (double)protectedFraction));
+            }
+            @Override
+            public String toString() {
+                return "SEGMENTED_LRU(" + protectedFraction + ")";
+            }
+        };
+    }
+
+    private static final class Lru implements EvictionPolicy {
+
+        private final LinkedHashMap<String, Boolean> keys = new LinkedHashMap<>(16, 0.75f, true);
+
+        @Override
+        public void onWrite(String key, long sizeBytes) {
+            keys.put(key, Boolean.TRUE);
+        }
+
+        @Override
+        public void onRead(String key) {
+            keys.get(key);
+        }
+
+        @Override
+        public void onRemove(String key) {
+            keys.remove(key);
+        }
+
+        @Override
+        public String evict() {
+            final Iterator<String> iter = keys.keySet().iterator();
+            if(!iter.hasNext()) {
+                return null;
+            }
+            final String key = iter.next();
+            iter.remove();
+            return key;
+        }
+
+        @Override
+        public void clear() {
+            keys.clear();
+        }
+    }
+
+    private static final class Lfu implements EvictionPolicy {
+
+        private final Map<String, Long> counts = new HashMap<>();
+
+        /** The keys of each count, least recently used first */
+        private final TreeMap<Long, LinkedHashSet<String>> byCount = new TreeMap<>();
+
+        @Override
+        public void onWrite(String key, long sizeBytes) {
+            this.increment(key);
+        }
+
+        @Override
+        public void onRead(String key) {
+            if(counts.containsKey(key)) {
+                this.increment(key);
+            }
+        }
+
+        private void increment(String key) {
+            final Long count = counts.get(key);
+            final long next;
+            if(count == null) {
+                next = 1;
+            }else{
+                this.unlink(key, count);
+                next = count + 1;
+            }
+            counts.put(key, next);
+            LinkedHashSet<String> keys = byCount.get(next);
+            if(keys == null) {
+                keys = new LinkedHashSet<>();
+                byCount.put(next, keys);
+            }
+            keys.add(key);
+        }
+
+        private void unlink(String key, Long count) {
+            final LinkedHashSet<String> keys = byCount.get(count);
+            keys.remove(key);
+            if(keys.isEmpty()) {
+                byCount.remove(count);
+            }
+        }
+
+        @Override
+        public void onRemove(String key) {
+            final Long count = counts.remove(key);
+            if(count != null) {
+                this.unlink(key, count);
+            }
+        }
+
+        @Override
+        public String evict() {
+            final Map.Entry<Long, LinkedHashSet<String>> least = byCount.firstEntry();
+            if(least == null) {
+                return null;
+            }
+            final String key = least.getValue().iterator().next();
+            this.onRemove(key);
+            return key;
+        }
+
+        @Override
+        public void clear() {
+            counts.clear();
+            byCount.clear();
+        }
+    }
+
+    private static final class Gdsf implements EvictionPolicy {
+
+        private static final class Node implements Comparable<Node> {
+            private final String key;
+            private long sizeBytes;
+            private long count;
+            private double priority;
+            private long sequence;
+            private Node(String key) {
+                this.key = key;
+            }
+            @Override
+            public int compareTo(Node other) {
+                final int result = Double.compare(priority, other.priority);
+                return result != 0 ? result : Long.compare(sequence, other.sequence);
+            }
+        }
+
+        private final Map<String, Node> nodes = new HashMap<>();
+
+        private final TreeSet<Node> queue = new TreeSet<>();
+
+        /** The priority of the last evicted entry, added to those of entries as they are used */
+        private double inflation;
+
+        private long sequence;
+
+        @Override
+        public void onWrite(String key, long sizeBytes) {
+            Node node = nodes.get(key);
+            if(node == null) {
+                node = new Node(key);
+                nodes.put(key, node);
+            }else{
+                queue.remove(node);
+            }
+            node.sizeBytes = Math.max(1, sizeBytes);
+            this.touch(node);
+        }
+
+        @Override
+        public void onRead(String key) {
+            final Node node = nodes.get(key);
+            if(node != null) {
+                queue.remove(node);
+                this.touch(node);
+            }
+        }
+
+        private void touch(Node node) {
+            ++node.count;
+            node.priority = inflation + (double)node.count / node.sizeBytes;
+            node.sequence = ++sequence;
+            queue.add(node);
+        }
+
+        @Override
+        public void onRemove(String key) {
+            final Node node = nodes.remove(key);
+            if(node != null) {
+                queue.remove(node);
+            }
+        }
+
+        @Override
+        public String evict() {
+            final Node node = queue.pollFirst();
+            if(node == null) {
+                return null;
+            }
+            nodes.remove(node.key);
+            inflation = node.priority;
+            return node.key;
+        }
+
+        @Override
+        public void clear() {
+            nodes.clear();
+            queue.clear();
+            inflation = 0;
+        }
+    }
+
+    private static final class SegmentedLru implements EvictionPolicy {
+
+        private final long maxProtectedBytes;
+
+        /** The sizes of the entries in each segment, least recently used first */
+        private final LinkedHashMap<String, Long> probation = new LinkedHashMap<>();
+
+        private final LinkedHashMap<String, Long> protect = new LinkedHashMap<>();
+
+        private long protectedBytes;
+
+        private SegmentedLru(long maxProtectedBytes) {
+            this.maxProtectedBytes = maxProtectedBytes;
+        }
+
+        @Override
+        public void onWrite(String key, long sizeBytes) {
+            final Long size = protect.remove(key);
+            if(size != null) {
+                protectedBytes -= size;
+                this.promote(key, sizeBytes);
+            }else if(probation.remove(key) != null) {
+                this.promote(key, sizeBytes);
+            }else{
+                probation.put(key, sizeBytes);
+            }
+        }
+
+        @Override
+        public void onRead(String key) {
+            Long size = protect.remove(key);
+            if(size != null) {
+                protectedBytes -= size;
+            }else{
+                size = probation.remove(key);
+            }
+            if(size != null) {
+                this.promote(key, size);
+            }
+        }
+
+        /**
+         * Makes the key the most recently used of the protected segment, 
+         * moving those beyond its capacity to the probationary segment.
+         */
+        private void promote(String key, long sizeBytes) {
+            protect.put(key, sizeBytes);
+            protectedBytes += sizeBytes;
+            final Iterator<Map.Entry<String, Long>> iter = protect.entrySet().iterator();
+            while(protectedBytes > maxProtectedBytes && protect.size() > 1) {
+                final Map.Entry<String, Long> eldest = iter.next();
+                iter.remove();
+                protectedBytes -= eldest.getValue();
+                probation.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+
+        @Override
+        public void onRemove(String key) {
+            final Long size = protect.remove(key);
+            if(size != null) {
+                protectedBytes -= size;
+            }else{
+                probation.remove(key);
+            }
+        }
+
+        @Override
+        public String evict() {
+            Iterator<Map.Entry<String, Long>> iter = probation.entrySet().iterator();
+            if(iter.hasNext()) {
+                final String key = iter.next().getKey();
+                iter.remove();
+                return key;
+            }
+            iter = protect.entrySet().iterator();
+            if(iter.hasNext()) {
+                final Map.Entry<String, Long> eldest = iter.next();
+                iter.remove();
+                protectedBytes -= eldest.getValue();
+                return eldest.getKey();
+            }
+            return null;
+        }
+
+        @Override
+        public void clear() {
+            probation.clear();
+            protect.clear();
+            protectedBytes = 0;
+        }
+    }
+}
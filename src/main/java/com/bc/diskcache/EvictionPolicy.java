@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+/**
+ * Chooses the entries evicted once a cache exceeds its max size. Each cache
+ * creates its own policy, through the {@link Factory} it was opened with, 
+ * and serializes its calls to it. On open, the policy is told of the 
+ * entries found, least recently used first.
+ * <p>
+ * Used by {@link LogStructuredDiskLruCache}. {@link SimpleDiskLruCache}
+ * always evicts the least recently used entries.
+ * </p>
+ * @see EvictionPolicies
+ * @see DiskLruCacheOptions#setEvictionPolicy(com.bc.diskcache.EvictionPolicy.Factory) 
+ */
+public interface EvictionPolicy {
+
+    interface Factory {
+
+        /**
+         * @param maxSizeBytes The max size of the cache
+         * @return A new policy, for a single cache
+         */
+        EvictionPolicy create(long maxSizeBytes);
+    }
+
+    /**
+     * Called when an entry is written, whether or not the key had one.
+     * @param key The key of the entry
+     * @param sizeBytes The size of the entry
+     */
+    void onWrite(String key, long sizeBytes);
+
+    /**
+     * Called when an entry is read.
+     * @param key The key of the entry
+     */
+    void onRead(String key);
+
+    /**
+     * Called when an entry is removed other than by {@link #evict()}.
+     * @param key The key of the entry
+     */
+    void onRemove(String key);
+
+    /**
+     * Chooses the next entry to evict, and forgets it.
+     * @return The key of the entry to evict, or <code>null</code> if there are none
+     */
+    String evict();
+
+    /**
+     * Forgets all entries.
+     */
+    void clear();
+}
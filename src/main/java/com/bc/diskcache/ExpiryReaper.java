@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically removes the expired entries of a cache, in batches, so that
+ * they stop taking up its max size before they are read or evicted. Started
+ * only once the cache holds entries which expire.
+ */
+final class ExpiryReaper implements Closeable {
+
+    private transient static final Logger LOG = Logger.getLogger(ExpiryReaper.class.getName());
+
+    interface Target {
+        /**
+         * Removes the expired entries among the next entries of the cache, 
+         * continuing from where the previous call stopped.
+         * @param now The current time, in milliseconds since the epoch
+         * @param maxEntries The number of entries to examine
+         * @return <code>true</code> once every entry has been examined since 
+         * the pass started; the next call starts a new pass
+         * @throws IOException 
+         */
+        boolean reap(long now, int maxEntries) throws IOException;
+    }
+
+    /** The number of entries examined at a time; locks are held for no longer */
+    static final int BATCH_SIZE = 1024;
+
+    private final long intervalMillis;
+
+    private final Target target;
+
+    private ScheduledThreadPoolExecutor timer;
+
+    private boolean closed;
+
+    ExpiryReaper(long intervalMillis, Target target) {
+        this.intervalMillis = intervalMillis;
+        this.target = java.util.Objects.requireNonNull(target);
+    }
+
+    /**
+     * Starts the reaper, unless already started or closed.
+     * @param name The name of the cache
+     */
+    synchronized void start(final String name) {
+        if(timer != null || closed) {
+            return;
+        }
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, name + "-reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    ExpiryReaper.this.reap();
+                }catch(IOException | RuntimeException e) {
+                    LOG.log(Level.WARNING, "Failed to remove expired entries: " + name, e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes a full pass over the entries, a batch at a time.
+     * @throws IOException 
+     */
+    void reap() throws IOException {
+        final long now = System.currentTimeMillis();
+        while(!this.isClosed() && !target.reap(now, BATCH_SIZE)) { }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        final ScheduledThreadPoolExecutor stopped;
+        synchronized(this) {
+            closed = true;
+            stopped = timer;
+            timer = null;
+        }
+        if(stopped != null) {
+            // Not shutdownNow; interrupting a read closes the channel read
+            stopped.shutdown();
+        }
+    }
+}
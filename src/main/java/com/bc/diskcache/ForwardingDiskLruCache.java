@@ -0,0 +1,335 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwards every call to another cache. Subclasses override the methods 
+ * whose behaviour they add to.
+ */
+public abstract class ForwardingDiskLruCache implements DiskLruCacheIx {
+
+    private final DiskLruCacheIx delegate;
+
+    protected ForwardingDiskLruCache(DiskLruCacheIx delegate) {
+        this.delegate = java.util.Objects.requireNonNull(delegate);
+    }
+
+    public DiskLruCacheIx getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public void clear() throws IOException {
+        delegate.clear();
+    }
+
+    @Override
+    public File getDirectory() {
+        return delegate.getDirectory();
+    }
+
+    @Override
+    public long getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return delegate.getMaxSize();
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return delegate.getStats();
+    }
+
+    @Override
+    public boolean remove(String key) throws IOException {
+        return delegate.remove(key);
+    }
+
+    @Override
+    public void delete() throws IOException {
+        delegate.delete();
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getStreamEntry(
+            String key, SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        return delegate.getStreamEntry(key, outputIfNone);
+    }
+
+    @Override
+    public SnapshotEntry<String> getStringEntry(String key, SnapshotEntry<String> outputIfNone) throws IOException {
+        return delegate.getStringEntry(key, outputIfNone);
+    }
+
+    @Override
+    public SnapshotEntry<ObjectInputStream> getObjectStreamEntry(
+            String key, SnapshotEntry<ObjectInputStream> outputIfNone) throws IOException {
+        return delegate.getObjectStreamEntry(key, outputIfNone);
+    }
+
+    @Override
+    public SnapshotEntry<ByteBuffer> getBufferEntry(String key, SnapshotEntry<ByteBuffer> outputIfNone) 
+            throws IOException {
+        return delegate.getBufferEntry(key, outputIfNone);
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getRangeEntry(String key, long offset, long length, 
+            SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        return delegate.getRangeEntry(key, offset, length, outputIfNone);
+    }
+
+    @Override
+    public long get(String key, ByteBuffer dst) throws IOException {
+        return delegate.get(key, dst);
+    }
+
+    @Override
+    public long getLength(String key) throws IOException {
+        return delegate.getLength(key);
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        return delegate.transferTo(key, target);
+    }
+
+    @Override
+    public Object getObject(String key, Object outputIfNone) throws IOException, ClassNotFoundException {
+        return delegate.getObject(key, outputIfNone);
+    }
+
+    @Override
+    public String getString(String key, String outputIfNone) throws IOException {
+        return delegate.getString(key, outputIfNone);
+    }
+
+    @Override
+    public <T> SnapshotEntry<T> getEntry(String key, ValueCodec<T> codec, SnapshotEntry<T> outputIfNone) 
+            throws IOException {
+        return delegate.getEntry(key, codec, outputIfNone);
+    }
+
+    @Override
+    public <T> T get(String key, ValueCodec<T> codec, T outputIfNone) throws IOException {
+        return delegate.get(key, codec, outputIfNone);
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, Loader<T> loader) throws IOException, ClassNotFoundException {
+        return delegate.getOrLoad(key, loader);
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, ValueCodec<T> codec, Loader<? extends T> loader) throws IOException {
+        return delegate.getOrLoad(key, codec, loader);
+    }
+
+    @Override
+    public Map<String, Object> getAll(Collection<String> keys) throws IOException, ClassNotFoundException {
+        return delegate.getAll(keys);
+    }
+
+    @Override
+    public <T> Map<String, T> getAll(Collection<String> keys, ValueCodec<T> codec) throws IOException {
+        return delegate.getAll(keys, codec);
+    }
+
+    @Override
+    public boolean contains(String key) throws IOException {
+        return delegate.contains(key);
+    }
+
+    @Override
+    public CloseableIterator<String> keys() throws IOException {
+        return this.keys("");
+    }
+
+    @Override
+    public CloseableIterator<String> keys(String prefix) throws IOException {
+        return delegate.keys(prefix);
+    }
+
+    @Override
+    public CloseableIterator<Map.Entry<String, SnapshotEntry<InputStream>>> entries(String prefix) 
+            throws IOException {
+        return delegate.entries(prefix);
+    }
+
+    @Override
+    public void put(String key, InputStream is) throws IOException {
+        delegate.put(key, is);
+    }
+
+    @Override
+    public void put(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        delegate.put(key, is, annotations);
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        delegate.put(key, value);
+    }
+
+    @Override
+    public void put(String key, Object value) throws IOException {
+        delegate.put(key, value);
+    }
+
+    @Override
+    public void put(String key, String value, Map<String, ? extends Serializable> annotations) throws IOException {
+        delegate.put(key, value, annotations);
+    }
+
+    @Override
+    public void put(String key, Object value, Map<String, ? extends Serializable> annotations) throws IOException {
+        delegate.put(key, value, annotations);
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec) throws IOException {
+        delegate.put(key, value, codec);
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        delegate.put(key, value, codec, annotations);
+    }
+
+    @Override
+    public void put(String key, InputStream is, long ttl, TimeUnit unit) throws IOException {
+        delegate.put(key, is, ttl, unit);
+    }
+
+    @Override
+    public void put(String key, String value, long ttl, TimeUnit unit) throws IOException {
+        delegate.put(key, value, ttl, unit);
+    }
+
+    @Override
+    public void put(String key, Object value, long ttl, TimeUnit unit) throws IOException {
+        delegate.put(key, value, ttl, unit);
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, long ttl, TimeUnit unit) throws IOException {
+        delegate.put(key, value, codec, ttl, unit);
+    }
+
+    @Override
+    public void put(String key, ByteBuffer value) throws IOException {
+        delegate.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<String, ?> values) throws IOException {
+        delegate.putAll(values);
+    }
+
+    @Override
+    public <T> void putAll(Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException {
+        delegate.putAll(values, codec);
+    }
+
+    @Override
+    public int removeAll(Collection<String> keys) throws IOException {
+        return delegate.removeAll(keys);
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is) throws IOException {
+        delegate.putIfNone(key, is);
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        delegate.putIfNone(key, is, annotations);
+    }
+
+    @Override
+    public void putIfNone(String key, String value) throws IOException {
+        delegate.putIfNone(key, value);
+    }
+
+    @Override
+    public void putIfNone(String key, Object value) throws IOException {
+        delegate.putIfNone(key, value);
+    }
+
+    @Override
+    public void putIfNone(String key, String value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        delegate.putIfNone(key, value, annotations);
+    }
+
+    @Override
+    public void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        delegate.putIfNone(key, value, annotations);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, InputStream is) throws IOException {
+        return delegate.putIfAbsent(key, is);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) throws IOException {
+        return delegate.putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, Object value) throws IOException {
+        return delegate.putIfAbsent(key, value);
+    }
+
+    @Override
+    public <T> boolean putIfAbsent(String key, T value, ValueCodec<T> codec) throws IOException {
+        return delegate.putIfAbsent(key, value, codec);
+    }
+}
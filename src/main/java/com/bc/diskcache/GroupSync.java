@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Forces the writes of a cache to the device according to its {@link Durability}.
+ * Each write takes a ticket once written; a sync covers every ticket taken
+ * before it started. Under {@link Durability#GROUP_COMMIT} the first writer 
+ * to find no sync in progress runs one on behalf of all waiting writers, 
+ * while the others wait for it rather than run their own.
+ */
+final class GroupSync implements Closeable {
+
+    private transient static final Logger LOG = Logger.getLogger(GroupSync.class.getName());
+
+    interface Target {
+        /**
+         * Forces every write made so far to the device.
+         * @throws IOException 
+         */
+        void sync() throws IOException;
+    }
+
+    private final Durability durability;
+
+    private final long intervalMillis;
+
+    private final String name;
+
+    private final Target target;
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition synced = lock.newCondition();
+
+    private long written;
+
+    private long syncedUpTo;
+
+    private boolean syncing;
+
+    private boolean closed;
+
+    private ScheduledThreadPoolExecutor timer;
+
+    GroupSync(Durability durability, long intervalMillis, String name, Target target) {
+        this.durability = java.util.Objects.requireNonNull(durability);
+        this.intervalMillis = intervalMillis;
+        this.name = java.util.Objects.requireNonNull(name);
+        this.target = java.util.Objects.requireNonNull(target);
+    }
+
+    boolean isEnabled() {
+        return durability != Durability.NONE;
+    }
+
+    /**
+     * Called once a write, or a batch of writes, is complete. Returns once 
+     * the write is as durable as the mode requires.
+     * @throws IOException If the sync covering the write failed
+     */
+    void commit() throws IOException {
+        if(!this.isEnabled()) {
+            return;
+        }
+        final long ticket;
+        lock.lock();
+        try{
+            ticket = ++written;
+            if(timer == null && !closed && durability == Durability.PERIODIC) {
+                // Started with the first write, so that caches only read from need no thread
+                this.startTimer();
+            }
+        }finally{
+            lock.unlock();
+        }
+        if(durability == Durability.GROUP_COMMIT) {
+            this.await(ticket);
+        }
+    }
+
+    /**
+     * Forces the writes committed so far to the device, unless the mode is 
+     * {@link Durability#NONE}.
+     * @throws IOException 
+     */
+    void flush() throws IOException {
+        if(!this.isEnabled()) {
+            return;
+        }
+        final long ticket;
+        lock.lock();
+        try{
+            ticket = written;
+        }finally{
+            lock.unlock();
+        }
+        this.await(ticket);
+    }
+
+    private void await(long ticket) throws IOException {
+        lock.lock();
+        try{
+            while(syncedUpTo < ticket) {
+                if(syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+                syncing = true;
+                final long upTo = written;
+                boolean done = false;
+                lock.unlock();
+                try{
+                    target.sync();
+                    done = true;
+                }finally{
+                    lock.lock();
+                    syncing = false;
+                    if(done) {
+                        syncedUpTo = Math.max(syncedUpTo, upTo);
+                    }
+                    synced.signalAll();
+                }
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private void startTimer() {
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, name + "-sync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    GroupSync.this.flush();
+                }catch(IOException | RuntimeException e) {
+                    LOG.log(Level.WARNING, "Periodic sync failed: " + name, e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic sync, if any, then syncs the writes not yet synced.
+     * @throws IOException 
+     */
+    @Override
+    public void close() throws IOException {
+        final ScheduledThreadPoolExecutor stopped;
+        lock.lock();
+        try{
+            if(closed) {
+                return;
+            }
+            closed = true;
+            stopped = timer;
+            timer = null;
+        }finally{
+            lock.unlock();
+        }
+        if(stopped != null) {
+            // Not shutdownNow; interrupting a force closes the channel forced
+            stopped.shutdown();
+        }
+        this.flush();
+    }
+}
@@ -0,0 +1,739 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the most popular decoded values in memory, in front of another cache,
+ * so that repeated reads of hot keys skip the file and the decoding.
+ * <p>
+ * Values read through <code>getString</code>, <code>getObject</code> and 
+ * <code>get(key, codec)</code> are candidates. The tier is bounded by the 
+ * estimated heap weight of its values, and uses W-TinyLFU to decide which 
+ * values to keep, so that a scan of cold keys does not flush the hot ones.
+ * </p>
+ * <p>
+ * Strings put through this cache are written through to the tier. Every other 
+ * write, and every remove, invalidates the key. Entries evicted by the 
+ * underlying cache may still be served from the tier. Entries which expire
+ * are never held in the tier, so that they stop being served on time.
+ * </p>
+ * <p>
+ * Values are shared between the callers reading them, and must not be 
+ * modified. Values read with a codec are only served to callers passing 
+ * the same codec instance.
+ * </p>
+ */
+public class HeapTierDiskLruCache extends ForwardingDiskLruCache {
+
+    /**
+     * Estimates the heap occupied by a value.
+     */
+    public interface Weigher {
+
+        Weigher DEFAULT = new Weigher() {
+            @Override
+            public int weigh(String key, Object value) {
+                return (int)Math.min(ENTRY_OVERHEAD + 2L * key.length() + estimate(value, 2), Integer.MAX_VALUE);
+            }
+        };
+
+        int weigh(String key, Object value);
+    }
+
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static final Object STRING = new Object();
+    private static final Object OBJECT = new Object();
+
+    private final WindowTinyLfu policy;
+
+    private final Weigher weigher;
+
+    /** Guards the policy. Reads record hits only if it is free. */
+    private final Lock evictionLock = new ReentrantLock();
+
+    /** Serialises writes to the same key, so that the tier follows the order of writes to disk */
+    private final StripedLock writeLocks = new StripedLock();
+
+    /** Incremented, with the eviction lock held, on each invalidation */
+    private volatile long stamp;
+
+    public HeapTierDiskLruCache(DiskLruCacheIx delegate, long maxWeightBytes) {
+        this(delegate, maxWeightBytes, Weigher.DEFAULT);
+    }
+
+    public HeapTierDiskLruCache(DiskLruCacheIx delegate, long maxWeightBytes, Weigher weigher) {
+        super(delegate);
+        this.policy = new WindowTinyLfu(maxWeightBytes);
+        this.weigher = java.util.Objects.requireNonNull(weigher);
+    }
+
+    /**
+     * @return The estimated weight of the values held in memory
+     */
+    public long getTierSize() {
+        evictionLock.lock();
+        try{
+            return policy.getWeightedSize();
+        }finally{
+            evictionLock.unlock();
+        }
+    }
+
+    public long getTierMaxSize() {
+        return policy.getMaximumWeight();
+    }
+
+    @Override
+    public String getString(String key, String outputIfNone) throws IOException {
+        final SnapshotEntry<String> entry = this.getStringEntry(key, null);
+        return entry == null ? outputIfNone : entry.getData();
+    }
+
+    // Nodes looked up by STRING hold the string entries admitted by getStringEntry
+    @SuppressWarnings("unchecked")
+    @Override
+    public SnapshotEntry<String> getStringEntry(String key, SnapshotEntry<String> outputIfNone) throws IOException {
+        final WindowTinyLfu.Node node = this.lookup(key, STRING);
+        if(node != null) {
+            return (SnapshotEntry<String>)node.getValue();
+        }
+        final long start = stamp;
+        final SnapshotEntry<String> entry = super.getStringEntry(key, null);
+        if(entry == null) {
+            return outputIfNone;
+        }
+        if(entry.getExpiryTime() == 0) {
+            this.admit(key, STRING, entry, entry.getData(), start);
+        }
+        return entry;
+    }
+
+    @Override
+    public Object getObject(String key, Object outputIfNone) throws IOException, ClassNotFoundException {
+        final WindowTinyLfu.Node node = this.lookup(key, OBJECT);
+        if(node != null) {
+            return node.getValue();
+        }
+        final long start = stamp;
+        final SnapshotEntry<ObjectInputStream> entry = super.getObjectStreamEntry(key, null);
+        if(entry == null) {
+            return outputIfNone;
+        }
+        final Object value;
+        try{
+            value = entry.getData().readObject();
+        }finally{
+            entry.close();
+        }
+        if(value == null) {
+            return outputIfNone;
+        }
+        if(entry.getExpiryTime() == 0) {
+            this.admit(key, OBJECT, value, value, start);
+        }
+        return value;
+    }
+
+    @Override
+    public <T> T get(String key, ValueCodec<T> codec, T outputIfNone) throws IOException {
+        final SnapshotEntry<T> entry = this.getEntry(key, codec, null);
+        return entry == null ? outputIfNone : entry.getData();
+    }
+
+    /**
+     * Serves the value from the tier if held, else has the underlying cache 
+     * read or load it.
+     */
+    // Deserialized values are of the type the caller expects, as with getObject
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getOrLoad(String key, Loader<T> loader) throws IOException, ClassNotFoundException {
+        final Object value = this.getObject(key, null);
+        return value != null ? (T)value : super.getOrLoad(key, loader);
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, ValueCodec<T> codec, Loader<? extends T> loader) throws IOException {
+        final T value = this.get(key, codec, null);
+        return value != null ? value : super.getOrLoad(key, codec, loader);
+    }
+
+    // Nodes looked up by a codec hold the entries which that codec read
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> SnapshotEntry<T> getEntry(String key, ValueCodec<T> codec, SnapshotEntry<T> outputIfNone) 
+            throws IOException {
+        final WindowTinyLfu.Node node = this.lookup(key, codec);
+        if(node != null) {
+            return (SnapshotEntry<T>)node.getValue();
+        }
+        final long start = stamp;
+        final SnapshotEntry<T> entry = super.getEntry(key, codec, null);
+        if(entry == null) {
+            return outputIfNone;
+        }
+        if(entry.getExpiryTime() == 0) {
+            this.admit(key, codec, entry, entry.getData(), start);
+        }
+        return entry;
+    }
+
+    @Override
+    public Map<String, Object> getAll(Collection<String> keys) throws IOException, ClassNotFoundException {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        for(String key : keys) {
+            final Object value = this.getObject(key, null);
+            if(value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public <T> Map<String, T> getAll(Collection<String> keys, ValueCodec<T> codec) throws IOException {
+        final Map<String, T> result = new LinkedHashMap<>();
+        for(String key : keys) {
+            final SnapshotEntry<T> entry = this.getEntry(key, codec, null);
+            if(entry != null) {
+                result.put(key, entry.getData());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(String key) throws IOException {
+        return policy.get(key) != null || super.contains(key);
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        this.put(key, value, Collections.<String, Serializable>emptyMap());
+    }
+
+    @Override
+    public void put(String key, String value, Map<String, ? extends Serializable> annotations) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        boolean written = false;
+        try{
+            super.put(key, value, annotations);
+            this.replace(key, STRING, new HeldEntry<>(value, annotations), value);
+            written = true;
+        }finally{
+            if(!written) {
+                this.invalidate(key);
+            }
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream is) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, is);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, is, annotations);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, Object value) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, value);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, Object value, Map<String, ? extends Serializable> annotations) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, value, annotations);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, value, codec);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, value, codec, annotations);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream is, long ttl, TimeUnit unit) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, is, ttl, unit);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, String value, long ttl, TimeUnit unit) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, value, ttl, unit);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, Object value, long ttl, TimeUnit unit) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, value, ttl, unit);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, long ttl, TimeUnit unit) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, value, codec, ttl, unit);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, ByteBuffer value) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.put(key, value);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, ?> values) throws IOException {
+        final List<Lock> locks = writeLocks.getAll(values.keySet());
+        StripedLock.lock(locks);
+        try{
+            super.putAll(values);
+        }finally{
+            this.invalidateAll(values.keySet());
+            StripedLock.unlock(locks);
+        }
+    }
+
+    @Override
+    public <T> void putAll(Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException {
+        final List<Lock> locks = writeLocks.getAll(values.keySet());
+        StripedLock.lock(locks);
+        try{
+            super.putAll(values, codec);
+        }finally{
+            this.invalidateAll(values.keySet());
+            StripedLock.unlock(locks);
+        }
+    }
+
+    @Override
+    public int removeAll(Collection<String> keys) throws IOException {
+        final List<Lock> locks = writeLocks.getAll(keys);
+        StripedLock.lock(locks);
+        try{
+            return super.removeAll(keys);
+        }finally{
+            this.invalidateAll(keys);
+            StripedLock.unlock(locks);
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.putIfNone(key, is);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.putIfNone(key, is, annotations);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, String value) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.putIfNone(key, value);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, Object value) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.putIfNone(key, value);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, String value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.putIfNone(key, value, annotations);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            super.putIfNone(key, value, annotations);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, InputStream is) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            return super.putIfAbsent(key, is);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            return super.putIfAbsent(key, value);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, Object value) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            return super.putIfAbsent(key, value);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> boolean putIfAbsent(String key, T value, ValueCodec<T> codec) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            return super.putIfAbsent(key, value, codec);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String key) throws IOException {
+        final Lock lock = writeLocks.get(key);
+        lock.lock();
+        try{
+            return super.remove(key);
+        }finally{
+            this.invalidate(key);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        writeLocks.lockAll();
+        try{
+            super.clear();
+        }finally{
+            this.invalidateAll();
+            writeLocks.unlockAll();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            super.close();
+        }finally{
+            this.invalidateAll();
+        }
+    }
+
+    @Override
+    public void delete() throws IOException {
+        try{
+            super.delete();
+        }finally{
+            this.invalidateAll();
+        }
+    }
+
+    /**
+     * @return The node of the key, if it holds a value of the type
+     */
+    private WindowTinyLfu.Node lookup(String key, Object type) {
+        final WindowTinyLfu.Node node = policy.get(key);
+        if(node == null || node.getType() != type) {
+            return null;
+        }
+        // Under contention the hit goes unrecorded rather than wait for the lock
+        if(evictionLock.tryLock()) {
+            try{
+                policy.recordHit(node);
+            }finally{
+                evictionLock.unlock();
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Offers a value to the tier, unless the key was invalidated since 
+     * the value was read.
+     */
+    private void admit(String key, Object type, Object value, Object data, long start) {
+        final int weight = weigher.weigh(key, data);
+        evictionLock.lock();
+        try{
+            if(start == stamp) {
+                policy.add(new WindowTinyLfu.Node(key, type, value, weight));
+            }
+        }finally{
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the value of the key, failing any reads of the key which 
+     * started before.
+     */
+    private void replace(String key, Object type, Object value, Object data) {
+        final int weight = weigher.weigh(key, data);
+        evictionLock.lock();
+        try{
+            ++stamp;
+            policy.add(new WindowTinyLfu.Node(key, type, value, weight));
+        }finally{
+            evictionLock.unlock();
+        }
+    }
+
+    private void invalidate(String key) {
+        evictionLock.lock();
+        try{
+            ++stamp;
+            policy.remove(key);
+        }finally{
+            evictionLock.unlock();
+        }
+    }
+
+    private void invalidateAll(Collection<String> keys) {
+        evictionLock.lock();
+        try{
+            ++stamp;
+            for(String key : keys) {
+                policy.remove(key);
+            }
+        }finally{
+            evictionLock.unlock();
+        }
+    }
+
+    private void invalidateAll() {
+        evictionLock.lock();
+        try{
+            ++stamp;
+            policy.clear();
+        }finally{
+            evictionLock.unlock();
+        }
+    }
+
+    private static long estimate(Object value, int depth) {
+        if(value == null) {
+            return 0;
+        }
+        if(value instanceof String) {
+            return 40 + 2L * ((String)value).length();
+        }
+        if(value instanceof byte[]) {
+            return 16 + ((byte[])value).length;
+        }
+        if(value instanceof char[]) {
+            return 16 + 2L * ((char[])value).length;
+        }
+        if(value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return 16;
+        }
+        if(value instanceof Collection) {
+            final Collection<?> collection = (Collection<?>)value;
+            long weight = 48 + 16L * collection.size();
+            if(depth > 0) {
+                for(Object e : collection) {
+                    weight += estimate(e, depth - 1);
+                }
+            }
+            return weight;
+        }
+        if(value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>)value;
+            long weight = 64 + 40L * map.size();
+            if(depth > 0) {
+                for(Map.Entry<?, ?> e : map.entrySet()) {
+                    weight += estimate(e.getKey(), depth - 1) + estimate(e.getValue(), depth - 1);
+                }
+            }
+            return weight;
+        }
+        return 64;
+    }
+
+    private static final class HeldEntry<T> implements SnapshotEntry<T> {
+        private final T data;
+        private final Map<String, Serializable> metadata;
+        private HeldEntry(T data, Map<String, ? extends Serializable> metadata) {
+            this.data = data;
+            this.metadata = metadata == null || metadata.isEmpty() ? 
+                    Collections.<String, Serializable>emptyMap() :
+                    Collections.unmodifiableMap(new LinkedHashMap<String, Serializable>(metadata));
+        }
+        @Override
+        public T getData() {
+            return data;
+        }
+        @Override
+        public Map<String, Serializable> getMetadata() {
+            return metadata;
+        }
+        @Override
+        public long getExpiryTime() {
+            return 0;
+        }
+        @Override
+        public void close() { }
+    }
+}
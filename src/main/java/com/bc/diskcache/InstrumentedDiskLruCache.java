@@ -0,0 +1,569 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the hits, misses, puts and removes of another cache, and times its 
+ * single key reads and writes, for {@link #getStats()}. The evictions and 
+ * size are those reported by the cache behind.
+ * <p>
+ * Recording is lock free: two reads of the clock, an increment of a striped 
+ * counter and an increment of a histogram bucket. Reads which throw are not
+ * recorded. A read returning the <code>outputIfNone</code> passed to it is
+ * counted as a miss. A <code>getOrLoad</code> is counted as a miss when its
+ * loader is called, so callers waiting on another caller's load count as hits.
+ * </p>
+ * <p>
+ * The bytes of values passed as streams, strings and buffers are counted 
+ * as read or written. Streams are counted as they are consumed. Values 
+ * passed as objects, or through a codec, are not counted, as only the 
+ * storage sees their encoded form.
+ * </p>
+ */
+public class InstrumentedDiskLruCache extends ForwardingDiskLruCache {
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter puts = new StripedCounter();
+    private final StripedCounter removes = new StripedCounter();
+    private final StripedCounter bytesRead = new StripedCounter();
+    private final StripedCounter bytesWritten = new StripedCounter();
+
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram putLatency = new LatencyHistogram();
+
+    public InstrumentedDiskLruCache(DiskLruCacheIx delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public CacheStats getStats() {
+        final CacheStats stats = super.getStats();
+        return new CacheStats(hits.get(), misses.get(), puts.get(), removes.get(),
+                bytesRead.get(), bytesWritten.get(),
+                stats.getEvictionCount(), stats.getSize(), stats.getMaxSize(), 
+                getLatency.snapshot(), putLatency.snapshot());
+    }
+
+    private void recordGet(long start, boolean hit) {
+        getLatency.record(System.nanoTime() - start);
+        if(hit) {
+            hits.increment();
+        }else{
+            misses.increment();
+        }
+    }
+
+    private void recordPut(long start, boolean written) {
+        putLatency.record(System.nanoTime() - start);
+        if(written) {
+            puts.increment();
+        }
+    }
+
+    @Override
+    public boolean remove(String key) throws IOException {
+        final boolean removed = super.remove(key);
+        if(removed) {
+            removes.increment();
+        }
+        return removed;
+    }
+
+    @Override
+    public int removeAll(Collection<String> keys) throws IOException {
+        final int removed = super.removeAll(keys);
+        removes.add(removed);
+        return removed;
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getStreamEntry(
+            String key, SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        final long start = System.nanoTime();
+        final SnapshotEntry<InputStream> result = super.getStreamEntry(key, outputIfNone);
+        this.recordGet(start, result != outputIfNone);
+        return result == outputIfNone || result == null ? result : new CountedEntry(result);
+    }
+
+    @Override
+    public SnapshotEntry<String> getStringEntry(String key, SnapshotEntry<String> outputIfNone) throws IOException {
+        final long start = System.nanoTime();
+        final SnapshotEntry<String> result = super.getStringEntry(key, outputIfNone);
+        this.recordGet(start, result != outputIfNone);
+        if(result != outputIfNone && result != null) {
+            bytesRead.add(utf8Length(result.getData()));
+        }
+        return result;
+    }
+
+    @Override
+    public SnapshotEntry<ObjectInputStream> getObjectStreamEntry(
+            String key, SnapshotEntry<ObjectInputStream> outputIfNone) throws IOException {
+        final long start = System.nanoTime();
+        final SnapshotEntry<ObjectInputStream> result = super.getObjectStreamEntry(key, outputIfNone);
+        this.recordGet(start, result != outputIfNone);
+        return result;
+    }
+
+    @Override
+    public SnapshotEntry<ByteBuffer> getBufferEntry(String key, SnapshotEntry<ByteBuffer> outputIfNone) 
+            throws IOException {
+        final long start = System.nanoTime();
+        final SnapshotEntry<ByteBuffer> result = super.getBufferEntry(key, outputIfNone);
+        this.recordGet(start, result != outputIfNone);
+        if(result != outputIfNone && result != null) {
+            bytesRead.add(result.getData().remaining());
+        }
+        return result;
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getRangeEntry(String key, long offset, long length, 
+            SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        final long start = System.nanoTime();
+        final SnapshotEntry<InputStream> result = super.getRangeEntry(key, offset, length, outputIfNone);
+        this.recordGet(start, result != outputIfNone);
+        return result == outputIfNone || result == null ? result : new CountedEntry(result);
+    }
+
+    @Override
+    public long get(String key, ByteBuffer dst) throws IOException {
+        final long start = System.nanoTime();
+        final long length = super.get(key, dst);
+        this.recordGet(start, length != -1);
+        if(length > 0) {
+            bytesRead.add(length);
+        }
+        return length;
+    }
+
+    @Override
+    public long getLength(String key) throws IOException {
+        final long start = System.nanoTime();
+        final long length = super.getLength(key);
+        this.recordGet(start, length != -1);
+        return length;
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        final long start = System.nanoTime();
+        final long written = super.transferTo(key, target);
+        this.recordGet(start, written != -1);
+        if(written > 0) {
+            bytesRead.add(written);
+        }
+        return written;
+    }
+
+    @Override
+    public Object getObject(String key, Object outputIfNone) throws IOException, ClassNotFoundException {
+        final long start = System.nanoTime();
+        final Object result = super.getObject(key, outputIfNone);
+        this.recordGet(start, result != outputIfNone);
+        return result;
+    }
+
+    @Override
+    public String getString(String key, String outputIfNone) throws IOException {
+        final long start = System.nanoTime();
+        final String result = super.getString(key, outputIfNone);
+        this.recordGet(start, result != outputIfNone);
+        if(result != outputIfNone && result != null) {
+            bytesRead.add(utf8Length(result));
+        }
+        return result;
+    }
+
+    @Override
+    public <T> SnapshotEntry<T> getEntry(String key, ValueCodec<T> codec, SnapshotEntry<T> outputIfNone) 
+            throws IOException {
+        final long start = System.nanoTime();
+        final SnapshotEntry<T> result = super.getEntry(key, codec, outputIfNone);
+        this.recordGet(start, result != outputIfNone);
+        return result;
+    }
+
+    @Override
+    public <T> T get(String key, ValueCodec<T> codec, T outputIfNone) throws IOException {
+        final long start = System.nanoTime();
+        final T result = super.get(key, codec, outputIfNone);
+        this.recordGet(start, result != outputIfNone);
+        return result;
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, Loader<T> loader) throws IOException, ClassNotFoundException {
+        final long start = System.nanoTime();
+        final RecordingLoader<T> recording = new RecordingLoader<>(loader);
+        final T result = super.getOrLoad(key, recording);
+        this.recordGet(start, !recording.called);
+        return result;
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, ValueCodec<T> codec, Loader<? extends T> loader) throws IOException {
+        final long start = System.nanoTime();
+        final RecordingLoader<T> recording = new RecordingLoader<T>(loader);
+        final T result = super.getOrLoad(key, codec, recording);
+        this.recordGet(start, !recording.called);
+        return result;
+    }
+
+    /**
+     * Counted as a hit or a miss per key. Not timed.
+     */
+    @Override
+    public Map<String, Object> getAll(Collection<String> keys) throws IOException, ClassNotFoundException {
+        final Map<String, Object> result = super.getAll(keys);
+        hits.add(result.size());
+        misses.add(Math.max(0, keys.size() - result.size()));
+        return result;
+    }
+
+    /**
+     * Counted as a hit or a miss per key. Not timed.
+     */
+    @Override
+    public <T> Map<String, T> getAll(Collection<String> keys, ValueCodec<T> codec) throws IOException {
+        final Map<String, T> result = super.getAll(keys, codec);
+        hits.add(result.size());
+        misses.add(Math.max(0, keys.size() - result.size()));
+        return result;
+    }
+
+    @Override
+    public void put(String key, InputStream is) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, new CountingInputStream(is, bytesWritten));
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void put(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, new CountingInputStream(is, bytesWritten), annotations);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, value);
+        bytesWritten.add(utf8Length(value));
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void put(String key, Object value) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, value);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void put(String key, String value, Map<String, ? extends Serializable> annotations) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, value, annotations);
+        bytesWritten.add(utf8Length(value));
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void put(String key, Object value, Map<String, ? extends Serializable> annotations) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, value, annotations);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, value, codec);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, value, codec, annotations);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void put(String key, InputStream is, long ttl, TimeUnit unit) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, new CountingInputStream(is, bytesWritten), ttl, unit);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void put(String key, String value, long ttl, TimeUnit unit) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, value, ttl, unit);
+        bytesWritten.add(utf8Length(value));
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void put(String key, Object value, long ttl, TimeUnit unit) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, value, ttl, unit);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, long ttl, TimeUnit unit) throws IOException {
+        final long start = System.nanoTime();
+        super.put(key, value, codec, ttl, unit);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void put(String key, ByteBuffer value) throws IOException {
+        final long start = System.nanoTime();
+        final int length = value.remaining();
+        super.put(key, value);
+        bytesWritten.add(length);
+        this.recordPut(start, true);
+    }
+
+    /**
+     * Counted as a put per value. Not timed.
+     */
+    @Override
+    public void putAll(Map<String, ?> values) throws IOException {
+        super.putAll(values);
+        puts.add(values.size());
+    }
+
+    /**
+     * Counted as a put per value. Not timed.
+     */
+    @Override
+    public <T> void putAll(Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException {
+        super.putAll(values, codec);
+        puts.add(values.size());
+    }
+
+    /**
+     * Timed, and counted as a put whether or not the key had an entry. The 
+     * bytes written are counted only for streams, which are not read if the
+     * key had an entry.
+     */
+    @Override
+    public void putIfNone(String key, InputStream is) throws IOException {
+        final long start = System.nanoTime();
+        super.putIfNone(key, new CountingInputStream(is, bytesWritten));
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        final long start = System.nanoTime();
+        super.putIfNone(key, new CountingInputStream(is, bytesWritten), annotations);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void putIfNone(String key, String value) throws IOException {
+        final long start = System.nanoTime();
+        super.putIfNone(key, value);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void putIfNone(String key, Object value) throws IOException {
+        final long start = System.nanoTime();
+        super.putIfNone(key, value);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void putIfNone(String key, String value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        final long start = System.nanoTime();
+        super.putIfNone(key, value, annotations);
+        this.recordPut(start, true);
+    }
+
+    @Override
+    public void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        final long start = System.nanoTime();
+        super.putIfNone(key, value, annotations);
+        this.recordPut(start, true);
+    }
+
+    /**
+     * Timed, and counted as a put only if written.
+     */
+    @Override
+    public boolean putIfAbsent(String key, InputStream is) throws IOException {
+        final long start = System.nanoTime();
+        final boolean written = super.putIfAbsent(key, new CountingInputStream(is, bytesWritten));
+        this.recordPut(start, written);
+        return written;
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) throws IOException {
+        final long start = System.nanoTime();
+        final boolean written = super.putIfAbsent(key, value);
+        if(written) {
+            bytesWritten.add(utf8Length(value));
+        }
+        this.recordPut(start, written);
+        return written;
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, Object value) throws IOException {
+        final long start = System.nanoTime();
+        final boolean written = super.putIfAbsent(key, value);
+        this.recordPut(start, written);
+        return written;
+    }
+
+    @Override
+    public <T> boolean putIfAbsent(String key, T value, ValueCodec<T> codec) throws IOException {
+        final long start = System.nanoTime();
+        final boolean written = super.putIfAbsent(key, value, codec);
+        this.recordPut(start, written);
+        return written;
+    }
+
+    private static long utf8Length(String value) {
+        long length = 0;
+        for(int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if(c < 0x80) {
+                ++length;
+            }else if(c < 0x800) {
+                length += 2;
+            }else if(Character.isHighSurrogate(c) && i + 1 < value.length() 
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                ++i;
+            }else{
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Adds the bytes read through it to a counter, as they are read.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final StripedCounter counter;
+
+        private CountingInputStream(InputStream in, StripedCounter counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if(b != -1) {
+                counter.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if(n > 0) {
+                counter.add(n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Counts the bytes of the value read, as they are read.
+     */
+    private final class CountedEntry implements SnapshotEntry<InputStream> {
+
+        private final SnapshotEntry<InputStream> entry;
+
+        private final InputStream data;
+
+        private CountedEntry(SnapshotEntry<InputStream> entry) {
+            this.entry = entry;
+            this.data = new CountingInputStream(entry.getData(), bytesRead);
+        }
+
+        @Override
+        public InputStream getData() {
+            return data;
+        }
+
+        @Override
+        public Map<String, Serializable> getMetadata() {
+            return entry.getMetadata();
+        }
+
+        @Override
+        public long getExpiryTime() {
+            return entry.getExpiryTime();
+        }
+
+        @Override
+        public void close() throws IOException {
+            entry.close();
+        }
+    }
+
+    /**
+     * Notes whether the cache behind called the loader, i.e. whether the 
+     * key was missing.
+     */
+    private static final class RecordingLoader<T> implements Loader<T> {
+
+        private final Loader<? extends T> loader;
+
+        private volatile boolean called;
+
+        private RecordingLoader(Loader<? extends T> loader) {
+            this.loader = java.util.Objects.requireNonNull(loader);
+        }
+
+        @Override
+        public T load(String key) throws IOException {
+            called = true;
+            return loader.load(key);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies, in nanoseconds, in log-linear buckets: each power of 
+ * two is split into 16 equal buckets, so values are 
+ * known to within about 6%, over the whole range of a long, in a fixed 
+ * size array. Recording a value is a single atomic increment.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * @param nanos The latency to record. Negative values, e.g. from a clock
+     * adjustment, are recorded as zero.
+     */
+    public void record(long nanos) {
+        counts.getAndIncrement(bucketOf(nanos < 0 ? 0 : nanos));
+    }
+
+    /**
+     * @return A copy of the counts. Values recorded during the copy may or 
+     * may not be included.
+     */
+    public Snapshot snapshot() {
+        final long [] copy = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return The smallest value which falls in the bucket
+     */
+    static long lowestOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        return (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @return The largest value which falls in the bucket
+     */
+    static long highestOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        return lowestOf(bucket) + ((1L << shift) - 1);
+    }
+
+    /**
+     * The counts of a histogram at a point in time.
+     */
+    public static final class Snapshot {
+
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS]);
+
+        private final long [] counts;
+
+        private final long count;
+
+        private Snapshot(long [] counts) {
+            this.counts = counts;
+            long total = 0;
+            for(long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        /**
+         * @param other The snapshot to add, e.g. of another shard
+         * @return A snapshot holding the counts of both
+         */
+        public Snapshot plus(Snapshot other) {
+            final long [] sum = Arrays.copyOf(counts, BUCKETS);
+            for(int i = 0; i < BUCKETS; i++) {
+                sum[i] += other.counts[i];
+            }
+            return new Snapshot(sum);
+        }
+
+        /**
+         * @return The number of values recorded
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @param percentile The percentile, from 0 to 100, e.g. 99.9
+         * @return The value below or at which the given percentage of the 
+         * values fall, rounded up to the end of its bucket, or zero if no 
+         * value was recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if(percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile not in range [0, 100]");
+            }
+            if(count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if(seen >= rank) {
+                    return highestOf(i);
+                }
+            }
+            return this.getMax();
+        }
+
+        /**
+         * @return The largest value recorded, rounded up to the end of its 
+         * bucket, or zero if no value was recorded
+         */
+        public long getMax() {
+            for(int i = BUCKETS - 1; i >= 0; i--) {
+                if(counts[i] > 0) {
+                    return highestOf(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return The mean of the values, each taken as the middle of its 
+         * bucket, or zero if no value was recorded
+         */
+        public double getMean() {
+            if(count == 0) {
+                return 0;
+            }
+            double total = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                if(counts[i] > 0) {
+                    total += counts[i] * ((lowestOf(i) + (double)highestOf(i)) / 2);
+                }
+            }
+            return total / count;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", mean=" + (long)this.getMean() + 
+                    ", p50=" + this.getValueAtPercentile(50) + 
+                    ", p99=" + this.getValueAtPercentile(99) + 
+                    ", p999=" + this.getValueAtPercentile(99.9) + 
+                    ", max=" + this.getMax() + '}';
+        }
+    }
+}
@@ -0,0 +1,1563 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A log structured storage engine. Entries are appended to large segment 
+ * files, and an in-memory index maps each key to the segment, offset and 
+ * length of its latest record. Writes are therefore sequential and a read 
+ * costs a single positional read. Entries beyond the max size are evicted 
+ * as chosen by the {@link DiskLruCacheOptions#getEvictionPolicy() eviction policy}.
+ * <p>
+ * Removed, replaced and evicted entries leave dead records behind. Once the 
+ * dead fraction of a sealed segment reaches the 
+ * {@link DiskLruCacheOptions#getCompactionThreshold() compaction threshold},
+ * a background thread copies its live records to the head of the log and 
+ * deletes the segment.
+ * </p>
+ * <p>
+ * Record layout: <code>type(1) keyLength(4) key entryLength(8) entryCrc(4) 
+ * headerCrc(4) entry</code>, where the entry is the header written by 
+ * {@link AbstractDiskLruCache} followed by the value.
+ * </p>
+ * <p>
+ * Each time a segment is sealed, and on close, the index is written to a 
+ * checkpoint file together with the position in the log it is current up to.
+ * Opening the cache then loads the checkpoint and replays only the records 
+ * appended after it, rather than every segment.
+ * </p>
+ */
+public class LogStructuredDiskLruCache extends AbstractDiskLruCache {
+
+    private transient static final Logger LOG = Logger.getLogger(LogStructuredDiskLruCache.class.getName());
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    private static final String EDIT_SUFFIX = ".tmp";
+    private static final String CHECKPOINT_FILE = "index.ckpt";
+
+    private static final int CHECKPOINT_MAGIC = 0x42434358;
+
+    /** 
+     * Earlier checkpoints recorded the segment format version in its place.
+     * Version 3 added the expiry time of each entry.
+     */
+    private static final int CHECKPOINT_VERSION = 3;
+
+    private static final int SEGMENT_MAGIC = 0x42434c53;
+    private static final int FORMAT_VERSION = 2;
+    private static final int SEGMENT_HEADER_SIZE = 12;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int RECORD_HEADER_SIZE = 21;
+    private static final int MAX_KEY_BYTES = 64 * 1024;
+
+    /** Edits larger than this are spilled from memory to a temporary file */
+    private static final int EDIT_SPILL_BYTES = 1024 * 1024;
+
+    private final File directory;
+    private final int appVersion;
+    private final long maxSizeBytes;
+    private final long segmentSizeBytes;
+    private final float compactionThreshold;
+    private final GroupSync groupSync;
+
+    private final Lock appendLock = new ReentrantLock();
+
+    /** Insertion ordered; reads move the key to the tail explicitly */
+    private final LinkedHashMap<String, Location> index = new LinkedHashMap<>();
+
+    /** Guarded, as the index, by synchronizing on the index */
+    private final EvictionPolicy evictionPolicy;
+
+    private final ConcurrentMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+
+    private final AtomicLong liveBytes = new AtomicLong();
+
+    private volatile Segment active;
+
+    private volatile boolean closed;
+
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+
+    private final Lock checkpointLock = new ReentrantLock();
+
+    /** The keys of the pass of the expiry reaper in progress. Used by the reaper only. */
+    private String [] reapKeys;
+
+    private int reapIndex;
+
+    private final ThreadPoolExecutor compactor = new ThreadPoolExecutor(
+            0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), 
+            new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "LogStructuredDiskLruCache-compactor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private LogStructuredDiskLruCache(
+            File dir, int appVersion, long maxSizeBytes, DiskLruCacheOptions options) {
+        super(options);
+        if(maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.directory = java.util.Objects.requireNonNull(dir);
+        this.appVersion = appVersion;
+        this.maxSizeBytes = maxSizeBytes;
+        this.segmentSizeBytes = options.getSegmentSizeBytes();
+        this.compactionThreshold = options.getCompactionThreshold();
+        this.evictionPolicy = options.getEvictionPolicy().create(maxSizeBytes);
+        this.groupSync = new GroupSync(options.getDurability(), options.getSyncIntervalMillis(), 
+                dir.getName(), new GroupSync.Target() {
+            @Override
+            public void sync() throws IOException {
+                LogStructuredDiskLruCache.this.flush();
+            }
+        });
+    }
+
+    public static DiskLruCacheIx open(File dir, int appVersion, long maxSizeBytes)
+            throws IOException {
+        return open(dir, appVersion, maxSizeBytes, new DiskLruCacheOptions());
+    }
+
+    public static DiskLruCacheIx open(File dir, int appVersion, long maxSizeBytes, DiskLruCacheOptions options)
+            throws IOException {
+        CacheDirs.acquire(dir);
+        try{
+            final LogStructuredDiskLruCache cache = new LogStructuredDiskLruCache(
+                    dir, appVersion, maxSizeBytes, options);
+            cache.load();
+            return cache;
+        }catch(IOException | RuntimeException e) {
+            CacheDirs.release(dir);
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory);
+        }
+        for(File tmp : listFiles(EDIT_SUFFIX)) {
+            tmp.delete();
+        }
+        final List<File> files = listFiles(SEGMENT_SUFFIX);
+        final List<Segment> loaded = new ArrayList<>(files.size());
+        try{
+            for(int i=0; i<files.size(); i++) {
+                final Segment segment = openSegment(files.get(i), false);
+                if(segment == null) {
+                    LOG.log(Level.INFO, "Discarding cache at {0}, format or app version changed", directory);
+                    for(Segment s : loaded) {
+                        s.channel.close();
+                    }
+                    loaded.clear();
+                    segments.clear();
+                    for(File file : files) {
+                        file.delete();
+                    }
+                    new File(directory, CHECKPOINT_FILE).delete();
+                    break;
+                }
+                loaded.add(segment);
+                segments.put(segment.id, segment);
+            }
+            if(!replayFromCheckpoint(loaded)) {
+                for(int i=0; i<loaded.size(); i++) {
+                    replay(loaded.get(i), SEGMENT_HEADER_SIZE, i == loaded.size() - 1);
+                }
+            }
+        }catch(IOException e) {
+            for(Segment s : loaded) {
+                closeQuietly(s.channel);
+            }
+            throw e;
+        }
+        boolean expiring = false;
+        synchronized(index) {
+            for(Map.Entry<String, Location> entry : index.entrySet()) {
+                evictionPolicy.onWrite(entry.getKey(), entry.getValue().recordLength);
+                expiring |= entry.getValue().expiryTime != 0;
+            }
+        }
+        final Segment last = loaded.isEmpty() ? null : loaded.get(loaded.size() - 1);
+        final List<String> evicted = new ArrayList<>(0);
+        appendLock.lock();
+        try{
+            if(last != null && last.size < segmentSizeBytes) {
+                last.channel.position(last.size);
+                active = last;
+            }else{
+                active = newSegment(last == null ? 1 : last.id + 1);
+            }
+            trimToSize(evicted);
+        }finally{
+            appendLock.unlock();
+            this.invalidateAll(evicted);
+        }
+        scheduleCompactionIfNeeded();
+        if(expiring) {
+            this.startReaper();
+        }
+    }
+
+    private List<File> listFiles(final String suffix) {
+        final File [] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(suffix);
+            }
+        });
+        if(files == null) {
+            return Collections.EMPTY_LIST;
+        }
+        final List<File> result = new ArrayList<>(files.length);
+        for(File file : files) {
+            if(!SEGMENT_SUFFIX.equals(suffix) || segmentId(file) > 0) {
+                result.add(file);
+            }
+        }
+        if(SEGMENT_SUFFIX.equals(suffix)) {
+            Collections.sort(result, new java.util.Comparator<File>() {
+                @Override
+                public int compare(File f0, File f1) {
+                    return Integer.compare(segmentId(f0), segmentId(f1));
+                }
+            });
+        }
+        return result;
+    }
+
+    private static int segmentId(File file) {
+        final String name = file.getName();
+        try{
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        }catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File segmentFile(int id) {
+        return new File(directory, String.format("%010d", id) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return The opened segment, or <code>null</code> if it was written 
+     * by a different format or app version.
+     */
+    private Segment openSegment(File file, boolean create) throws IOException {
+        final FileChannel channel = create ? 
+                FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE) :
+                FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try{
+            final ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            if(create) {
+                header.putInt(SEGMENT_MAGIC).putInt(FORMAT_VERSION).putInt(appVersion).flip();
+                writeFully(channel, header);
+            }else{
+                if(channel.size() < SEGMENT_HEADER_SIZE || 
+                        readFully(channel, header, 0) < SEGMENT_HEADER_SIZE ||
+                        header.getInt(0) != SEGMENT_MAGIC || header.getInt(4) != FORMAT_VERSION ||
+                        header.getInt(8) != appVersion) {
+                    channel.close();
+                    return null;
+                }
+            }
+            return new Segment(segmentId(file), file, channel, Math.max(channel.size(), SEGMENT_HEADER_SIZE));
+        }catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        final Segment segment = openSegment(segmentFile(id), true);
+        segments.put(segment.id, segment);
+        return segment;
+    }
+
+    /**
+     * Loads the index from the checkpoint, then replays the records appended 
+     * after it. Compaction moves the live records and tombstones of the 
+     * segments it retires to the head of the log, so that these are replayed 
+     * too. Should the index still refer to a record which no longer exists,
+     * the checkpoint is stale and is discarded.
+     * @return <code>false</code>, leaving the index empty, if there is no 
+     * usable checkpoint
+     */
+    private boolean replayFromCheckpoint(List<Segment> loaded) throws IOException {
+        final Checkpoint checkpoint = readCheckpoint();
+        if(checkpoint == null) {
+            return false;
+        }
+        final Segment first = segments.get(checkpoint.segmentId);
+        if(first != null && first.size < checkpoint.position) {
+            LOG.log(Level.INFO, "Discarding checkpoint of {0}, the log is shorter than it", directory);
+            return false;
+        }
+        index.putAll(checkpoint.index);
+        for(int i=0; i<loaded.size(); i++) {
+            final Segment segment = loaded.get(i);
+            if(segment.id >= checkpoint.segmentId) {
+                replay(segment, segment == first ? checkpoint.position : SEGMENT_HEADER_SIZE, 
+                        i == loaded.size() - 1);
+            }
+        }
+        for(Location location : index.values()) {
+            final Segment segment = segments.get(location.segmentId);
+            if(segment == null || location.recordOffset + location.recordLength > segment.size) {
+                LOG.log(Level.INFO, "Discarding stale checkpoint of {0}", directory);
+                index.clear();
+                liveBytes.set(0);
+                for(Segment s : loaded) {
+                    s.deadBytes.set(0);
+                }
+                return false;
+            }
+        }
+        // Records covered by the checkpoint were not replayed, so count from the index
+        final Map<Integer, Long> segmentLiveBytes = new HashMap<>();
+        long live = 0;
+        for(Location location : index.values()) {
+            final Long n = segmentLiveBytes.get(location.segmentId);
+            segmentLiveBytes.put(location.segmentId, (n == null ? 0 : n) + location.recordLength);
+            live += location.recordLength;
+        }
+        liveBytes.set(live);
+        for(Segment segment : loaded) {
+            final Long n = segmentLiveBytes.get(segment.id);
+            segment.deadBytes.set(segment.size - SEGMENT_HEADER_SIZE - (n == null ? 0 : n));
+        }
+        return true;
+    }
+
+    /**
+     * @return The checkpoint, or <code>null</code> if there is none, or it is 
+     * incomplete, corrupt or of a different format or app version
+     */
+    private Checkpoint readCheckpoint() {
+        final File file = new File(directory, CHECKPOINT_FILE);
+        if(!file.isFile()) {
+            return null;
+        }
+        final CRC32 crc = new CRC32();
+        try(DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), crc))) {
+            if(in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION || 
+                    in.readInt() != appVersion) {
+                LOG.log(Level.INFO, "Discarding checkpoint of {0}, format or app version changed", directory);
+                return null;
+            }
+            final int segmentId = in.readInt();
+            final long position = in.readLong();
+            final int count = in.readInt();
+            final LinkedHashMap<String, Location> checkpointed = new LinkedHashMap<>();
+            for(int i=0; i<count; i++) {
+                final int keyLength = in.readInt();
+                if(keyLength < 0 || keyLength > MAX_KEY_BYTES) {
+                    throw new StreamCorruptedException("Key length: " + keyLength);
+                }
+                final byte [] key = new byte[keyLength];
+                in.readFully(key);
+                checkpointed.put(new String(key, StandardCharsets.UTF_8), 
+                        new Location(in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            final int expected = (int)crc.getValue();
+            if(in.readInt() != expected) {
+                throw new StreamCorruptedException("Checksum mismatch");
+            }
+            return new Checkpoint(segmentId, position, checkpointed);
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Discarding unreadable checkpoint of " + directory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index, in LRU order, and the position in the log it is 
+     * current up to. Failures are logged; the next open then replays more
+     * of the log.
+     */
+    private void checkpoint() {
+        checkpointLock.lock();
+        try{
+            final int segmentId;
+            final long position;
+            final String [] keys;
+            final Location [] locations;
+            appendLock.lock();
+            try{
+                if(closed) {
+                    return;
+                }
+                segmentId = active.id;
+                position = active.size;
+                synchronized(index) {
+                    keys = index.keySet().toArray(new String[index.size()]);
+                    locations = index.values().toArray(new Location[index.size()]);
+                }
+            }finally{
+                appendLock.unlock();
+            }
+            // The checkpoint must not outlive the records it refers to
+            for(Segment segment : segments.values()) {
+                if(segment.acquire()) {
+                    try{
+                        segment.channel.force(false);
+                    }finally{
+                        segment.release();
+                    }
+                }
+            }
+            final File tmp = new File(directory, CHECKPOINT_FILE + EDIT_SUFFIX);
+            final CRC32 crc = new CRC32();
+            final FileOutputStream fos = new FileOutputStream(tmp);
+            try(DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(fos), crc))) {
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeInt(CHECKPOINT_VERSION);
+                out.writeInt(appVersion);
+                out.writeInt(segmentId);
+                out.writeLong(position);
+                out.writeInt(keys.length);
+                for(int i=0; i<keys.length; i++) {
+                    final byte [] key = keys[i].getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(key.length);
+                    out.write(key);
+                    out.writeInt(locations[i].segmentId);
+                    out.writeLong(locations[i].recordOffset);
+                    out.writeLong(locations[i].recordLength);
+                    out.writeLong(locations[i].entryLength);
+                    out.writeLong(locations[i].expiryTime);
+                }
+                out.writeInt((int)crc.getValue());
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tmp.toPath(), new File(directory, CHECKPOINT_FILE).toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch(IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to write checkpoint of " + directory, e);
+        }finally{
+            checkpointLock.unlock();
+        }
+    }
+
+    private void scheduleCheckpoint() {
+        if(!closed && checkpointScheduled.compareAndSet(false, true)) {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    checkpointScheduled.set(false);
+                    checkpoint();
+                }
+            });
+        }
+    }
+
+    private void replay(Segment segment, long start, boolean verifyEntries) throws IOException {
+        final long fileSize = segment.channel.size();
+        long position = start;
+        long live = 0;
+        while(position < fileSize) {
+            final RecordHeader header = readRecordHeader(segment.channel, position, fileSize);
+            if(header == null || position + header.recordLength() > fileSize ||
+                    (verifyEntries && !verifyEntry(segment.channel, position, header))) {
+                break;
+            }
+            final long recordLength = header.recordLength();
+            if(header.type == PUT) {
+                final Location location = new Location(segment.id, position, recordLength, 
+                        header.entryLength, header.expiryTime);
+                // Moved to the tail, as a live write does, to replay the recency order
+                final Location previous = index.remove(header.key);
+                index.put(header.key, location);
+                if(previous != null) {
+                    markDead(previous);
+                    liveBytes.addAndGet(-previous.recordLength);
+                }
+                liveBytes.addAndGet(recordLength);
+            }else{
+                final Location previous = index.remove(header.key);
+                if(previous != null) {
+                    markDead(previous);
+                    liveBytes.addAndGet(-previous.recordLength);
+                }
+                segment.deadBytes.addAndGet(recordLength);
+            }
+            position += recordLength;
+        }
+        if(position < fileSize) {
+            LOG.log(Level.WARNING, "Truncating segment {0} from {1} to {2} bytes, the remainder is incomplete or corrupt", 
+                    new Object[]{segment.file, fileSize, position});
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+    }
+
+    private boolean verifyEntry(FileChannel channel, long position, RecordHeader header) throws IOException {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long pos = position + header.headerLength();
+        long remaining = header.entryLength;
+        while(remaining > 0) {
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), remaining));
+            final int n = readFully(channel, buffer, pos);
+            if(n < buffer.limit()) {
+                return false;
+            }
+            crc.update(buffer.array(), 0, n);
+            pos += n;
+            remaining -= n;
+        }
+        return (int)crc.getValue() == header.entryCrc;
+    }
+
+    /**
+     * @return The header of the record at the position, or <code>null</code> 
+     * if it is incomplete or corrupt.
+     */
+    private RecordHeader readRecordHeader(FileChannel channel, long position, long limit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        int n = readFully(channel, buffer, position);
+        if(n < 5) {
+            return null;
+        }
+        final byte type = buffer.get(0);
+        final int keyLength = buffer.getInt(1);
+        if((type != PUT && type != DELETE) || keyLength < 0 || keyLength > MAX_KEY_BYTES) {
+            return null;
+        }
+        final int headerLength = RECORD_HEADER_SIZE + keyLength;
+        final int required = headerLength;
+        if(n < required) {
+            if(position + required > limit) {
+                return null;
+            }
+            buffer = ByteBuffer.allocate(required);
+            n = readFully(channel, buffer, position);
+            if(n < required) {
+                return null;
+            }
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, headerLength - 4);
+        if((int)crc.getValue() != buffer.getInt(headerLength - 4)) {
+            return null;
+        }
+        final String key = new String(buffer.array(), 5, keyLength, StandardCharsets.UTF_8);
+        final long entryLength = buffer.getLong(5 + keyLength);
+        final int entryCrc = buffer.getInt(13 + keyLength);
+        if(entryLength < 0 || (type == PUT && entryLength == 0)) {
+            return null;
+        }
+        long expiryTime = 0;
+        if(type == PUT) {
+            // Usually read along with the record header
+            final int prefixLength = (int)Math.min(entryLength, EntryHeader.EXPIRY_PREFIX_LENGTH);
+            ByteBuffer head = ByteBuffer.wrap(buffer.array(), headerLength, Math.max(0, n - headerLength));
+            if(head.remaining() < prefixLength) {
+                head = ByteBuffer.allocate(prefixLength);
+                if(readFully(channel, head, position + headerLength) < prefixLength) {
+                    return null;
+                }
+                head.flip();
+            }
+            try{
+                expiryTime = EntryHeader.readExpiryTime(head);
+            }catch(IOException e) {
+                // Left for reads of the entry to report
+                LOG.log(Level.FINE, "Unreadable entry header of key: " + key, e);
+            }
+        }
+        return new RecordHeader(type, key, keyLength, entryLength, entryCrc, expiryTime);
+    }
+
+    private static ByteBuffer encodeRecordHeader(byte type, byte [] key, long entryLength, int entryCrc) {
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + key.length);
+        buffer.put(type).putInt(key.length).put(key).putLong(entryLength).putInt(entryCrc);
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int)crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while(buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position + total);
+            if(n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte [] encodeKey(String key) {
+        final byte [] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Key longer than " + MAX_KEY_BYTES + " bytes");
+        }
+        return bytes;
+    }
+
+    /**
+     * Appends a record to the active segment. Caller must hold the append lock.
+     */
+    private Location append(byte [] key, byte type, EditBuffer entry) throws IOException {
+        ensureOpen();
+        Segment segment = active;
+        if(segment.size >= segmentSizeBytes) {
+            segment = roll();
+        }
+        final long entryLength = entry == null ? 0 : entry.length();
+        final ByteBuffer header = encodeRecordHeader(type, key, entryLength, entry == null ? 0 : entry.crc());
+        final long position = segment.size;
+        try{
+            writeFully(segment.channel, header);
+            if(entry != null) {
+                entry.transferTo(segment.channel);
+            }
+        }catch(IOException e) {
+            // Drop the partial record so that the next one starts at a record boundary
+            segment.channel.truncate(position);
+            segment.channel.position(position);
+            throw e;
+        }
+        final long recordLength = header.limit() + entryLength;
+        segment.size = position + recordLength;
+        return new Location(segment.id, position, recordLength, entryLength, 
+                entry == null ? 0 : entry.expiryTime());
+    }
+
+    /**
+     * Appends a record copied verbatim from another segment. Caller must hold the append lock.
+     */
+    private Location copy(Segment from, Location location) throws IOException {
+        Segment segment = active;
+        if(segment.size >= segmentSizeBytes) {
+            segment = roll();
+        }
+        final long position = segment.size;
+        long copied = 0;
+        try{
+            while(copied < location.recordLength) {
+                final long n = from.channel.transferTo(location.recordOffset + copied, 
+                        location.recordLength - copied, segment.channel);
+                if(n <= 0) {
+                    throw new EOFException("Unexpected end of segment: " + from.file);
+                }
+                copied += n;
+            }
+        }catch(IOException e) {
+            segment.channel.truncate(position);
+            segment.channel.position(position);
+            throw e;
+        }
+        segment.size = position + location.recordLength;
+        return new Location(segment.id, position, location.recordLength, location.entryLength, 
+                location.expiryTime);
+    }
+
+    private Segment roll() throws IOException {
+        if(groupSync.isEnabled()) {
+            // Syncs force only the active segment
+            active.channel.force(false);
+        }
+        final Segment next = newSegment(active.id + 1);
+        active = next;
+        scheduleCompactionIfNeeded();
+        scheduleCheckpoint();
+        return next;
+    }
+
+    private void commit(String key, byte [] keyBytes, EditBuffer entry) throws IOException {
+        final List<String> evicted = new ArrayList<>(0);
+        appendLock.lock();
+        try{
+            install(key, append(keyBytes, PUT, entry));
+            trimToSize(evicted);
+        }finally{
+            appendLock.unlock();
+            this.invalidateAll(evicted);
+        }
+        scheduleCompactionIfNeeded();
+        groupSync.commit();
+    }
+
+    /**
+     * Appends the in-memory entries of a batch with one gathering write per 
+     * segment, and entries which spilled to disk one by one. Each group is 
+     * installed in the index as soon as it is written, so that a failure
+     * leaves the index consistent with the log. Caller must hold the append lock.
+     */
+    private void appendAll(List<EditorImpl> edits) throws IOException {
+        int i = 0;
+        while(i < edits.size()) {
+            ensureOpen();
+            final EditorImpl first = edits.get(i);
+            if(first.buffer.spill != null) {
+                install(first.key, append(first.keyBytes, PUT, first.buffer));
+                ++i;
+                continue;
+            }
+            Segment segment = active;
+            if(segment.size >= segmentSizeBytes) {
+                segment = roll();
+            }
+            final long position = segment.size;
+            final List<ByteBuffer> buffers = new ArrayList<>();
+            final List<Location> locations = new ArrayList<>();
+            long offset = position;
+            int j = i;
+            while(j < edits.size() && (j == i || offset < segmentSizeBytes)) {
+                final EditBuffer entry = edits.get(j).buffer;
+                if(entry.spill != null) {
+                    break;
+                }
+                final ByteBuffer header = encodeRecordHeader(PUT, edits.get(j).keyBytes, entry.length(), entry.crc());
+                buffers.add(header);
+                buffers.add(ByteBuffer.wrap(entry.memory.buffer(), 0, entry.memory.size()));
+                final long recordLength = header.limit() + entry.length();
+                locations.add(new Location(segment.id, offset, recordLength, entry.length(), entry.expiryTime()));
+                offset += recordLength;
+                ++j;
+            }
+            final ByteBuffer [] gathered = buffers.toArray(new ByteBuffer[buffers.size()]);
+            try{
+                long remaining = offset - position;
+                while(remaining > 0) {
+                    remaining -= segment.channel.write(gathered);
+                }
+            }catch(IOException e) {
+                segment.channel.truncate(position);
+                segment.channel.position(position);
+                throw e;
+            }
+            segment.size = offset;
+            for(Location location : locations) {
+                install(edits.get(i++).key, location);
+            }
+        }
+    }
+
+    /**
+     * Caller must hold the append lock.
+     */
+    private void install(String key, Location location) {
+        final Location previous;
+        synchronized(index) {
+            previous = index.remove(key);
+            index.put(key, location);
+            evictionPolicy.onWrite(key, location.recordLength);
+        }
+        liveBytes.addAndGet(location.recordLength);
+        if(previous != null) {
+            markDead(previous);
+            liveBytes.addAndGet(-previous.recordLength);
+        }
+    }
+
+    /**
+     * Caller must hold the append lock, and invalidate the keys evicted once 
+     * it is released.
+     * @param evicted The list to add the keys evicted to
+     */
+    private void trimToSize(List<String> evicted) throws IOException {
+        while(liveBytes.get() > maxSizeBytes) {
+            final String key;
+            final Location location;
+            synchronized(index) {
+                key = evictionPolicy.evict();
+                if(key == null) {
+                    break;
+                }
+                location = index.remove(key);
+            }
+            if(location != null) {
+                delete(key, location);
+                this.recordEviction();
+                evicted.add(key);
+            }
+        }
+    }
+
+    private void invalidateAll(List<String> keys) {
+        for(String key : keys) {
+            this.invalidate(key);
+        }
+    }
+
+    /**
+     * Caller must hold the append lock, and must have removed the key from the index.
+     */
+    private void delete(String key, Location location) throws IOException {
+        markDead(location);
+        liveBytes.addAndGet(-location.recordLength);
+        final Location tombstone = append(encodeKey(key), DELETE, null);
+        markDead(tombstone);
+    }
+
+    private void markDead(Location location) {
+        final Segment segment = segments.get(location.segmentId);
+        if(segment != null) {
+            segment.deadBytes.addAndGet(location.recordLength);
+        }
+    }
+
+    private boolean needsCompaction(Segment segment) {
+        return segment != active && 
+                segment.deadBytes.get() >= compactionThreshold * (segment.size - SEGMENT_HEADER_SIZE);
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if(closed) {
+            return;
+        }
+        for(Segment segment : segments.values()) {
+            if(needsCompaction(segment)) {
+                if(compactionScheduled.compareAndSet(false, true)) {
+                    compactor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            compactionScheduled.set(false);
+                            compact();
+                        }
+                    });
+                }
+                return;
+            }
+        }
+    }
+
+    private void compact() {
+        final List<Segment> candidates = new ArrayList<>();
+        for(Segment segment : segments.values()) {
+            if(needsCompaction(segment)) {
+                candidates.add(segment);
+            }
+        }
+        Collections.sort(candidates, new java.util.Comparator<Segment>() {
+            @Override
+            public int compare(Segment s0, Segment s1) {
+                return Integer.compare(s0.id, s1.id);
+            }
+        });
+        for(Segment segment : candidates) {
+            if(closed) {
+                return;
+            }
+            try{
+                compact(segment);
+            }catch(IOException e) {
+                LOG.log(Level.WARNING, "Failed to compact segment: " + segment.file, e);
+                return;
+            }
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        if(!segment.acquire()) {
+            return;
+        }
+        try{
+            long position = SEGMENT_HEADER_SIZE;
+            while(position < segment.size) {
+                final RecordHeader header = readRecordHeader(segment.channel, position, segment.size);
+                if(header == null) {
+                    throw new IOException("Corrupt record at " + position + " of segment: " + segment.file);
+                }
+                final long recordLength = header.recordLength();
+                appendLock.lock();
+                try{
+                    if(closed || !segments.containsKey(segment.id)) {
+                        return;
+                    }
+                    if(header.type == PUT) {
+                        final Location current;
+                        synchronized(index) {
+                            current = index.get(header.key);
+                        }
+                        if(current != null && current.segmentId == segment.id && current.recordOffset == position) {
+                            final Location moved = copy(segment, current);
+                            synchronized(index) {
+                                index.put(header.key, moved);
+                            }
+                        }
+                    }else if(!isOldest(segment)) {
+                        final boolean live;
+                        synchronized(index) {
+                            live = index.containsKey(header.key);
+                        }
+                        // Tombstones must outlive older segments which may hold the key
+                        if(!live) {
+                            final Location moved = copy(segment, new Location(segment.id, position, recordLength, header.entryLength, 0));
+                            markDead(moved);
+                        }
+                    }
+                }finally{
+                    appendLock.unlock();
+                }
+                position += recordLength;
+            }
+            appendLock.lock();
+            try{
+                if(segments.remove(segment.id, segment)) {
+                    segment.deleteOnRelease = true;
+                    segment.release();
+                }
+            }finally{
+                appendLock.unlock();
+            }
+        }finally{
+            segment.release();
+        }
+    }
+
+    private boolean isOldest(Segment segment) {
+        for(Integer id : segments.keySet()) {
+            if(id < segment.id) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureOpen() {
+        if(closed) {
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    @Override
+    protected Snapshot snapshot(String key) throws IOException {
+        return this.snapshot(key, true);
+    }
+
+    /**
+     * Leaves the index order and the eviction policy as they are.
+     */
+    @Override
+    protected Snapshot peek(String key) throws IOException {
+        return this.snapshot(key, false);
+    }
+
+    private Snapshot snapshot(String key, boolean access) throws IOException {
+        ensureOpen();
+        for(;;) {
+            final Location location;
+            synchronized(index) {
+                location = index.get(key);
+                if(location == null || location.isExpired(System.currentTimeMillis())) {
+                    return null;
+                }
+                if(access) {
+                    index.remove(key);
+                    index.put(key, location);
+                    evictionPolicy.onRead(key);
+                }
+            }
+            final Segment segment = segments.get(location.segmentId);
+            if(segment != null && segment.acquire()) {
+                return new SnapshotImpl(segment, location);
+            }
+            // The record was moved by compaction, look it up again
+        }
+    }
+
+    @Override
+    public boolean contains(String key) throws IOException {
+        final Location location;
+        synchronized(index) {
+            location = index.get(key);
+        }
+        return location != null && !location.isExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * The keys are held in the index; as the reaper, copies the references 
+     * to those matching once, then checks each against the index as it is 
+     * reached. Neither the log nor the LRU order is touched.
+     */
+    @Override
+    protected CloseableIterator<String> listKeys(String prefix) {
+        final List<String> matching = new ArrayList<>();
+        synchronized(index) {
+            for(String key : index.keySet()) {
+                if(key.startsWith(prefix)) {
+                    matching.add(key);
+                }
+            }
+        }
+        return new CacheIterators.LookAhead<String>() {
+            private int next;
+            @Override
+            protected String computeNext() {
+                final long now = System.currentTimeMillis();
+                while(next < matching.size() && !closed) {
+                    final String key = matching.get(next++);
+                    final Location location;
+                    synchronized(index) {
+                        location = index.get(key);
+                    }
+                    if(location != null && !location.isExpired(now)) {
+                        return key;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Looks up the expiry time of each entry in the index, which holds it; 
+     * the log is only appended to for the entries removed.
+     */
+    @Override
+    protected boolean removeExpired(long now, int maxEntries) throws IOException {
+        if(closed) {
+            return true;
+        }
+        if(reapKeys == null) {
+            synchronized(index) {
+                reapKeys = index.keySet().toArray(new String[index.size()]);
+            }
+            reapIndex = 0;
+        }
+        final int end = Math.min(reapKeys.length, reapIndex + maxEntries);
+        final List<String> removed = new ArrayList<>();
+        appendLock.lock();
+        try{
+            for(; reapIndex < end && !closed; reapIndex++) {
+                final String key = reapKeys[reapIndex];
+                final Location location;
+                synchronized(index) {
+                    location = index.get(key);
+                    if(location == null || !location.isExpired(now)) {
+                        continue;
+                    }
+                    index.remove(key);
+                    evictionPolicy.onRemove(key);
+                }
+                delete(key, location);
+                this.recordEviction();
+                removed.add(key);
+            }
+        }finally{
+            appendLock.unlock();
+        }
+        for(String key : removed) {
+            this.invalidate(key);
+        }
+        if(!removed.isEmpty()) {
+            scheduleCompactionIfNeeded();
+        }
+        if(reapIndex < reapKeys.length && !closed) {
+            return false;
+        }
+        reapKeys = null;
+        return true;
+    }
+
+    @Override
+    protected Editor edit(String key) throws IOException {
+        ensureOpen();
+        return new EditorImpl(key);
+    }
+
+    @Override
+    protected boolean removeEntry(String key) throws IOException {
+        appendLock.lock();
+        try{
+            ensureOpen();
+            final Location location;
+            synchronized(index) {
+                location = index.remove(key);
+                evictionPolicy.onRemove(key);
+            }
+            if(location == null) {
+                return false;
+            }
+            delete(key, location);
+        }finally{
+            appendLock.unlock();
+        }
+        scheduleCompactionIfNeeded();
+        groupSync.commit();
+        return true;
+    }
+
+    /**
+     * Appends the records of the batch under a single acquisition of the 
+     * append lock, gathering consecutive in-memory entries into one write.
+     */
+    @Override
+    protected void commitAll(List<Editor> editors) throws IOException {
+        final List<EditorImpl> edits = new ArrayList<>(editors.size());
+        for(Editor editor : editors) {
+            final EditorImpl edit = (EditorImpl)editor;
+            if(edit.done) {
+                throw new IllegalStateException();
+            }
+            edits.add(edit);
+        }
+        for(EditorImpl edit : edits) {
+            edit.done = true;
+        }
+        final List<String> evicted = new ArrayList<>(0);
+        appendLock.lock();
+        try{
+            this.appendAll(edits);
+            trimToSize(evicted);
+        }finally{
+            appendLock.unlock();
+            this.invalidateAll(evicted);
+            for(EditorImpl edit : edits) {
+                edit.buffer.dispose();
+            }
+        }
+        scheduleCompactionIfNeeded();
+        groupSync.commit();
+    }
+
+    @Override
+    protected int removeEntries(List<String> keys) throws IOException {
+        int removed = 0;
+        appendLock.lock();
+        try{
+            ensureOpen();
+            for(String key : keys) {
+                final Location location;
+                synchronized(index) {
+                    location = index.remove(key);
+                    evictionPolicy.onRemove(key);
+                }
+                if(location != null) {
+                    delete(key, location);
+                    ++removed;
+                }
+            }
+        }finally{
+            appendLock.unlock();
+        }
+        scheduleCompactionIfNeeded();
+        if(removed > 0) {
+            groupSync.commit();
+        }
+        return removed;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        final Segment segment = active;
+        if(segment != null && !closed) {
+            segment.channel.force(false);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            this.stopReaper();
+            groupSync.close();
+            if(!closed) {
+                this.checkpoint();
+            }
+        }finally{
+            this.closeSegments();
+        }
+    }
+
+    private void closeSegments() {
+        // Waits for a scheduled checkpoint in progress, which must not 
+        // outlive the cache
+        checkpointLock.lock();
+        try{
+            appendLock.lock();
+            try{
+                if(closed) {
+                    return;
+                }
+                closed = true;
+                compactor.shutdown();
+                for(Segment segment : segments.values()) {
+                    segment.release();
+                }
+                segments.clear();
+                synchronized(index) {
+                    index.clear();
+                    evictionPolicy.clear();
+                }
+            }finally{
+                appendLock.unlock();
+            }
+        }finally{
+            checkpointLock.unlock();
+        }
+    }
+
+    @Override
+    protected void clearEntries() throws IOException {
+        appendLock.lock();
+        try{
+            ensureOpen();
+            final int nextId = active.id + 1;
+            for(Segment segment : segments.values()) {
+                segment.deleteOnRelease = true;
+                segment.release();
+            }
+            segments.clear();
+            synchronized(index) {
+                index.clear();
+                evictionPolicy.clear();
+            }
+            liveBytes.set(0);
+            new File(directory, CHECKPOINT_FILE).delete();
+            active = newSegment(nextId);
+        }finally{
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public long getSize() {
+        return liveBytes.get();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSizeBytes;
+    }
+
+    @Override
+    public void delete() throws IOException {
+        close();
+        final File [] files = directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(!file.delete() && file.exists()) {
+                    throw new IOException("failed to delete file: " + file);
+                }
+            }
+        }
+    }
+
+    private static final class Location {
+        private final int segmentId;
+        private final long recordOffset;
+        private final long recordLength;
+        private final long entryLength;
+        /** Zero if the entry does not expire */
+        private final long expiryTime;
+        private Location(int segmentId, long recordOffset, long recordLength, long entryLength, long expiryTime) {
+            this.segmentId = segmentId;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.entryLength = entryLength;
+            this.expiryTime = expiryTime;
+        }
+        private boolean isExpired(long now) {
+            return expiryTime != 0 && expiryTime <= now;
+        }
+        private long entryOffset() {
+            return recordOffset + recordLength - entryLength;
+        }
+    }
+
+    private static final class Checkpoint {
+        private final int segmentId;
+        private final long position;
+        private final LinkedHashMap<String, Location> index;
+        private Checkpoint(int segmentId, long position, LinkedHashMap<String, Location> index) {
+            this.segmentId = segmentId;
+            this.position = position;
+            this.index = index;
+        }
+    }
+
+    private static final class RecordHeader {
+        private final byte type;
+        private final String key;
+        private final int keyLength;
+        private final long entryLength;
+        private final int entryCrc;
+        private final long expiryTime;
+        private RecordHeader(byte type, String key, int keyLength, long entryLength, int entryCrc, long expiryTime) {
+            this.type = type;
+            this.key = key;
+            this.keyLength = keyLength;
+            this.entryLength = entryLength;
+            this.entryCrc = entryCrc;
+            this.expiryTime = expiryTime;
+        }
+        private int headerLength() {
+            return RECORD_HEADER_SIZE + keyLength;
+        }
+        private long recordLength() {
+            return headerLength() + entryLength;
+        }
+    }
+
+    /**
+     * A segment file. The cache holds one reference to each segment it owns, 
+     * and each open snapshot holds another, so that a segment retired by
+     * compaction is only closed and deleted once its last reader is done.
+     */
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private final AtomicLong deadBytes = new AtomicLong();
+        private volatile long size;
+        private volatile boolean deleteOnRelease;
+        private Segment(int id, File file, FileChannel channel, long size) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+        private boolean acquire() {
+            for(;;) {
+                final int n = refs.get();
+                if(n <= 0) {
+                    return false;
+                }
+                if(refs.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+        private void release() {
+            if(refs.decrementAndGet() == 0) {
+                try{
+                    channel.close();
+                }catch(IOException e) {
+                    LOG.log(Level.WARNING, "Failed to close segment: " + file, e);
+                }
+                if(deleteOnRelease && !file.delete()) {
+                    LOG.log(Level.WARNING, "Failed to delete segment: {0}", file);
+                }
+            }
+        }
+    }
+
+    private class SnapshotImpl implements Snapshot {
+        private final Segment segment;
+        private final Location location;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private SnapshotImpl(Segment segment, Location location) {
+            this.segment = segment;
+            this.location = location;
+        }
+        @Override
+        public FileChannel getChannel() {
+            return segment.channel;
+        }
+        @Override
+        public long getOffset() {
+            return location.entryOffset();
+        }
+        @Override
+        public long getLength() {
+            return location.entryLength;
+        }
+        @Override
+        public void close() {
+            if(released.compareAndSet(false, true)) {
+                segment.release();
+            }
+        }
+    }
+
+    /**
+     * Buffers an entry in memory, spilling to a temporary file once it 
+     * exceeds {@link #EDIT_SPILL_BYTES}, so that the append lock is held
+     * only while the complete entry is copied to the log.
+     */
+    private final class EditBuffer extends OutputStream {
+        private final CRC32 crc = new CRC32();
+        private ExposedByteArrayOutputStream memory = new ExposedByteArrayOutputStream();
+        private File spillFile;
+        private OutputStream spill;
+        private long length;
+        /** The start of the entry, holding its expiry time if any */
+        private final byte [] head = new byte[EntryHeader.EXPIRY_PREFIX_LENGTH];
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(spill == null && memory.size() + len > EDIT_SPILL_BYTES) {
+                spillFile = File.createTempFile("edit", EDIT_SUFFIX, directory);
+                spill = new FileOutputStream(spillFile);
+                memory.writeTo(spill);
+                memory = null;
+            }
+            if(spill == null) {
+                memory.write(b, off, len);
+            }else{
+                spill.write(b, off, len);
+            }
+            crc.update(b, off, len);
+            if(length < head.length) {
+                System.arraycopy(b, off, head, (int)length, (int)Math.min(len, head.length - length));
+            }
+            length += len;
+        }
+        private long length() {
+            return length;
+        }
+        private long expiryTime() throws IOException {
+            return EntryHeader.readExpiryTime(ByteBuffer.wrap(head, 0, (int)Math.min(length, head.length)));
+        }
+        private int crc() {
+            return (int)crc.getValue();
+        }
+        private void transferTo(FileChannel target) throws IOException {
+            if(spill == null) {
+                writeFully(target, ByteBuffer.wrap(memory.buffer(), 0, memory.size()));
+                return;
+            }
+            spill.close();
+            try(FileChannel source = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ)) {
+                long position = 0;
+                while(position < length) {
+                    position += source.transferTo(position, length - position, target);
+                }
+            }
+        }
+        private void dispose() {
+            memory = null;
+            if(spill != null) {
+                closeQuietly(spill);
+                spillFile.delete();
+            }
+        }
+    }
+
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        private byte [] buffer() {
+            return buf;
+        }
+    }
+
+    private class EditorImpl implements Editor {
+        private final String key;
+        private final byte [] keyBytes;
+        private final EditBuffer buffer;
+        private boolean done;
+        private EditorImpl(String key) {
+            this.key = key;
+            this.keyBytes = encodeKey(key);
+            this.buffer = new EditBuffer();
+        }
+        @Override
+        public OutputStream newOutputStream() {
+            return buffer;
+        }
+        @Override
+        public void commit() throws IOException {
+            if(done) {
+                throw new IllegalStateException();
+            }
+            done = true;
+            try{
+                LogStructuredDiskLruCache.this.commit(key, keyBytes, buffer);
+            }finally{
+                buffer.dispose();
+            }
+        }
+        @Override
+        public void abort() {
+            if(!done) {
+                done = true;
+                buffer.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A byte bounded LRU cache of memory mapped entry values, so that reads of 
+ * hot entries need neither a system call nor a copy.
+ * <p>
+ * Mappings are released by the garbage collector once they are evicted and
+ * no reader holds them, so the bound applies to the regions held here only.
+ * </p>
+ */
+final class MappedRegionCache {
+
+    static final class Region {
+        private final ByteBuffer buffer;
+        private final EntryHeader header;
+        Region(ByteBuffer buffer, EntryHeader header) {
+            this.buffer = buffer.asReadOnlyBuffer();
+            this.header = header;
+        }
+        /**
+         * @return A view of the value, with its own position and limit
+         */
+        ByteBuffer getBuffer() {
+            return buffer.duplicate();
+        }
+        EntryHeader getHeader() {
+            return header;
+        }
+        int size() {
+            return buffer.capacity();
+        }
+    }
+
+    /** The number of keys whose latest invalidation is remembered */
+    private static final int MAX_INVALIDATIONS = 1024;
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Region> regions = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    /** Incremented by each invalidation */
+    private long stamp;
+
+    /** The stamp of the latest invalidation of each key, least recent first */
+    private final LinkedHashMap<String, Long> invalidations = new LinkedHashMap<>();
+
+    /** The stamp of the latest invalidation no longer remembered by key */
+    private long forgotten;
+
+    MappedRegionCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized Region get(String key) {
+        return regions.get(key);
+    }
+
+    /**
+     * @return A stamp to pass to {@link #put(java.lang.String, long, Region)}
+     * by a reader, taken before the entry is read from disk.
+     */
+    synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Caches the region unless the key was invalidated after the stamp was
+     * taken, as the region may then hold a value that is no longer current.
+     * Invalidations of other keys do not prevent it, unless so many followed
+     * that the key's own can no longer be told apart.
+     */
+    synchronized void put(String key, long stamp, Region region) {
+        if(this.isInvalidatedSince(key, stamp) || region.size() > maxBytes) {
+            return;
+        }
+        final Region previous = regions.put(key, region);
+        if(previous != null) {
+            bytes -= previous.size();
+        }
+        bytes += region.size();
+        final Iterator<Region> iter = regions.values().iterator();
+        while(bytes > maxBytes && iter.hasNext()) {
+            bytes -= iter.next().size();
+            iter.remove();
+        }
+    }
+
+    private boolean isInvalidatedSince(String key, long stamp) {
+        if(forgotten > stamp) {
+            return true;
+        }
+        final Long invalidated = invalidations.get(key);
+        return invalidated != null && invalidated > stamp;
+    }
+
+    synchronized void invalidate(String key) {
+        invalidations.remove(key);
+        invalidations.put(key, ++stamp);
+        if(invalidations.size() > MAX_INVALIDATIONS) {
+            final Iterator<Long> iter = invalidations.values().iterator();
+            forgotten = iter.next();
+            iter.remove();
+        }
+        final Region previous = regions.remove(key);
+        if(previous != null) {
+            bytes -= previous.size();
+        }
+    }
+
+    synchronized void invalidateAll() {
+        forgotten = ++stamp;
+        invalidations.clear();
+        regions.clear();
+        bytes = 0;
+    }
+}
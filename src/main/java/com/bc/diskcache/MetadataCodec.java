@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of entry metadata. Values of common types are 
+ * written with a one byte tag; others fall back to java serialization.
+ */
+final class MetadataCodec {
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INTEGER = 2;
+    private static final int LONG = 3;
+    private static final int BOOLEAN = 4;
+    private static final int DOUBLE = 5;
+    private static final int FLOAT = 6;
+    private static final int SHORT = 7;
+    private static final int BYTE = 8;
+    private static final int CHARACTER = 9;
+    private static final int BYTES = 10;
+    private static final int DATE = 11;
+    private static final int SERIALIZED = 127;
+
+    private MetadataCodec() { }
+
+    /**
+     * @return The encoded metadata, or an empty array if the metadata is empty
+     */
+    static byte [] encode(Map<String, ? extends Serializable> metadata) throws IOException {
+        if(metadata == null || metadata.isEmpty()) {
+            return new byte[0];
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+        final DataOutputStream out = new DataOutputStream(baos);
+        ValueCodecs.writeVarInt(metadata.size(), out);
+        for(Map.Entry<String, ? extends Serializable> entry : metadata.entrySet()) {
+            ValueCodecs.STRING.write(entry.getKey(), out);
+            writeValue(entry.getValue(), out);
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    static Map<String, Serializable> decode(byte [] bytes) throws IOException {
+        if(bytes.length == 0) {
+            return Collections.EMPTY_MAP;
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        final int size = ValueCodecs.readVarInt(in);
+        final Map<String, Serializable> metadata = new LinkedHashMap<>(Math.max(16, (int)(size / 0.75f) + 1));
+        for(int i=0; i<size; i++) {
+            metadata.put(ValueCodecs.STRING.read(in), readValue(in));
+        }
+        return metadata;
+    }
+
+    private static void writeValue(Serializable value, DataOutputStream out) throws IOException {
+        if(value == null) {
+            out.writeByte(NULL);
+        }else if(value instanceof String) {
+            out.writeByte(STRING);
+            ValueCodecs.STRING.write((String)value, out);
+        }else if(value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer)value);
+        }else if(value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long)value);
+        }else if(value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        }else if(value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)value);
+        }else if(value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float)value);
+        }else if(value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short)value);
+        }else if(value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte)value);
+        }else if(value instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character)value);
+        }else if(value instanceof byte[]) {
+            out.writeByte(BYTES);
+            ValueCodecs.BYTES.write((byte[])value, out);
+        }else if(value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date)value).getTime());
+        }else{
+            out.writeByte(SERIALIZED);
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try(ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                oos.writeObject(value);
+            }
+            ValueCodecs.BYTES.write(baos.toByteArray(), out);
+        }
+    }
+
+    private static Serializable readValue(DataInputStream in) throws IOException {
+        final int tag = in.readByte();
+        switch(tag) {
+            case NULL: return null;
+            case STRING: return ValueCodecs.STRING.read(in);
+            case INTEGER: return in.readInt();
+            case LONG: return in.readLong();
+            case BOOLEAN: return in.readBoolean();
+            case DOUBLE: return in.readDouble();
+            case FLOAT: return in.readFloat();
+            case SHORT: return in.readShort();
+            case BYTE: return in.readByte();
+            case CHARACTER: return in.readChar();
+            case BYTES: return ValueCodecs.BYTES.read(in);
+            case DATE: return new Date(in.readLong());
+            case SERIALIZED: 
+                try(ObjectInputStream ois = new ObjectInputStream(
+                        new ByteArrayInputStream(ValueCodecs.BYTES.read(in)))) {
+                    return (Serializable)ois.readObject();
+                }catch(ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            default: throw new StreamCorruptedException("Unexpected metadata type: " + tag);
+        }
+    }
+}
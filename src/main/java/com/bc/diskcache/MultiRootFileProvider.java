@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.File;
+
+/**
+ * Places each cache under several root directories, typically one per 
+ * device, so that a {@link DiskLruCacheContext} stripes its caches across 
+ * the devices. Each root has a weight, e.g. the capacity of its device, 
+ * setting its share of the keys and of the max size of each cache.
+ * @see ShardedDiskLruCache
+ */
+public class MultiRootFileProvider implements DiskLruCacheContext.FileProvider {
+
+    private final File [] roots;
+
+    private final long [] weights;
+
+    /**
+     * @param roots The root directories, weighted equally
+     */
+    public MultiRootFileProvider(File... roots) {
+        this(roots, equalWeights(roots.length));
+    }
+
+    /**
+     * @param roots The root directories
+     * @param weights The weight of each root, e.g. the capacity of its device
+     */
+    public MultiRootFileProvider(File [] roots, long [] weights) {
+        if(roots.length == 0 || roots.length != weights.length) {
+            throw new IllegalArgumentException("Roots and weights must be non-empty and of equal length");
+        }
+        for(long weight : weights) {
+            if(weight < 1) {
+                throw new IllegalArgumentException("Weight < 1");
+            }
+        }
+        this.roots = roots.clone();
+        this.weights = weights.clone();
+    }
+
+    private static long [] equalWeights(int count) {
+        final long [] weights = new long[count];
+        java.util.Arrays.fill(weights, 1);
+        return weights;
+    }
+
+    /**
+     * @param key The name of the cache
+     * @return The directory of the cache under the first root
+     */
+    @Override
+    public File createFile(String key) {
+        return new File(roots[0], key);
+    }
+
+    /**
+     * @param key The name of the cache
+     * @return The directory of the cache under each root
+     */
+    public File [] createFiles(String key) {
+        final File [] files = new File[roots.length];
+        for(int i = 0; i < roots.length; i++) {
+            files[i] = new File(roots[i], key);
+        }
+        return files;
+    }
+
+    public long [] getWeights() {
+        return weights.clone();
+    }
+}
@@ -0,0 +1,1080 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Spreads keys by hash across independent caches, each with its own 
+ * sub-directory, locks, journal or log, and a share of the max size, so 
+ * that writes to different shards proceed in parallel.
+ * <p>
+ * The shards may live under several root directories, typically one per
+ * device, each with a weight setting its share of the max size and of the
+ * keys. Keys are assigned by weighted rendezvous hashing: each key goes to
+ * the shard scoring highest for it. A shard whose directory can no longer 
+ * be written to, e.g. because its device failed or is full, is taken 
+ * offline on the first failed operation; its keys then go to the shards 
+ * scoring next highest for them, while the keys of the other shards stay 
+ * where they are. The shards of a root which cannot be written to when the 
+ * cache is opened are offline from the start. Offline shards stay offline 
+ * until the cache is reopened.
+ * </p>
+ * <p>
+ * The layout is recorded in each shard directory, and the entries discarded
+ * if the cache is opened with a different layout.
+ * </p>
+ */
+public class ShardedDiskLruCache implements DiskLruCacheIx {
+
+    private transient static final Logger LOG = Logger.getLogger(ShardedDiskLruCache.class.getName());
+
+    private static final String LAYOUT_FILE = "shards";
+
+    private static final String SHARD_DIR_PREFIX = "shard-";
+
+    private final File [] roots;
+
+    private final File [] dirs;
+
+    private final long [] weights;
+
+    /** The layout recorded in the directory of each shard */
+    private final String [] layouts;
+
+    private final long maxSizeBytes;
+
+    private final DiskLruCacheIx [] shards;
+
+    /** Non-zero for each shard taken offline; read on every routed call */
+    private final AtomicIntegerArray offline;
+
+    private ShardedDiskLruCache(File [] roots, File [] dirs, long [] weights, String [] layouts, 
+            long maxSizeBytes, DiskLruCacheIx [] shards, boolean [] offlineShards) {
+        this.roots = roots;
+        this.dirs = dirs;
+        this.weights = weights;
+        this.layouts = layouts;
+        this.maxSizeBytes = maxSizeBytes;
+        this.shards = shards;
+        this.offline = new AtomicIntegerArray(shards.length);
+        for(int i = 0; i < shards.length; i++) {
+            if(offlineShards[i]) {
+                offline.set(i, 1);
+            }
+        }
+    }
+
+    /**
+     * @param dir The directory of the cache; each shard has a sub-directory of it
+     * @param shardCount The number of shards
+     * @param maxSizeBytes The max size of the cache, shared equally by the shards
+     * @param options The options each shard is opened with
+     * @param cacheProvider Opens the storage engine of each shard
+     * @return The opened cache
+     * @throws IOException 
+     */
+    public static DiskLruCacheIx open(File dir, int shardCount, long maxSizeBytes, 
+            DiskLruCacheOptions options, DiskLruCacheContext.CacheProvider cacheProvider) throws IOException {
+        return open(new File[]{dir}, new long[]{1}, shardCount, maxSizeBytes, options, cacheProvider);
+    }
+
+    /**
+     * @param roots The directories of the cache, typically one per device
+     * @param weights The weight of each root; its share of the max size and 
+     * of the keys, e.g. the capacity of its device
+     * @param shardsPerRoot The number of shards under each root
+     * @param maxSizeBytes The max size of the cache, shared by the roots 
+     * according to their weights
+     * @param options The options each shard is opened with
+     * @param cacheProvider Opens the storage engine of each shard
+     * @return The opened cache, with the shards of the roots which cannot be 
+     * written to offline
+     * @throws IOException If none of the roots can be written to
+     */
+    public static DiskLruCacheIx open(File [] roots, long [] weights, int shardsPerRoot, long maxSizeBytes, 
+            DiskLruCacheOptions options, DiskLruCacheContext.CacheProvider cacheProvider) throws IOException {
+        if(roots.length == 0 || roots.length != weights.length) {
+            throw new IllegalArgumentException("Roots and weights must be non-empty and of equal length");
+        }
+        if(shardsPerRoot < 1) {
+            throw new IllegalArgumentException("Shards per root < 1");
+        }
+        long totalWeight = 0;
+        for(long weight : weights) {
+            if(weight < 1) {
+                throw new IllegalArgumentException("Weight < 1");
+            }
+            totalWeight += weight;
+        }
+        final int shardCount = roots.length * shardsPerRoot;
+        if(maxSizeBytes < shardCount) {
+            throw new IllegalArgumentException("maxSize < shard count");
+        }
+        final File [] dirs = new File[shardCount];
+        final long [] shardWeights = new long[shardCount];
+        final boolean [] offlineShards = new boolean[shardCount];
+        for(int i = 0; i < roots.length; i++) {
+            for(int j = 0; j < shardsPerRoot; j++) {
+                dirs[i * shardsPerRoot + j] = new File(roots[i], SHARD_DIR_PREFIX + j);
+                shardWeights[i * shardsPerRoot + j] = weights[i];
+            }
+        }
+        final String layout = "roots=" + roots.length + " shardsPerRoot=" + shardsPerRoot + 
+                " weights=" + java.util.Arrays.toString(weights);
+        final String [] layouts = new String[shardCount];
+        for(int i = 0; i < shardCount; i++) {
+            layouts[i] = "shard=" + i + " " + layout;
+        }
+        final DiskLruCacheIx [] shards = new DiskLruCacheIx[shardCount];
+        int acquired = 0;
+        int opened = 0;
+        try{
+            for(; acquired < roots.length; acquired++) {
+                CacheDirs.acquire(roots[acquired]);
+            }
+            int usableRoots = 0;
+            for(int i = 0; i < roots.length; i++) {
+                if(isUsable(roots[i])) {
+                    ++usableRoots;
+                    removeUnusedShards(roots[i], shardsPerRoot);
+                }else{
+                    LOG.log(Level.WARNING, "Taking the shards of root offline, it cannot be written to: {0}", roots[i]);
+                    java.util.Arrays.fill(offlineShards, i * shardsPerRoot, (i + 1) * shardsPerRoot, true);
+                }
+            }
+            if(usableRoots == 0) {
+                throw new IOException("None of the roots can be written to: " + java.util.Arrays.toString(roots));
+            }
+            checkLayout(dirs, layouts, offlineShards);
+            for(; opened < shardCount; opened++) {
+                if(offlineShards[opened]) {
+                    shards[opened] = DiskLruCacheIx.NO_OP;
+                    continue;
+                }
+                final long shardMaxSize = Math.max(1, (long)((double)maxSizeBytes * shardWeights[opened] / 
+                        (totalWeight * shardsPerRoot)));
+                shards[opened] = cacheProvider.open(dirs[opened], shardMaxSize, options);
+                // The engine may have wiped the directory, e.g. on finding its journal corrupt
+                if(!new File(dirs[opened], LAYOUT_FILE).isFile()) {
+                    recordLayout(dirs[opened], layouts[opened]);
+                }
+            }
+            return new ShardedDiskLruCache(roots, dirs, shardWeights, layouts, maxSizeBytes, shards, offlineShards);
+        }catch(IOException | RuntimeException e) {
+            for(int i = 0; i < opened; i++) {
+                try{
+                    shards[i].close();
+                }catch(IOException | RuntimeException ce) {
+                    LOG.log(Level.WARNING, "Failed to close shard: " + dirs[i], ce);
+                }
+                CacheDirs.release(dirs[i]);
+            }
+            for(int i = 0; i < acquired; i++) {
+                CacheDirs.release(roots[i]);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Keys map to different shards under a different layout, so if any 
+     * shard was written under another layout, the entries of all shards are 
+     * discarded. A shard without a record of its layout, e.g. one which 
+     * went offline, is discarded on its own. Offline shards are left as they are.
+     */
+    private static void checkLayout(File [] dirs, String [] layouts, boolean [] offline) throws IOException {
+        final String [] recorded = new String[dirs.length];
+        boolean changed = false;
+        for(int i = 0; i < dirs.length; i++) {
+            if(offline[i]) {
+                continue;
+            }
+            final File file = new File(dirs[i], LAYOUT_FILE);
+            if(file.isFile()) {
+                recorded[i] = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                if(!recorded[i].equals(layouts[i])) {
+                    changed = true;
+                }
+            }
+        }
+        if(changed) {
+            LOG.log(Level.INFO, "Discarding cache at {0}, shard layout changed to: {1}", 
+                    new Object[]{dirs[0].getParentFile(), layouts[0]});
+        }
+        for(int i = 0; i < dirs.length; i++) {
+            if(!offline[i] && (changed || recorded[i] == null)) {
+                if(dirs[i].exists()) {
+                    deleteDir(dirs[i]);
+                }
+                if(!dirs[i].mkdirs()) {
+                    throw new IOException("Failed to create directory: " + dirs[i]);
+                }
+                recordLayout(dirs[i], layouts[i]);
+            }
+        }
+    }
+
+    private static void recordLayout(File dir, String layout) throws IOException {
+        try(FileOutputStream out = new FileOutputStream(new File(dir, LAYOUT_FILE))) {
+            out.write(layout.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Deletes the shard directories beyond those of the current layout, left 
+     * by a previous layout with more shards per root.
+     */
+    private static void removeUnusedShards(File root, int shardsPerRoot) throws IOException {
+        final File [] files = root.listFiles();
+        if(files == null) {
+            return;
+        }
+        for(File file : files) {
+            final String name = file.getName();
+            if(file.isDirectory() && name.startsWith(SHARD_DIR_PREFIX)) {
+                final int index;
+                try{
+                    index = Integer.parseInt(name.substring(SHARD_DIR_PREFIX.length()));
+                }catch(NumberFormatException e) {
+                    continue;
+                }
+                if(index >= shardsPerRoot) {
+                    deleteDir(file);
+                }
+            }
+        }
+    }
+
+    private static void deleteDir(File dir) throws IOException {
+        final File [] files = dir.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(file.isDirectory()) {
+                    deleteDir(file);
+                }else if(!file.delete() && file.exists()) {
+                    throw new IOException("failed to delete file: " + file);
+                }
+            }
+        }
+        if(!dir.delete() && dir.exists()) {
+            throw new IOException("failed to delete directory: " + dir);
+        }
+    }
+
+    /**
+     * @return The online shard scoring highest for the key
+     * @throws IOException If every shard is offline
+     */
+    private int route(String key) throws IOException {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        int best = -1;
+        double bestScore = 0;
+        for(int i = 0; i < shards.length; i++) {
+            if(isOffline(i)) {
+                continue;
+            }
+            final long mixed = mix(hash ^ ((i + 1) * 0x9e3779b97f4a7c15L));
+            // A uniform number in (0, 1)
+            final double unit = ((mixed >>> 11) + 0.5) / (1L << 53);
+            final double score = weights[i] / -Math.log(unit);
+            if(best == -1 || score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        if(best == -1) {
+            throw new IOException("All shards offline: " + roots[0]);
+        }
+        return best;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Takes the shard offline if its directory can no longer be written to.
+     * Failures of the operation alone, such as a value which cannot be 
+     * serialized, leave it online.
+     * @return The failure, to be rethrown
+     */
+    private IOException failed(int shard, IOException failure) {
+        // Only the thread taking the shard offline logs it and discards its layout
+        if(!this.isOffline(shard) && !isWritable(dirs[shard]) && offline.compareAndSet(shard, 0, 1)) {
+            LOG.log(Level.WARNING, "Taking shard offline: " + dirs[shard], failure);
+            // So that its entries, which may be stale by the time it is back, are discarded
+            new File(dirs[shard], LAYOUT_FILE).delete();
+        }
+        return failure;
+    }
+
+    private static boolean isUsable(File root) {
+        return (root.isDirectory() || root.mkdirs()) && isWritable(root);
+    }
+
+    private static boolean isWritable(File dir) {
+        try{
+            final File probe = File.createTempFile("probe", ".tmp", dir);
+            try(FileOutputStream out = new FileOutputStream(probe)) {
+                out.write(0);
+                out.getFD().sync();
+            }finally{
+                probe.delete();
+            }
+            return true;
+        }catch(IOException e) {
+            return false;
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getOfflineShardCount() {
+        int count = 0;
+        for(int i = 0; i < shards.length; i++) {
+            if(this.isOffline(i)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private boolean isOffline(int shard) {
+        return offline.get(shard) != 0;
+    }
+
+    private Map<Integer, List<String>> groupKeys(Collection<String> keys) throws IOException {
+        final Map<Integer, List<String>> grouped = new HashMap<>();
+        for(String key : keys) {
+            final Integer shard = this.route(key);
+            List<String> group = grouped.get(shard);
+            if(group == null) {
+                group = new ArrayList<>();
+                grouped.put(shard, group);
+            }
+            group.add(key);
+        }
+        return grouped;
+    }
+
+    private <V> Map<Integer, Map<String, V>> groupValues(Map<String, ? extends V> values) throws IOException {
+        final Map<Integer, Map<String, V>> grouped = new HashMap<>();
+        for(Map.Entry<String, ? extends V> entry : values.entrySet()) {
+            final Integer shard = this.route(entry.getKey());
+            Map<String, V> group = grouped.get(shard);
+            if(group == null) {
+                group = new LinkedHashMap<>();
+                grouped.put(shard, group);
+            }
+            group.put(entry.getKey(), entry.getValue());
+        }
+        return grouped;
+    }
+
+    private static <V> Map<String, V> inKeyOrder(Collection<String> keys, Map<String, V> found) {
+        final Map<String, V> result = new LinkedHashMap<>();
+        for(String key : keys) {
+            final V value = found.get(key);
+            if(value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for(int i = 0; i < shards.length; i++) {
+            if(!isOffline(i)) {
+                try{
+                    shards[i].flush();
+                }catch(IOException e) {
+                    throw this.failed(i, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        for(DiskLruCacheIx shard : shards) {
+            if(shard != DiskLruCacheIx.NO_OP) {
+                return shard.isClosed();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes every shard, even if closing one fails, and releases the 
+     * directories of the cache.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for(int i = 0; i < shards.length; i++) {
+            try{
+                shards[i].close();
+            }catch(IOException e) {
+                if(failure == null) {
+                    failure = e;
+                }else{
+                    failure.addSuppressed(e);
+                }
+            }
+            CacheDirs.release(dirs[i]);
+        }
+        for(File root : roots) {
+            CacheDirs.release(root);
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Records the layout of each shard again once cleared, as engines such 
+     * as {@link SimpleDiskLruCache} clear by wiping their directory.
+     */
+    @Override
+    public void clear() throws IOException {
+        for(int i = 0; i < shards.length; i++) {
+            if(!isOffline(i)) {
+                try{
+                    shards[i].clear();
+                    if(!new File(dirs[i], LAYOUT_FILE).isFile()) {
+                        recordLayout(dirs[i], layouts[i]);
+                    }
+                }catch(IOException e) {
+                    throw this.failed(i, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The first root directory of the cache
+     */
+    @Override
+    public File getDirectory() {
+        return roots[0];
+    }
+
+    /**
+     * @return The total size of the online shards
+     */
+    @Override
+    public long getSize() {
+        long size = 0;
+        for(int i = 0; i < shards.length; i++) {
+            if(!isOffline(i)) {
+                size += shards[i].getSize();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSizeBytes;
+    }
+
+    /**
+     * @return The sum of the statistics of the online shards
+     */
+    @Override
+    public CacheStats getStats() {
+        CacheStats stats = CacheStats.EMPTY;
+        for(int i = 0; i < shards.length; i++) {
+            if(!isOffline(i)) {
+                stats = stats.plus(shards[i].getStats());
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public boolean remove(String key) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].remove(key);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void delete() throws IOException {
+        try{
+            for(DiskLruCacheIx shard : shards) {
+                shard.delete();
+            }
+        }finally{
+            this.close();
+        }
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getStreamEntry(String key, SnapshotEntry<InputStream> outputIfNone)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getStreamEntry(key, outputIfNone);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public SnapshotEntry<String> getStringEntry(String key, SnapshotEntry<String> outputIfNone)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getStringEntry(key, outputIfNone);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public SnapshotEntry<ObjectInputStream> getObjectStreamEntry(String key, SnapshotEntry<ObjectInputStream> outputIfNone)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getObjectStreamEntry(key, outputIfNone);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public SnapshotEntry<ByteBuffer> getBufferEntry(String key, SnapshotEntry<ByteBuffer> outputIfNone)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getBufferEntry(key, outputIfNone);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getRangeEntry(String key, long offset, long length, 
+            SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getRangeEntry(key, offset, length, outputIfNone);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public long get(String key, ByteBuffer dst) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].get(key, dst);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public long getLength(String key) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getLength(key);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].transferTo(key, target);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public Object getObject(String key, Object outputIfNone) throws IOException, ClassNotFoundException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getObject(key, outputIfNone);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public String getString(String key, String outputIfNone) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getString(key, outputIfNone);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public <T> SnapshotEntry<T> getEntry(String key, ValueCodec<T> codec, SnapshotEntry<T> outputIfNone)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getEntry(key, codec, outputIfNone);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public <T> T get(String key, ValueCodec<T> codec, T outputIfNone) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].get(key, codec, outputIfNone);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, Loader<T> loader) throws IOException, ClassNotFoundException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getOrLoad(key, loader);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, ValueCodec<T> codec, Loader<? extends T> loader) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].getOrLoad(key, codec, loader);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getAll(Collection<String> keys) throws IOException, ClassNotFoundException {
+        final Map<String, Object> found = new HashMap<>();
+        for(Map.Entry<Integer, List<String>> group : this.groupKeys(keys).entrySet()) {
+            try{
+                found.putAll(shards[group.getKey()].getAll(group.getValue()));
+            }catch(IOException e) {
+                throw this.failed(group.getKey(), e);
+            }
+        }
+        return inKeyOrder(keys, found);
+    }
+
+    @Override
+    public <T> Map<String, T> getAll(Collection<String> keys, ValueCodec<T> codec) throws IOException {
+        final Map<String, T> found = new HashMap<>();
+        for(Map.Entry<Integer, List<String>> group : this.groupKeys(keys).entrySet()) {
+            try{
+                found.putAll(shards[group.getKey()].getAll(group.getValue(), codec));
+            }catch(IOException e) {
+                throw this.failed(group.getKey(), e);
+            }
+        }
+        return inKeyOrder(keys, found);
+    }
+
+    @Override
+    public boolean contains(String key) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].contains(key);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public CloseableIterator<String> keys() throws IOException {
+        return this.keys("");
+    }
+
+    @Override
+    public CloseableIterator<String> keys(final String prefix) throws IOException {
+        java.util.Objects.requireNonNull(prefix);
+        return new ShardIterator<String>() {
+            @Override
+            protected CloseableIterator<String> open(DiskLruCacheIx shard) throws IOException {
+                return shard.keys(prefix);
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<Map.Entry<String, SnapshotEntry<InputStream>>> entries(final String prefix) 
+            throws IOException {
+        java.util.Objects.requireNonNull(prefix);
+        return new ShardIterator<Map.Entry<String, SnapshotEntry<InputStream>>>() {
+            @Override
+            protected CloseableIterator<Map.Entry<String, SnapshotEntry<InputStream>>> open(
+                    DiskLruCacheIx shard) throws IOException {
+                return shard.entries(prefix);
+            }
+        };
+    }
+
+    /**
+     * Iterates over each online shard in turn, opening the iteration over a 
+     * shard only once the previous one is done.
+     */
+    private abstract class ShardIterator<T> extends CacheIterators.LookAhead<T> {
+
+        private int shard = -1;
+
+        private CloseableIterator<T> current = CacheIterators.empty();
+
+        protected abstract CloseableIterator<T> open(DiskLruCacheIx shard) throws IOException;
+
+        @Override
+        protected T computeNext() throws IOException {
+            while(!current.hasNext()) {
+                current.close();
+                do{
+                    if(++shard >= shards.length) {
+                        current = CacheIterators.empty();
+                        return null;
+                    }
+                }while(isOffline(shard));
+                try{
+                    current = this.open(shards[shard]);
+                }catch(IOException e) {
+                    current = CacheIterators.empty();
+                    throw failed(shard, e);
+                }
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() {
+            current.close();
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream is) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, is);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, is, annotations);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void put(String key, Object value) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void put(String key, String value, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value, annotations);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void put(String key, Object value, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value, annotations);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value, codec);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value, codec, annotations);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream is, long ttl, TimeUnit unit) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, is, ttl, unit);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void put(String key, String value, long ttl, TimeUnit unit) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value, ttl, unit);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void put(String key, Object value, long ttl, TimeUnit unit) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value, ttl, unit);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, long ttl, TimeUnit unit) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value, codec, ttl, unit);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void put(String key, ByteBuffer value) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].put(key, value);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, ?> values) throws IOException {
+        for(Map.Entry<Integer, Map<String, Object>> group : this.<Object>groupValues(values).entrySet()) {
+            try{
+                shards[group.getKey()].putAll(group.getValue());
+            }catch(IOException e) {
+                throw this.failed(group.getKey(), e);
+            }
+        }
+    }
+
+    @Override
+    public <T> void putAll(Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException {
+        for(Map.Entry<Integer, Map<String, T>> group : this.<T>groupValues(values).entrySet()) {
+            try{
+                shards[group.getKey()].putAll(group.getValue(), codec);
+            }catch(IOException e) {
+                throw this.failed(group.getKey(), e);
+            }
+        }
+    }
+
+    @Override
+    public int removeAll(Collection<String> keys) throws IOException {
+        int removed = 0;
+        for(Map.Entry<Integer, List<String>> group : this.groupKeys(keys).entrySet()) {
+            try{
+                removed += shards[group.getKey()].removeAll(group.getValue());
+            }catch(IOException e) {
+                throw this.failed(group.getKey(), e);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].putIfNone(key, is);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is, Map<String, Serializable> annotations)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].putIfNone(key, is, annotations);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, String value) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].putIfNone(key, value);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, Object value) throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].putIfNone(key, value);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, String value, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].putIfNone(key, value, annotations);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations)
+            throws IOException {
+        final int shard = this.route(key);
+        try{
+            shards[shard].putIfNone(key, value, annotations);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, InputStream is) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].putIfAbsent(key, is);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].putIfAbsent(key, value);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, Object value) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].putIfAbsent(key, value);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+
+    @Override
+    public <T> boolean putIfAbsent(String key, T value, ValueCodec<T> codec) throws IOException {
+        final int shard = this.route(key);
+        try{
+            return shards[shard].putIfAbsent(key, value, codec);
+        }catch(IOException e) {
+            throw this.failed(shard, e);
+        }
+    }
+}
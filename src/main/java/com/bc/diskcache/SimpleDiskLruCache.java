@@ -16,28 +16,28 @@
 
 package com.bc.diskcache;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.Closeable;
 import java.io.File;
-import java.io.FilterOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Collections;
-import java.util.ConcurrentModificationException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.Map;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,51 +45,147 @@ import java.util.logging.Logger;
  * Adapted from https://github.com/fhucho/simple-disk-cache
  * @author Chinomso Bassey Ikwuagwu on Oct 4, 2018 12:41:18 PM
  */
-public class SimpleDiskLruCache implements DiskLruCacheIx {
+public class SimpleDiskLruCache extends AbstractDiskLruCache {
 
     private transient static final Logger LOG = Logger.getLogger(SimpleDiskLruCache.class.getName());
 
-    private static final int VALUE_COUNT = 2;
+    /**
+     * The metadata is kept in the header of the value file. Caches written 
+     * with a separate metadata file have a different value count, and are 
+     * cleared by the DiskLruCache when opened.
+     */
+    private static final int VALUE_COUNT = 1;
     private static final int VALUE_IDX = 0;
-    private static final int METADATA_IDX = 1;
-    private static final Set<File> USED_DIRS = new LinkedHashSet<>();
-    
-    private final Lock editorLock = new ReentrantLock();
 
-    private com.jakewharton.disklrucache.DiskLruCache diskLruCache;
+    private static final String JOURNAL_FILE = "journal";
+
+    /** 
+     * Created once an entry which expires is written, so that the reaper is
+     * started when the cache is reopened.
+     */
+    private static final String EXPIRING_FILE = "expiring";
+
+    private volatile com.jakewharton.disklrucache.DiskLruCache diskLruCache;
     private final int mAppVersion;
+    private final long maxSizeBytes;
 
-    private SimpleDiskLruCache(File dir, int appVersion, long maxSizeBytes) throws IOException {
+    private final GroupSync groupSync;
+
+    /**
+     * The files of the entries committed since the last sync.
+     */
+    private final Queue<File> unsynced = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean expiring;
+
+    /** The internal keys of the pass of the expiry reaper in progress. Used by the reaper only. */
+    private String [] reapKeys;
+
+    private int reapIndex;
+
+    private SimpleDiskLruCache(File dir, int appVersion, long maxSizeBytes, DiskLruCacheOptions options) 
+            throws IOException {
+        super(withoutMapping(options));
         mAppVersion = appVersion;
+        this.maxSizeBytes = maxSizeBytes;
         diskLruCache = com.jakewharton.disklrucache.DiskLruCache.open(dir, appVersion, VALUE_COUNT, maxSizeBytes);
+        this.groupSync = new GroupSync(options.getDurability(), options.getSyncIntervalMillis(), 
+                dir.getName(), new GroupSync.Target() {
+            @Override
+            public void sync() throws IOException {
+                SimpleDiskLruCache.this.sync();
+            }
+        });
+        if(new File(dir, EXPIRING_FILE).exists()) {
+            this.expiring = true;
+            this.startReaper();
+        }
     }
 
-    public static DiskLruCacheIx open(File dir, int appVersion, long maxSizeBytes)
-            throws IOException {
-        if (USED_DIRS.contains(dir)) {
-            throw new IllegalStateException("Cache dir " + dir.getAbsolutePath() + " was used before.");
+    /**
+     * The DiskLruCache evicts entries for size without telling this class, 
+     * so mapped regions of evicted entries would go on being served, and would
+     * hold on to the space of their deleted files. Mapped reads are disabled.
+     */
+    private static DiskLruCacheOptions withoutMapping(DiskLruCacheOptions options) {
+        if(options.getMappedRegionCacheBytes() == 0) {
+            return options;
         }
+        LOG.log(Level.WARNING, "Mapped reads are not supported by {0}, ignoring mapped region cache size: {1}", 
+                new Object[]{SimpleDiskLruCache.class.getSimpleName(), options.getMappedRegionCacheBytes()});
+        return new DiskLruCacheOptions(options).setMappedRegionCacheBytes(0);
+    }
 
-        USED_DIRS.add(dir);
+    public static DiskLruCacheIx open(File dir, int appVersion, long maxSizeBytes)
+            throws IOException {
+        return open(dir, appVersion, maxSizeBytes, new DiskLruCacheOptions());
+    }
 
-        return new SimpleDiskLruCache(dir, appVersion, maxSizeBytes);
+    public static DiskLruCacheIx open(File dir, int appVersion, long maxSizeBytes, DiskLruCacheOptions options)
+            throws IOException {
+        CacheDirs.acquire(dir);
+        try{
+            return new SimpleDiskLruCache(dir, appVersion, maxSizeBytes, options);
+        }catch(IOException | RuntimeException e) {
+            CacheDirs.release(dir);
+            throw e;
+        }
     }
     
     public static boolean containsCacheDir(File dir) {
-        return USED_DIRS.contains(dir);
+        return CacheDirs.contains(dir);
     }
     
     public static boolean removeCacheDir(File dir) {
-        return USED_DIRS.remove(dir);
+        return CacheDirs.release(dir);
     }
     
     public static Set<File> getCacheDirs() {
-        return Collections.unmodifiableSet(USED_DIRS);
+        return CacheDirs.getAll();
     }
 
     @Override
     public void flush() throws IOException {
         diskLruCache.flush();
+        groupSync.flush();
+    }
+
+    /**
+     * Forces the files of the entries committed since the last sync, then
+     * the journal recording them and the directory recording their renames.
+     */
+    private void sync() throws IOException {
+        final Set<File> files = new LinkedHashSet<>();
+        for(File file = unsynced.poll(); file != null; file = unsynced.poll()) {
+            files.add(file);
+        }
+        try{
+            for(File file : files) {
+                force(file);
+            }
+            final com.jakewharton.disklrucache.DiskLruCache cache = diskLruCache;
+            if(cache.isClosed()) {
+                return;
+            }
+            cache.flush();
+            force(new File(cache.getDirectory(), JOURNAL_FILE));
+            try(FileChannel channel = FileChannel.open(cache.getDirectory().toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+            }catch(IOException ignored) {
+                // Directories cannot be opened on some platforms
+            }
+        }catch(IOException | RuntimeException e) {
+            unsynced.addAll(files);
+            throw e;
+        }
+    }
+
+    private static void force(File file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }catch(NoSuchFileException ignored) {
+            // Removed or evicted since committed
+        }
     }
 
     @Override
@@ -99,15 +195,20 @@ public class SimpleDiskLruCache implements DiskLruCacheIx {
 
     @Override
     public void close() throws IOException {
-        diskLruCache.close();
+        try{
+            this.stopReaper();
+            groupSync.close();
+        }finally{
+            diskLruCache.close();
+        }
     }
 
     @Override
-    public void clear() throws IOException {
+    protected void clearEntries() throws IOException {
         final File dir = diskLruCache.getDirectory();
-        final long maxSize = diskLruCache.getMaxSize();
+        expiring = false;
         diskLruCache.delete();
-        diskLruCache = com.jakewharton.disklrucache.DiskLruCache.open(dir, mAppVersion, VALUE_COUNT, maxSize);
+        diskLruCache = com.jakewharton.disklrucache.DiskLruCache.open(dir, mAppVersion, VALUE_COUNT, maxSizeBytes);
     }
 
     @Override
@@ -115,335 +216,264 @@ public class SimpleDiskLruCache implements DiskLruCacheIx {
         return diskLruCache.getDirectory();
     }
 
+    /**
+     * Does not wait for edits in progress. The DiskLruCache holds its own 
+     * monitor only for the duration of the read.
+     */
     @Override
-    public synchronized long getSize() {
+    public long getSize() {
         return diskLruCache.size();
     }
 
     @Override
-    public synchronized long getMaxSize() {
-        return diskLruCache.getMaxSize();
+    public long getMaxSize() {
+        return maxSizeBytes;
     }
 
+    /**
+     * @return -1, as the entries the DiskLruCache evicts for size go unseen. 
+     * Counting only the expired entries reaped would understate evictions.
+     */
     @Override
-    public synchronized boolean remove(String key) throws IOException {
-        try{
-            editorLock.lock();
-            return diskLruCache.remove(this.toInternalKey(key));
-        }finally{
-            editorLock.unlock();
-        }
+    protected long getEvictionCount() {
+        return -1;
     }
 
     @Override
-    public void delete() throws IOException {
-        diskLruCache.delete();
-    }
-
-    public com.jakewharton.disklrucache.DiskLruCache getCache() {
-        return diskLruCache;
-    }
-
-    @Override
-    public SnapshotEntry<InputStream> getStreamEntry(
-            String key, SnapshotEntry<InputStream> outputIfNone) throws IOException {
-        com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot = diskLruCache.get(toInternalKey(key));
-        if (snapshot == null) {
-            return outputIfNone;
+    protected boolean removeEntry(String key) throws IOException {
+        final boolean removed = diskLruCache.remove(this.toInternalKey(key));
+        if(removed) {
+            groupSync.commit();
         }
-        return new InputStreamEntry(snapshot, readMetadata(snapshot));
+        return removed;
     }
 
+    /**
+     * Syncs once for the whole batch.
+     */
     @Override
-    public SnapshotEntry<String> getStringEntry(String key, SnapshotEntry<String> outputIfNone) throws IOException {
-        com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot = diskLruCache.get(toInternalKey(key));
-        if (snapshot == null) {
-            return outputIfNone;
-        }
-        try {
-            return new SnapshotEntryImpl(snapshot.getString(VALUE_IDX), readMetadata(snapshot));
-        } finally {
-            snapshot.close();
+    protected int removeEntries(List<String> keys) throws IOException {
+        int removed = 0;
+        for(String key : keys) {
+            if(diskLruCache.remove(this.toInternalKey(key))) {
+                ++removed;
+            }
         }
-    }
-
-    @Override
-    public SnapshotEntry<ObjectInputStream> getObjectStreamEntry(
-            String key, SnapshotEntry<ObjectInputStream> outputIfNone) throws IOException {
-        com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot = diskLruCache.get(toInternalKey(key));
-        if (snapshot == null) {
-            return outputIfNone;
+        if(removed > 0) {
+            groupSync.commit();
         }
-        return new ObjectInputStreamEntry(snapshot, readMetadata(snapshot));
+        return removed;
     }
 
-
+    /**
+     * Syncs once for the whole batch, after committing as much of it as 
+     * could be committed.
+     */
     @Override
-    public Object getObject(String key, Object outputIfNone) throws IOException, ClassNotFoundException {
-        SnapshotEntry<ObjectInputStream> snapshotEntry = this.getObjectStreamEntry(key, null);
-        if(snapshotEntry == null) {
-            return outputIfNone;
-        }
-        final ObjectInputStream ois = snapshotEntry.getData();
+    protected void commitAll(List<Editor> editors) throws IOException {
+        int committed = 0;
         try{
-            return ois.readObject();
+            for(Editor editor : editors) {
+                ((EditorImpl)editor).commitUnsynced();
+                ++committed;
+            }
         }finally{
-            snapshotEntry.close();
+            for(int i = committed + 1; i < editors.size(); i++) {
+                this.abortQuietly(editors.get(i));
+            }
+            if(committed > 0) {
+                groupSync.commit();
+            }
         }
     }
 
     @Override
-    public String getString(String key, String outputIfNone) throws IOException {
-        SnapshotEntry<String> snapshotEntry = this.getStringEntry(key, null);
-        if (snapshotEntry == null) {
-            return outputIfNone;
-        }
-        try {
-            final String result = snapshotEntry.getData();
-            return result;
-        } finally {
-            snapshotEntry.close();
-        }
+    public void delete() throws IOException {
+        this.stopReaper();
+        diskLruCache.delete();
     }
 
+    /**
+     * Lists the clean files of the entries when a pass starts, and reads the
+     * expiry time from the start of each.
+     */
     @Override
-    public boolean contains(String key) throws IOException {
-        com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot = diskLruCache.get(toInternalKey(key));
-        if(snapshot==null) {
-            return false;
-        }else{
-            snapshot.close();
+    protected boolean removeExpired(long now, int maxEntries) throws IOException {
+        final com.jakewharton.disklrucache.DiskLruCache cache = diskLruCache;
+        if(cache.isClosed()) {
             return true;
         }
-    }
-
-    @Override
-    public void put(String key, InputStream is) throws IOException {
-        put(key, is, Collections.EMPTY_MAP);
-    }
-
-    @Override
-    public void put(String key, InputStream is, Map<String, Serializable> annotations)
-            throws IOException {
-        this.remove(key);
-        this.putIfNone(key, is, annotations);
-    }
-
-    @Override
-    public void put(String key, String value) throws IOException {
-        put(key, value, Collections.EMPTY_MAP);
-    }
-
-    @Override
-    public void put(String key, Object value) throws IOException {
-        put(key, value, Collections.EMPTY_MAP);
-    }
-
-    @Override
-    public void put(String key, String value, Map<String, ? extends Serializable> annotations)
-            throws IOException {
-        this.remove(key);
-        this.putIfNone(key, value, annotations);
-    }
-
-    @Override
-    public void put(String key, Object value, Map<String, ? extends Serializable> annotations)
-            throws IOException {
-        this.remove(key);
-        this.putIfNone(key, value, annotations);
-    }
-
-    @Override
-    public void putIfNone(String key, InputStream is) throws IOException {
-        putIfNone(key, is, Collections.EMPTY_MAP);
-    }
-
-    @Override
-    public void putIfNone(String key, InputStream is, Map<String, Serializable> annotations)
-            throws IOException {
-        try{
-            editorLock.lock();
-            final OutputStream os = openStream(key, annotations);
-            try {
-                this.copy(is, os);
-            }finally {
-                os.close();
+        if(reapKeys == null) {
+            final String suffix = "." + VALUE_IDX;
+            final List<String> keys = new ArrayList<>();
+            final String [] names = cache.getDirectory().list();
+            if(names != null) {
+                for(String name : names) {
+                    if(name.endsWith(suffix)) {
+                        keys.add(name.substring(0, name.length() - suffix.length()));
+                    }
+                }
             }
-        }finally{
-            editorLock.unlock();
+            reapKeys = keys.toArray(new String[keys.size()]);
+            reapIndex = 0;
+        }
+        final int end = Math.min(reapKeys.length, reapIndex + maxEntries);
+        for(; reapIndex < end && !cache.isClosed(); reapIndex++) {
+            final String internalKey = reapKeys[reapIndex];
+            final File file = new File(cache.getDirectory(), internalKey + '.' + VALUE_IDX);
+            if(isExpired(file, now)) {
+                // Edits are committed holding the monitor of the DiskLruCache, 
+                // so the entry cannot be replaced between the check and the remove
+                synchronized(cache) {
+                    if(isExpired(file, now) && cache.remove(internalKey)) {
+                        this.recordEviction();
+                    }
+                }
+            }
+        }
+        if(reapIndex < reapKeys.length && !cache.isClosed()) {
+            return false;
         }
+        reapKeys = null;
+        return true;
     }
 
+    /**
+     * The DiskLruCache names entry files after the md5 of the key, so the 
+     * key is kept in the header.
+     */
     @Override
-    public void putIfNone(String key, String value) throws IOException {
-        putIfNone(key, value, Collections.EMPTY_MAP);
+    protected boolean isKeyInHeader() {
+        return true;
     }
 
+    /**
+     * Streams the clean files of the entries from the directory, and reads 
+     * the key from the start of each. Entries being written are not yet 
+     * clean files; entries removed while listed are skipped.
+     */
     @Override
-    public void putIfNone(String key, Object value) throws IOException {
-        putIfNone(key, value, Collections.EMPTY_MAP);
+    protected CloseableIterator<String> listKeys(final String prefix) throws IOException {
+        final DirectoryStream<Path> files = Files.newDirectoryStream(
+                diskLruCache.getDirectory().toPath(), "*." + VALUE_IDX);
+        final Iterator<Path> iterator = files.iterator();
+        return new CacheIterators.LookAhead<String>() {
+            @Override
+            protected String computeNext() throws IOException {
+                final long now = System.currentTimeMillis();
+                while(iterator.hasNext()) {
+                    final String key = readKey(iterator.next(), now);
+                    if(key != null && key.startsWith(prefix)) {
+                        return key;
+                    }
+                }
+                return null;
+            }
+            @Override
+            public void close() {
+                try{
+                    files.close();
+                }catch(IOException e) {
+                    LOG.log(Level.FINE, null, e);
+                }
+            }
+        };
     }
 
-    @Override
-    public void putIfNone(String key, String value, Map<String, ? extends Serializable> annotations)
-            throws IOException {
+    /**
+     * @return The key of the entry, or <code>null</code> if it has none, 
+     * has expired or no longer exists
+     */
+    private static String readKey(Path file, long now) {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readKey(channel, 0, channel.size(), now);
+        }catch(NoSuchFileException ignored) {
+            return null;
+        }catch(IOException e) {
+            LOG.log(Level.FINE, "Unreadable entry header of: " + file, e);
+            return null;
+        }
+    }
+
+    private static boolean isExpired(File file, long now) throws IOException {
+        final ByteBuffer head = ByteBuffer.allocate(EntryHeader.EXPIRY_PREFIX_LENGTH);
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while(head.hasRemaining() && channel.read(head) != -1) { }
+        }catch(NoSuchFileException ignored) {
+            return false;
+        }
+        head.flip();
+        final long expiryTime;
         try{
-            editorLock.lock();
-            final OutputStream cos = openStream(key, annotations);
-            try {
-                cos.write(value.getBytes());
-            }finally {
-                cos.close();
-            }
-        }finally{
-            editorLock.unlock();
+            expiryTime = EntryHeader.readExpiryTime(head);
+        }catch(IOException e) {
+            LOG.log(Level.FINE, "Unreadable entry header of: " + file, e);
+            return false;
         }
+        return expiryTime != 0 && expiryTime <= now;
     }
 
+    /**
+     * Records that the cache holds entries which expire, before starting the reaper.
+     */
     @Override
-    public void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations)
-            throws IOException {
-        try{
-            editorLock.lock();
-            final CacheObjectOutputStream cos = openObjectStream(key, annotations);
-            try {
-                cos.writeObject(value);
-            }finally{
-                cos.close();
+    protected void onExpiringWrite() {
+        if(!expiring) {
+            expiring = true;
+            try{
+                new File(diskLruCache.getDirectory(), EXPIRING_FILE).createNewFile();
+            }catch(IOException e) {
+                LOG.log(Level.WARNING, "Failed to record expiring entries of: " + diskLruCache.getDirectory(), e);
             }
-        }finally{
-            editorLock.unlock();
         }
-    }
-    
-    public OutputStream openStream(String key) throws IOException {
-        return openStream(key, Collections.EMPTY_MAP);
+        super.onExpiringWrite();
     }
 
-    public OutputStream openStream(String key, Map<String, ? extends Serializable> metadata)
-            throws IOException, ConcurrentModificationException {
-        com.jakewharton.disklrucache.DiskLruCache.Editor editor = diskLruCache.edit(toInternalKey(key));
-        if(editor == null) {
-            throw new ConcurrentModificationException("Could not acquire an editor, probably due to an ongoing edit");
-        }
-        try {
-            writeMetadata(metadata, editor);
-            BufferedOutputStream bos = new BufferedOutputStream(editor.newOutputStream(VALUE_IDX));
-            return new CacheOutputStream(bos, editor);
-        } catch (IOException e) {
-            editor.abort();
-            throw e;
-        }
+    public com.jakewharton.disklrucache.DiskLruCache getCache() {
+        return diskLruCache;
     }
 
-    private CacheObjectOutputStream openObjectStream(String key, Map<String, ? extends Serializable> metadata)
-            throws IOException, ConcurrentModificationException {
-        com.jakewharton.disklrucache.DiskLruCache.Editor editor = diskLruCache.edit(toInternalKey(key));
-        if(editor == null) {
-            throw new ConcurrentModificationException("Could not acquire an editor, probably due to an ongoing edit");
+    @Override
+    protected Snapshot snapshot(String key) throws IOException {
+        final com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot = diskLruCache.get(toInternalKey(key));
+        if(snapshot == null) {
+            return null;
         }
-        try {
-            writeMetadata(metadata, editor);
-            ObjectOutputStream bos = new ObjectOutputStream(new BufferedOutputStream(editor.newOutputStream(VALUE_IDX)));
-            return new CacheObjectOutputStream(bos, editor);
-        } catch (IOException e) {
-            editor.abort();
+        try{
+            return new SnapshotImpl(snapshot);
+        }catch(IOException | RuntimeException e) {
+            snapshot.close();
             throw e;
         }
     }
 
-    private void writeMetadata(Map<String, ? extends Serializable> metadata,
-                               com.jakewharton.disklrucache.DiskLruCache.Editor editor) throws IOException {
-        ObjectOutputStream oos = null;
-        try {
-            oos = new ObjectOutputStream(new BufferedOutputStream(
-                    editor.newOutputStream(METADATA_IDX)));
-            oos.writeObject(metadata);
-        } finally {
-            this.closeQuietly(oos);
-        }
-    }
-
-    private Map<String, Serializable> readMetadata(com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot)
-            throws IOException {
-        ObjectInputStream ois = null;
-        try {
-            ois = new ObjectInputStream(new BufferedInputStream(
-                    snapshot.getInputStream(METADATA_IDX)));
-            @SuppressWarnings("unchecked")
-            Map<String, Serializable> annotations = (Map<String, Serializable>) ois.readObject();
-            return annotations;
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
-        } finally {
-            this.closeQuietly(ois);
-        }
-    }
-
     /**
-     * Copies bytes from an <code>InputStream</code> to an
-     * <code>OutputStream</code>.
-     * <p>
-     * This method buffers the input internally, so there is no need to use a
-     * <code>BufferedInputStream</code>.
-     * </p>
-     * <p>
-     * Large streams (over 2GB) will return a bytes copied value of
-     * <code>-1</code> after the copy has completed since the correct
-     * number of bytes cannot be returned as an int. For large streams
-     * use the <code>copyLarge(InputStream, OutputStream)</code> method.
-     * </p>
-     * @param input the <code>InputStream</code> to read from
-     * @param output the <code>OutputStream</code> to write to
-     * @return the number of bytes copied, or -1 if &gt; Integer.MAX_VALUE
-     * @throws NullPointerException if the input or output is null
-     * @throws IOException          if an I/O error occurs
-     * @since 1.1
+     * Reads the clean file of the entry directly, as the DiskLruCache 
+     * journals each of its reads. Commits replace the file by renaming, so 
+     * the channel opened keeps the value as it was.
      */
-    private int copy(final InputStream input, final OutputStream output) throws IOException {
-        final long count = copyLarge(input, output, new byte[8192]);
-        if (count > Integer.MAX_VALUE) {
-            return -1;
+    @Override
+    protected Snapshot peek(String key) throws IOException {
+        final File file = new File(diskLruCache.getDirectory(), toInternalKey(key) + "." + VALUE_IDX);
+        final FileChannel channel;
+        try{
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }catch(NoSuchFileException ignored) {
+            return null;
         }
-        return (int) count;
-    }
-
-    /**
-     * Copies bytes from a large (over 2GB) <code>InputStream</code> to an
-     * <code>OutputStream</code>.
-     * <p>
-     * This method uses the provided buffer, so there is no need to use a
-     * <code>BufferedInputStream</code>.
-     * <p>
-     *
-     * @param input the <code>InputStream</code> to read from
-     * @param output the <code>OutputStream</code> to write to
-     * @param buffer the buffer to use for the copy
-     * @return the number of bytes copied
-     * @throws NullPointerException if the input or output is null
-     * @throws IOException          if an I/O error occurs
-     * @since 2.2
-     */
-    private long copyLarge(final InputStream input, final OutputStream output, final byte[] buffer)
-            throws IOException {
-        long count = 0;
-        int n;
-        while (-1 != (n = input.read(buffer))) {
-            output.write(buffer, 0, n);
-            count += n;
+        try{
+            return new FileSnapshot(channel, channel.size());
+        }catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
         }
-        return count;
     }
 
-    private void closeQuietly(Closeable c) {
-        if(c != null) {
-            try{
-                c.close();
-            }catch(IOException e) {
-                LOG.log(Level.WARNING, "Unexpected exception closing instance of " +
-                        c.getClass().getName(), e);
-            }
-        }
+    @Override
+    protected Editor edit(String key) throws IOException {
+        final String internalKey = toInternalKey(key);
+        final com.jakewharton.disklrucache.DiskLruCache.Editor editor = diskLruCache.edit(internalKey);
+        return editor == null ? null : new EditorImpl(internalKey, editor);
     }
 
     private String toInternalKey(String key) {
@@ -464,113 +494,61 @@ public class SimpleDiskLruCache implements DiskLruCacheIx {
         }
     }
 
-    private class CacheObjectOutputStream extends CacheOutputStream {
-
-        private final ObjectOutputStream os;
-
-        public CacheObjectOutputStream(ObjectOutputStream os, com.jakewharton.disklrucache.DiskLruCache.Editor editor) {
-            super(os, editor);
-            this.os = os;
-        }
-
-        public final void writeObject(Object obj) throws IOException {
-            try {
-                this.os.writeObject(obj);
-            } catch (IOException e) {
-                this.setFailed(true);
-                throw e;
-            }
-        }
-    }
-
-    private class CacheOutputStream extends FilterOutputStream {
-
+    private class EditorImpl implements Editor {
+        private final String internalKey;
         private final com.jakewharton.disklrucache.DiskLruCache.Editor editor;
-        private boolean failed = false;
-
-        private CacheOutputStream(OutputStream os, com.jakewharton.disklrucache.DiskLruCache.Editor editor) {
-            super(os);
+        public EditorImpl(String internalKey, com.jakewharton.disklrucache.DiskLruCache.Editor editor) {
+            this.internalKey = internalKey;
             this.editor = editor;
         }
-
-        @Override
-        public void close() throws IOException {
-            IOException closeException = null;
-            try {
-                super.close();
-            } catch (IOException e) {
-                closeException = e;
-            }
-
-            if (failed) {
-                editor.abort();
-            } else {
-                editor.commit();
-            }
-
-            if (closeException != null) throw closeException;
-        }
-
         @Override
-        public void flush() throws IOException {
-            try {
-                super.flush();
-            } catch (IOException e) {
-                failed = true;
-                throw e;
-            }
+        public OutputStream newOutputStream() throws IOException {
+            return editor.newOutputStream(VALUE_IDX);
         }
-
         @Override
-        public void write(int oneByte) throws IOException {
-            try {
-                super.write(oneByte);
-            } catch (IOException e) {
-                failed = true;
-                throw e;
+        public void commit() throws IOException {
+            this.commitUnsynced();
+            groupSync.commit();
+        }
+        private void commitUnsynced() throws IOException {
+            editor.commit();
+            if(groupSync.isEnabled()) {
+                // The clean file the DiskLruCache renamed the edit to
+                unsynced.add(new File(diskLruCache.getDirectory(), internalKey + '.' + VALUE_IDX));
             }
         }
-
         @Override
-        public void write(byte[] buffer) throws IOException {
-            try {
-                super.write(buffer);
-            } catch (IOException e) {
-                failed = true;
-                throw e;
-            }
-        }
-
-        @Override
-        public void write(byte[] buffer, int offset, int length) throws IOException {
-            try {
-                super.write(buffer, offset, length);
-            } catch (IOException e) {
-                failed = true;
-                throw e;
-            }
-        }
-
-        protected void setFailed(boolean b) {
-            this.failed = b;
+        public void abort() throws IOException {
+            editor.abort();
         }
     }
 
-    private class InputStreamEntry implements SnapshotEntry<InputStream> {
+    /**
+     * The value stream of a DiskLruCache Snapshot is a <code>FileInputStream</code>
+     * opened on the entry's clean file, so its channel spans exactly the entry.
+     * The length is that of the file opened, since DiskLruCache.Snapshot.getLength 
+     * reads the lengths of the live entry, which a concurrent remove sets to 0.
+     */
+    private class SnapshotImpl implements Snapshot {
         private final com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot;
-        private final Map<String, Serializable> metadata;
-
-        public InputStreamEntry(com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot, Map<String, Serializable> metadata) {
-            this.metadata = metadata;
+        private final FileChannel channel;
+        private final long length;
+        public SnapshotImpl(com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot) throws IOException {
             this.snapshot = snapshot;
+            this.channel = ((FileInputStream)snapshot.getInputStream(VALUE_IDX)).getChannel();
+            this.length = channel.size();
         }
         @Override
-        public InputStream getData() {
-            return snapshot.getInputStream(VALUE_IDX);
+        public FileChannel getChannel() {
+            return channel;
         }
         @Override
-        public Map<String, Serializable> getMetadata() {
-            return metadata;
+        public long getOffset() {
+            return 0;
+        }
+        @Override
+        public long getLength() {
+            return length;
         }
         @Override
         public void close() {
@@ -578,50 +556,32 @@ public class SimpleDiskLruCache implements DiskLruCacheIx {
         }
     }
 
-    private class SnapshotEntryImpl<T> implements SnapshotEntry<T> {
-        private final T data;
-        private final Map<String, Serializable> metadata;
-
-        public SnapshotEntryImpl(T data, Map<String, Serializable> metadata) {
-            this.data = data;
-            this.metadata = metadata;
-        }
-        @Override
-        public T getData() {
-            return data;
-        }
-        @Override
-        public Map<String, Serializable> getMetadata() {
-            return metadata;
+    private static class FileSnapshot implements Snapshot {
+        private final FileChannel channel;
+        private final long length;
+        private FileSnapshot(FileChannel channel, long length) {
+            this.channel = channel;
+            this.length = length;
         }
         @Override
-        public void close() { }
-    }
-
-    private class ObjectInputStreamEntry implements SnapshotEntry<ObjectInputStream> {
-        private final com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot;
-        private final Map<String, Serializable> metadata;
-
-        public ObjectInputStreamEntry(com.jakewharton.disklrucache.DiskLruCache.Snapshot snapshot, Map<String, Serializable> metadata) {
-            this.metadata = metadata;
-            this.snapshot = snapshot;
+        public FileChannel getChannel() {
+            return channel;
         }
         @Override
-        public ObjectInputStream getData() {
-            try {
-                return new ObjectInputStream(snapshot.getInputStream(VALUE_IDX));
-            }catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+        public long getOffset() {
+            return 0;
         }
         @Override
-        public Map<String, Serializable> getMetadata() {
-            return metadata;
+        public long getLength() {
+            return length;
         }
         @Override
         public void close() {
-            snapshot.close();
+            try{
+                channel.close();
+            }catch(IOException e) {
+                LOG.log(Level.FINE, null, e);
+            }
         }
     }
-
 }
\ No newline at end of file
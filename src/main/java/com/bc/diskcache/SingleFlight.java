@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads the values missing from a cache, at most once at a time per key. 
+ * Callers missing the same key while its value is being loaded wait for, 
+ * and share, that value rather than loading it again. Loads through a codec
+ * are shared only with callers passing the same codec instance, and loads 
+ * of objects only with other loads of objects, so that each caller gets a 
+ * value of the type it reads.
+ */
+final class SingleFlight {
+
+    private final ConcurrentMap<Flight, FutureTask<?>> loads = new ConcurrentHashMap<>();
+
+    /**
+     * @see DiskLruCacheIx#getOrLoad(java.lang.String, com.bc.diskcache.DiskLruCacheIx.Loader) 
+     */
+    // Deserialized values are of the type the caller expects, as with getObject
+    @SuppressWarnings("unchecked")
+    <T> T getOrLoad(final DiskLruCacheIx cache, final String key, final DiskLruCacheIx.Loader<T> loader) 
+            throws IOException, ClassNotFoundException {
+        final T value = (T)cache.getObject(key, null);
+        if(value != null) {
+            return value;
+        }
+        java.util.Objects.requireNonNull(loader);
+        return this.load(new Flight(key, null), new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                // Loaded by the previous caller, while this one was missing it
+                final T current = (T)cache.getObject(key, null);
+                if(current != null) {
+                    return current;
+                }
+                final T loaded = loader.load(key);
+                if(loaded == null || cache.putIfAbsent(key, loaded)) {
+                    return loaded;
+                }
+                final T written = (T)cache.getObject(key, null);
+                return written == null ? loaded : written;
+            }
+        });
+    }
+
+    /**
+     * @see DiskLruCacheIx#getOrLoad(java.lang.String, com.bc.diskcache.ValueCodec, com.bc.diskcache.DiskLruCacheIx.Loader) 
+     */
+    <T> T getOrLoad(final DiskLruCacheIx cache, final String key, final ValueCodec<T> codec, 
+            final DiskLruCacheIx.Loader<? extends T> loader) throws IOException {
+        final T value = cache.get(key, codec, null);
+        if(value != null) {
+            return value;
+        }
+        java.util.Objects.requireNonNull(loader);
+        try{
+            return this.load(new Flight(key, codec), new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    final T current = cache.get(key, codec, null);
+                    if(current != null) {
+                        return current;
+                    }
+                    final T loaded = loader.load(key);
+                    if(loaded == null || cache.putIfAbsent(key, loaded, codec)) {
+                        return loaded;
+                    }
+                    final T written = cache.get(key, codec, null);
+                    return written == null ? loaded : written;
+                }
+            });
+        }catch(ClassNotFoundException e) {
+            // Values read with a codec are not deserialized
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Runs the load, unless one of the flight is running, in which case waits 
+     * for its result instead.
+     */
+    // Loads of a flight share its codec, so their results are of the same type
+    @SuppressWarnings("unchecked")
+    private <T> T load(Flight flight, Callable<T> load) throws IOException, ClassNotFoundException {
+        final FutureTask<T> task = new FutureTask<>(load);
+        FutureTask<T> running = (FutureTask<T>)loads.putIfAbsent(flight, task);
+        if(running == null) {
+            running = task;
+            try{
+                task.run();
+            }finally{
+                loads.remove(flight, task);
+            }
+        }
+        try{
+            return running.get();
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the value of: " + flight.key);
+        }catch(ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if(cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException)cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A key, and the codec its value is read with; <code>null</code> for objects.
+     */
+    private static final class Flight {
+
+        private final String key;
+
+        private final ValueCodec<?> codec;
+
+        private Flight(String key, ValueCodec<?> codec) {
+            this.key = java.util.Objects.requireNonNull(key);
+            this.codec = codec;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Flight)) {
+                return false;
+            }
+            final Flight other = (Flight)o;
+            return key.equals(other.key) && codec == other.codec;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + System.identityHashCode(codec);
+        }
+    }
+}
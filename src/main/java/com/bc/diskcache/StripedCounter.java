@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over cells, each thread adding to the cell its id falls
+ * on, so that threads counting at the same time rarely contend on a cache 
+ * line. Reads sum the cells, and are not atomic with respect to increments.
+ */
+final class StripedCounter {
+
+    /** The longs between cells, so that each cell has a cache line of its own */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    StripedCounter() {
+        int stripes = 4;
+        while(stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        this.cells = new AtomicLongArray(stripes * PADDING);
+        this.mask = stripes - 1;
+    }
+
+    void increment() {
+        this.add(1);
+    }
+
+    void add(long n) {
+        final long id = Thread.currentThread().getId();
+        cells.getAndAdd((int)((id ^ (id >>> 16)) & mask) * PADDING, n);
+    }
+
+    long get() {
+        long sum = 0;
+        for(int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+}
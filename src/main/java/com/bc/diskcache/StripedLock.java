@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, each key being guarded by the lock its hash falls on,
+ * so that operations on different keys mostly proceed in parallel.
+ */
+final class StripedLock {
+
+    private final Lock [] locks;
+
+    StripedLock() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    StripedLock(int minStripes) {
+        int stripes = 16;
+        while(stripes < minStripes) {
+            stripes <<= 1;
+        }
+        locks = new Lock[stripes];
+        for(int i=0; i<stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    Lock get(String key) {
+        return locks[indexFor(key)];
+    }
+
+    int indexFor(String key) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (locks.length - 1);
+    }
+
+    /**
+     * @return The locks guarding the keys, each once, in the order in which
+     * {@link #lockAll()} acquires them. Acquiring them in this order cannot
+     * deadlock with other callers doing the same.
+     */
+    List<Lock> getAll(Collection<String> keys) {
+        final boolean [] used = new boolean[locks.length];
+        for(String key : keys) {
+            used[indexFor(key)] = true;
+        }
+        final List<Lock> result = new ArrayList<>();
+        for(int i=0; i<locks.length; i++) {
+            if(used[i]) {
+                result.add(locks[i]);
+            }
+        }
+        return result;
+    }
+
+    static void lock(List<Lock> locks) {
+        for(int i=0; i<locks.size(); i++) {
+            try{
+                locks.get(i).lock();
+            }catch(RuntimeException | Error e) {
+                unlock(locks.subList(0, i));
+                throw e;
+            }
+        }
+    }
+
+    static void unlock(List<Lock> locks) {
+        for(int i=locks.size()-1; i>=0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    /**
+     * Acquires every stripe, always in the same order.
+     */
+    void lockAll() {
+        for(Lock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    void unlockAll() {
+        for(int i=locks.length-1; i>=0; i--) {
+            locks[i].unlock();
+        }
+    }
+}
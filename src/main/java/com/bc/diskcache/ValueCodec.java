@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts values to and from the bytes stored in a cache. 
+ * <p>
+ * A codec must read exactly the bytes it wrote, so that codecs may be 
+ * composed, e.g. by {@link ValueCodecs#listOf(com.bc.diskcache.ValueCodec)}.
+ * Built-in codecs are available from {@link ValueCodecs}.
+ * </p>
+ * @param <T> The type of the values
+ */
+public interface ValueCodec<T> {
+
+    void write(T value, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Built-in {@link ValueCodec}s. Lengths and sizes are written as variable
+ * length integers, so small values cost a single byte of overhead. 
+ * Collections may not contain <code>null</code>.
+ */
+public final class ValueCodecs {
+
+    private ValueCodecs() { }
+
+    /** UTF-8 encoded */
+    public static final ValueCodec<String> STRING = new ValueCodec<String>() {
+        @Override
+        public void write(String value, DataOutput out) throws IOException {
+            final byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length, out);
+            out.write(bytes);
+        }
+        @Override
+        public String read(DataInput in) throws IOException {
+            final byte [] bytes = new byte[readLength(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    public static final ValueCodec<byte[]> BYTES = new ValueCodec<byte[]>() {
+        @Override
+        public void write(byte [] value, DataOutput out) throws IOException {
+            writeVarInt(value.length, out);
+            out.write(value);
+        }
+        @Override
+        public byte [] read(DataInput in) throws IOException {
+            final byte [] bytes = new byte[readLength(in)];
+            in.readFully(bytes);
+            return bytes;
+        }
+    };
+
+    public static final ValueCodec<Boolean> BOOLEAN = new ValueCodec<Boolean>() {
+        @Override
+        public void write(Boolean value, DataOutput out) throws IOException {
+            out.writeBoolean(value);
+        }
+        @Override
+        public Boolean read(DataInput in) throws IOException {
+            return in.readBoolean();
+        }
+    };
+
+    public static final ValueCodec<Byte> BYTE = new ValueCodec<Byte>() {
+        @Override
+        public void write(Byte value, DataOutput out) throws IOException {
+            out.writeByte(value);
+        }
+        @Override
+        public Byte read(DataInput in) throws IOException {
+            return in.readByte();
+        }
+    };
+
+    public static final ValueCodec<Short> SHORT = new ValueCodec<Short>() {
+        @Override
+        public void write(Short value, DataOutput out) throws IOException {
+            out.writeShort(value);
+        }
+        @Override
+        public Short read(DataInput in) throws IOException {
+            return in.readShort();
+        }
+    };
+
+    public static final ValueCodec<Character> CHARACTER = new ValueCodec<Character>() {
+        @Override
+        public void write(Character value, DataOutput out) throws IOException {
+            out.writeChar(value);
+        }
+        @Override
+        public Character read(DataInput in) throws IOException {
+            return in.readChar();
+        }
+    };
+
+    public static final ValueCodec<Integer> INTEGER = new ValueCodec<Integer>() {
+        @Override
+        public void write(Integer value, DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    public static final ValueCodec<Long> LONG = new ValueCodec<Long>() {
+        @Override
+        public void write(Long value, DataOutput out) throws IOException {
+            out.writeLong(value);
+        }
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    public static final ValueCodec<Float> FLOAT = new ValueCodec<Float>() {
+        @Override
+        public void write(Float value, DataOutput out) throws IOException {
+            out.writeFloat(value);
+        }
+        @Override
+        public Float read(DataInput in) throws IOException {
+            return in.readFloat();
+        }
+    };
+
+    public static final ValueCodec<Double> DOUBLE = new ValueCodec<Double>() {
+        @Override
+        public void write(Double value, DataOutput out) throws IOException {
+            out.writeDouble(value);
+        }
+        @Override
+        public Double read(DataInput in) throws IOException {
+            return in.readDouble();
+        }
+    };
+
+    /** 
+     * Java serialization, length prefixed. For values no other codec handles.
+     */
+    public static final ValueCodec<Serializable> SERIALIZABLE = new ValueCodec<Serializable>() {
+        @Override
+        public void write(Serializable value, DataOutput out) throws IOException {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try(ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                oos.writeObject(value);
+            }
+            BYTES.write(baos.toByteArray(), out);
+        }
+        @Override
+        public Serializable read(DataInput in) throws IOException {
+            final byte [] bytes = BYTES.read(in);
+            try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return (Serializable)ois.readObject();
+            }catch(ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    };
+
+    public static <E> ValueCodec<List<E>> listOf(final ValueCodec<E> elementCodec) {
+        java.util.Objects.requireNonNull(elementCodec);
+        return new ValueCodec<List<E>>() {
+            @Override
+            public void write(List<E> value, DataOutput out) throws IOException {
+                writeElements(value, elementCodec, out);
+            }
+            @Override
+            public List<E> read(DataInput in) throws IOException {
+                final int size = readLength(in);
+                return readElements(new ArrayList<E>(size), size, elementCodec, in);
+            }
+        };
+    }
+
+    /**
+     * @return A codec which preserves the iteration order of the set
+     */
+    public static <E> ValueCodec<Set<E>> setOf(final ValueCodec<E> elementCodec) {
+        java.util.Objects.requireNonNull(elementCodec);
+        return new ValueCodec<Set<E>>() {
+            @Override
+            public void write(Set<E> value, DataOutput out) throws IOException {
+                writeElements(value, elementCodec, out);
+            }
+            @Override
+            public Set<E> read(DataInput in) throws IOException {
+                final int size = readLength(in);
+                return readElements(new LinkedHashSet<E>(capacity(size)), size, elementCodec, in);
+            }
+        };
+    }
+
+    /**
+     * @return A codec which preserves the iteration order of the map
+     */
+    public static <K, V> ValueCodec<Map<K, V>> mapOf(
+            final ValueCodec<K> keyCodec, final ValueCodec<V> valueCodec) {
+        java.util.Objects.requireNonNull(keyCodec);
+        java.util.Objects.requireNonNull(valueCodec);
+        return new ValueCodec<Map<K, V>>() {
+            @Override
+            public void write(Map<K, V> value, DataOutput out) throws IOException {
+                writeVarInt(value.size(), out);
+                for(Map.Entry<K, V> entry : value.entrySet()) {
+                    keyCodec.write(entry.getKey(), out);
+                    valueCodec.write(entry.getValue(), out);
+                }
+            }
+            @Override
+            public Map<K, V> read(DataInput in) throws IOException {
+                final int size = readLength(in);
+                final Map<K, V> map = new LinkedHashMap<>(capacity(size));
+                for(int i=0; i<size; i++) {
+                    map.put(keyCodec.read(in), valueCodec.read(in));
+                }
+                return map;
+            }
+        };
+    }
+
+    private static <E> void writeElements(Collection<E> value, ValueCodec<E> elementCodec, DataOutput out) 
+            throws IOException {
+        writeVarInt(value.size(), out);
+        for(E element : value) {
+            elementCodec.write(element, out);
+        }
+    }
+
+    private static <E, C extends Collection<E>> C readElements(
+            C collection, int size, ValueCodec<E> elementCodec, DataInput in) throws IOException {
+        for(int i=0; i<size; i++) {
+            collection.add(elementCodec.read(in));
+        }
+        return collection;
+    }
+
+    private static int capacity(int size) {
+        return Math.max(16, (int)(size / 0.75f) + 1);
+    }
+
+    /**
+     * Writes an unsigned integer in 1 to 5 bytes, 7 bits per byte.
+     */
+    public static void writeVarInt(int value, DataOutput out) throws IOException {
+        while((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable length integer");
+    }
+
+    private static int readLength(DataInput in) throws IOException {
+        final int length = readVarInt(in);
+        if(length < 0) {
+            throw new StreamCorruptedException("Negative length: " + length);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Size-weighted W-TinyLFU. New entries enter a small LRU window; entries 
+ * leaving the window are admitted to the main space only if the sketch 
+ * rates them more popular than the entries they would displace. The main 
+ * space is a segmented LRU, where entries hit while on probation are 
+ * promoted to the protected segment.
+ * <p>
+ * Lookups are safe without locking. All other methods must be called 
+ * with the lock of the owner held.
+ * </p>
+ */
+final class WindowTinyLfu {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int UNLINKED = -1;
+
+    /** 
+     * Used to size the sketch up front, as widening it later drops the 
+     * counts gathered so far. 
+     */
+    private static final int MIN_ENTRY_WEIGHT = 128;
+
+    private static final int MAX_SKETCH_ENTRIES = 1 << 20;
+
+    static final class Node {
+        private final String key;
+        private final Object type;
+        private final Object value;
+        private final int weight;
+        private int queue = UNLINKED;
+        private Node prev;
+        private Node next;
+        Node(String key, Object type, Object value, int weight) {
+            this.key = key;
+            this.type = type;
+            this.value = value;
+            this.weight = weight;
+        }
+        String getKey() {
+            return key;
+        }
+        Object getType() {
+            return type;
+        }
+        Object getValue() {
+            return value;
+        }
+    }
+
+    /** A doubly linked list of nodes, most recently used first */
+    private static final class Queue {
+        private Node head;
+        private Node tail;
+        private long weight;
+        private void addFirst(Node node) {
+            node.prev = null;
+            node.next = head;
+            if(head == null) {
+                tail = node;
+            }else{
+                head.prev = node;
+            }
+            head = node;
+            weight += node.weight;
+        }
+        private void remove(Node node) {
+            if(node.prev == null) {
+                head = node.next;
+            }else{
+                node.prev.next = node.next;
+            }
+            if(node.next == null) {
+                tail = node.prev;
+            }else{
+                node.next.prev = node.prev;
+            }
+            node.prev = node.next = null;
+            weight -= node.weight;
+        }
+        private void moveToFront(Node node) {
+            if(head != node) {
+                remove(node);
+                addFirst(node);
+            }
+        }
+        private void clear() {
+            head = tail = null;
+            weight = 0;
+        }
+    }
+
+    private final ConcurrentMap<String, Node> data = new ConcurrentHashMap<>();
+    private final Queue window = new Queue();
+    private final Queue probation = new Queue();
+    private final Queue protectedQueue = new Queue();
+    private final FrequencySketch sketch;
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private long weightedSize;
+
+    WindowTinyLfu(long maximumWeight) {
+        if(maximumWeight < 1) {
+            throw new IllegalArgumentException("Maximum weight < 1");
+        }
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight / 100);
+        this.protectedMaximum = (maximumWeight - windowMaximum) * 80 / 100;
+        this.sketch = new FrequencySketch((int)Math.min(maximumWeight / MIN_ENTRY_WEIGHT, MAX_SKETCH_ENTRIES));
+    }
+
+    Node get(String key) {
+        return data.get(key);
+    }
+
+    long getWeightedSize() {
+        return weightedSize;
+    }
+
+    long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    int size() {
+        return data.size();
+    }
+
+    void recordHit(Node node) {
+        if(node.queue == UNLINKED) {
+            return;
+        }
+        sketch.increment(node.key);
+        switch(node.queue) {
+            case WINDOW:
+                window.moveToFront(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedQueue.addFirst(node);
+                while(protectedQueue.weight > protectedMaximum) {
+                    final Node demoted = protectedQueue.tail;
+                    protectedQueue.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addFirst(demoted);
+                }
+                break;
+            default:
+                protectedQueue.moveToFront(node);
+        }
+    }
+
+    /**
+     * Adds the node, replacing any node of the same key. The node may be 
+     * evicted right away if it is less popular than the entries it would
+     * displace.
+     */
+    void add(Node node) {
+        sketch.increment(node.key);
+        this.remove(node.key);
+        if(node.weight > maximumWeight) {
+            return;
+        }
+        data.put(node.key, node);
+        node.queue = WINDOW;
+        window.addFirst(node);
+        weightedSize += node.weight;
+        sketch.ensureCapacity(data.size());
+        while(window.weight > windowMaximum) {
+            final Node candidate = window.tail;
+            window.remove(candidate);
+            candidate.queue = UNLINKED;
+            this.admit(candidate);
+        }
+    }
+
+    boolean remove(String key) {
+        final Node node = data.remove(key);
+        if(node == null) {
+            return false;
+        }
+        this.unlink(node);
+        return true;
+    }
+
+    void clear() {
+        for(Node node : data.values()) {
+            node.queue = UNLINKED;
+        }
+        data.clear();
+        window.clear();
+        probation.clear();
+        protectedQueue.clear();
+        weightedSize = 0;
+    }
+
+    /**
+     * Moves a candidate leaving the window to probation, evicting from the 
+     * main space while the cache is over weight and the candidate is the 
+     * more popular.
+     */
+    private void admit(Node candidate) {
+        while(weightedSize > maximumWeight) {
+            Node victim = probation.tail;
+            if(victim == null) {
+                victim = protectedQueue.tail;
+            }
+            if(victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                weightedSize -= candidate.weight;
+                data.remove(candidate.key, candidate);
+                return;
+            }
+            data.remove(victim.key, victim);
+            this.unlink(victim);
+        }
+        candidate.queue = PROBATION;
+        probation.addFirst(candidate);
+    }
+
+    private void unlink(Node node) {
+        switch(node.queue) {
+            case WINDOW: window.remove(node); break;
+            case PROBATION: probation.remove(node); break;
+            case PROTECTED: protectedQueue.remove(node); break;
+            default:
+                return;
+        }
+        node.queue = UNLINKED;
+        weightedSize -= node.weight;
+    }
+}
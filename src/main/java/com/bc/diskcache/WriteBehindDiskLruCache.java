@@ -0,0 +1,987 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queues writes for a background thread to apply to another cache, so that 
+ * callers of <code>put</code>, <code>putIfNone</code> and <code>remove</code> 
+ * do not wait for the disk.
+ * <p>
+ * Values are captured when put, streams being read and objects serialized 
+ * on the calling thread. Repeated writes of a key waiting in the queue 
+ * replace each other, so only the latest is written. Reads of a key 
+ * waiting in the queue are served from the queue.
+ * </p>
+ * <p>
+ * The queue is bounded by the size of the values it holds. What happens to a
+ * write which would exceed the bound is set by the {@link Backpressure}.
+ * A write failing in the background is logged and dropped.
+ * </p>
+ */
+public class WriteBehindDiskLruCache extends ForwardingDiskLruCache {
+
+    private transient static final Logger LOG = Logger.getLogger(WriteBehindDiskLruCache.class.getName());
+
+    public enum Backpressure{
+        /** Wait for the queue to make room */
+        BLOCK,
+        /** Write on the calling thread */
+        CALLER_RUNS,
+        /** Throw a <code>RejectedExecutionException</code> */
+        FAIL
+    }
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    /** The number of writes applied between checks for newer ones */
+    private static final int MAX_BATCH = 256;
+
+    /** Estimated heap overhead of a queued write */
+    private static final int WRITE_OVERHEAD = 96;
+
+    private final long maxQueueBytes;
+
+    private final Backpressure backpressure;
+
+    /** Queued writes by key, oldest first. Guarded by the lock. */
+    private final LinkedHashMap<String, Write> queue = new LinkedHashMap<>();
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition queued = lock.newCondition();
+
+    /** Signalled whenever writes leave the queue */
+    private final Condition written = lock.newCondition();
+
+    /** Serialises writes to the same key, for those done on the calling thread */
+    private final StripedLock writeLocks = new StripedLock();
+
+    /** Loads through this cache, so that loaded values are queued */
+    private final SingleFlight loads = new SingleFlight();
+
+    private final Thread writer;
+
+    private long queueBytes;
+
+    /** Writes taken by the writer and not yet applied. Guarded by the lock. */
+    private int inFlight;
+
+    private boolean closed;
+
+    public WriteBehindDiskLruCache(DiskLruCacheIx delegate, long maxQueueBytes) {
+        this(delegate, maxQueueBytes, Backpressure.BLOCK);
+    }
+
+    public WriteBehindDiskLruCache(DiskLruCacheIx delegate, long maxQueueBytes, Backpressure backpressure) {
+        super(delegate);
+        if(maxQueueBytes < 1) {
+            throw new IllegalArgumentException("Queue size < 1");
+        }
+        this.maxQueueBytes = maxQueueBytes;
+        this.backpressure = java.util.Objects.requireNonNull(backpressure);
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                WriteBehindDiskLruCache.this.drain();
+            }
+        }, "WriteBehindDiskLruCache-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return The size of the values waiting to be written
+     */
+    public long getQueueSize() {
+        lock.lock();
+        try{
+            return queueBytes;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream is) throws IOException {
+        this.put(key, is, Collections.<String, Serializable>emptyMap());
+    }
+
+    @Override
+    public void put(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        this.enqueueStream(PUT, key, is, annotations, 0);
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        this.put(key, value, Collections.<String, Serializable>emptyMap());
+    }
+
+    @Override
+    public void put(String key, String value, Map<String, ? extends Serializable> annotations) throws IOException {
+        this.enqueue(new Write(PUT, key, value, null, annotations));
+    }
+
+    @Override
+    public void put(String key, Object value) throws IOException {
+        this.put(key, value, Collections.<String, Serializable>emptyMap());
+    }
+
+    @Override
+    public void put(String key, Object value, Map<String, ? extends Serializable> annotations) throws IOException {
+        this.enqueue(new Write(PUT, key, null, serialize(value), annotations));
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec) throws IOException {
+        this.put(key, value, codec, Collections.<String, Serializable>emptyMap());
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        this.enqueue(new Write(PUT, key, null, encode(value, codec), annotations));
+    }
+
+    /**
+     * Queues the value with the time it expires at, so that the time spent 
+     * in the queue counts towards the time to live.
+     */
+    @Override
+    public void put(String key, InputStream is, long ttl, TimeUnit unit) throws IOException {
+        this.enqueueStream(PUT, key, is, null, AbstractDiskLruCache.expiryTime(ttl, unit));
+    }
+
+    @Override
+    public void put(String key, String value, long ttl, TimeUnit unit) throws IOException {
+        this.enqueue(new Write(PUT, key, value, null, null, AbstractDiskLruCache.expiryTime(ttl, unit)));
+    }
+
+    @Override
+    public void put(String key, Object value, long ttl, TimeUnit unit) throws IOException {
+        this.enqueue(new Write(PUT, key, null, serialize(value), null, AbstractDiskLruCache.expiryTime(ttl, unit)));
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, long ttl, TimeUnit unit) throws IOException {
+        this.enqueue(new Write(PUT, key, null, encode(value, codec), null, AbstractDiskLruCache.expiryTime(ttl, unit)));
+    }
+
+    /**
+     * Copies the bytes of the buffer to the queue.
+     */
+    @Override
+    public void put(String key, ByteBuffer value) throws IOException {
+        final byte [] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        this.enqueue(new Write(PUT, key, null, bytes, null));
+    }
+
+    /**
+     * Queues the values; the writer applies queued writes in batches anyway.
+     */
+    @Override
+    public void putAll(Map<String, ?> values) throws IOException {
+        for(Map.Entry<String, ?> entry : values.entrySet()) {
+            this.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public <T> void putAll(Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException {
+        for(Map.Entry<String, ? extends T> entry : values.entrySet()) {
+            this.put(entry.getKey(), entry.getValue(), codec);
+        }
+    }
+
+    @Override
+    public int removeAll(Collection<String> keys) throws IOException {
+        int removed = 0;
+        for(String key : new LinkedHashSet<>(keys)) {
+            if(this.remove(key)) {
+                ++removed;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is) throws IOException {
+        this.putIfNone(key, is, Collections.<String, Serializable>emptyMap());
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        this.enqueueStreamIfAbsent(key, is, annotations);
+    }
+
+    @Override
+    public void putIfNone(String key, String value) throws IOException {
+        this.putIfNone(key, value, Collections.<String, Serializable>emptyMap());
+    }
+
+    @Override
+    public void putIfNone(String key, String value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        this.enqueueIfAbsent(new Write(PUT, key, value, null, annotations));
+    }
+
+    @Override
+    public void putIfNone(String key, Object value) throws IOException {
+        this.putIfNone(key, value, Collections.<String, Serializable>emptyMap());
+    }
+
+    @Override
+    public void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        this.enqueueIfAbsent(new Write(PUT, key, null, serialize(value), annotations));
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, InputStream is) throws IOException {
+        return this.enqueueStreamIfAbsent(key, is, null);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) throws IOException {
+        return this.enqueueIfAbsent(new Write(PUT, key, value, null, null));
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, Object value) throws IOException {
+        return this.enqueueIfAbsent(new Write(PUT, key, null, serialize(value), null));
+    }
+
+    @Override
+    public <T> boolean putIfAbsent(String key, T value, ValueCodec<T> codec) throws IOException {
+        return this.enqueueIfAbsent(new Write(PUT, key, null, encode(value, codec), null));
+    }
+
+    /**
+     * @return <code>true</code> if the key had a value, whether queued or 
+     * written
+     */
+    @Override
+    public boolean remove(String key) throws IOException {
+        final Write previous = this.getQueued(key);
+        final boolean existed = previous == null ? super.contains(key) : !isAbsent(previous);
+        this.enqueue(new Write(REMOVE, key, null, null, null));
+        return existed;
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getStreamEntry(
+            String key, SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.getStreamEntry(key, outputIfNone);
+        }
+        return isAbsent(write) ? outputIfNone : 
+                new QueuedEntry<InputStream>(new ByteArrayInputStream(write.bytes()), write);
+    }
+
+    @Override
+    public SnapshotEntry<String> getStringEntry(String key, SnapshotEntry<String> outputIfNone) throws IOException {
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.getStringEntry(key, outputIfNone);
+        }
+        return isAbsent(write) ? outputIfNone : new QueuedEntry<>(write.string(), write);
+    }
+
+    @Override
+    public SnapshotEntry<ObjectInputStream> getObjectStreamEntry(
+            String key, SnapshotEntry<ObjectInputStream> outputIfNone) throws IOException {
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.getObjectStreamEntry(key, outputIfNone);
+        }
+        return isAbsent(write) ? outputIfNone : 
+                new QueuedEntry<>(new ObjectInputStream(new ByteArrayInputStream(write.bytes())), write);
+    }
+
+    @Override
+    public SnapshotEntry<ByteBuffer> getBufferEntry(String key, SnapshotEntry<ByteBuffer> outputIfNone) 
+            throws IOException {
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.getBufferEntry(key, outputIfNone);
+        }
+        return isAbsent(write) ? outputIfNone : 
+                new QueuedEntry<>(ByteBuffer.wrap(write.bytes()).asReadOnlyBuffer(), write);
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getRangeEntry(String key, long offset, long length, 
+            SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        if(offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Negative range, offset: " + offset + ", length: " + length);
+        }
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.getRangeEntry(key, offset, length, outputIfNone);
+        }
+        if(isAbsent(write)) {
+            return outputIfNone;
+        }
+        final byte [] bytes = write.bytes();
+        final int start = (int)Math.min(bytes.length, offset);
+        return new QueuedEntry<InputStream>(new ByteArrayInputStream(
+                bytes, start, (int)Math.min(bytes.length - start, length)), write);
+    }
+
+    @Override
+    public long get(String key, ByteBuffer dst) throws IOException {
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.get(key, dst);
+        }
+        if(isAbsent(write)) {
+            return -1;
+        }
+        final byte [] bytes = write.bytes();
+        if(bytes.length <= dst.remaining()) {
+            dst.put(bytes);
+        }
+        return bytes.length;
+    }
+
+    @Override
+    public long getLength(String key) throws IOException {
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.getLength(key);
+        }
+        return isAbsent(write) ? -1 : write.bytes().length;
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.transferTo(key, target);
+        }
+        if(isAbsent(write)) {
+            return -1;
+        }
+        return AbstractDiskLruCache.writeFully(ByteBuffer.wrap(write.bytes()), target);
+    }
+
+    @Override
+    public Object getObject(String key, Object outputIfNone) throws IOException, ClassNotFoundException {
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.getObject(key, outputIfNone);
+        }
+        if(isAbsent(write)) {
+            return outputIfNone;
+        }
+        try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(write.bytes()))) {
+            return ois.readObject();
+        }
+    }
+
+    @Override
+    public String getString(String key, String outputIfNone) throws IOException {
+        final SnapshotEntry<String> entry = this.getStringEntry(key, null);
+        return entry == null ? outputIfNone : entry.getData();
+    }
+
+    @Override
+    public <T> SnapshotEntry<T> getEntry(String key, ValueCodec<T> codec, SnapshotEntry<T> outputIfNone) 
+            throws IOException {
+        final Write write = this.getQueued(key);
+        if(write == null) {
+            return super.getEntry(key, codec, outputIfNone);
+        }
+        return isAbsent(write) ? outputIfNone : 
+                new QueuedEntry<>(codec.read(new DataInputStream(new ByteArrayInputStream(write.bytes()))), write);
+    }
+
+    @Override
+    public <T> T get(String key, ValueCodec<T> codec, T outputIfNone) throws IOException {
+        final SnapshotEntry<T> entry = this.getEntry(key, codec, null);
+        return entry == null ? outputIfNone : entry.getData();
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, Loader<T> loader) throws IOException, ClassNotFoundException {
+        return loads.getOrLoad(this, key, loader);
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, ValueCodec<T> codec, Loader<? extends T> loader) throws IOException {
+        return loads.getOrLoad(this, key, codec, loader);
+    }
+
+    @Override
+    public Map<String, Object> getAll(Collection<String> keys) throws IOException, ClassNotFoundException {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        for(String key : keys) {
+            final Object value = this.getObject(key, null);
+            if(value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public <T> Map<String, T> getAll(Collection<String> keys, ValueCodec<T> codec) throws IOException {
+        final Map<String, T> result = new LinkedHashMap<>();
+        for(String key : keys) {
+            final SnapshotEntry<T> entry = this.getEntry(key, codec, null);
+            if(entry != null) {
+                result.put(key, entry.getData());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(String key) throws IOException {
+        final Write write = this.getQueued(key);
+        return write == null ? super.contains(key) : !isAbsent(write);
+    }
+
+    /**
+     * Lists the keys of the queued writes matching first, then those of the 
+     * cache written to whose writes were not queued meanwhile. Writes being 
+     * applied as the listing starts may be missed, as the iteration is 
+     * weakly consistent.
+     */
+    @Override
+    public CloseableIterator<String> keys(String prefix) throws IOException {
+        final Map<String, Write> queuedWrites = this.getQueuedWithPrefix(prefix);
+        final Iterator<Write> queuedIterator = queuedWrites.values().iterator();
+        final CloseableIterator<String> written = super.keys(prefix);
+        return new CacheIterators.LookAhead<String>() {
+            @Override
+            protected String computeNext() {
+                while(queuedIterator.hasNext()) {
+                    final Write write = queuedIterator.next();
+                    if(!isAbsent(write)) {
+                        return write.key;
+                    }
+                }
+                while(written.hasNext()) {
+                    final String key = written.next();
+                    if(!queuedWrites.containsKey(key)) {
+                        return key;
+                    }
+                }
+                return null;
+            }
+            @Override
+            public void close() {
+                written.close();
+            }
+        };
+    }
+
+    /**
+     * As {@link #keys(java.lang.String)}, serves the queued writes first, then 
+     * the entries of the cache written to.
+     */
+    @Override
+    public CloseableIterator<Map.Entry<String, SnapshotEntry<InputStream>>> entries(String prefix) 
+            throws IOException {
+        final Map<String, Write> queuedWrites = this.getQueuedWithPrefix(prefix);
+        final Iterator<Write> queuedIterator = queuedWrites.values().iterator();
+        final CloseableIterator<Map.Entry<String, SnapshotEntry<InputStream>>> written = super.entries(prefix);
+        return new CacheIterators.LookAhead<Map.Entry<String, SnapshotEntry<InputStream>>>() {
+            @Override
+            protected Map.Entry<String, SnapshotEntry<InputStream>> computeNext() throws IOException {
+                while(queuedIterator.hasNext()) {
+                    final Write write = queuedIterator.next();
+                    if(!isAbsent(write)) {
+                        return new AbstractMap.SimpleImmutableEntry<String, SnapshotEntry<InputStream>>(write.key,
+                                new QueuedEntry<InputStream>(new ByteArrayInputStream(write.bytes()), write));
+                    }
+                }
+                while(written.hasNext()) {
+                    final Map.Entry<String, SnapshotEntry<InputStream>> entry = written.next();
+                    if(!queuedWrites.containsKey(entry.getKey())) {
+                        return entry;
+                    }
+                    entry.getValue().close();
+                }
+                return null;
+            }
+            @Override
+            public void close() {
+                written.close();
+            }
+        };
+    }
+
+    /**
+     * Waits for the queued writes to be applied, then flushes the cache 
+     * written to.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.awaitWritten(null);
+        super.flush();
+    }
+
+    /**
+     * Drops the queued writes, and clears the cache written to once the 
+     * writes in progress are applied.
+     */
+    @Override
+    public void clear() throws IOException {
+        writeLocks.lockAll();
+        try{
+            lock.lock();
+            try{
+                queue.clear();
+                queueBytes = 0;
+                written.signalAll();
+                while(inFlight > 0) {
+                    written.awaitUninterruptibly();
+                }
+            }finally{
+                lock.unlock();
+            }
+            super.clear();
+        }finally{
+            writeLocks.unlockAll();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        lock.lock();
+        try{
+            return closed || super.isClosed();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the queued writes, then closes the cache written to.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try{
+            if(closed) {
+                return;
+            }
+            closed = true;
+            queued.signalAll();
+        }finally{
+            lock.unlock();
+        }
+        try{
+            writer.join();
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        super.close();
+    }
+
+    @Override
+    public void delete() throws IOException {
+        lock.lock();
+        try{
+            queue.clear();
+            queueBytes = 0;
+        }finally{
+            lock.unlock();
+        }
+        this.close();
+        super.delete();
+    }
+
+    private void enqueueStream(byte kind, String key, InputStream is, 
+            Map<String, ? extends Serializable> annotations, long expiryTime) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte [] buffer = BufferPool.acquire();
+        try{
+            int n;
+            while((n = is.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                if(out.size() > maxQueueBytes) {
+                    // Too large to queue, write the rest straight through
+                    final InputStream rest = new SequenceInputStream(new ByteArrayInputStream(out.toByteArray()), is);
+                    this.writeNow(new Write(kind, key, null, null, annotations, expiryTime), rest);
+                    return;
+                }
+            }
+        }finally{
+            BufferPool.release(buffer);
+        }
+        this.enqueue(new Write(kind, key, null, out.toByteArray(), annotations, expiryTime));
+    }
+
+    /**
+     * Queues the write unless the key has a value, whether queued or written.
+     * The write lock of the key keeps out other writes of the key meanwhile.
+     */
+    private boolean enqueueIfAbsent(Write write) throws IOException {
+        final Lock keyLock = writeLocks.get(write.key);
+        keyLock.lock();
+        try{
+            if(this.contains(write.key)) {
+                return false;
+            }
+            this.enqueue(write);
+            return true;
+        }finally{
+            keyLock.unlock();
+        }
+    }
+
+    private boolean enqueueStreamIfAbsent(String key, InputStream is, 
+            Map<String, ? extends Serializable> annotations) throws IOException {
+        final Lock keyLock = writeLocks.get(key);
+        keyLock.lock();
+        try{
+            if(this.contains(key)) {
+                return false;
+            }
+            this.enqueueStream(PUT, key, is, annotations, 0);
+            return true;
+        }finally{
+            keyLock.unlock();
+        }
+    }
+
+    private void enqueue(Write write) throws IOException {
+        final Lock keyLock = writeLocks.get(write.key);
+        keyLock.lock();
+        try{
+            lock.lock();
+            try{
+                this.ensureOpen();
+                final Write previous = queue.get(write.key);
+                final long growth = write.weight() - (previous == null || previous.taken ? 0 : previous.weight());
+                while(queueBytes + growth > maxQueueBytes && !queue.isEmpty()) {
+                    if(backpressure == Backpressure.FAIL) {
+                        throw new RejectedExecutionException("Write-behind queue full, key: " + write.key);
+                    }
+                    if(backpressure == Backpressure.CALLER_RUNS) {
+                        lock.unlock();
+                        try{
+                            this.writeNow(write, null);
+                        }finally{
+                            lock.lock();
+                        }
+                        return;
+                    }
+                    written.awaitUninterruptibly();
+                    this.ensureOpen();
+                }
+                this.replace(write);
+                queued.signal();
+            }finally{
+                lock.unlock();
+            }
+        }finally{
+            keyLock.unlock();
+        }
+    }
+
+    /**
+     * Writes on the calling thread, after any queued write of the key. 
+     * Caller must hold the write lock of the key.
+     */
+    private void writeNow(Write write, InputStream content) throws IOException {
+        this.awaitWritten(write.key);
+        if(content == null) {
+            this.apply(write);
+        }else if(write.expiryTime != 0) {
+            this.putExpiring(write, content);
+        }else{
+            super.put(write.key, content, write.metadata);
+        }
+    }
+
+    /** Caller must hold the lock */
+    private void replace(Write write) {
+        final Write previous = queue.remove(write.key);
+        if(previous != null && !previous.taken) {
+            queueBytes -= previous.weight();
+        }
+        queue.put(write.key, write);
+        queueBytes += write.weight();
+    }
+
+    /**
+     * @return The queued writes of the keys starting with the prefix, oldest first
+     */
+    private Map<String, Write> getQueuedWithPrefix(String prefix) {
+        final Map<String, Write> result = new LinkedHashMap<>();
+        lock.lock();
+        try{
+            for(Map.Entry<String, Write> entry : queue.entrySet()) {
+                if(entry.getKey().startsWith(prefix)) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }finally{
+            lock.unlock();
+        }
+        return result;
+    }
+
+    private Write getQueued(String key) {
+        lock.lock();
+        try{
+            return queue.get(key);
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the queued writes of the key, or of all keys if the key is 
+     * <code>null</code>, to be applied.
+     */
+    private void awaitWritten(String key) {
+        lock.lock();
+        try{
+            while(key == null ? !queue.isEmpty() : queue.containsKey(key)) {
+                written.awaitUninterruptibly();
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private void ensureOpen() {
+        if(closed) {
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    /**
+     * The loop of the writer thread. Applies queued writes oldest first, 
+     * until closed and the queue is empty.
+     */
+    private void drain() {
+        final List<Write> batch = new ArrayList<>(MAX_BATCH);
+        for(;;) {
+            lock.lock();
+            try{
+                while(!this.hasUntaken() && !closed) {
+                    queued.awaitUninterruptibly();
+                }
+                if(!this.hasUntaken()) {
+                    return;
+                }
+                final Iterator<Write> iter = queue.values().iterator();
+                while(iter.hasNext() && batch.size() < MAX_BATCH) {
+                    final Write write = iter.next();
+                    if(!write.taken) {
+                        write.taken = true;
+                        queueBytes -= write.weight();
+                        batch.add(write);
+                    }
+                }
+                inFlight = batch.size();
+            }finally{
+                lock.unlock();
+            }
+            for(Write write : batch) {
+                try{
+                    this.apply(write);
+                }catch(IOException | RuntimeException e) {
+                    LOG.log(Level.WARNING, "Failed to write behind, key: " + write.key, e);
+                }
+                lock.lock();
+                try{
+                    // Unless replaced meanwhile by a newer write
+                    if(queue.get(write.key) == write) {
+                        queue.remove(write.key);
+                    }
+                    --inFlight;
+                    written.signalAll();
+                }finally{
+                    lock.unlock();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /** Caller must hold the lock */
+    private boolean hasUntaken() {
+        for(Write write : queue.values()) {
+            if(!write.taken) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void apply(Write write) throws IOException {
+        switch(write.kind) {
+            case REMOVE:
+                super.remove(write.key);
+                break;
+            default:
+                if(write.expiryTime != 0) {
+                    this.putExpiring(write, write.string != null ? null : new ByteArrayInputStream(write.bytes));
+                }else if(write.string != null) {
+                    super.put(write.key, write.string, write.metadata);
+                }else{
+                    super.put(write.key, new ByteArrayInputStream(write.bytes), write.metadata);
+                }
+        }
+    }
+
+    /**
+     * Writes with the time to live left, or removes the key if the write 
+     * expired while queued.
+     */
+    private void putExpiring(Write write, InputStream content) throws IOException {
+        final long ttl = write.expiryTime - System.currentTimeMillis();
+        if(ttl <= 0) {
+            super.remove(write.key);
+        }else if(content == null) {
+            super.put(write.key, write.string, ttl, TimeUnit.MILLISECONDS);
+        }else{
+            super.put(write.key, content, ttl, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the queued write leaves the key without a 
+     * value, i.e. removes it or expired
+     */
+    private static boolean isAbsent(Write write) {
+        return write.kind == REMOVE || 
+                (write.expiryTime != 0 && write.expiryTime <= System.currentTimeMillis());
+    }
+
+    /**
+     * Serializes the value as <code>put(String, Object)</code> would write it.
+     */
+    private static byte [] serialize(Object value) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(value);
+        }
+        return out.toByteArray();
+    }
+
+    private static <T> byte [] encode(T value, ValueCodec<T> codec) throws IOException {
+        java.util.Objects.requireNonNull(codec);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(out);
+        codec.write(value, dos);
+        dos.flush();
+        return out.toByteArray();
+    }
+
+    private static final class Write {
+        private final byte kind;
+        private final String key;
+        private final String string;
+        private final byte [] bytes;
+        private final Map<String, Serializable> metadata;
+        /** Time in millis the value expires at, or zero if it does not */
+        private final long expiryTime;
+        /** Set once taken by the writer. Guarded by the lock. */
+        private boolean taken;
+        private Write(byte kind, String key, String string, byte [] bytes, 
+                Map<String, ? extends Serializable> metadata) {
+            this(kind, key, string, bytes, metadata, 0);
+        }
+        private Write(byte kind, String key, String string, byte [] bytes, 
+                Map<String, ? extends Serializable> metadata, long expiryTime) {
+            this.kind = kind;
+            this.expiryTime = expiryTime;
+            this.key = java.util.Objects.requireNonNull(key);
+            this.string = string;
+            this.bytes = bytes;
+            this.metadata = metadata == null || metadata.isEmpty() ? 
+                    Collections.<String, Serializable>emptyMap() :
+                    Collections.unmodifiableMap(new LinkedHashMap<String, Serializable>(metadata));
+        }
+        private byte [] bytes() {
+            return string == null ? bytes : string.getBytes(StandardCharsets.UTF_8);
+        }
+        private String string() {
+            return string == null ? new String(bytes, StandardCharsets.UTF_8) : string;
+        }
+        private long weight() {
+            final long size = string != null ? 2L * string.length() : bytes != null ? bytes.length : 0;
+            return WRITE_OVERHEAD + 2L * key.length() + size;
+        }
+    }
+
+    private static final class QueuedEntry<T> implements SnapshotEntry<T> {
+        private final T data;
+        private final Map<String, Serializable> metadata;
+        private final long expiryTime;
+        private QueuedEntry(T data, Write write) {
+            this.data = data;
+            this.metadata = write.metadata;
+            this.expiryTime = write.expiryTime;
+        }
+        @Override
+        public T getData() {
+            return data;
+        }
+        @Override
+        public Map<String, Serializable> getMetadata() {
+            return metadata;
+        }
+        @Override
+        public long getExpiryTime() {
+            return expiryTime;
+        }
+        @Override
+        public void close() { }
+    }
+}
@@ -34,7 +34,7 @@ public class DiskIndex<T> extends CacheIndex<T> {
         @Override
         public void put(String key, Collection<V> val) throws Exception {
 //            Logx.getInstance().debug(this.getClass(), "Putting: {0} = {1}", key, val);
-            delegate.putIfNone(key, val);
+            delegate.put(key, val);
         }
         @Override
         public Collection<V> getOrDefault(String key, Collection<V> outputIfNone) throws Exception {
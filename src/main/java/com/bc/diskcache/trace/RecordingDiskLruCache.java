@@ -0,0 +1,425 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.trace;
+
+import com.bc.diskcache.DiskLruCacheIx;
+import com.bc.diskcache.ForwardingDiskLruCache;
+import com.bc.diskcache.ValueCodec;
+import com.bc.diskcache.trace.TraceEvent.Op;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the gets, puts and removes of another cache to a {@link TraceWriter},
+ * for replay by a {@link TraceReplayer}. Recording adds an event to the 
+ * queue of the writer, and never blocks.
+ * <p>
+ * Sizes are recorded where known without further reads: of strings, by 
+ * their length, of streams written, by counting them, of buffers, and of 
+ * the reads returning a length. Objects, and values read as streams, are 
+ * recorded with a size of -1. Bulk operations are recorded per key. 
+ * Closing the cache does not close the writer.
+ * </p>
+ */
+public class RecordingDiskLruCache extends ForwardingDiskLruCache {
+
+    private final TraceWriter writer;
+
+    public RecordingDiskLruCache(DiskLruCacheIx delegate, TraceWriter writer) {
+        super(delegate);
+        this.writer = java.util.Objects.requireNonNull(writer);
+    }
+
+    public TraceWriter getWriter() {
+        return writer;
+    }
+
+    private void record(Op op, String key, long size) {
+        writer.record(new TraceEvent(System.currentTimeMillis(), op, size, key));
+    }
+
+    @Override
+    public boolean remove(String key) throws IOException {
+        final boolean removed = super.remove(key);
+        this.record(Op.REMOVE, key, -1);
+        return removed;
+    }
+
+    @Override
+    public int removeAll(Collection<String> keys) throws IOException {
+        final int removed = super.removeAll(keys);
+        for(String key : keys) {
+            this.record(Op.REMOVE, key, -1);
+        }
+        return removed;
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getStreamEntry(
+            String key, SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        final SnapshotEntry<InputStream> result = super.getStreamEntry(key, outputIfNone);
+        this.record(Op.GET, key, -1);
+        return result;
+    }
+
+    @Override
+    public SnapshotEntry<String> getStringEntry(String key, SnapshotEntry<String> outputIfNone) throws IOException {
+        final SnapshotEntry<String> result = super.getStringEntry(key, outputIfNone);
+        this.record(Op.GET, key, result == outputIfNone || result == null || result.getData() == null ? 
+                -1 : result.getData().length());
+        return result;
+    }
+
+    @Override
+    public SnapshotEntry<ObjectInputStream> getObjectStreamEntry(
+            String key, SnapshotEntry<ObjectInputStream> outputIfNone) throws IOException {
+        final SnapshotEntry<ObjectInputStream> result = super.getObjectStreamEntry(key, outputIfNone);
+        this.record(Op.GET, key, -1);
+        return result;
+    }
+
+    @Override
+    public SnapshotEntry<ByteBuffer> getBufferEntry(String key, SnapshotEntry<ByteBuffer> outputIfNone) 
+            throws IOException {
+        final SnapshotEntry<ByteBuffer> result = super.getBufferEntry(key, outputIfNone);
+        this.record(Op.GET, key, result == outputIfNone || result == null || result.getData() == null ? 
+                -1 : result.getData().remaining());
+        return result;
+    }
+
+    @Override
+    public SnapshotEntry<InputStream> getRangeEntry(String key, long offset, long length, 
+            SnapshotEntry<InputStream> outputIfNone) throws IOException {
+        final SnapshotEntry<InputStream> result = super.getRangeEntry(key, offset, length, outputIfNone);
+        this.record(Op.GET, key, -1);
+        return result;
+    }
+
+    @Override
+    public long get(String key, ByteBuffer dst) throws IOException {
+        final long length = super.get(key, dst);
+        this.record(Op.GET, key, length);
+        return length;
+    }
+
+    @Override
+    public long getLength(String key) throws IOException {
+        final long length = super.getLength(key);
+        this.record(Op.GET, key, length);
+        return length;
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        final long written = super.transferTo(key, target);
+        this.record(Op.GET, key, written);
+        return written;
+    }
+
+    @Override
+    public Object getObject(String key, Object outputIfNone) throws IOException, ClassNotFoundException {
+        final Object result = super.getObject(key, outputIfNone);
+        this.record(Op.GET, key, -1);
+        return result;
+    }
+
+    @Override
+    public String getString(String key, String outputIfNone) throws IOException {
+        final String result = super.getString(key, outputIfNone);
+        this.record(Op.GET, key, result == outputIfNone || result == null ? -1 : result.length());
+        return result;
+    }
+
+    @Override
+    public <T> SnapshotEntry<T> getEntry(String key, ValueCodec<T> codec, SnapshotEntry<T> outputIfNone) 
+            throws IOException {
+        final SnapshotEntry<T> result = super.getEntry(key, codec, outputIfNone);
+        this.record(Op.GET, key, -1);
+        return result;
+    }
+
+    @Override
+    public <T> T get(String key, ValueCodec<T> codec, T outputIfNone) throws IOException {
+        final T result = super.get(key, codec, outputIfNone);
+        this.record(Op.GET, key, -1);
+        return result;
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, Loader<T> loader) throws IOException, ClassNotFoundException {
+        final T result = super.getOrLoad(key, loader);
+        this.record(Op.GET, key, -1);
+        return result;
+    }
+
+    @Override
+    public <T> T getOrLoad(String key, ValueCodec<T> codec, Loader<? extends T> loader) throws IOException {
+        final T result = super.getOrLoad(key, codec, loader);
+        this.record(Op.GET, key, -1);
+        return result;
+    }
+
+    @Override
+    public Map<String, Object> getAll(Collection<String> keys) throws IOException, ClassNotFoundException {
+        final Map<String, Object> result = super.getAll(keys);
+        for(String key : keys) {
+            this.record(Op.GET, key, -1);
+        }
+        return result;
+    }
+
+    @Override
+    public <T> Map<String, T> getAll(Collection<String> keys, ValueCodec<T> codec) throws IOException {
+        final Map<String, T> result = super.getAll(keys, codec);
+        for(String key : keys) {
+            this.record(Op.GET, key, -1);
+        }
+        return result;
+    }
+
+    @Override
+    public void put(String key, InputStream is) throws IOException {
+        final CountingInputStream counting = new CountingInputStream(is);
+        super.put(key, counting);
+        this.record(Op.PUT, key, counting.count);
+    }
+
+    @Override
+    public void put(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        final CountingInputStream counting = new CountingInputStream(is);
+        super.put(key, counting, annotations);
+        this.record(Op.PUT, key, counting.count);
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        super.put(key, value);
+        this.record(Op.PUT, key, value.length());
+    }
+
+    @Override
+    public void put(String key, Object value) throws IOException {
+        super.put(key, value);
+        this.record(Op.PUT, key, sizeOf(value));
+    }
+
+    @Override
+    public void put(String key, String value, Map<String, ? extends Serializable> annotations) throws IOException {
+        super.put(key, value, annotations);
+        this.record(Op.PUT, key, value.length());
+    }
+
+    @Override
+    public void put(String key, Object value, Map<String, ? extends Serializable> annotations) throws IOException {
+        super.put(key, value, annotations);
+        this.record(Op.PUT, key, sizeOf(value));
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec) throws IOException {
+        super.put(key, value, codec);
+        this.record(Op.PUT, key, -1);
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        super.put(key, value, codec, annotations);
+        this.record(Op.PUT, key, -1);
+    }
+
+    @Override
+    public void put(String key, InputStream is, long ttl, TimeUnit unit) throws IOException {
+        final CountingInputStream counting = new CountingInputStream(is);
+        super.put(key, counting, ttl, unit);
+        this.record(Op.PUT, key, counting.count);
+    }
+
+    @Override
+    public void put(String key, String value, long ttl, TimeUnit unit) throws IOException {
+        super.put(key, value, ttl, unit);
+        this.record(Op.PUT, key, value.length());
+    }
+
+    @Override
+    public void put(String key, Object value, long ttl, TimeUnit unit) throws IOException {
+        super.put(key, value, ttl, unit);
+        this.record(Op.PUT, key, sizeOf(value));
+    }
+
+    @Override
+    public <T> void put(String key, T value, ValueCodec<T> codec, long ttl, TimeUnit unit) throws IOException {
+        super.put(key, value, codec, ttl, unit);
+        this.record(Op.PUT, key, -1);
+    }
+
+    @Override
+    public void put(String key, ByteBuffer value) throws IOException {
+        final long size = value.remaining();
+        super.put(key, value);
+        this.record(Op.PUT, key, size);
+    }
+
+    @Override
+    public void putAll(Map<String, ?> values) throws IOException {
+        super.putAll(values);
+        for(Map.Entry<String, ?> entry : values.entrySet()) {
+            this.record(Op.PUT, entry.getKey(), sizeOf(entry.getValue()));
+        }
+    }
+
+    @Override
+    public <T> void putAll(Map<String, ? extends T> values, ValueCodec<T> codec) throws IOException {
+        super.putAll(values, codec);
+        for(String key : values.keySet()) {
+            this.record(Op.PUT, key, -1);
+        }
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is) throws IOException {
+        final CountingInputStream counting = new CountingInputStream(is);
+        super.putIfNone(key, counting);
+        this.record(Op.PUT, key, counting.count);
+    }
+
+    @Override
+    public void putIfNone(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+        final CountingInputStream counting = new CountingInputStream(is);
+        super.putIfNone(key, counting, annotations);
+        this.record(Op.PUT, key, counting.count);
+    }
+
+    @Override
+    public void putIfNone(String key, String value) throws IOException {
+        super.putIfNone(key, value);
+        this.record(Op.PUT, key, value.length());
+    }
+
+    @Override
+    public void putIfNone(String key, Object value) throws IOException {
+        super.putIfNone(key, value);
+        this.record(Op.PUT, key, sizeOf(value));
+    }
+
+    @Override
+    public void putIfNone(String key, String value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        super.putIfNone(key, value, annotations);
+        this.record(Op.PUT, key, value.length());
+    }
+
+    @Override
+    public void putIfNone(String key, Object value, Map<String, ? extends Serializable> annotations) 
+            throws IOException {
+        super.putIfNone(key, value, annotations);
+        this.record(Op.PUT, key, sizeOf(value));
+    }
+
+    /**
+     * Recorded only if written.
+     */
+    @Override
+    public boolean putIfAbsent(String key, InputStream is) throws IOException {
+        final CountingInputStream counting = new CountingInputStream(is);
+        final boolean written = super.putIfAbsent(key, counting);
+        if(written) {
+            this.record(Op.PUT, key, counting.count);
+        }
+        return written;
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) throws IOException {
+        final boolean written = super.putIfAbsent(key, value);
+        if(written) {
+            this.record(Op.PUT, key, value.length());
+        }
+        return written;
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, Object value) throws IOException {
+        final boolean written = super.putIfAbsent(key, value);
+        if(written) {
+            this.record(Op.PUT, key, sizeOf(value));
+        }
+        return written;
+    }
+
+    @Override
+    public <T> boolean putIfAbsent(String key, T value, ValueCodec<T> codec) throws IOException {
+        final boolean written = super.putIfAbsent(key, value, codec);
+        if(written) {
+            this.record(Op.PUT, key, -1);
+        }
+        return written;
+    }
+
+    private static long sizeOf(Object value) {
+        if(value instanceof String) {
+            return ((String)value).length();
+        }else if(value instanceof byte[]) {
+            return ((byte[])value).length;
+        }else{
+            return -1;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if(b != -1) {
+                ++count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if(n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
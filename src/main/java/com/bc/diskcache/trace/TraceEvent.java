@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.trace;
+
+/**
+ * One access of a cache. In a trace file each event is a line of the form 
+ * <code>time op size key</code>, e.g. <code>1544486400123 GET -1 user-42</code>,
+ * the key taking the rest of the line.
+ */
+public final class TraceEvent {
+
+    public static enum Op {
+        GET, PUT, REMOVE
+    }
+
+    private final long time;
+
+    private final Op op;
+
+    private final long size;
+
+    private final String key;
+
+    /**
+     * @param time The time of the access, in milliseconds since the epoch
+     * @param op The operation
+     * @param size The length in bytes of the value read or written, or -1 
+     * if not known, e.g. of a miss or of a value written as an object
+     * @param key The key accessed
+     */
+    public TraceEvent(long time, Op op, long size, String key) {
+        this.time = time;
+        this.op = java.util.Objects.requireNonNull(op);
+        this.size = size;
+        this.key = java.util.Objects.requireNonNull(key);
+    }
+
+    /**
+     * @param line A line of a trace file
+     * @return The event of the line
+     * @throws IllegalArgumentException If the line is not an event
+     */
+    public static TraceEvent parse(String line) {
+        final int a = line.indexOf(' ');
+        final int b = a == -1 ? -1 : line.indexOf(' ', a + 1);
+        final int c = b == -1 ? -1 : line.indexOf(' ', b + 1);
+        if(c == -1 || c == line.length() - 1) {
+            throw new IllegalArgumentException("Not a trace event: " + line);
+        }
+        try{
+            return new TraceEvent(Long.parseLong(line.substring(0, a)), 
+                    Op.valueOf(line.substring(a + 1, b)), 
+                    Long.parseLong(line.substring(b + 1, c)), 
+                    line.substring(c + 1));
+        }catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Not a trace event: " + line, e);
+        }
+    }
+
+    /**
+     * @return The event as a line of a trace file, without the line separator
+     */
+    public String format() {
+        return new StringBuilder(key.length() + 32).append(time).append(' ').append(op.name())
+                .append(' ').append(size).append(' ').append(key).toString();
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceEvent{" + this.format() + '}';
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.trace;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the events of a trace file, one at a time. Blank lines, and lines 
+ * starting with <code>#</code>, are skipped.
+ */
+public class TraceReader implements Closeable {
+
+    private final BufferedReader in;
+
+    private int lineNumber;
+
+    public TraceReader(File file) throws IOException {
+        this(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    public TraceReader(Reader reader) {
+        this.in = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader, 64 * 1024);
+    }
+
+    /**
+     * @return The next event, or <code>null</code> at the end of the trace
+     * @throws IOException 
+     * @throws IllegalArgumentException If a line is not an event
+     */
+    public TraceEvent next() throws IOException {
+        String line;
+        while((line = in.readLine()) != null) {
+            ++lineNumber;
+            if(line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            try{
+                return TraceEvent.parse(line);
+            }catch(IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
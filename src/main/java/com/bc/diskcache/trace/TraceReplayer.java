@@ -0,0 +1,433 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.trace;
+
+import com.bc.diskcache.DiskLruCacheContext;
+import com.bc.diskcache.DiskLruCacheIx;
+import com.bc.diskcache.DiskLruCacheOptions;
+import com.bc.diskcache.LatencyHistogram;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a trace against a cache, as fast as possible or at a multiple of 
+ * the recorded rate, and reports the hit ratio, evictions, throughput and 
+ * latencies seen. Replaying the same trace against caches of different max 
+ * sizes shows the size beyond which more space stops paying off:
+ * <pre>
+ * java -cp ... com.bc.diskcache.trace.TraceReplayer trace.txt 100000000,200000000,400000000
+ * </pre>
+ * <p>
+ * Gets read the whole value. A get which misses is followed by a put of the
+ * value, as an application reading through the cache would do, unless 
+ * {@link #setFillOnMiss(boolean) disabled}. Values are written with the last 
+ * size recorded for their key, or the {@link #setDefaultValueSize(int) default size}.
+ * </p>
+ * <p>
+ * Misses of keys written before, and not removed since, are counted as 
+ * capacity misses: the entry was evicted, or expired. Unlike evictions, 
+ * which only some engines count, these are counted on every engine.
+ * </p>
+ * <p>
+ * When paced, latencies are measured from when each event was due rather 
+ * than from when it started, so that a replay falling behind reports the 
+ * waits callers would have seen.
+ * </p>
+ */
+public class TraceReplayer {
+
+    public static final int DEFAULT_VALUE_SIZE = 1024;
+
+    private final DiskLruCacheIx cache;
+
+    private double speed;
+
+    private boolean fillOnMiss = true;
+
+    private int defaultValueSize = DEFAULT_VALUE_SIZE;
+
+    public TraceReplayer(DiskLruCacheIx cache) {
+        this.cache = java.util.Objects.requireNonNull(cache);
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @param speed The multiple of the recorded rate to replay at, e.g. 10 
+     * for ten times faster than recorded. Zero, the default, replays as fast
+     * as possible.
+     * @return This instance
+     */
+    public TraceReplayer setSpeed(double speed) {
+        if(speed < 0 || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("Speed < 0");
+        }
+        this.speed = speed;
+        return this;
+    }
+
+    public boolean isFillOnMiss() {
+        return fillOnMiss;
+    }
+
+    /**
+     * @param fillOnMiss Whether a get which misses is followed by a put. 
+     * Enabled by default.
+     * @return This instance
+     */
+    public TraceReplayer setFillOnMiss(boolean fillOnMiss) {
+        this.fillOnMiss = fillOnMiss;
+        return this;
+    }
+
+    public int getDefaultValueSize() {
+        return defaultValueSize;
+    }
+
+    /**
+     * @param defaultValueSize The size of the values of keys whose size was
+     * never recorded
+     * @return This instance
+     */
+    public TraceReplayer setDefaultValueSize(int defaultValueSize) {
+        if(defaultValueSize < 0) {
+            throw new IllegalArgumentException("Default value size < 0");
+        }
+        this.defaultValueSize = defaultValueSize;
+        return this;
+    }
+
+    /**
+     * Replays every event of the trace.
+     * @param trace The trace to replay
+     * @return What the replay saw
+     * @throws IOException 
+     */
+    public Report replay(TraceReader trace) throws IOException {
+        final Map<String, Long> sizes = new HashMap<>();
+        final Set<String> written = new HashSet<>();
+        final LatencyHistogram getLatency = new LatencyHistogram();
+        final LatencyHistogram putLatency = new LatencyHistogram();
+        final byte [] buffer = new byte[8192];
+        final long evictionsBefore = cache.getStats().getEvictionCount();
+        long events = 0, hits = 0, misses = 0, capacityMisses = 0, puts = 0, removes = 0;
+        long firstTime = 0;
+        final long startNanos = System.nanoTime();
+        TraceEvent event;
+        while((event = trace.next()) != null) {
+            if(events++ == 0) {
+                firstTime = event.getTime();
+            }
+            final String key = event.getKey();
+            if(event.getSize() >= 0 && event.getOp() != TraceEvent.Op.REMOVE) {
+                sizes.put(key, event.getSize());
+            }
+            long start = System.nanoTime();
+            if(speed > 0) {
+                final long due = startNanos + (long)((event.getTime() - firstTime) * 1_000_000 / speed);
+                for(long wait = due - start; wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                start = due;
+            }
+            switch(event.getOp()) {
+                case GET:
+                    final boolean hit = this.read(key, buffer);
+                    getLatency.record(System.nanoTime() - start);
+                    if(hit) {
+                        ++hits;
+                    }else{
+                        ++misses;
+                        if(written.contains(key)) {
+                            ++capacityMisses;
+                        }
+                        if(fillOnMiss) {
+                            final long fillStart = System.nanoTime();
+                            this.write(key, sizes);
+                            putLatency.record(System.nanoTime() - fillStart);
+                            written.add(key);
+                            ++puts;
+                        }
+                    }
+                    break;
+                case PUT:
+                    this.write(key, sizes);
+                    putLatency.record(System.nanoTime() - start);
+                    written.add(key);
+                    ++puts;
+                    break;
+                case REMOVE:
+                    cache.remove(key);
+                    written.remove(key);
+                    ++removes;
+                    break;
+                default:
+                    throw new UnsupportedOperationException(String.valueOf(event.getOp()));
+            }
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        return new Report(events, hits, misses, capacityMisses, puts, removes, 
+                evictions(evictionsBefore, cache.getStats().getEvictionCount()), cache.getSize(), cache.getMaxSize(),
+                elapsedNanos, getLatency.snapshot(), putLatency.snapshot());
+    }
+
+    /**
+     * @return The evictions between the counts, or -1 if the cache does not 
+     * count them
+     */
+    private static long evictions(long before, long after) {
+        return before < 0 || after < 0 ? -1 : after - before;
+    }
+
+    private boolean read(String key, byte [] buffer) throws IOException {
+        try(DiskLruCacheIx.SnapshotEntry<InputStream> entry = cache.getStreamEntry(key, null)) {
+            if(entry == null) {
+                return false;
+            }
+            final InputStream in = entry.getData();
+            while(in.read(buffer) != -1) { }
+            return true;
+        }
+    }
+
+    private void write(String key, Map<String, Long> sizes) throws IOException {
+        final Long size = sizes.get(key);
+        cache.put(key, new FillInputStream(size == null ? defaultValueSize : size, key.hashCode()));
+    }
+
+    /**
+     * What a replay saw. Latencies are in nanoseconds.
+     */
+    public static final class Report {
+
+        private final long eventCount;
+        private final long hitCount;
+        private final long missCount;
+        private final long capacityMissCount;
+        private final long putCount;
+        private final long removeCount;
+        private final long evictionCount;
+        private final long size;
+        private final long maxSize;
+        private final long elapsedNanos;
+        private final LatencyHistogram.Snapshot getLatency;
+        private final LatencyHistogram.Snapshot putLatency;
+
+        private Report(long eventCount, long hitCount, long missCount, long capacityMissCount, 
+                long putCount, long removeCount, long evictionCount, long size, long maxSize, 
+                long elapsedNanos, LatencyHistogram.Snapshot getLatency, LatencyHistogram.Snapshot putLatency) {
+            this.eventCount = eventCount;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.capacityMissCount = capacityMissCount;
+            this.putCount = putCount;
+            this.removeCount = removeCount;
+            this.evictionCount = evictionCount;
+            this.size = size;
+            this.maxSize = maxSize;
+            this.elapsedNanos = elapsedNanos;
+            this.getLatency = getLatency;
+            this.putLatency = putLatency;
+        }
+
+        public long getEventCount() {
+            return eventCount;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * @return The misses of keys written before, and not removed since
+         */
+        public long getCapacityMissCount() {
+            return capacityMissCount;
+        }
+
+        /**
+         * @return The fraction of gets which hit, or zero if there were none
+         */
+        public double getHitRatio() {
+            final long gets = hitCount + missCount;
+            return gets == 0 ? 0 : (double)hitCount / gets;
+        }
+
+        /**
+         * @return The number of puts, including those filling misses
+         */
+        public long getPutCount() {
+            return putCount;
+        }
+
+        public long getRemoveCount() {
+            return removeCount;
+        }
+
+        /**
+         * @return The evictions counted by the cache during the replay, or
+         * -1 if the cache does not count them, e.g. a {@link com.bc.diskcache.SimpleDiskLruCache}
+         * @see com.bc.diskcache.CacheStats#getEvictionCount() 
+         */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * @return The size of the cache after the replay
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return The number of events replayed per second
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : eventCount * 1e9 / elapsedNanos;
+        }
+
+        public LatencyHistogram.Snapshot getGetLatency() {
+            return getLatency;
+        }
+
+        public LatencyHistogram.Snapshot getPutLatency() {
+            return putLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{maxSize=" + maxSize + 
+                    ", events=" + eventCount + 
+                    ", hitRatio=" + String.format("%.4f", this.getHitRatio()) + 
+                    ", hits=" + hitCount + 
+                    ", misses=" + missCount + 
+                    ", capacityMisses=" + capacityMissCount + 
+                    ", puts=" + putCount + 
+                    ", removes=" + removeCount + 
+                    ", evictions=" + evictionCount + 
+                    ", size=" + size + 
+                    ", elapsedMillis=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + 
+                    ", throughput=" + (long)this.getThroughput() + "/s" + 
+                    ", getLatency=" + getLatency + 
+                    ", putLatency=" + putLatency + '}';
+        }
+    }
+
+    /**
+     * Supplies a value of the given size, without holding it in memory. The 
+     * bytes are random, so that a cache compressing its values stores about 
+     * as many bytes as were recorded.
+     */
+    private static final class FillInputStream extends InputStream {
+
+        private final Random random;
+
+        private long remaining;
+
+        private FillInputStream(long size, long seed) {
+            this.random = new Random(seed);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if(remaining <= 0) {
+                return -1;
+            }
+            --remaining;
+            return random.nextInt(256);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(len == 0) {
+                return 0;
+            }
+            if(remaining <= 0) {
+                return -1;
+            }
+            final int n = (int)Math.min(len, remaining);
+            for(int i = 0; i < n; i += 4) {
+                final int bits = random.nextInt();
+                for(int j = 0; j < 4 && i + j < n; j++) {
+                    b[off + i + j] = (byte)(bits >>> (j * 8));
+                }
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+
+    /**
+     * Replays a trace against caches of each of the given max sizes, each 
+     * in a new temporary directory, and prints a report per size.
+     * <p>
+     * Arguments: <code>traceFile maxSizeBytes[,maxSizeBytes...] [SIMPLE|LOG_STRUCTURED] [speed]</code>
+     * </p>
+     * @param args The arguments
+     * @throws IOException 
+     */
+    public static void main(String... args) throws IOException {
+        if(args.length < 2) {
+            System.err.println("Usage: TraceReplayer traceFile maxSizeBytes[,maxSizeBytes...] " + 
+                    "[SIMPLE|LOG_STRUCTURED] [speed]");
+            System.exit(2);
+            return;
+        }
+        final File traceFile = new File(args[0]);
+        final DiskLruCacheContext.CacheProvider provider = args.length > 2 && 
+                "LOG_STRUCTURED".equalsIgnoreCase(args[2]) ? 
+                DiskLruCacheContext.CacheProvider.LOG_STRUCTURED : DiskLruCacheContext.CacheProvider.SIMPLE;
+        final double speed = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        for(String maxSize : args[1].split(",")) {
+            final File dir = Files.createTempDirectory("trace-replay").toFile();
+            final DiskLruCacheIx cache = provider.open(dir, Long.parseLong(maxSize.trim()), 
+                    new DiskLruCacheOptions());
+            try(TraceReader reader = new TraceReader(traceFile)) {
+                System.out.println(new TraceReplayer(cache).setSpeed(speed).replay(reader));
+            }finally{
+                cache.delete();
+                dir.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.trace;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes events to a trace file from a background thread, so that callers 
+ * recording an event only add it to a lock free queue. Events arriving 
+ * while the queue is full are dropped, and counted, rather than slowing 
+ * down the callers.
+ */
+public class TraceWriter implements Closeable {
+
+    private transient static final Logger LOG = Logger.getLogger(TraceWriter.class.getName());
+
+    public static final int DEFAULT_MAX_PENDING = 64 * 1024;
+
+    /** How long the writer sleeps once it has written every pending event */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Writer out;
+
+    private final Queue<TraceEvent> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final int maxPending;
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    private volatile IOException failure;
+
+    public TraceWriter(File file) throws IOException {
+        this(file, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param file The trace file, replaced if it exists
+     * @param maxPending The number of events which may wait to be written
+     * @throws IOException 
+     */
+    public TraceWriter(File file, int maxPending) throws IOException {
+        if(maxPending < 1) {
+            throw new IllegalArgumentException("Max pending < 1");
+        }
+        this.maxPending = maxPending;
+        this.out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8), 64 * 1024);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TraceWriter.this.drain();
+            }
+        }, "trace-writer-" + file.getName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues the event to be written. Never blocks.
+     * @param event The event to write
+     * @return <code>false</code> if the event was dropped, the queue being 
+     * full or the writer closed
+     */
+    public boolean record(TraceEvent event) {
+        if(closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if(pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        pending.add(event);
+        return true;
+    }
+
+    /**
+     * @return The number of events dropped so far
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void drain() {
+        try{
+            while(true) {
+                final TraceEvent event = pending.poll();
+                if(event != null) {
+                    pendingCount.decrementAndGet();
+                    out.write(event.format());
+                    out.write('\n');
+                }else if(closed) {
+                    break;
+                }else{
+                    out.flush();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            out.flush();
+        }catch(IOException e) {
+            failure = e;
+            LOG.log(Level.WARNING, "Failed to write trace", e);
+        }finally{
+            try{
+                out.close();
+            }catch(IOException e) {
+                LOG.log(Level.FINE, null, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the events queued so far, and closes the file. Events recorded 
+     * while closing may or may not be written.
+     * @throws IOException If writing the trace failed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(thread);
+        try{
+            thread.join();
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the trace to be written");
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+}
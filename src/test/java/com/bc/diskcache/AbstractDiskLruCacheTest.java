@@ -0,0 +1,415 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AbstractDiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void put_givenFailingStream_shouldKeepPreviousValue() throws Exception {
+        for(DiskLruCacheIx cache : this.openCaches()) {
+            try{
+                cache.put("key", "previous");
+                try{
+                    cache.put("key", new SequenceInputStream(
+                            new ByteArrayInputStream(new byte[10_000]), new FailingInputStream()));
+                    fail("Expected the failure of the stream");
+                }catch(IOException expected) { }
+                assertEquals("previous", cache.getString("key", null));
+                cache.put("key", "next");
+                assertEquals("next", cache.getString("key", null));
+            }finally{
+                cache.close();
+            }
+        }
+    }
+
+    @Test
+    public void put_givenOverwriteInProgress_shouldServePreviousValue() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try{
+            for(final DiskLruCacheIx cache : this.openCaches()) {
+                final CountDownLatch reading = new CountDownLatch(1);
+                final CountDownLatch release = new CountDownLatch(1);
+                try{
+                    cache.put("key", "previous");
+                    final Future<Void> put = executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            cache.put("key", new BlockingInputStream(reading, release));
+                            return null;
+                        }
+                    });
+                    assertTrue(reading.await(10, TimeUnit.SECONDS));
+                    assertEquals("previous", cache.getString("key", null));
+                    release.countDown();
+                    put.get(10, TimeUnit.SECONDS);
+                    assertEquals("x", cache.getString("key", null));
+                }finally{
+                    release.countDown();
+                    cache.close();
+                }
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void put_givenConcurrentReaders_shouldNeverMiss() throws Exception {
+        final int readers = 4;
+        final ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try{
+            for(final DiskLruCacheIx cache : this.openCaches()) {
+                final AtomicBoolean writing = new AtomicBoolean(true);
+                try{
+                    cache.put("key", valueOf(0));
+                    final List<Future<Void>> results = new ArrayList<>();
+                    for(int i=0; i<readers; i++) {
+                        results.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                while(writing.get()) {
+                                    final String value = cache.getString("key", null);
+                                    assertNotNull("Overwrites must not expose a miss", value);
+                                    assertWhole(value);
+                                }
+                                return null;
+                            }
+                        }));
+                    }
+                    for(int round=1; round<200; round++) {
+                        cache.put("key", valueOf(round % 26));
+                    }
+                    writing.set(false);
+                    for(Future<Void> result : results) {
+                        result.get(30, TimeUnit.SECONDS);
+                    }
+                }finally{
+                    writing.set(false);
+                    cache.close();
+                }
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void put_givenOverwrite_shouldNotJournalARemove() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(dir, 1, 1_000_000)) {
+            cache.put("key", "first");
+            cache.put("key", "second");
+            cache.put("key", "third");
+            assertEquals("third", cache.getString("key", null));
+        }
+        int dirty = 0;
+        int clean = 0;
+        for(String line : Files.readAllLines(new File(dir, "journal").toPath(), StandardCharsets.UTF_8)) {
+            assertFalse(line, line.startsWith("REMOVE"));
+            if(line.startsWith("DIRTY")) {
+                ++dirty;
+            }else if(line.startsWith("CLEAN")) {
+                ++clean;
+            }
+        }
+        assertEquals(3, dirty);
+        assertEquals(3, clean);
+    }
+
+    @Test
+    public void putIfAbsent_givenConcurrentCallers_shouldStoreOnce() throws Exception {
+        final int threads = 16;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try{
+            for(final DiskLruCacheIx cache : this.openCaches()) {
+                try{
+                    final CountDownLatch start = new CountDownLatch(1);
+                    final List<Future<Boolean>> results = new ArrayList<>();
+                    for(int i=0; i<threads; i++) {
+                        final String value = "value-" + i;
+                        results.add(executor.submit(new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() throws Exception {
+                                start.await();
+                                return cache.putIfAbsent("key", value);
+                            }
+                        }));
+                    }
+                    start.countDown();
+                    String winner = null;
+                    for(int i=0; i<threads; i++) {
+                        if(results.get(i).get(10, TimeUnit.SECONDS)) {
+                            assertEquals("Only one caller may store a value", null, winner);
+                            winner = "value-" + i;
+                        }
+                    }
+                    assertEquals(winner, cache.getString("key", null));
+                }finally{
+                    cache.close();
+                }
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void put_givenConcurrentWritersAndRemoversOfOneKey_shouldKeepValuesWhole() throws Exception {
+        final int threads = 8;
+        final int rounds = 50;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try{
+            for(final DiskLruCacheIx cache : this.openCaches()) {
+                try{
+                    final CountDownLatch start = new CountDownLatch(1);
+                    final List<Future<Void>> results = new ArrayList<>();
+                    for(int i=0; i<threads; i++) {
+                        final int thread = i;
+                        results.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                start.await();
+                                for(int round=0; round<rounds; round++) {
+                                    if(thread % 2 == 0) {
+                                        cache.put("key", valueOf(thread));
+                                    }else{
+                                        cache.remove("key");
+                                    }
+                                    assertWhole(cache.getString("key", null));
+                                }
+                                return null;
+                            }
+                        }));
+                    }
+                    start.countDown();
+                    for(Future<Void> result : results) {
+                        result.get(30, TimeUnit.SECONDS);
+                    }
+                    assertWhole(cache.getString("key", null));
+                    cache.put("key", valueOf(0));
+                    assertEquals(valueOf(0), cache.getString("key", null));
+                }finally{
+                    cache.close();
+                }
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void put_givenSlowPutOfOneKey_shouldNotBlockPutsOfOtherKeys() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try{
+            for(final DiskLruCacheIx cache : this.openCaches()) {
+                final CountDownLatch reading = new CountDownLatch(1);
+                final CountDownLatch release = new CountDownLatch(1);
+                try{
+                    final Future<Void> slow = executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            cache.put("slow", new BlockingInputStream(reading, release));
+                            return null;
+                        }
+                    });
+                    assertTrue(reading.await(10, TimeUnit.SECONDS));
+                    // "slow" and "fast" differ in the low bits of their hash, 
+                    // so they fall on different stripes.
+                    cache.put("fast", "value");
+                    assertEquals("value", cache.getString("fast", null));
+                    assertEquals(1, cache.removeAll(Collections.singletonList("fast")));
+                    release.countDown();
+                    slow.get(10, TimeUnit.SECONDS);
+                    assertEquals(1, cache.getString("slow", null).length());
+                }finally{
+                    release.countDown();
+                    cache.close();
+                }
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void putAll_givenOverlappingBatchesFromManyThreads_shouldNotDeadlock() throws Exception {
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<String> keys = new ArrayList<>();
+        for(int i=0; i<64; i++) {
+            keys.add("key" + i);
+        }
+        try{
+            for(final DiskLruCacheIx cache : this.openCaches()) {
+                try{
+                    final CountDownLatch start = new CountDownLatch(1);
+                    final List<Future<Void>> results = new ArrayList<>();
+                    for(int i=0; i<threads; i++) {
+                        // Every thread walks the same keys in a different order
+                        final List<String> order = new ArrayList<>(keys);
+                        Collections.rotate(order, i * 7);
+                        if(i % 2 == 1) {
+                            Collections.reverse(order);
+                        }
+                        final boolean removing = i % 4 == 3;
+                        results.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                start.await();
+                                for(int round=0; round<20; round++) {
+                                    if(removing) {
+                                        cache.removeAll(order);
+                                    }else{
+                                        final Map<String, String> values = new LinkedHashMap<>();
+                                        for(String key : order) {
+                                            values.put(key, "value-" + key);
+                                        }
+                                        cache.putAll(values);
+                                    }
+                                }
+                                return null;
+                            }
+                        }));
+                    }
+                    start.countDown();
+                    for(Future<Void> result : results) {
+                        result.get(60, TimeUnit.SECONDS);
+                    }
+                    final Map<String, String> values = new LinkedHashMap<>();
+                    for(String key : keys) {
+                        values.put(key, "value-" + key);
+                    }
+                    cache.putAll(values);
+                    for(String key : Arrays.asList("key0", "key31", "key63")) {
+                        assertEquals("value-" + key, cache.getObject(key, null));
+                    }
+                }finally{
+                    cache.close();
+                }
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getString_givenSimpleCacheWithMappingRequested_shouldNotServeEvictedValues() throws Exception {
+        final DiskLruCacheOptions options = new DiskLruCacheOptions()
+                .setMappedRegionCacheBytes(1 << 20).setMapThresholdBytes(100);
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(folder.newFolder(), 1, 50_000, options)) {
+            cache.put("first", valueOf(0));
+            assertEquals(valueOf(0), cache.getString("first", null));
+            for(int i=1; i<10; i++) {
+                cache.put("key" + i, valueOf(i));
+            }
+            cache.flush();
+            assertFalse(cache.contains("first"));
+            assertEquals(null, cache.getString("first", null));
+        }
+    }
+
+    private static String valueOf(int thread) {
+        final StringBuilder builder = new StringBuilder();
+        while(builder.length() < 20_000) {
+            builder.append((char)('a' + thread));
+        }
+        return builder.toString();
+    }
+
+    private static void assertWhole(String value) {
+        if(value != null) {
+            assertEquals(20_000, value.length());
+            for(int i=1; i<value.length(); i++) {
+                assertEquals(value.charAt(0), value.charAt(i));
+            }
+        }
+    }
+
+    private DiskLruCacheIx [] openCaches() throws IOException {
+        final File simpleDir = folder.newFolder();
+        final File logDir = folder.newFolder();
+        return new DiskLruCacheIx[]{
+            SimpleDiskLruCache.open(simpleDir, 1, 1_000_000),
+            LogStructuredDiskLruCache.open(logDir, 1, 1_000_000)
+        };
+    }
+
+    private static final class BlockingInputStream extends InputStream {
+        private final CountDownLatch reading;
+        private final CountDownLatch release;
+        private boolean done;
+        private BlockingInputStream(CountDownLatch reading, CountDownLatch release) {
+            this.reading = reading;
+            this.release = release;
+        }
+        @Override
+        public int read() throws IOException {
+            if(done) {
+                return -1;
+            }
+            reading.countDown();
+            try{
+                release.await();
+            }catch(InterruptedException e) {
+                throw new IOException(e);
+            }
+            done = true;
+            return 'x';
+        }
+    }
+
+    private static final class FailingInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            throw new IOException("Source failed");
+        }
+    }
+}
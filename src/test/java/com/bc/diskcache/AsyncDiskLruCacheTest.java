@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncDiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void operations_shouldCompleteOnExecutorAndNotifyCallbacks() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000)) {
+            final AsyncDiskLruCache async = new AsyncDiskLruCache(cache, executor);
+            async.putAsync("a", "first", ValueCodecs.STRING).get(10, TimeUnit.SECONDS);
+            assertEquals("first", async.getAsync("a", ValueCodecs.STRING).get(10, TimeUnit.SECONDS));
+            assertTrue(async.containsAsync("a").get(10, TimeUnit.SECONDS));
+
+            final CountDownLatch notified = new CountDownLatch(1);
+            final AtomicReference<Object> result = new AtomicReference<>();
+            async.removeAsync("a", new AsyncDiskLruCache.Callback<Boolean>() {
+                @Override
+                public void onSuccess(Boolean removed) {
+                    result.set(removed);
+                    notified.countDown();
+                }
+                @Override
+                public void onFailure(Throwable error) {
+                    result.set(error);
+                    notified.countDown();
+                }
+            });
+            assertTrue(notified.await(10, TimeUnit.SECONDS));
+            assertEquals(Boolean.TRUE, result.get());
+            assertFalse(async.containsAsync("a").get(10, TimeUnit.SECONDS));
+            assertNull(async.getObjectAsync("a").get(10, TimeUnit.SECONDS));
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void putObjectAsync_givenClosedCache_shouldNotifyFailure() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try{
+            final DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000);
+            cache.close();
+            final CountDownLatch notified = new CountDownLatch(1);
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            new AsyncDiskLruCache(cache, executor).putObjectAsync("a", "value", new AsyncDiskLruCache.Callback<Object>() {
+                @Override
+                public void onSuccess(Object value) {
+                    notified.countDown();
+                }
+                @Override
+                public void onFailure(Throwable error) {
+                    failure.set(error);
+                    notified.countDown();
+                }
+            });
+            assertTrue(notified.await(10, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(failure.get()), failure.get() != null);
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+}
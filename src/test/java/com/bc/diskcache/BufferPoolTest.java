@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+
+public class BufferPoolTest {
+
+    @Test
+    public void writeUtf8_shouldMatchStringGetBytes() throws Exception {
+        final StringBuilder large = new StringBuilder();
+        for(int i=0; i<10_000; i++) {
+            large.append("a\u00e9\u20ac\ud83d\ude00");
+        }
+        final String [] values = {
+            "", "ascii", "caf\u00e9", "\u20ac100", "\ud83d\ude00", 
+            "lone \ud83d high", "lone \ude00 low", "end \ud83d", large.toString()
+        };
+        for(String value : values) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BufferPool.writeUtf8(value, out);
+            assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionCodecsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void putThenGet_givenCompression_shouldReadValuesTransparently() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < 2000; i++) {
+            builder.append("<li class=\"item\">Item ").append(i).append("</li>\n");
+        }
+        final String html = builder.toString();
+        final List<String> list = new ArrayList<>(Collections.nCopies(500, "repeated value"));
+        final DiskLruCacheOptions options = new DiskLruCacheOptions()
+                .setCompressionCodec(CompressionCodecs.DEFLATE)
+                .setMappedRegionCacheBytes(1_000_000);
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(folder.newFolder(), 1, 10_000_000, options)) {
+            cache.put("html", html, Collections.singletonMap("type", "text/html"));
+            cache.put("list", list, ValueCodecs.listOf(ValueCodecs.STRING));
+            cache.put("object", (Object)new ArrayList<>(list));
+            cache.put("small", "tiny");
+
+            assertTrue("size: " + cache.getSize(), cache.getSize() < html.length() / 4);
+            assertEquals(html, cache.getString("html", null));
+            assertEquals("text/html", cache.getStringEntry("html", null).getMetadata().get("type"));
+            assertEquals(list, cache.get("list", ValueCodecs.listOf(ValueCodecs.STRING), null));
+            assertEquals(list, cache.getObject("object", null));
+            assertEquals("tiny", cache.getString("small", null));
+
+            try(DiskLruCacheIx.SnapshotEntry<InputStream> entry = cache.getStreamEntry("html", null)) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final InputStream in = entry.getData();
+                final byte [] buffer = new byte[100];
+                int n;
+                while((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                assertEquals(html, out.toString("UTF-8"));
+            }
+            assertArrayEquals(html.getBytes("UTF-8"), toArray(cache.getBufferEntry("html", null).getData()));
+        }
+    }
+
+    @Test
+    public void get_givenEntriesWrittenWithoutCompression_shouldReadThemWhenCompressionEnabled() throws Exception {
+        final byte [] value = new byte[10_000];
+        final java.io.File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 1_000_000)) {
+            cache.put("raw", new ByteArrayInputStream(value));
+        }
+        CacheDirs.release(dir);
+        final DiskLruCacheOptions options = new DiskLruCacheOptions().setCompressionCodec(CompressionCodecs.DEFLATE);
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 1_000_000, options)) {
+            cache.put("compressed", new ByteArrayInputStream(value));
+            assertArrayEquals(value, toArray(cache.getBufferEntry("raw", null).getData()));
+            assertArrayEquals(value, toArray(cache.getBufferEntry("compressed", null).getData()));
+        }
+    }
+
+    private static byte [] toArray(ByteBuffer buffer) {
+        final byte [] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
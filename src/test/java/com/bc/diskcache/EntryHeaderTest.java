@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EntryHeaderTest {
+
+    private static final AtomicInteger decodes = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void encodeThenDecode_shouldRoundTripMetadata() throws Exception {
+        final Map<String, Serializable> metadata = new LinkedHashMap<>();
+        metadata.put("string", "\u00e9t\u00e9");
+        metadata.put("integer", Integer.MIN_VALUE);
+        metadata.put("long", Long.MAX_VALUE);
+        metadata.put("boolean", Boolean.TRUE);
+        metadata.put("double", 1.5d);
+        metadata.put("float", -2.5f);
+        metadata.put("short", (short)7);
+        metadata.put("byte", (byte)-1);
+        metadata.put("character", '\u2603');
+        metadata.put("date", new Date(1_500_000_000_000L));
+        metadata.put("null", null);
+        metadata.put("serialized", new ArrayList<>(Arrays.asList("a", "b")));
+        metadata.put("bytes", new byte[]{1, 2, 3});
+
+        final Map<String, Serializable> decoded = MetadataCodec.decode(MetadataCodec.encode(metadata));
+
+        assertEquals(metadata.keySet(), decoded.keySet());
+        for(String name : metadata.keySet()) {
+            if("bytes".equals(name)) {
+                assertArrayEquals((byte[])metadata.get(name), (byte[])decoded.get(name));
+            }else{
+                assertEquals(name, metadata.get(name), decoded.get(name));
+            }
+        }
+    }
+
+    @Test
+    public void writeThenRead_shouldRoundTripEveryField() throws Exception {
+        final EntryHeader header = EntryHeader.of(Collections.singletonMap("type", "text/plain"))
+                .withCompression(CompressionCodecs.DEFLATE)
+                .withExpiryTime(1_500_000_000_000L)
+                .withKey("key");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        header.writeTo(out);
+        out.write(new byte[]{42, 43});
+        final ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+
+        assertEquals(header.length(), out.size() - 2);
+        assertEquals(header.length(), EntryHeader.length(buffer));
+        final EntryHeader read = EntryHeader.read(buffer);
+        assertEquals(header.length(), buffer.position());
+        assertSame(CompressionCodecs.DEFLATE, read.getCompressionCodec());
+        assertEquals(1_500_000_000_000L, read.getExpiryTime());
+        assertEquals("key", read.getKey());
+        assertEquals(Collections.singletonMap("type", "text/plain"), read.getMetadata());
+        assertEquals(42, buffer.get());
+    }
+
+    @Test
+    public void length_givenHeadEndingAnywhereAfterTheKey_shouldAskForMore() throws Exception {
+        final EntryHeader header = EntryHeader.of(Collections.singletonMap("type", "text/plain"))
+                .withExpiryTime(1_500_000_000_000L)
+                .withKey(repeat('k', 100));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        header.writeTo(out);
+        final byte [] bytes = out.toByteArray();
+        for(int end = EntryHeader.KEY_LENGTH_PREFIX_LENGTH; end < bytes.length; end++) {
+            final int length = EntryHeader.length(ByteBuffer.wrap(bytes, 0, end));
+            if(length <= end) {
+                assertEquals("Head of " + end + " bytes", bytes.length, length);
+            }
+        }
+        assertEquals(bytes.length, EntryHeader.length(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void getStringEntry_givenKeyEndingAtEndOfHead_shouldReadMetadata() throws Exception {
+        final DiskLruCacheIx [] caches = {
+            SimpleDiskLruCache.open(folder.newFolder(), 1, 10_000_000),
+            LogStructuredDiskLruCache.open(folder.newFolder(), 1, 10_000_000)
+        };
+        for(DiskLruCacheIx cache : caches) {
+            try{
+                // The flags byte and a two byte key length precede the key, 
+                // so these keys end on either side of the first 8KB read
+                for(int keyLength = 8180; keyLength <= 8195; keyLength++) {
+                    final String key = repeat('k', keyLength);
+                    cache.put(key, "value", Collections.singletonMap("type", "text/plain"));
+                    try(DiskLruCacheIx.SnapshotEntry<String> entry = cache.getStringEntry(key, null)) {
+                        assertEquals("value", entry.getData());
+                        assertEquals("text/plain", entry.getMetadata().get("type"));
+                    }
+                }
+            }finally{
+                cache.close();
+            }
+        }
+    }
+
+    @Test
+    public void writeTo_givenNoMetadata_shouldWriteOneByte() throws Exception {
+        assertEquals(0, MetadataCodec.encode(Collections.<String, Serializable>emptyMap()).length);
+        final EntryHeader header = EntryHeader.of(Collections.<String, Serializable>emptyMap());
+        assertSame(EntryHeader.EMPTY, header);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        header.writeTo(out);
+        assertEquals(1, out.size());
+        assertSame(EntryHeader.EMPTY, EntryHeader.read(ByteBuffer.wrap(out.toByteArray())));
+        assertEquals(Collections.emptyMap(), EntryHeader.EMPTY.getMetadata());
+    }
+
+    @Test
+    public void getStringEntry_shouldDecodeMetadataOnlyWhenAsked() throws Exception {
+        final DiskLruCacheIx [] caches = {
+            SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000),
+            LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000)
+        };
+        for(DiskLruCacheIx cache : caches) {
+            try{
+                decodes.set(0);
+                cache.put("key", "value", Collections.singletonMap("counted", new CountedDecode()));
+                try(DiskLruCacheIx.SnapshotEntry<String> entry = cache.getStringEntry("key", null)) {
+                    assertEquals("value", entry.getData());
+                    assertEquals(0, decodes.get());
+                    assertEquals(Collections.singleton("counted"), entry.getMetadata().keySet());
+                    assertEquals(1, decodes.get());
+                    entry.getMetadata();
+                    assertEquals(1, decodes.get());
+                }
+                assertEquals("value", cache.getString("key", null));
+                assertEquals(1, decodes.get());
+            }finally{
+                cache.close();
+            }
+        }
+    }
+
+    @Test
+    public void open_givenSimpleCacheWithSeparateMetadataFile_shouldStartEmpty() throws Exception {
+        final File dir = folder.newFolder();
+        // The layout before entry headers: two files per entry, the value 
+        // as written and the java serialized metadata.
+        final String internalKey = "5d41402abc4b2a76b9719d911017c592";
+        Files.write(new File(dir, "journal").toPath(), Arrays.asList(
+                "libcore.io.DiskLruCache", "1", "1", "2", "", 
+                "CLEAN " + internalKey + " 5 5"), StandardCharsets.UTF_8);
+        Files.write(new File(dir, internalKey + ".0").toPath(), "hello".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, internalKey + ".1").toPath(), "xxxxx".getBytes(StandardCharsets.UTF_8));
+
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(dir, 1, 1_000_000)) {
+            assertNull(cache.getString("hello", null));
+            cache.put("hello", "world");
+            assertEquals("world", cache.getString("hello", null));
+        }
+    }
+
+    @Test
+    public void open_givenLogWithFormatVersion1_shouldStartEmpty() throws Exception {
+        final File dir = folder.newFolder();
+        final ByteBuffer segment = ByteBuffer.allocate(64);
+        segment.putInt(0x42434c53).putInt(1).putInt(1).put("hello".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "0000000000" + LogStructuredDiskLruCache.SEGMENT_SUFFIX).toPath(), segment.array());
+
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 1_000_000)) {
+            assertEquals(0, cache.getSize());
+            assertNull(cache.getString("hello", null));
+            cache.put("hello", "world");
+            assertEquals("world", cache.getString("hello", null));
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 1_000_000)) {
+            assertEquals("world", cache.getString("hello", null));
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        final StringBuilder builder = new StringBuilder(count);
+        while(builder.length() < count) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static final class CountedDecode implements Serializable {
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            decodes.incrementAndGet();
+        }
+    }
+}
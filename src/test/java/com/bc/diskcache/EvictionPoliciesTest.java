@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EvictionPoliciesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evict_shouldFollowPolicyOrder() {
+        final EvictionPolicy lru = EvictionPolicies.LRU.create(1000);
+        lru.onWrite("a", 10);
+        lru.onWrite("b", 10);
+        lru.onRead("a");
+        assertEquals("b", lru.evict());
+        assertEquals("a", lru.evict());
+        assertNull(lru.evict());
+
+        final EvictionPolicy lfu = EvictionPolicies.LFU.create(1000);
+        lfu.onWrite("a", 10);
+        lfu.onWrite("b", 10);
+        lfu.onWrite("c", 10);
+        lfu.onRead("a");
+        lfu.onRead("a");
+        lfu.onRead("c");
+        lfu.onRemove("b");
+        assertEquals("c", lfu.evict());
+        assertEquals("a", lfu.evict());
+
+        final EvictionPolicy gdsf = EvictionPolicies.GDSF.create(1000);
+        gdsf.onWrite("large", 500);
+        gdsf.onWrite("small", 5);
+        gdsf.onRead("large");
+        assertEquals("large", gdsf.evict());
+        assertEquals("small", gdsf.evict());
+    }
+
+    @Test
+    public void scan_givenSegmentedLru_shouldKeepRepeatedlyReadEntries() throws Exception {
+        final File dir = folder.newFolder();
+        final DiskLruCacheOptions options = new DiskLruCacheOptions()
+                .setEvictionPolicy(EvictionPolicies.SEGMENTED_LRU);
+        final String value = new String(new char[100]);
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 10_000, options)) {
+            for(int i = 0; i < 20; i++) {
+                cache.put("hot" + i, value, ValueCodecs.STRING);
+                cache.get("hot" + i, ValueCodecs.STRING, null);
+            }
+            for(int i = 0; i < 500; i++) {
+                cache.put("scan" + i, value, ValueCodecs.STRING);
+            }
+            for(int i = 0; i < 20; i++) {
+                assertTrue("hot" + i, cache.contains("hot" + i));
+            }
+            assertTrue(cache.getSize() <= 10_000);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExpiryReaperTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void put_givenTtl_shouldExpireAndBeReaped() throws Exception {
+        final DiskLruCacheOptions options = new DiskLruCacheOptions().setReapIntervalMillis(50);
+        final File simpleDir = folder.newFolder();
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(simpleDir, 1, 1_000_000, options)) {
+            this.assertExpires(cache);
+        }
+        final File logDir = folder.newFolder();
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(logDir, 1, 1_000_000, options)) {
+            this.assertExpires(cache);
+        }
+    }
+
+    @Test
+    public void reopen_shouldKeepExpiryTimes() throws Exception {
+        final File dir = folder.newFolder();
+        final DiskLruCacheOptions options = new DiskLruCacheOptions().setSegmentSizeBytes(4096);
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 1_000_000, options)) {
+            for(int i=0; i<100; i++) {
+                cache.put("key" + i, "value" + i, 1, TimeUnit.HOURS);
+            }
+            cache.put("short", "value", 300, TimeUnit.MILLISECONDS);
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 1_000_000, options)) {
+            final DiskLruCacheIx.SnapshotEntry<String> entry = cache.getStringEntry("key7", null);
+            assertEquals("value7", entry.getData());
+            assertTrue(entry.getExpiryTime() > System.currentTimeMillis());
+            Thread.sleep(400);
+            assertFalse(cache.contains("short"));
+            assertEquals("value99", cache.getString("key99", null));
+        }
+    }
+
+    private void assertExpires(DiskLruCacheIx cache) throws Exception {
+        cache.put("kept", "value");
+        for(int i=0; i<10; i++) {
+            cache.put("key" + i, "value" + i, 300, TimeUnit.MILLISECONDS);
+        }
+        assertEquals("value3", cache.getString("key3", null));
+        assertTrue(cache.contains("key9"));
+        final long size = cache.getSize();
+        Thread.sleep(400);
+        assertNull(cache.getString("key3", null));
+        assertFalse(cache.contains("key9"));
+        assertEquals("value", cache.getString("kept", null));
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while(cache.getSize() >= size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(cache.getSize() < size);
+        assertEquals("value", cache.getString("kept", null));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GroupSyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void commit_givenGroupCommit_shouldShareSyncsBetweenConcurrentWriters() throws Exception {
+        final AtomicInteger syncs = new AtomicInteger();
+        final CountDownLatch firstSyncStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final GroupSync groupSync = new GroupSync(Durability.GROUP_COMMIT, 1, "test", new GroupSync.Target() {
+            @Override
+            public void sync() throws IOException {
+                firstSyncStarted.countDown();
+                try{
+                    release.await();
+                }catch(InterruptedException e) {
+                    throw new IOException(e);
+                }
+                syncs.incrementAndGet();
+            }
+        });
+        final int writers = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try{
+            final List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(commit(groupSync)));
+            assertTrue(firstSyncStarted.await(10, TimeUnit.SECONDS));
+            // These commit while the first sync runs, and should share the next one
+            for(int i = 1; i < writers; i++) {
+                futures.add(executor.submit(commit(groupSync)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for(Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+        assertTrue("syncs: " + syncs.get(), syncs.get() < writers);
+    }
+
+    @Test
+    public void commit_givenPeriodic_shouldSyncInBackground() throws Exception {
+        final CountDownLatch synced = new CountDownLatch(1);
+        final GroupSync groupSync = new GroupSync(Durability.PERIODIC, 10, "test", new GroupSync.Target() {
+            @Override
+            public void sync() {
+                synced.countDown();
+            }
+        });
+        try{
+            groupSync.commit();
+            assertTrue(synced.await(10, TimeUnit.SECONDS));
+        }finally{
+            groupSync.close();
+        }
+    }
+
+    @Test
+    public void putThenGet_givenGroupCommit_shouldReadValuesOnBothEngines() throws Exception {
+        final DiskLruCacheOptions options = new DiskLruCacheOptions().setDurability(Durability.GROUP_COMMIT);
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000, options)) {
+            cache.put("a", "first");
+            cache.remove("a");
+            cache.put("b", "second");
+            cache.flush();
+            assertEquals("second", cache.getString("b", null));
+        }
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000, options)) {
+            cache.put("a", "first");
+            cache.remove("a");
+            cache.put("b", "second");
+            cache.flush();
+            assertEquals("second", cache.getString("b", null));
+        }
+    }
+
+    private static Callable<Void> commit(final GroupSync groupSync) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                groupSync.commit();
+                return null;
+            }
+        };
+    }
+}
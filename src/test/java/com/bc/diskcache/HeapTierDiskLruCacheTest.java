@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HeapTierDiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void get_givenRepeatedReads_shouldServeDecodedValueFromMemory() throws Exception {
+        try(DiskLruCacheIx disk = SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000)) {
+            final HeapTierDiskLruCache cache = new HeapTierDiskLruCache(disk, 100_000);
+            final ValueCodec<List<String>> codec = ValueCodecs.listOf(ValueCodecs.STRING);
+            cache.put("list", Arrays.asList("a", "b"), codec);
+            cache.put("object", (Object)new ArrayList<>(Arrays.asList(1, 2)));
+
+            final List<String> list = cache.get("list", codec, null);
+            assertEquals(Arrays.asList("a", "b"), list);
+            assertSame(list, cache.get("list", codec, null));
+            final Object object = cache.getObject("object", null);
+            assertSame(object, cache.getObject("object", null));
+
+            // Served from memory, the disk copy is gone
+            disk.clear();
+            assertSame(list, cache.get("list", codec, null));
+            assertTrue(cache.getTierSize() > 0);
+        }
+    }
+
+    @Test
+    public void put_shouldWriteStringsThroughAndInvalidateOtherValues() throws Exception {
+        try(DiskLruCacheIx disk = SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000)) {
+            final HeapTierDiskLruCache cache = new HeapTierDiskLruCache(disk, 100_000);
+            cache.put("string", "one");
+            assertEquals("one", cache.getString("string", null));
+            cache.put("string", "two");
+            assertEquals("two", cache.getString("string", null));
+
+            cache.put("int", 1, ValueCodecs.INTEGER);
+            assertEquals(Integer.valueOf(1), cache.get("int", ValueCodecs.INTEGER, null));
+            cache.put("int", 2, ValueCodecs.INTEGER);
+            assertEquals(Integer.valueOf(2), cache.get("int", ValueCodecs.INTEGER, null));
+
+            cache.remove("int");
+            assertNull(cache.get("int", ValueCodecs.INTEGER, null));
+            cache.clear();
+            assertNull(cache.getString("string", null));
+            assertEquals(0, cache.getTierSize());
+        }
+    }
+
+    @Test
+    public void get_givenScanOfColdKeys_shouldKeepHotKeys() throws Exception {
+        try(DiskLruCacheIx disk = SimpleDiskLruCache.open(folder.newFolder(), 1, 10_000_000)) {
+            final HeapTierDiskLruCache cache = new HeapTierDiskLruCache(disk, 20_000);
+            for(int i = 0; i < 10; i++) {
+                cache.put("hot" + i, 1000 + i, ValueCodecs.INTEGER);
+            }
+            final Integer [] hot = new Integer[10];
+            for(int round = 0; round < 5; round++) {
+                for(int i = 0; i < 10; i++) {
+                    hot[i] = cache.get("hot" + i, ValueCodecs.INTEGER, null);
+                }
+            }
+            for(int i = 0; i < 2000; i++) {
+                cache.put("cold" + i, i, ValueCodecs.INTEGER);
+                cache.get("cold" + i, ValueCodecs.INTEGER, null);
+            }
+            assertTrue(cache.getTierSize() <= cache.getTierMaxSize());
+            for(int i = 0; i < 10; i++) {
+                assertSame(hot[i], cache.get("hot" + i, ValueCodecs.INTEGER, null));
+            }
+        }
+    }
+}
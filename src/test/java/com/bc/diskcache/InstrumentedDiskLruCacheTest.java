@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedDiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void getStats_shouldCountReadsWritesAndEvictions() throws Exception {
+        final DiskLruCacheOptions options = new DiskLruCacheOptions().setSegmentSizeBytes(4096);
+        try(DiskLruCacheIx cache = new InstrumentedDiskLruCache(
+                LogStructuredDiskLruCache.open(folder.newFolder(), 1, 2000, options))) {
+            cache.put("a", "value");
+            assertEquals("value", cache.getString("a", null));
+            assertEquals("none", cache.getString("b", "none"));
+            assertEquals("loaded", cache.getOrLoad("c", ValueCodecs.STRING, new DiskLruCacheIx.Loader<String>() {
+                @Override
+                public String load(String key) throws IOException {
+                    return "loaded";
+                }
+            }));
+            assertTrue(cache.remove("a"));
+            for(int i=0; i<100; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            final CacheStats stats = cache.getStats();
+            assertEquals(1, stats.getHitCount());
+            assertEquals(2, stats.getMissCount());
+            assertEquals(0.33, stats.getHitRate(), 0.01);
+            assertEquals(101, stats.getPutCount());
+            assertEquals(1, stats.getRemoveCount());
+            assertTrue(stats.getEvictionCount() > 0);
+            assertEquals(cache.getSize(), stats.getSize());
+            assertEquals(3, stats.getGetLatency().getCount());
+            assertEquals(101, stats.getPutLatency().getCount());
+            assertTrue(stats.getPutLatency().getValueAtPercentile(50) > 0);
+        }
+    }
+
+    @Test
+    public void getStats_shouldCountBytesOfStreamsStringsAndBuffers() throws Exception {
+        try(DiskLruCacheIx cache = new InstrumentedDiskLruCache(
+                SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000))) {
+            cache.put("stream", new ByteArrayInputStream(new byte[1000]));
+            cache.put("string", "caf\u00e9");
+            cache.put("buffer", ByteBuffer.allocateDirect(100));
+            cache.put("object", Integer.valueOf(1));
+            assertEquals(1105, cache.getStats().getBytesWritten());
+            try(DiskLruCacheIx.SnapshotEntry<InputStream> entry = cache.getStreamEntry("stream", null)) {
+                final InputStream in = entry.getData();
+                assertEquals(600, in.read(new byte[600]));
+            }
+            assertEquals("caf\u00e9", cache.getString("string", null));
+            assertEquals(100, cache.get("buffer", ByteBuffer.allocate(100)));
+            assertEquals(1, cache.getObject("object", null));
+            assertEquals(705, cache.getStats().getBytesRead());
+        }
+    }
+
+    @Test
+    public void snapshot_shouldGivePercentilesWithinBucketPrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for(int i=1; i<=10_000; i++) {
+            histogram.record(i * 1000L);
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.getCount());
+        assertEquals(5_000_000, snapshot.getValueAtPercentile(50), 5_000_000 * 0.07);
+        assertEquals(9_990_000, snapshot.getValueAtPercentile(99.9), 9_990_000 * 0.07);
+        assertEquals(10_000_000, snapshot.getMax(), 10_000_000 * 0.07);
+        assertEquals(5_000_000, snapshot.getMean(), 5_000_000 * 0.07);
+        assertEquals(20_000, snapshot.plus(snapshot).getCount());
+        for(long value : new long[]{0, 15, 16, 1000, Long.MAX_VALUE}) {
+            final int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.lowestOf(bucket) <= value);
+            assertTrue(LatencyHistogram.highestOf(bucket) >= value);
+        }
+    }
+
+    @Test
+    public void getStats_givenSimpleEngine_shouldReportEvictionsUnavailable() throws Exception {
+        try(DiskLruCacheIx cache = new InstrumentedDiskLruCache(ShardedDiskLruCache.open(folder.newFolder(), 2, 2000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.SIMPLE))) {
+            for(int i=0; i<100; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            cache.flush();
+            assertTrue(cache.getSize() <= 2000);
+            assertEquals(-1, cache.getStats().getEvictionCount());
+            assertEquals(100, cache.getStats().getPutCount());
+        }
+    }
+
+    @Test
+    public void getInstance_shouldRegisterMBeanUntilRemoved() throws Exception {
+        final File root = folder.newFolder();
+        final DiskLruCacheContext context = new DiskLruCacheContextImpl(new DiskLruCacheContext.FileProvider() {
+            @Override
+            public File createFile(String key) {
+                return new File(root, key);
+            }
+        }, 1_000_000);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final DiskLruCacheIx cache = context.getInstance("metrics", true);
+        final ObjectName name = DiskLruCacheMXBeans.nameOf("metrics", new File(root, "metrics"));
+        try{
+            cache.put("key", "value");
+            cache.getString("key", null);
+            assertEquals(1L, server.getAttribute(name, "HitCount"));
+            assertEquals(1L, server.getAttribute(name, "PutCount"));
+            assertEquals(5L, server.getAttribute(name, "BytesWritten"));
+        }finally{
+            context.closeAndRemove("metrics");
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void register_givenCachesOfTheSameNameInDifferentDirectories_shouldRegisterEach() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try(DiskLruCacheIx first = new InstrumentedDiskLruCache(
+                    LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000));
+                DiskLruCacheIx second = new InstrumentedDiskLruCache(
+                    LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000))) {
+            final ObjectName firstName = DiskLruCacheMXBeans.nameOf("metrics", first.getDirectory());
+            final ObjectName secondName = DiskLruCacheMXBeans.nameOf("metrics", second.getDirectory());
+            DiskLruCacheMXBeans.register("metrics", first);
+            DiskLruCacheMXBeans.register("metrics", second);
+            try{
+                first.put("key", "value");
+                assertEquals(1L, server.getAttribute(firstName, "PutCount"));
+                assertEquals(0L, server.getAttribute(secondName, "PutCount"));
+                DiskLruCacheMXBeans.unregister("metrics", first);
+                assertFalse(server.isRegistered(firstName));
+                assertTrue(server.isRegistered(secondName));
+            }finally{
+                DiskLruCacheMXBeans.unregister("metrics", first);
+                DiskLruCacheMXBeans.unregister("metrics", second);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class KeyIterationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keys_shouldListLiveKeysByPrefix() throws Exception {
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000)) {
+            this.assertListsKeys(cache);
+        }
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000)) {
+            this.assertListsKeys(cache);
+        }
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(folder.newFolder(), 4, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.SIMPLE)) {
+            this.assertListsKeys(cache);
+        }
+    }
+
+    @Test
+    public void keys_givenQueuedWrites_shouldListThemOnce() throws Exception {
+        final DiskLruCacheIx disk = SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000);
+        try(WriteBehindDiskLruCache cache = new WriteBehindDiskLruCache(disk, 1_000_000)) {
+            this.assertListsKeys(cache);
+            cache.flush();
+            cache.put("user:1", "changed");
+            assertEquals(this.expectedUsers(), this.keys(cache, "user:"));
+        }
+    }
+
+    @Test
+    public void entries_shouldNotChangeEvictionOrder() throws Exception {
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000)) {
+            for(int i = 0; i < 10; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            try(DiskLruCacheIx.CloseableIterator<Map.Entry<String, DiskLruCacheIx.SnapshotEntry<InputStream>>> entries = 
+                    cache.entries("key0")) {
+                try(InputStream in = entries.next().getValue().getData()) {
+                    assertEquals("value0", read(in));
+                }
+            }
+            for(int i = 10; i < 100 && cache.contains("key1"); i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            assertFalse(cache.contains("key1"));
+            assertFalse(cache.contains("key0"));
+        }
+    }
+
+    @Test
+    public void entries_givenLongKeyAndMetadata_shouldKeepKeyAcrossReopen() throws Exception {
+        final File dir = folder.newFolder();
+        final StringBuilder builder = new StringBuilder("long:");
+        for(int i = 0; i < 200; i++) {
+            builder.append(i % 10);
+        }
+        final String key = builder.toString();
+        final Map<String, Serializable> metadata = Collections.<String, Serializable>singletonMap("type", "text");
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(dir, 1, 1_000_000)) {
+            cache.put(key, "value", metadata);
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(dir, 1, 1_000_000)) {
+            assertEquals(Collections.singleton(key), this.keys(cache, "long:"));
+            try(DiskLruCacheIx.CloseableIterator<Map.Entry<String, DiskLruCacheIx.SnapshotEntry<InputStream>>> entries = 
+                    cache.entries("long:")) {
+                final Map.Entry<String, DiskLruCacheIx.SnapshotEntry<InputStream>> entry = entries.next();
+                assertEquals(key, entry.getKey());
+                try(InputStream in = entry.getValue().getData()) {
+                    assertEquals("value", read(in));
+                }
+                assertEquals("text", entry.getValue().getMetadata().get("type"));
+                assertFalse(entries.hasNext());
+            }
+            assertEquals("value", cache.getString(key, null));
+        }
+    }
+
+    @Test
+    public void entryHeader_givenKeyAndMetadata_shouldRoundTrip() throws Exception {
+        final EntryHeader header = EntryHeader.of(
+                Collections.<String, Serializable>singletonMap("a", 1)).withKey("the key");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        header.writeTo(out);
+        final ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        assertEquals(header.length(), EntryHeader.length(buffer));
+        assertEquals("the key", EntryHeader.readKey(buffer.duplicate()));
+        final EntryHeader read = EntryHeader.read(buffer);
+        assertEquals("the key", read.getKey());
+        assertEquals(1, read.getMetadata().get("a"));
+    }
+
+    private void assertListsKeys(DiskLruCacheIx cache) throws Exception {
+        for(int i = 0; i < 20; i++) {
+            cache.put("user:" + i, "value" + i);
+            cache.put("item:" + i, "value" + i);
+        }
+        cache.put("user:expired", "value", 1, TimeUnit.MILLISECONDS);
+        cache.remove("user:19");
+        Thread.sleep(10);
+        assertEquals(this.expectedUsers(), this.keys(cache, "user:"));
+        assertEquals(39, this.keys(cache, "").size());
+        final Set<String> read = new HashSet<>();
+        try(DiskLruCacheIx.CloseableIterator<Map.Entry<String, DiskLruCacheIx.SnapshotEntry<InputStream>>> entries = 
+                cache.entries("item:1")) {
+            while(entries.hasNext()) {
+                final Map.Entry<String, DiskLruCacheIx.SnapshotEntry<InputStream>> entry = entries.next();
+                try(InputStream in = entry.getValue().getData()) {
+                    assertEquals("value" + entry.getKey().substring(5), read(in));
+                }
+                read.add(entry.getKey());
+            }
+        }
+        assertEquals(11, read.size());
+    }
+
+    private Set<String> expectedUsers() {
+        final Set<String> result = new HashSet<>();
+        for(int i = 0; i < 19; i++) {
+            result.add("user:" + i);
+        }
+        return result;
+    }
+
+    private Set<String> keys(DiskLruCacheIx cache, String prefix) throws Exception {
+        final Set<String> result = new HashSet<>();
+        try(DiskLruCacheIx.CloseableIterator<String> keys = cache.keys(prefix)) {
+            while(keys.hasNext()) {
+                assertEquals(true, result.add(keys.next()));
+            }
+        }
+        return result;
+    }
+
+    private static String read(InputStream in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte [] buffer = new byte[256];
+        int n;
+        while((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
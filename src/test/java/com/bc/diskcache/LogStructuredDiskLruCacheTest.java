@@ -0,0 +1,378 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogStructuredDiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiskLruCacheIx open(File dir, long maxSize) throws IOException {
+        return LogStructuredDiskLruCache.open(dir, 1, maxSize, 
+                new DiskLruCacheOptions().setSegmentSizeBytes(4096));
+    }
+
+    @Test
+    public void putThenGet_shouldReturnLatestValues() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            cache.put("a", "first");
+            cache.put("a", "second");
+            cache.put("b", Integer.valueOf(7));
+            cache.put("c", new ByteArrayInputStream(new byte[]{1, 2, 3}), 
+                    Collections.<String, Serializable>singletonMap("type", "bytes"));
+            assertEquals("second", cache.getString("a", null));
+            assertEquals(7, cache.getObject("b", null));
+            try(DiskLruCacheIx.SnapshotEntry<InputStream> entry = cache.getStreamEntry("c", null)) {
+                final Map<String, Serializable> metadata = entry.getMetadata();
+                assertEquals("bytes", metadata.get("type"));
+                final InputStream in = entry.getData();
+                assertEquals(1, in.read());
+                assertEquals(2, in.read());
+                assertEquals(3, in.read());
+                assertEquals(-1, in.read());
+            }
+            assertTrue(cache.remove("b"));
+            assertFalse(cache.contains("b"));
+            assertNull(cache.getString("none", null));
+        }
+    }
+
+    @Test
+    public void reopen_shouldRebuildIndexFromSegments() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            for(int i=0; i<200; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            cache.remove("key5");
+            cache.put("key6", "changed");
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            assertEquals("value0", cache.getString("key0", null));
+            assertEquals("value199", cache.getString("key199", null));
+            assertEquals("changed", cache.getString("key6", null));
+            assertFalse(cache.contains("key5"));
+        }
+    }
+
+    @Test
+    public void put_givenSizeExceeded_shouldEvictLeastRecentlyUsed() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = open(dir, 1_000)) {
+            for(int i=0; i<100; i++) {
+                cache.put("key" + i, "value" + i);
+                cache.getString("key0", null);
+            }
+            assertTrue(cache.getSize() <= 1_000);
+            assertTrue(cache.contains("key0"));
+            assertTrue(cache.contains("key99"));
+            assertFalse(cache.contains("key1"));
+        }
+    }
+
+    @Test
+    public void reopen_givenRewrittenKey_shouldEvictItLast() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = open(dir, 1_000)) {
+            for(int i=0; i<10; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            cache.put("key0", "changed");
+        }
+        // Replay the log rather than load the checkpoint
+        assertTrue(new File(dir, "index.ckpt").delete());
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = open(dir, 1_000)) {
+            assertTrue(cache.contains("key1"));
+            for(int i=10; i<100 && cache.contains("key1"); i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            assertFalse(cache.contains("key1"));
+            assertTrue(cache.contains("key0"));
+            assertEquals("changed", cache.getString("key0", null));
+        }
+    }
+
+    @Test
+    public void compaction_shouldKeepLiveEntries() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            for(int round=0; round<20; round++) {
+                for(int i=0; i<20; i++) {
+                    cache.put("key" + i, "value" + round + '-' + i);
+                }
+            }
+            Thread.sleep(200);
+            for(int i=0; i<20; i++) {
+                assertEquals("value19-" + i, cache.getString("key" + i, null));
+            }
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            for(int i=0; i<20; i++) {
+                assertEquals("value19-" + i, cache.getString("key" + i, null));
+            }
+        }
+    }
+
+    @Test
+    public void getBufferEntry_givenMappedReadMode_shouldReturnCurrentValue() throws Exception {
+        final File dir = folder.newFolder();
+        final DiskLruCacheOptions options = new DiskLruCacheOptions()
+                .setMappedRegionCacheBytes(1_000_000).setMapThresholdBytes(0);
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 1_000_000, options)) {
+            cache.put("a", "first");
+            assertEquals("first", cache.getString("a", null));
+            try(DiskLruCacheIx.SnapshotEntry<ByteBuffer> entry = cache.getBufferEntry("a", null)) {
+                final ByteBuffer buffer = entry.getData();
+                assertTrue(buffer.isReadOnly());
+                assertEquals("first", StandardCharsets.UTF_8.decode(buffer).toString());
+            }
+            cache.put("a", "second");
+            assertEquals("second", cache.getString("a", null));
+            cache.remove("a");
+            assertNull(cache.getBufferEntry("a", null));
+        }
+    }
+
+    @Test
+    public void put_givenMappedReadMode_shouldStopServingEvictedValues() throws Exception {
+        final File dir = folder.newFolder();
+        final DiskLruCacheOptions options = new DiskLruCacheOptions().setSegmentSizeBytes(4096)
+                .setMappedRegionCacheBytes(1_000_000).setMapThresholdBytes(0);
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 1_000, options)) {
+            cache.put("key0", "value0");
+            assertEquals("value0", cache.getString("key0", null));
+            for(int i=1; i<100 && cache.contains("key0"); i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            assertFalse(cache.contains("key0"));
+            assertNull(cache.getString("key0", null));
+            assertNull(cache.getBufferEntry("key0", null));
+        }
+    }
+
+    @Test
+    public void putAll_shouldWriteBatchesAcrossSegments() throws Exception {
+        final File dir = folder.newFolder();
+        final Map<String, Object> values = new LinkedHashMap<>();
+        for(int i=0; i<600; i++) {
+            values.put("key" + i, "value" + i);
+        }
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            cache.put("key0", "stale");
+            cache.putAll(values);
+            assertEquals(values, cache.getAll(values.keySet()));
+            assertEquals(2, cache.removeAll(Arrays.asList("key1", "key2", "key2", "none")));
+            assertFalse(cache.contains("key1"));
+            assertEquals(598, cache.getAll(values.keySet()).size());
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            assertEquals("value0", cache.getObject("key0", null));
+            assertEquals("value599", cache.getObject("key599", null));
+            assertNull(cache.getObject("key2", null));
+        }
+    }
+
+    @Test
+    public void reopen_givenCheckpoint_shouldReplayRecordsAppendedAfterIt() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            for(int i=0; i<200; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+        }
+        assertTrue(new File(dir, "index.ckpt").isFile());
+        CacheDirs.release(dir);
+        // Not closed, so that the records below are not covered by a checkpoint
+        final DiskLruCacheIx crashed = open(dir, 1_000_000);
+        crashed.put("key6", "changed");
+        crashed.remove("key5");
+        crashed.put("key200", "value200");
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            assertEquals("value0", cache.getString("key0", null));
+            assertEquals("changed", cache.getString("key6", null));
+            assertFalse(cache.contains("key5"));
+            assertEquals("value200", cache.getString("key200", null));
+            assertEquals(crashed.getSize(), cache.getSize());
+        }
+        crashed.close();
+    }
+
+    @Test
+    public void reopen_givenCorruptCheckpoint_shouldReplayWholeLog() throws Exception {
+        final File dir = folder.newFolder();
+        final long size;
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            for(int i=0; i<200; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            cache.remove("key5");
+            size = cache.getSize();
+        }
+        final File checkpoint = new File(dir, "index.ckpt");
+        try(java.io.RandomAccessFile file = new java.io.RandomAccessFile(checkpoint, "rw")) {
+            file.seek(file.length() / 2);
+            file.write(~file.read());
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = open(dir, 1_000_000)) {
+            assertEquals("value199", cache.getString("key199", null));
+            assertFalse(cache.contains("key5"));
+            assertEquals(size, cache.getSize());
+        }
+    }
+
+    @Test
+    public void getRangeEntry_shouldReadOnlyTheRange() throws Exception {
+        final byte [] value = new byte[100_000];
+        for(int i=0; i<value.length; i++) {
+            value[i] = (byte)(i % 251);
+        }
+        final DiskLruCacheOptions [] options = {
+            new DiskLruCacheOptions(),
+            new DiskLruCacheOptions().setCompressionCodec(CompressionCodecs.DEFLATE),
+            new DiskLruCacheOptions().setMappedRegionCacheBytes(1_000_000).setMapThresholdBytes(0)
+        };
+        for(DiskLruCacheOptions option : options) {
+            try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000, option)) {
+                cache.put("large", new ByteArrayInputStream(value));
+                cache.put("small", "0123456789");
+                assertEquals(value.length, cache.getLength("large"));
+                assertEquals(-1, cache.getLength("none"));
+                assertNull(cache.getRangeEntry("none", 0, 1, null));
+                cache.getString("small", null);
+                assertArrayEquals(Arrays.copyOfRange(value, 90_000, 90_100), 
+                        readRange(cache, "large", 90_000, 100));
+                assertArrayEquals(Arrays.copyOfRange(value, 99_990, 100_000), 
+                        readRange(cache, "large", 99_990, 100));
+                assertArrayEquals(new byte[0], readRange(cache, "large", 200_000, 100));
+                assertEquals("345", new String(readRange(cache, "small", 3, 3), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void transferTo_shouldWriteWholeValue() throws Exception {
+        final byte [] value = new byte[100_000];
+        for(int i=0; i<value.length; i++) {
+            value[i] = (byte)(i % 251);
+        }
+        final DiskLruCacheOptions [] options = {
+            new DiskLruCacheOptions(),
+            new DiskLruCacheOptions().setCompressionCodec(CompressionCodecs.DEFLATE)
+        };
+        for(DiskLruCacheOptions option : options) {
+            try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000, option)) {
+                cache.put("large", new ByteArrayInputStream(value));
+                cache.put("small", "0123456789");
+                final File file = folder.newFile();
+                try(FileChannel target = new FileOutputStream(file).getChannel()) {
+                    assertEquals(value.length, cache.transferTo("large", target));
+                }
+                assertArrayEquals(value, Files.readAllBytes(file.toPath()));
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(value.length, cache.transferTo("large", Channels.newChannel(out)));
+                assertArrayEquals(value, out.toByteArray());
+                out.reset();
+                assertEquals(10, cache.transferTo("small", Channels.newChannel(out)));
+                assertEquals("0123456789", out.toString("UTF-8"));
+                assertEquals(-1, cache.transferTo("none", Channels.newChannel(out)));
+            }
+        }
+    }
+
+    @Test
+    public void getIntoBuffer_shouldReadWhatPutFromBuffer() throws Exception {
+        final byte [] value = new byte[100_000];
+        for(int i=0; i<value.length; i++) {
+            value[i] = (byte)(i % 251);
+        }
+        final DiskLruCacheOptions [] options = {
+            new DiskLruCacheOptions(),
+            new DiskLruCacheOptions().setCompressionCodec(CompressionCodecs.DEFLATE)
+        };
+        for(DiskLruCacheOptions option : options) {
+            try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000, option)) {
+                final ByteBuffer src = ByteBuffer.allocateDirect(value.length);
+                src.put(value).flip();
+                cache.put("large", src);
+                assertEquals(0, src.remaining());
+                cache.put("small", ByteBuffer.wrap("caf\u00e9".getBytes(StandardCharsets.UTF_8)));
+                final ByteBuffer dst = ByteBuffer.allocateDirect(value.length);
+                dst.position(1);
+                assertEquals(value.length, cache.get("large", dst));
+                assertEquals(1, dst.position());
+                dst.clear();
+                assertEquals(value.length, cache.get("large", dst));
+                dst.flip();
+                final byte [] read = new byte[dst.remaining()];
+                dst.get(read);
+                assertArrayEquals(value, read);
+                dst.clear();
+                assertEquals(5, cache.get("small", dst));
+                assertEquals(5, dst.position());
+                assertEquals("caf\u00e9", cache.getString("small", null));
+                assertEquals(-1, cache.get("none", dst));
+            }
+        }
+    }
+
+    private static byte [] readRange(DiskLruCacheIx cache, String key, long offset, long length) 
+            throws IOException {
+        try(DiskLruCacheIx.SnapshotEntry<InputStream> entry = cache.getRangeEntry(key, offset, length, null)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final InputStream in = entry.getData();
+            final byte [] buffer = new byte[1024];
+            int n;
+            while((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
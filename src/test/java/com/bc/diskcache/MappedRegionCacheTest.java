@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MappedRegionCacheTest {
+
+    @Test
+    public void put_givenOtherKeyInvalidatedSinceStamp_shouldCache() {
+        final MappedRegionCache cache = new MappedRegionCache(1_000);
+        final long stamp = cache.stamp();
+        cache.invalidate("other");
+        cache.put("key", stamp, region());
+        assertNotNull(cache.get("key"));
+    }
+
+    @Test
+    public void put_givenKeyInvalidatedSinceStamp_shouldNotCache() {
+        final MappedRegionCache cache = new MappedRegionCache(1_000);
+        final long stamp = cache.stamp();
+        cache.invalidate("key");
+        cache.invalidate("other");
+        cache.put("key", stamp, region());
+        assertNull(cache.get("key"));
+        cache.put("key", cache.stamp(), region());
+        assertNotNull(cache.get("key"));
+    }
+
+    @Test
+    public void put_givenInvalidationOfKeyForgotten_shouldNotCache() {
+        final MappedRegionCache cache = new MappedRegionCache(1_000);
+        final long stamp = cache.stamp();
+        cache.invalidate("key");
+        for(int i = 0; i < 2_000; i++) {
+            cache.invalidate("other" + i);
+        }
+        cache.put("key", stamp, region());
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void put_givenAllInvalidatedSinceStamp_shouldNotCache() {
+        final MappedRegionCache cache = new MappedRegionCache(1_000);
+        final long stamp = cache.stamp();
+        cache.invalidateAll();
+        cache.put("key", stamp, region());
+        assertNull(cache.get("key"));
+    }
+
+    private static MappedRegionCache.Region region() {
+        return new MappedRegionCache.Region(ByteBuffer.allocate(10), EntryHeader.EMPTY);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.diskcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedDiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void operations_shouldSpanAllShards() throws Exception {
+        final File dir = folder.newFolder();
+        final Map<String, String> values = new LinkedHashMap<>();
+        for(int i = 0; i < 100; i++) {
+            values.put("key" + i, "value" + i);
+        }
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(dir, 4, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.SIMPLE)) {
+            for(Map.Entry<String, String> entry : values.entrySet()) {
+                cache.put(entry.getKey(), entry.getValue(), ValueCodecs.STRING);
+            }
+            for(int i = 0; i < 4; i++) {
+                assertTrue(new File(dir, "shard-" + i).list().length > 1);
+            }
+            assertEquals("value42", cache.get("key42", ValueCodecs.STRING, null));
+            final List<String> keys = new ArrayList<>(values.keySet());
+            assertEquals(values, cache.getAll(keys, ValueCodecs.STRING));
+            assertEquals(2, cache.removeAll(keys.subList(0, 2)));
+            assertFalse(cache.contains("key0"));
+            assertTrue(cache.getSize() > 0);
+            cache.clear();
+            assertEquals(0, cache.getSize());
+            assertNull(cache.get("key42", ValueCodecs.STRING, null));
+        }
+    }
+
+    @Test
+    public void open_givenEntriesWrittenAfterClear_shouldKeepThem() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(dir, 4, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.SIMPLE)) {
+            cache.put("stale", "value");
+            cache.clear();
+            for(int i = 0; i < 20; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(dir, 4, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.SIMPLE)) {
+            for(int i = 0; i < 20; i++) {
+                assertEquals("value" + i, cache.getString("key" + i, null));
+            }
+            assertNull(cache.getString("stale", null));
+        }
+    }
+
+    @Test
+    public void open_givenDifferentShardCount_shouldDiscardEntries() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(dir, 4, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.LOG_STRUCTURED)) {
+            cache.put("a", "first");
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(dir, 4, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.LOG_STRUCTURED)) {
+            assertEquals("first", cache.getString("a", null));
+        }
+        CacheDirs.release(dir);
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(dir, 3, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.LOG_STRUCTURED)) {
+            assertNull(cache.getString("a", null));
+            assertFalse(new File(dir, "shard-3").exists());
+        }
+    }
+
+    @Test
+    public void open_givenWeightedRoots_shouldSpreadKeysByWeight() throws Exception {
+        final File [] roots = {folder.newFolder(), folder.newFolder()};
+        final long [] weights = {3, 1};
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(roots, weights, 2, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.SIMPLE)) {
+            for(int i = 0; i < 400; i++) {
+                cache.put("key" + i, "value" + i, ValueCodecs.STRING);
+            }
+        }
+        final int heavy = countEntries(roots[0]);
+        final int light = countEntries(roots[1]);
+        assertEquals(400, heavy + light);
+        assertTrue(heavy + " vs " + light, heavy > light * 2);
+        for(File root : roots) {
+            CacheDirs.release(root);
+        }
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(roots, weights, 2, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.SIMPLE)) {
+            for(int i = 0; i < 400; i++) {
+                assertEquals("value" + i, cache.get("key" + i, ValueCodecs.STRING, null));
+            }
+        }
+    }
+
+    @Test
+    public void open_givenRootWhichCannotBeCreated_shouldOpenTheOtherRoots() throws Exception {
+        // A directory cannot be created under a regular file
+        final File [] roots = {folder.newFolder(), new File(folder.newFile(), "root")};
+        try(DiskLruCacheIx cache = ShardedDiskLruCache.open(roots, new long[]{1, 1}, 2, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.SIMPLE)) {
+            assertEquals(2, ((ShardedDiskLruCache)cache).getOfflineShardCount());
+            for(int i = 0; i < 20; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            for(int i = 0; i < 20; i++) {
+                assertEquals("value" + i, cache.getString("key" + i, null));
+            }
+            assertEquals(20, countEntries(roots[0]));
+            assertFalse(cache.isClosed());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void open_givenNoRootWhichCanBeWritten_shouldFail() throws Exception {
+        final File root = new File(folder.newFile(), "root");
+        ShardedDiskLruCache.open(root, 2, 1_000_000, 
+                new DiskLruCacheOptions(), DiskLruCacheContext.CacheProvider.SIMPLE).close();
+    }
+
+    private static int countEntries(File root) {
+        int count = 0;
+        for(File shard : root.listFiles()) {
+            for(String name : shard.list()) {
+                if(name.endsWith(".0")) {
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void getOrLoad_givenConcurrentMisses_shouldLoadOnce() throws Exception {
+        final File dir = folder.newFolder();
+        final int threads = 16;
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try(final DiskLruCacheIx cache = LogStructuredDiskLruCache.open(dir, 1, 1_000_000)) {
+            final DiskLruCacheIx.Loader<String> loader = new DiskLruCacheIx.Loader<String>() {
+                @Override
+                public String load(String key) throws IOException {
+                    loads.incrementAndGet();
+                    try{
+                        Thread.sleep(200);
+                    }catch(InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return "value-" + key;
+                }
+            };
+            final List<Future<String>> results = new ArrayList<>();
+            for(int i=0; i<threads; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        start.await();
+                        return cache.getOrLoad("hot", loader);
+                    }
+                }));
+            }
+            start.countDown();
+            for(Future<String> result : results) {
+                assertEquals("value-hot", result.get());
+            }
+            assertEquals(1, loads.get());
+            assertEquals("value-hot", cache.getOrLoad("hot", loader));
+            assertEquals(1, loads.get());
+            assertEquals(Integer.valueOf(7), cache.getOrLoad("codec", ValueCodecs.INTEGER, 
+                    new DiskLruCacheIx.Loader<Integer>() {
+                @Override
+                public Integer load(String key) {
+                    return 7;
+                }
+            }));
+            assertEquals(Integer.valueOf(7), cache.get("codec", ValueCodecs.INTEGER, null));
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getOrLoad_givenConcurrentObjectAndCodecLoads_shouldNotShareResults() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try(final DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000)) {
+            final Future<Integer> objectLoad = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return cache.getOrLoad("key", new DiskLruCacheIx.Loader<Integer>() {
+                        @Override
+                        public Integer load(String key) throws IOException {
+                            entered.countDown();
+                            try{
+                                release.await();
+                            }catch(InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                            return 1;
+                        }
+                    });
+                }
+            });
+            entered.await();
+            final Future<String> codecLoad = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return cache.getOrLoad("key", ValueCodecs.STRING, new DiskLruCacheIx.Loader<String>() {
+                        @Override
+                        public String load(String key) {
+                            return "text";
+                        }
+                    });
+                }
+            });
+            // Not waiting for the load of the object
+            assertEquals("text", codecLoad.get(10, TimeUnit.SECONDS));
+            release.countDown();
+            try{
+                objectLoad.get();
+            }catch(ExecutionException expected) {
+                // The value written through the codec is not a serialized object
+            }
+        }finally{
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void putIfAbsent_givenValue_shouldKeepIt() throws Exception {
+        final File dir = folder.newFolder();
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(dir, 1, 1_000_000)) {
+            assertTrue(cache.putIfAbsent("a", "first"));
+            assertFalse(cache.putIfAbsent("a", "second"));
+            cache.putIfNone("a", "third");
+            assertEquals("first", cache.getString("a", null));
+            cache.remove("a");
+            assertTrue(cache.putIfAbsent("a", "fourth"));
+            assertEquals("fourth", cache.getString("a", null));
+        }
+        try(DiskLruCacheIx cache = new WriteBehindDiskLruCache(
+                LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000), 1_000_000)) {
+            assertTrue(cache.putIfAbsent("a", "first"));
+            assertFalse(cache.putIfAbsent("a", "second"));
+            cache.flush();
+            assertFalse(cache.putIfAbsent("a", "third"));
+            assertEquals("first", cache.getString("a", null));
+            cache.remove("a");
+            assertNull(cache.getString("a", null));
+            assertTrue(cache.putIfAbsent("a", "fourth"));
+            cache.flush();
+            assertEquals("fourth", cache.getString("a", null));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ValueCodecsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void putThenGet_shouldRoundTripBuiltInCodecs() throws Exception {
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000)) {
+            cache.put("string", "\u00e9t\u00e9 \u2603", ValueCodecs.STRING);
+            cache.put("bytes", new byte[]{1, 2, 3}, ValueCodecs.BYTES);
+            cache.put("long", Long.MIN_VALUE, ValueCodecs.LONG);
+            final List<String> list = Arrays.asList("a", "", "c");
+            cache.put("list", list, ValueCodecs.listOf(ValueCodecs.STRING));
+            final Map<String, List<Integer>> map = new LinkedHashMap<>();
+            map.put("one", Collections.singletonList(1));
+            map.put("none", Collections.<Integer>emptyList());
+            final ValueCodec<Map<String, List<Integer>>> mapCodec = 
+                    ValueCodecs.mapOf(ValueCodecs.STRING, ValueCodecs.listOf(ValueCodecs.INTEGER));
+            cache.put("map", map, mapCodec);
+
+            assertEquals("\u00e9t\u00e9 \u2603", cache.get("string", ValueCodecs.STRING, null));
+            assertArrayEquals(new byte[]{1, 2, 3}, cache.get("bytes", ValueCodecs.BYTES, null));
+            assertEquals(Long.valueOf(Long.MIN_VALUE), cache.get("long", ValueCodecs.LONG, null));
+            assertEquals(list, cache.get("list", ValueCodecs.listOf(ValueCodecs.STRING), null));
+            assertEquals(map, cache.get("map", mapCodec, null));
+            assertNull(cache.get("none", ValueCodecs.STRING, null));
+        }
+    }
+
+    @Test
+    public void put_givenFailingCodec_shouldKeepPreviousValue() throws Exception {
+        final ValueCodec<String> failing = new ValueCodec<String>() {
+            @Override
+            public void write(String value, java.io.DataOutput out) throws java.io.IOException {
+                out.writeByte(1);
+                throw new IllegalStateException();
+            }
+            @Override
+            public String read(java.io.DataInput in) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000)) {
+            cache.put("key", "before", ValueCodecs.STRING);
+            try{
+                cache.put("key", "after", failing);
+            }catch(IllegalStateException expected) { }
+            assertEquals("before", cache.get("key", ValueCodecs.STRING, null));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteBehindDiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Holds back writes until opened, and counts them */
+    private static class GatedCache extends ForwardingDiskLruCache {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final AtomicInteger writes = new AtomicInteger();
+        private GatedCache(DiskLruCacheIx delegate) {
+            super(delegate);
+        }
+        private void await() {
+            try{
+                gate.await();
+            }catch(InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            writes.incrementAndGet();
+        }
+        @Override
+        public void put(String key, String value, Map<String, ? extends Serializable> annotations) 
+                throws IOException {
+            this.await();
+            super.put(key, value, annotations);
+        }
+        @Override
+        public void put(String key, InputStream is, Map<String, Serializable> annotations) throws IOException {
+            this.await();
+            super.put(key, is, annotations);
+        }
+    }
+
+    @Test
+    public void put_shouldServeQueuedValuesAndCoalesceRepeatedWrites() throws Exception {
+        final GatedCache disk = new GatedCache(SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000));
+        try(WriteBehindDiskLruCache cache = new WriteBehindDiskLruCache(disk, 1_000_000)) {
+            for(int i = 0; i < 100; i++) {
+                cache.put("key", "value" + i);
+            }
+            cache.put("number", 7, ValueCodecs.INTEGER);
+            cache.put("removed", "value");
+            cache.remove("removed");
+
+            assertEquals("value99", cache.getString("key", null));
+            assertEquals(Integer.valueOf(7), cache.get("number", ValueCodecs.INTEGER, null));
+            assertFalse(cache.contains("removed"));
+            assertNull(disk.getString("key", null));
+
+            disk.gate.countDown();
+            cache.flush();
+            assertEquals(0, cache.getQueueSize());
+            assertEquals("value99", disk.getString("key", null));
+            assertEquals(Integer.valueOf(7), disk.get("number", ValueCodecs.INTEGER, null));
+            assertFalse(disk.contains("removed"));
+            assertTrue("writes: " + disk.writes, disk.writes.get() <= 4);
+        }
+    }
+
+    @Test
+    public void put_givenFullQueueAndFailBackpressure_shouldReject() throws Exception {
+        final GatedCache disk = new GatedCache(SimpleDiskLruCache.open(folder.newFolder(), 1, 1_000_000));
+        try(WriteBehindDiskLruCache cache = new WriteBehindDiskLruCache(
+                disk, 2_000, WriteBehindDiskLruCache.Backpressure.FAIL)) {
+            try{
+                for(int i = 0; i < 100; i++) {
+                    cache.put("key" + i, "value" + i);
+                }
+                fail("Expected the queue to fill up");
+            }catch(RejectedExecutionException expected) { 
+            }finally{
+                disk.gate.countDown();
+            }
+            cache.flush();
+            assertEquals("value0", disk.getString("key0", null));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.diskcache.trace;
+
+import com.bc.diskcache.CompressionCodecs;
+import com.bc.diskcache.DiskLruCacheIx;
+import com.bc.diskcache.DiskLruCacheOptions;
+import com.bc.diskcache.LogStructuredDiskLruCache;
+import com.bc.diskcache.SimpleDiskLruCache;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parse_shouldReadWhatFormatWrote() {
+        final TraceEvent event = new TraceEvent(1544486400123L, TraceEvent.Op.PUT, 42, "key with spaces");
+        final TraceEvent parsed = TraceEvent.parse(event.format());
+        assertEquals(event.getTime(), parsed.getTime());
+        assertEquals(TraceEvent.Op.PUT, parsed.getOp());
+        assertEquals(42, parsed.getSize());
+        assertEquals("key with spaces", parsed.getKey());
+    }
+
+    @Test
+    public void replay_givenRecordedTrace_shouldReportMoreHitsOnLargerCache() throws Exception {
+        final File traceFile = folder.newFile();
+        try(TraceWriter writer = new TraceWriter(traceFile);
+                DiskLruCacheIx cache = new RecordingDiskLruCache(
+                        LogStructuredDiskLruCache.open(folder.newFolder(), 1, 10_000_000), writer)) {
+            for(int i=0; i<100; i++) {
+                cache.put("key" + i, new ByteArrayInputStream(new byte[1000]));
+            }
+            for(int round=0; round<3; round++) {
+                for(int i=0; i<100; i++) {
+                    cache.getStreamEntry("key" + i, null).close();
+                }
+            }
+            cache.remove("key0");
+            assertEquals("none", cache.getString("key0", "none"));
+            assertEquals(0, writer.getDroppedCount());
+        }
+
+        final TraceReplayer.Report small;
+        try(DiskLruCacheIx cache = SimpleDiskLruCache.open(folder.newFolder(), 1, 20_000);
+                TraceReader reader = new TraceReader(traceFile)) {
+            small = new TraceReplayer(cache).replay(reader);
+        }
+        final TraceReplayer.Report large;
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000);
+                TraceReader reader = new TraceReader(traceFile)) {
+            large = new TraceReplayer(cache).replay(reader);
+        }
+
+        assertEquals(402, large.getEventCount());
+        assertEquals(300, large.getHitCount());
+        assertEquals(1, large.getMissCount());
+        assertEquals(0, large.getCapacityMissCount());
+        assertEquals(1, large.getRemoveCount());
+        assertEquals(402, small.getEventCount());
+        assertTrue(small.getCapacityMissCount() > 0);
+        // Its DiskLruCache evicts unseen
+        assertEquals(-1, small.getEvictionCount());
+        assertEquals(0, large.getEvictionCount());
+        assertTrue(small.getHitRatio() < large.getHitRatio());
+        assertTrue(large.getSize() >= 99 * 1000);
+    }
+
+    @Test
+    public void replay_givenCompressingCache_shouldStoreRecordedSizes() throws Exception {
+        final String trace = "1000 PUT 100000 a\n" + 
+                "1000 GET -1 b\n";
+        final TraceReplayer.Report report;
+        final DiskLruCacheOptions options = new DiskLruCacheOptions()
+                .setCompressionCodec(CompressionCodecs.DEFLATE);
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000, options);
+                TraceReader reader = new TraceReader(new StringReader(trace))) {
+            report = new TraceReplayer(cache).setFillOnMiss(true).replay(reader);
+        }
+        assertEquals(1, report.getMissCount());
+        assertTrue(report.getSize() >= 100_000 + TraceReplayer.DEFAULT_VALUE_SIZE);
+    }
+
+    @Test
+    public void replay_givenSpeed_shouldKeepToRecordedRate() throws Exception {
+        final String trace = "# two gets 200ms apart\n" + 
+                "1000 PUT 10 a\n" + 
+                "1000 GET -1 a\n" + 
+                "\n" + 
+                "1200 GET -1 a\n";
+        final TraceReplayer.Report report;
+        try(DiskLruCacheIx cache = LogStructuredDiskLruCache.open(folder.newFolder(), 1, 1_000_000);
+                TraceReader reader = new TraceReader(new StringReader(trace))) {
+            report = new TraceReplayer(cache).setSpeed(2).replay(reader);
+        }
+        assertEquals(3, report.getEventCount());
+        assertEquals(2, report.getHitCount());
+        assertTrue(report.getElapsedNanos() >= 100_000_000L);
+    }
+}